@@ -7,13 +7,13 @@ import java.util.function.IntConsumer;
 
 import org.janelia.saalfeldlab.control.ButtonControl;
 import org.janelia.saalfeldlab.control.VPotControl;
+import org.janelia.saalfeldlab.n5.bdv.tools.render.AdaptiveInterpolation;
 
 import bdv.viewer.AbstractViewerPanel.AlignPlane;
 import bdv.viewer.Interpolation;
 import bdv.viewer.SynchronizedViewerState;
 import bdv.viewer.ViewerFrame;
 import bdv.viewer.ViewerPanel;
-import net.imglib2.realtransform.AffineTransform3D;
 
 /**
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
@@ -28,9 +28,31 @@ public class MCUBDVControls {
 
 	private final ViewerPanel viewerPanel;
 
+	/**
+	 * Navigation from all V-Pots is applied once per frame.
+	 */
+	private final ViewerTransformAccumulator accumulator;
+
 	public MCUBDVControls(final ViewerPanel viewer, final MCUControlPanel panel) {
 
+		this(viewer, panel, null);
+	}
+
+	/**
+	 * @param viewer
+	 *            the viewer
+	 * @param panel
+	 *            the control panel
+	 * @param adaptiveInterpolation
+	 *            switched by button 1, may be null
+	 */
+	public MCUBDVControls(
+			final ViewerPanel viewer,
+			final MCUControlPanel panel,
+			final AdaptiveInterpolation adaptiveInterpolation) {
+
 		this.viewerPanel = viewer;
+		accumulator = new ViewerTransformAccumulator(viewer);
 
 		/* add handlers */
 		VPotControl control = panel.getVPotControl(0);
@@ -79,6 +101,17 @@ public class MCUBDVControls {
 		key.setToggle(true);
 		key.addListener(new InterpolationSwitcher());
 
+		if (adaptiveInterpolation != null) {
+			final ButtonControl adaptiveKey = panel.getButtonControl(1);
+			adaptiveKey.setToggle(true);
+			adaptiveKey.addListener(i -> adaptiveInterpolation.setEnabled(i != 0));
+			/* keep the LED in sync when switched from the menu or keyboard */
+			adaptiveInterpolation.addListener(enabled -> {
+				if ((adaptiveKey.getValue() != 0) != enabled)
+					adaptiveKey.setValue(enabled ? 127 : 0);
+			});
+		}
+
 		key = panel.getButtonControl(18);
 		key.setToggle(false);
 		key.addListener(i -> {
@@ -115,23 +148,7 @@ public class MCUBDVControls {
 		@Override
 		public void accept(final int value) {
 
-			final SynchronizedViewerState state = viewerPanel.state();
-			final AffineTransform3D viewerTransform = state.getViewerTransform();
-
-			// center shift
-			final double cX = 0.5 * viewerPanel.getWidth();
-			final double cY = 0.5 * viewerPanel.getHeight();
-			viewerTransform.set(viewerTransform.get(0, 3) - cX, 0, 3);
-			viewerTransform.set(viewerTransform.get(1, 3) - cY, 1, 3);
-
-			// rotate
-			viewerTransform.rotate(axis, value * step);
-
-			// center un-shift
-			viewerTransform.set(viewerTransform.get(0, 3) + cX, 0, 3);
-			viewerTransform.set(viewerTransform.get(1, 3) + cY, 1, 3);
-
-			state.setViewerTransform(viewerTransform);
+			accumulator.addRotation(axis, value * step);
 		}
 	}
 
@@ -147,12 +164,7 @@ public class MCUBDVControls {
 		@Override
 		public void accept(final int value) {
 
-			final SynchronizedViewerState state = viewerPanel.state();
-			final AffineTransform3D viewerTransform = state.getViewerTransform();
-
-			viewerTransform.set(viewerTransform.get(axis, 3) + value, axis, 3);
-
-			state.setViewerTransform(viewerTransform);
+			accumulator.addShift(axis, value);
 		}
 	}
 
@@ -161,24 +173,7 @@ public class MCUBDVControls {
 		@Override
 		public void accept(final int value) {
 
-			final SynchronizedViewerState state = viewerPanel.state();
-			final AffineTransform3D viewerTransform = state.getViewerTransform();
-
-			// center shift
-			final double cX = 0.5 * viewerPanel.getWidth();
-			final double cY = 0.5 * viewerPanel.getHeight();
-			viewerTransform.set(viewerTransform.get(0, 3) - cX, 0, 3);
-			viewerTransform.set(viewerTransform.get(1, 3) - cY, 1, 3);
-
-			// rotate
-			final double dScale = 1.0 + 0.05;
-			viewerTransform.scale(Math.pow(dScale, value));
-
-			// center un-shift
-			viewerTransform.set(viewerTransform.get(0, 3) + cX, 0, 3);
-			viewerTransform.set(viewerTransform.get(1, 3) + cY, 1, 3);
-
-			state.setViewerTransform(viewerTransform);
+			accumulator.addZoom(value);
 		}
 	}
 
@@ -5,10 +5,6 @@ package org.janelia.saalfeldlab.control.mcu;
 
 import java.util.function.IntConsumer;
 
-import javax.sound.midi.InvalidMidiDataException;
-import javax.sound.midi.Receiver;
-import javax.sound.midi.ShortMessage;
-
 import org.janelia.saalfeldlab.control.ButtonControl;
 
 /**
@@ -23,31 +19,18 @@ public class MCUButtonControl extends MCUControl implements ButtonControl {
 
 	private boolean isSwitch = false;
 
-	private final Receiver rec;
-
-	private final ShortMessage ledMsg = new ShortMessage();
+	private final MCUOutputScheduler output;
 
-	public MCUButtonControl(final int led, final Receiver rec) {
+	public MCUButtonControl(final int led, final MCUOutputScheduler output) {
 
 		this.led = led;
-		this.rec = rec;
-	}
-
-	private void send(final ShortMessage msg) throws InvalidMidiDataException {
-
-		rec.send(msg, System.currentTimeMillis());
+		this.output = output;
 	}
 
 	public void display() {
 
-		if (led > 0) {
-			try {
-				ledMsg.setMessage(STATUS, led, value);
-				send(ledMsg);
-			} catch (final InvalidMidiDataException e) {
-				e.printStackTrace();
-			}
-		}
+		if (led > 0)
+			output.post(STATUS, led, value);
 	}
 
 	@Override
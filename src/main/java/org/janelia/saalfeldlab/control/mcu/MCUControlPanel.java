@@ -22,10 +22,17 @@ public abstract class MCUControlPanel implements Receiver {
 	private Transmitter trans = null;
 	private Receiver rec = null;
 
+	/* all output to the device goes through this */
+	protected final MCUOutputScheduler output;
+
+	/* optional receiver of a copy of all input, e.g. an MCURecorder */
+	private volatile Receiver recorder = null;
+
 	public MCUControlPanel(final Transmitter trans, final Receiver rec) {
 
 		this.trans = trans;
 		this.rec = rec;
+		output = new MCUOutputScheduler(rec);
 		trans.setReceiver(this);
 	}
 
@@ -49,7 +56,7 @@ public abstract class MCUControlPanel implements Receiver {
 
 	protected void send(final ShortMessage msg) throws InvalidMidiDataException {
 
-		rec.send(msg, System.currentTimeMillis());
+		output.post(msg.getStatus(), msg.getData1(), msg.getData2());
 	}
 
 	protected void send(final byte status, final byte data1, final byte data2) throws InvalidMidiDataException {
@@ -62,9 +69,25 @@ public abstract class MCUControlPanel implements Receiver {
 		send((byte)status, (byte)data1, (byte)data2);
 	}
 
+	/**
+	 * Set a receiver that gets a copy of all input from the device, e.g. an
+	 * {@link MCURecorder}.
+	 *
+	 * @param recorder
+	 *            the receiver or null to stop recording
+	 */
+	public void setRecorder(final Receiver recorder) {
+
+		this.recorder = recorder;
+	}
+
 	@Override
 	public void send(final MidiMessage msg, final long timeStamp) {
 
+		final Receiver recorder = this.recorder;
+		if (recorder != null)
+			recorder.send(msg, timeStamp);
+
 //		System.out.println(timeStamp);
 		final byte[] bytes = msg.getMessage();
 //		System.out.println("received : " + String.format("%02x %02x %02x", bytes[0], bytes[1], bytes[2]));
@@ -106,6 +129,7 @@ public abstract class MCUControlPanel implements Receiver {
 	@Override
 	public void close() {
 
+		output.close();
 		trans.close();
 		rec.close();
 	}
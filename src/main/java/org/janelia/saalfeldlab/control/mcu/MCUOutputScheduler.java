@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package org.janelia.saalfeldlab.control.mcu;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Sends all output of an {@link MCUControlPanel} to the device from one
+ * thread.
+ *
+ * Messages are posted without waiting for the device. Pending messages for
+ * the same target (status and first data byte, e.g. one LED ring) are
+ * coalesced so that only the latest one is sent, and all pending messages are
+ * sent as one batch. Delayed messages, e.g. resetting a relative V-Pot's LED
+ * ring, are dropped when a newer message for the same target is posted.
+ */
+public class MCUOutputScheduler {
+
+	private final Receiver rec;
+
+	private final ScheduledExecutorService exec;
+
+	/* latest pending message per target, in order of first posting */
+	private final LinkedHashMap<Integer, int[]> pending = new LinkedHashMap<>();
+
+	private final Map<Integer, ScheduledFuture<?>> delayed = new HashMap<>();
+
+	private boolean flushScheduled = false;
+
+	public MCUOutputScheduler(final Receiver rec) {
+
+		this.rec = rec;
+
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+			final Thread thread = new Thread(r, "mcu-output");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		exec = executor;
+	}
+
+	private static int target(final int status, final int data1) {
+
+		return (status << 8) | data1;
+	}
+
+	/**
+	 * Post a message to be sent as soon as possible. Replaces pending and
+	 * delayed messages for the same target.
+	 *
+	 * @param status
+	 *            the status byte
+	 * @param data1
+	 *            the first data byte
+	 * @param data2
+	 *            the second data byte
+	 */
+	public synchronized void post(final int status, final int data1, final int data2) {
+
+		if (exec.isShutdown())
+			return;
+
+		final int target = target(status, data1);
+		final ScheduledFuture<?> task = delayed.remove(target);
+		if (task != null)
+			task.cancel(false);
+
+		pending.put(target, new int[]{status, data1, data2});
+		if (!flushScheduled) {
+			flushScheduled = true;
+			exec.execute(this::flush);
+		}
+	}
+
+	/**
+	 * Post a message to be sent after a delay unless a newer message for the
+	 * same target is posted before.
+	 *
+	 * @param status
+	 *            the status byte
+	 * @param data1
+	 *            the first data byte
+	 * @param data2
+	 *            the second data byte
+	 * @param delayMillis
+	 *            the delay in milliseconds
+	 */
+	public synchronized void postDelayed(final int status, final int data1, final int data2, final long delayMillis) {
+
+		if (exec.isShutdown())
+			return;
+
+		final int target = target(status, data1);
+		final ScheduledFuture<?> previous = delayed.remove(target);
+		if (previous != null)
+			previous.cancel(false);
+
+		final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+		self[0] = exec.schedule(() -> {
+			synchronized (this) {
+				// a newer message replaced this one
+				if (delayed.get(target) != self[0])
+					return;
+
+				delayed.remove(target);
+			}
+			post(status, data1, data2);
+		}, delayMillis, TimeUnit.MILLISECONDS);
+		delayed.put(target, self[0]);
+	}
+
+	private void flush() {
+
+		final List<int[]> batch;
+		synchronized (this) {
+			batch = new ArrayList<>(pending.values());
+			pending.clear();
+			flushScheduled = false;
+		}
+
+		final long timeStamp = System.currentTimeMillis();
+		for (final int[] msg : batch) {
+			try {
+				rec.send(new ShortMessage(msg[0], msg[1], msg[2]), timeStamp);
+			} catch (final InvalidMidiDataException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Send what is pending and stop the output thread. Delayed messages are
+	 * dropped.
+	 */
+	public void close() {
+
+		synchronized (this) {
+			for (final ScheduledFuture<?> task : delayed.values())
+				task.cancel(false);
+
+			delayed.clear();
+			exec.shutdown();
+		}
+		try {
+			exec.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package org.janelia.saalfeldlab.control.mcu;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Records the {@link ShortMessage}s received by an {@link MCUControlPanel}
+ * into an {@link MCURecording}. Device timestamps are not reliable (often
+ * -1), so messages are timestamped on arrival relative to the first one.
+ */
+public class MCURecorder implements Receiver {
+
+	private final MCURecording recording;
+
+	private long startNanos = -1;
+
+	public MCURecorder(final MCURecording recording) {
+
+		this.recording = recording;
+	}
+
+	public MCURecorder() {
+
+		this(new MCURecording());
+	}
+
+	public MCURecording getRecording() {
+
+		return recording;
+	}
+
+	/**
+	 * Called when the first message arrives, e.g. to store the state of the
+	 * viewer at the start of the recording.
+	 */
+	protected void started() {}
+
+	@Override
+	public synchronized void send(final MidiMessage msg, final long timeStamp) {
+
+		if (!(msg instanceof ShortMessage))
+			return;
+
+		final long now = System.nanoTime();
+		if (startNanos < 0) {
+			startNanos = now;
+			started();
+		}
+
+		final ShortMessage sm = (ShortMessage)msg;
+		recording.add(new MCURecording.Event(
+				(now - startNanos) / 1000,
+				sm.getStatus(),
+				sm.getData1(),
+				sm.getData2()));
+	}
+
+	@Override
+	public void close() {}
+}
@@ -0,0 +1,145 @@
+/**
+ *
+ */
+package org.janelia.saalfeldlab.control.mcu;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A recorded MIDI session: timestamped {@link javax.sound.midi.ShortMessage}s
+ * and a few free form properties, e.g. the viewer transform at the start of
+ * the recording.
+ *
+ * The text format has one message per line
+ * <pre>
+ * time status data1 data2
+ * </pre>
+ * with the time in microseconds since the start of the recording. Properties
+ * are stored as comment lines
+ * <pre>
+ * # key=value
+ * </pre>
+ */
+public class MCURecording {
+
+	/**
+	 * Property key for the row packed viewer transform at the start of the
+	 * recording.
+	 */
+	public static final String VIEWER_TRANSFORM_KEY = "viewerTransform";
+
+	/**
+	 * Property keys for the size of the viewer display.
+	 */
+	public static final String WIDTH_KEY = "width";
+	public static final String HEIGHT_KEY = "height";
+
+	public static class Event {
+
+		public final long micros;
+		public final int status;
+		public final int data1;
+		public final int data2;
+
+		public Event(final long micros, final int status, final int data1, final int data2) {
+
+			this.micros = micros;
+			this.status = status;
+			this.data1 = data1;
+			this.data2 = data2;
+		}
+	}
+
+	private final Map<String, String> properties = new LinkedHashMap<>();
+
+	private final List<Event> events = new ArrayList<>();
+
+	public synchronized void add(final Event event) {
+
+		events.add(event);
+	}
+
+	public synchronized List<Event> getEvents() {
+
+		return Collections.unmodifiableList(new ArrayList<>(events));
+	}
+
+	public synchronized void setProperty(final String key, final String value) {
+
+		properties.put(key, value);
+	}
+
+	public synchronized String getProperty(final String key) {
+
+		return properties.get(key);
+	}
+
+	/**
+	 * @return the time of the last event in microseconds
+	 */
+	public synchronized long getDuration() {
+
+		return events.isEmpty() ? 0 : events.get(events.size() - 1).micros;
+	}
+
+	public synchronized void save(final String path) throws IOException {
+
+		try (final BufferedWriter writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+			for (final Map.Entry<String, String> entry : properties.entrySet()) {
+				writer.write("# " + entry.getKey() + "=" + entry.getValue());
+				writer.newLine();
+			}
+			for (final Event event : events) {
+				writer.write(event.micros + " " + event.status + " " + event.data1 + " " + event.data2);
+				writer.newLine();
+			}
+		}
+	}
+
+	public static MCURecording load(final String path) throws IOException {
+
+		final MCURecording recording = new MCURecording();
+		try (final BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				++lineNumber;
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+
+				if (line.startsWith("#")) {
+					final int eq = line.indexOf('=');
+					if (eq > 0)
+						recording.setProperty(line.substring(1, eq).trim(), line.substring(eq + 1).trim());
+					continue;
+				}
+
+				final String[] fields = line.split("\\s+");
+				if (fields.length != 4)
+					throw new IOException("Invalid event in line " + lineNumber + ": " + line);
+
+				try {
+					recording.add(new Event(
+							Long.parseLong(fields[0]),
+							Integer.parseInt(fields[1]),
+							Integer.parseInt(fields[2]),
+							Integer.parseInt(fields[3])));
+				} catch (final NumberFormatException e) {
+					throw new IOException("Invalid event in line " + lineNumber + ": " + line, e);
+				}
+			}
+		}
+		return recording;
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package org.janelia.saalfeldlab.control.mcu;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Transmitter;
+
+/**
+ * Replays an {@link MCURecording} into a {@link Receiver}, usually an
+ * {@link MCUControlPanel} built with an {@link OfflineTransmitter} and an
+ * {@link OfflineReceiver} so that no device is needed.
+ */
+public class MCUReplayer {
+
+	/**
+	 * A {@link Transmitter} that is not connected to a device.
+	 */
+	public static class OfflineTransmitter implements Transmitter {
+
+		private Receiver receiver;
+
+		@Override
+		public void setReceiver(final Receiver receiver) {
+
+			this.receiver = receiver;
+		}
+
+		@Override
+		public Receiver getReceiver() {
+
+			return receiver;
+		}
+
+		@Override
+		public void close() {}
+	}
+
+	/**
+	 * A {@link Receiver} that is not connected to a device. Counts the
+	 * messages sent to it.
+	 */
+	public static class OfflineReceiver implements Receiver {
+
+		private final AtomicLong count = new AtomicLong();
+
+		@Override
+		public void send(final MidiMessage message, final long timeStamp) {
+
+			count.incrementAndGet();
+		}
+
+		public long getCount() {
+
+			return count.get();
+		}
+
+		@Override
+		public void close() {}
+	}
+
+	/**
+	 * Sends the events of a recording to a receiver at their recorded times.
+	 * Blocks until all events are sent.
+	 *
+	 * @param recording
+	 *            the recording
+	 * @param target
+	 *            the receiver
+	 * @param speed
+	 *            playback speed, 1 replays in real time
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public static void replay(
+			final MCURecording recording,
+			final Receiver target,
+			final double speed) throws InterruptedException {
+
+		final long startNanos = System.nanoTime();
+		for (final MCURecording.Event event : recording.getEvents()) {
+			final long dueNanos = startNanos + (long)(event.micros * 1000 / speed);
+			final long waitNanos = dueNanos - System.nanoTime();
+			if (waitNanos > 0)
+				Thread.sleep(waitNanos / 1000000, (int)(waitNanos % 1000000));
+
+			try {
+				target.send(new ShortMessage(event.status, event.data1, event.data2), -1);
+			} catch (final InvalidMidiDataException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -3,15 +3,8 @@
  */
 package org.janelia.saalfeldlab.control.mcu;
 
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.function.IntConsumer;
 
-import javax.sound.midi.InvalidMidiDataException;
-import javax.sound.midi.Receiver;
-import javax.sound.midi.ShortMessage;
-
 import org.janelia.saalfeldlab.control.VPotControl;
 
 /**
@@ -37,30 +30,22 @@ public class MCUVPotControl extends MCUControl implements VPotControl {
 
 	private boolean absolute = true;
 
-	private final Receiver rec;
-
-	private final ShortMessage ledMsg = new ShortMessage();
+	/* delay of the relative reset of the led ring display */
+	private static final long RESET_DELAY = 200;
 
-	/* for delayed relative reset of led ring display */
-	private final ScheduledThreadPoolExecutor resetExec = new ScheduledThreadPoolExecutor(1);
-	private Future<?> resetTask;
+	private final MCUOutputScheduler output;
 
 	/**
 	 *
 	 * @param led
 	 *            LED display MIDI id associated with this V-Pot
-	 * @param rec
-	 *            MIDI receiver for LED display
+	 * @param output
+	 *            MIDI output for LED display
 	 */
-	public MCUVPotControl(final int led, final Receiver rec) {
+	public MCUVPotControl(final int led, final MCUOutputScheduler output) {
 
 		this.led = led;
-		this.rec = rec;
-	}
-
-	private void send(final ShortMessage msg) throws InvalidMidiDataException {
-
-		rec.send(msg, System.currentTimeMillis());
+		this.output = output;
 	}
 
 	public void display() {
@@ -82,12 +67,7 @@ public class MCUVPotControl extends MCUControl implements VPotControl {
 				default:
 					j = Math.max(1, Math.min(0xb, (int)Math.floor((double)0xb * (value - min) / n) + 1));
 				}
-			try {
-				ledMsg.setMessage(STATUS, led, ledCode | j);
-				send(ledMsg);
-			} catch (final InvalidMidiDataException e) {
-				e.printStackTrace();
-			}
+			output.post(STATUS, led, ledCode | j);
 		} else {
 			final int k;
 			if (listeners.size() == 0) {
@@ -107,27 +87,9 @@ public class MCUVPotControl extends MCUControl implements VPotControl {
 					j = Math.max(1, Math.min(0xb, (int)Math.floor((double)0xb * (value + 7) / 14) + 1));
 					k = 6;
 				}
-			try {
-				if (resetTask != null)
-					resetTask.cancel(false);
-				resetExec.purge();
-
-				ledMsg.setMessage(STATUS, led, ledCode | j);
-				send(ledMsg);
-
-				resetTask = resetExec.schedule(() -> {
-					try {
-						ledMsg.setMessage(STATUS, led, ledCode | k);
-						send(ledMsg);
-						resetTask = null;
-					} catch (final InvalidMidiDataException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				}, 200, TimeUnit.MILLISECONDS);
-			} catch (final InvalidMidiDataException e) {
-				e.printStackTrace();
-			}
+
+			output.post(STATUS, led, ledCode | j);
+			output.postDelayed(STATUS, led, ledCode | k, RESET_DELAY);
 		}
 	}
 
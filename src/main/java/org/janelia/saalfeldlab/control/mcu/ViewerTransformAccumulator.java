@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package org.janelia.saalfeldlab.control.mcu;
+
+import javax.swing.Timer;
+
+import bdv.viewer.SynchronizedViewerState;
+import bdv.viewer.ViewerPanel;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Collects navigation deltas from any number of controls and applies their
+ * sum to the viewer transform once per display frame. Controls can produce
+ * dozens of events per frame; setting the viewer transform for each of them
+ * would cancel and restart rendering every time.
+ *
+ * Deltas are added from any thread, the transform is updated on the event
+ * dispatch thread. Within one frame, shifts are applied first, then
+ * rotations about the screen center in axis order, then zoom about the
+ * screen center.
+ */
+public class ViewerTransformAccumulator {
+
+	/**
+	 * Default frame interval in milliseconds (~60 Hz).
+	 */
+	public static final int DEFAULT_FRAME_MILLIS = 16;
+
+	private final ViewerPanel viewerPanel;
+
+	private final Timer timer;
+
+	private final double[] shift = new double[3];
+
+	private final double[] rotation = new double[3];
+
+	private double zoomSteps = 0;
+
+	private boolean pending = false;
+
+	public ViewerTransformAccumulator(final ViewerPanel viewerPanel, final int frameMillis) {
+
+		this.viewerPanel = viewerPanel;
+		timer = new Timer(frameMillis, e -> apply());
+		timer.setRepeats(false);
+	}
+
+	public ViewerTransformAccumulator(final ViewerPanel viewerPanel) {
+
+		this(viewerPanel, DEFAULT_FRAME_MILLIS);
+	}
+
+	/**
+	 * Shift along a screen axis.
+	 *
+	 * @param axis
+	 *            the axis
+	 * @param delta
+	 *            the shift in screen pixels
+	 */
+	public synchronized void addShift(final int axis, final double delta) {
+
+		shift[axis] += delta;
+		schedule();
+	}
+
+	/**
+	 * Rotate about a screen axis through the screen center.
+	 *
+	 * @param axis
+	 *            the axis
+	 * @param angle
+	 *            the angle in radians
+	 */
+	public synchronized void addRotation(final int axis, final double angle) {
+
+		rotation[axis] += angle;
+		schedule();
+	}
+
+	/**
+	 * Zoom about the screen center.
+	 *
+	 * @param steps
+	 *            the zoom steps, the scale changes by 5% per step
+	 */
+	public synchronized void addZoom(final double steps) {
+
+		zoomSteps += steps;
+		schedule();
+	}
+
+	private void schedule() {
+
+		if (!pending) {
+			pending = true;
+			timer.restart();
+		}
+	}
+
+	private void apply() {
+
+		final double[] frameShift;
+		final double[] frameRotation;
+		final double frameZoomSteps;
+		synchronized (this) {
+			frameShift = shift.clone();
+			frameRotation = rotation.clone();
+			frameZoomSteps = zoomSteps;
+			for (int d = 0; d < 3; d++) {
+				shift[d] = 0;
+				rotation[d] = 0;
+			}
+			zoomSteps = 0;
+			pending = false;
+		}
+
+		final SynchronizedViewerState state = viewerPanel.state();
+		final AffineTransform3D viewerTransform = state.getViewerTransform();
+
+		// shift
+		for (int d = 0; d < 3; d++)
+			viewerTransform.set(viewerTransform.get(d, 3) + frameShift[d], d, 3);
+
+		// center shift
+		final double cX = 0.5 * viewerPanel.getWidth();
+		final double cY = 0.5 * viewerPanel.getHeight();
+		viewerTransform.set(viewerTransform.get(0, 3) - cX, 0, 3);
+		viewerTransform.set(viewerTransform.get(1, 3) - cY, 1, 3);
+
+		// rotate
+		for (int d = 0; d < 3; d++)
+			if (frameRotation[d] != 0)
+				viewerTransform.rotate(d, frameRotation[d]);
+
+		// zoom
+		if (frameZoomSteps != 0)
+			viewerTransform.scale(Math.pow(1.0 + 0.05, frameZoomSteps));
+
+		// center un-shift
+		viewerTransform.set(viewerTransform.get(0, 3) + cX, 0, 3);
+		viewerTransform.set(viewerTransform.get(1, 3) + cY, 1, 3);
+
+		state.setViewerTransform(viewerTransform);
+	}
+}
@@ -65,10 +65,10 @@ public class XTouchMiniMCUControlPanel extends MCUControlPanel {
 		super(trans, rec);
 
 		for (int i = 0; i < vpots.length; ++i)
-			vpots[i] = new MCUVPotControl(vpotLedIds[i], rec);
+			vpots[i] = new MCUVPotControl(vpotLedIds[i], output);
 
 		for (int i = 0; i < keys.length; ++i)
-			keys[i] = new MCUButtonControl(keyLedIds[i], rec);
+			keys[i] = new MCUButtonControl(keyLedIds[i], output);
 	}
 
 	@Override
@@ -190,6 +190,25 @@ public class XTouchMiniMCUControlPanel extends MCUControlPanel {
 		}
 	}
 
+	/**
+	 * Build a panel that is not connected to a device, e.g. to replay an
+	 * {@link MCURecording} into it.
+	 *
+	 * @return the panel
+	 * @throws InterruptedException
+	 *             if interrupted
+	 * @throws InvalidMidiDataException
+	 *             if midi data are invalid
+	 */
+	public static XTouchMiniMCUControlPanel buildOffline() throws InvalidMidiDataException, InterruptedException {
+
+		final XTouchMiniMCUControlPanel panel = new XTouchMiniMCUControlPanel(
+				new MCUReplayer.OfflineTransmitter(),
+				new MCUReplayer.OfflineReceiver());
+		panel.reset();
+		return panel;
+	}
+
 	public static XTouchMiniMCUControlPanel build() throws InvalidMidiDataException, MidiUnavailableException, InterruptedException {
 
 		return build(DEFAULT_DEVICE_DESCRIPTION);
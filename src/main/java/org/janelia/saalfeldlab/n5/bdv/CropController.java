@@ -219,7 +219,7 @@ public class CropController<T extends NumericType<T> & NativeType<T>> {
 			if (customCenterPoint)
 				lastClick.setPosition(centerPoint);
 
-			final int timepoint = 1;
+			final int timepoint = viewer.state().getCurrentTimepoint();
 			AffineTransform3D firstTransform = null;
 			for (int channel = 0; channel < sources.size(); ++channel) {
 				final Source<T> source = sources.get(channel);
@@ -260,7 +260,7 @@ public class CropController<T extends NumericType<T> & NativeType<T>> {
 												Arrays.toString(min),
 												s));
 
-				final RandomAccessibleInterval<T> img = source.getSource(0, s);
+				final RandomAccessibleInterval<T> img = source.getSource(timepoint, s);
 				final RandomAccessible<T> imgExtended = Views.extendZero(img);
 				final IntervalView<T> crop = Views.offsetInterval(imgExtended, min, size);
 
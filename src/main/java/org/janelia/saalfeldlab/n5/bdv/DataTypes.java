@@ -0,0 +1,60 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import org.janelia.saalfeldlab.n5.DataType;
+
+/**
+ * Sizes of N5 {@link DataType}s, shared by the viewer's caches, readers and
+ * exporters.
+ */
+public class DataTypes {
+
+	private DataTypes() {}
+
+	/**
+	 * Returns the number of bytes of one element of {@code dataType} when
+	 * decoded, 1 for types without a fixed size.
+	 *
+	 * @param dataType
+	 *            the data type
+	 * @return the number of bytes per element
+	 */
+	public static int bytesPerElement(final DataType dataType) {
+
+		switch (dataType) {
+		case UINT16:
+		case INT16:
+			return 2;
+		case UINT32:
+		case INT32:
+		case FLOAT32:
+			return 4;
+		case UINT64:
+		case INT64:
+		case FLOAT64:
+			return 8;
+		default:
+			return 1;
+		}
+	}
+}
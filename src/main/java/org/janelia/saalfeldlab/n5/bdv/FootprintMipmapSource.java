@@ -0,0 +1,199 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import bdv.viewer.render.MipmapOrdering;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Selects the mipmap level to render by the screen footprint of a voxel
+ * along each of its axes.
+ * <p>
+ * BigDataViewer selects the coarsest level whose largest voxel axis covers
+ * at most one screen pixel. For anisotropic data, e.g. 4&times;4&times;40 nm
+ * with the first levels downsampled only in x and y, the z axis of a slice
+ * through xz covers many pixels at every level, so level 0 is loaded even
+ * when x is sampled far finer than the screen. Here, each axis may cover at
+ * most one screen pixel, or as many as it covers at level 0 if that is more,
+ * because no level can be finer than that. Of the levels that qualify, the
+ * coarsest is rendered first, followed by the coarser ones.
+ *
+ * @param <T>
+ *            the type
+ */
+public class FootprintMipmapSource<T> implements Source<T>, MipmapOrdering {
+
+	/* tolerance for rounding errors of the transforms */
+	private static final double TOLERANCE = 1.01;
+
+	private final Source<T> source;
+
+	public FootprintMipmapSource(final Source<T> source) {
+
+		this.source = source;
+	}
+
+	/**
+	 * @param screenTransform
+	 *            transforms global coordinates to screen coordinates
+	 * @param source
+	 *            the source
+	 * @param t
+	 *            the timepoint
+	 * @param level
+	 *            the mipmap level
+	 * @return the length on screen of one voxel step along each source axis
+	 */
+	public static double[] getVoxelScreenFootprint(
+			final AffineTransform3D screenTransform,
+			final Source<?> source,
+			final int t,
+			final int level) {
+
+		final AffineTransform3D sourceToScreen = new AffineTransform3D();
+		source.getSourceTransform(t, level, sourceToScreen);
+		sourceToScreen.preConcatenate(screenTransform);
+
+		final double[] footprint = new double[3];
+		for (int d = 0; d < 3; ++d) {
+			final double x = sourceToScreen.get(0, d);
+			final double y = sourceToScreen.get(1, d);
+			footprint[d] = Math.sqrt(x * x + y * y);
+		}
+		return footprint;
+	}
+
+	/**
+	 * @param screenTransform
+	 *            transforms global coordinates to screen coordinates
+	 * @param source
+	 *            the source, levels sorted from fine to coarse
+	 * @param t
+	 *            the timepoint
+	 * @return the coarsest level that does not undersample any axis
+	 */
+	public static int getBestMipMapLevel(
+			final AffineTransform3D screenTransform,
+			final Source<?> source,
+			final int t) {
+
+		final double[] finest = getVoxelScreenFootprint(screenTransform, source, t, 0);
+		final double[] maxFootprint = new double[3];
+		for (int d = 0; d < 3; ++d)
+			maxFootprint[d] = Math.max(1, finest[d]) * TOLERANCE;
+
+		int best = 0;
+		for (int level = 1; level < source.getNumMipmapLevels(); ++level) {
+			final double[] footprint = getVoxelScreenFootprint(screenTransform, source, t, level);
+			boolean undersampled = false;
+			for (int d = 0; d < 3; ++d)
+				undersampled |= footprint[d] > maxFootprint[d];
+			if (!undersampled)
+				best = level;
+		}
+		return best;
+	}
+
+	@Override
+	public MipmapHints getMipmapHints(
+			final AffineTransform3D screenTransform,
+			final int timepoint,
+			final int previousTimepoint) {
+
+		final int bestLevel = getBestMipMapLevel(screenTransform, source, timepoint);
+		final int maxLevel = source.getNumMipmapLevels() - 1;
+		final List<Level> levels = new ArrayList<>();
+		for (int level = bestLevel; level <= maxLevel; ++level)
+			levels.add(new Level(level, maxLevel - level, level - bestLevel));
+		for (int level = bestLevel - 1; level >= 0; --level)
+			levels.add(new Level(level, -1, -1));
+
+		return new MipmapHints(levels, false);
+	}
+
+	public Source<T> getWrappedSource() {
+
+		return source;
+	}
+
+	@Override
+	public boolean isPresent(final int t) {
+
+		return source.isPresent(t);
+	}
+
+	@Override
+	public RandomAccessibleInterval<T> getSource(final int t, final int level) {
+
+		return source.getSource(t, level);
+	}
+
+	@Override
+	public RealRandomAccessible<T> getInterpolatedSource(final int t, final int level, final Interpolation method) {
+
+		return source.getInterpolatedSource(t, level, method);
+	}
+
+	@Override
+	public void getSourceTransform(final int t, final int level, final AffineTransform3D transform) {
+
+		source.getSourceTransform(t, level, transform);
+	}
+
+	@Override
+	public T getType() {
+
+		return source.getType();
+	}
+
+	@Override
+	public String getName() {
+
+		return source.getName();
+	}
+
+	@Override
+	public VoxelDimensions getVoxelDimensions() {
+
+		return source.getVoxelDimensions();
+	}
+
+	@Override
+	public int getNumMipmapLevels() {
+
+		return source.getNumMipmapLevels();
+	}
+
+	@Override
+	public boolean doBoundingBoxCulling() {
+
+		return source.doBoundingBoxCulling();
+	}
+}
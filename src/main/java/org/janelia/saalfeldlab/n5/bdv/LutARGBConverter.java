@@ -0,0 +1,216 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import net.imglib2.converter.Converter;
+import net.imglib2.display.ColorConverter;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedByteType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+
+/**
+ * A {@link ColorConverter} for unsigned 8 and 16 bit integers that looks up
+ * the ARGB value of every possible input in a table. The table is rebuilt
+ * when the range or color changes and gives the same colors as
+ * {@link net.imglib2.display.RealARGBColorConverter}, so the converter works
+ * with the brightness and color dialogs of BigDataViewer.
+ *
+ * @param <T>
+ *            the input type
+ */
+public abstract class LutARGBConverter<T> implements ColorConverter, Converter<T, ARGBType> {
+
+	private final int size;
+
+	private double min;
+
+	private double max;
+
+	private final ARGBType color = new ARGBType(0xffffffff);
+
+	protected volatile int[] lut;
+
+	/**
+	 * @param size
+	 *            the number of possible input values
+	 * @param min
+	 *            the value mapped to black
+	 * @param max
+	 *            the value mapped to the color
+	 */
+	protected LutARGBConverter(final int size, final double min, final double max) {
+
+		this.size = size;
+		this.min = min;
+		this.max = max;
+		update();
+	}
+
+	/**
+	 * @param type
+	 *            a type
+	 * @return a converter for the type with the range of the type, or null if
+	 *         there is no lookup table converter for it
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> LutARGBConverter<T> create(final T type) {
+
+		if (type instanceof UnsignedByteType)
+			return (LutARGBConverter<T>)new UnsignedByte(0, 255);
+		else if (type instanceof VolatileUnsignedByteType)
+			return (LutARGBConverter<T>)new VolatileUnsignedByte(0, 255);
+		else if (type instanceof UnsignedShortType)
+			return (LutARGBConverter<T>)new UnsignedShort(0, 65535);
+		else if (type instanceof VolatileUnsignedShortType)
+			return (LutARGBConverter<T>)new VolatileUnsignedShort(0, 65535);
+		else
+			return null;
+	}
+
+	private synchronized void update() {
+
+		final double scale = 1.0 / (max - min);
+		final int value = color.get();
+		final int a = ARGBType.alpha(value);
+		final double scaleR = ARGBType.red(value) * scale;
+		final double scaleG = ARGBType.green(value) * scale;
+		final double scaleB = ARGBType.blue(value) * scale;
+		final int black = ARGBType.rgba(0, 0, 0, a);
+
+		final int[] table = new int[size];
+		for (int i = 0; i < size; ++i) {
+			final double v = i - min;
+			if (v < 0)
+				table[i] = black;
+			else {
+				final int r = Math.min(255, (int)(scaleR * v + 0.5));
+				final int g = Math.min(255, (int)(scaleG * v + 0.5));
+				final int b = Math.min(255, (int)(scaleB * v + 0.5));
+				table[i] = ARGBType.rgba(r, g, b, a);
+			}
+		}
+		lut = table;
+	}
+
+	@Override
+	public ARGBType getColor() {
+
+		return color.copy();
+	}
+
+	@Override
+	public void setColor(final ARGBType c) {
+
+		color.set(c);
+		update();
+	}
+
+	@Override
+	public boolean supportsColor() {
+
+		return true;
+	}
+
+	@Override
+	public double getMin() {
+
+		return min;
+	}
+
+	@Override
+	public double getMax() {
+
+		return max;
+	}
+
+	@Override
+	public void setMin(final double min) {
+
+		this.min = min;
+		update();
+	}
+
+	@Override
+	public void setMax(final double max) {
+
+		this.max = max;
+		update();
+	}
+
+	public static class UnsignedByte extends LutARGBConverter<UnsignedByteType> {
+
+		public UnsignedByte(final double min, final double max) {
+
+			super(256, min, max);
+		}
+
+		@Override
+		public void convert(final UnsignedByteType input, final ARGBType output) {
+
+			output.set(lut[input.get()]);
+		}
+	}
+
+	public static class VolatileUnsignedByte extends LutARGBConverter<VolatileUnsignedByteType> {
+
+		public VolatileUnsignedByte(final double min, final double max) {
+
+			super(256, min, max);
+		}
+
+		@Override
+		public void convert(final VolatileUnsignedByteType input, final ARGBType output) {
+
+			output.set(lut[input.get().get()]);
+		}
+	}
+
+	public static class UnsignedShort extends LutARGBConverter<UnsignedShortType> {
+
+		public UnsignedShort(final double min, final double max) {
+
+			super(65536, min, max);
+		}
+
+		@Override
+		public void convert(final UnsignedShortType input, final ARGBType output) {
+
+			output.set(lut[input.get()]);
+		}
+	}
+
+	public static class VolatileUnsignedShort extends LutARGBConverter<VolatileUnsignedShortType> {
+
+		public VolatileUnsignedShort(final double min, final double max) {
+
+			super(65536, min, max);
+		}
+
+		@Override
+		public void convert(final VolatileUnsignedShortType input, final ARGBType output) {
+
+			output.set(lut[input.get().get()]);
+		}
+	}
+}
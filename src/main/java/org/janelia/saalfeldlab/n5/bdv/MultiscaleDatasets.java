@@ -32,6 +32,7 @@ import bdv.viewer.Source;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.NumericType;
+import net.imglib2.util.LinAlgHelpers;
 import net.imglib2.util.Util;
 
 public class MultiscaleDatasets {
@@ -130,11 +131,19 @@ public class MultiscaleDatasets {
 		return new MultiscaleDatasets(scales);
 	}
 
+	/**
+	 * A scale level, ordered by the geometric mean of its voxel size, i.e.
+	 * the cube root of the voxel volume. Unlike the arithmetic mean, this
+	 * orders anisotropic levels by their number of voxels, e.g.
+	 * 4&times;4&times;160 before 16&times;16&times;40, which has fewer
+	 * voxels.
+	 */
 	public static class ScaleLevel implements Comparable<ScaleLevel> {
 
 		public final String path;
 		public final AffineTransform3D transform;
 		public final double averageScale;
+		public final double geometricMeanScale;
 
 		public ScaleLevel(final String path, final AffineTransform3D transform) {
 
@@ -143,23 +152,23 @@ public class MultiscaleDatasets {
 			averageScale = (transform.get(0, 0) +
 					transform.get(1, 1) +
 					transform.get(2, 2)) / 3;
+			geometricMeanScale = Math.cbrt(Math.abs(LinAlgHelpers.det3x3(
+					transform.get(0, 0), transform.get(0, 1), transform.get(0, 2),
+					transform.get(1, 0), transform.get(1, 1), transform.get(1, 2),
+					transform.get(2, 0), transform.get(2, 1), transform.get(2, 2))));
 		}
 
 		@Override
 		public String toString() {
 
-			return path + " (" + averageScale + ")";
+			return path + " (" + geometricMeanScale + ")";
 		}
 
 		@Override
 		public int compareTo(final ScaleLevel o) {
 
-			if (this.averageScale == o.averageScale)
-				return 0;
-			else if (this.averageScale < o.averageScale)
-				return -1;
-			else
-				return 1;
+			final int c = Double.compare(geometricMeanScale, o.geometricMeanScale);
+			return c != 0 ? c : Double.compare(averageScale, o.averageScale);
 		}
 	};
 
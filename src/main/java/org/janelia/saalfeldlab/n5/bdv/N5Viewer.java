@@ -25,6 +25,7 @@ import static bdv.BigDataViewer.createConverterToARGB;
 import static bdv.BigDataViewer.wrapWithTransformedSource;
 
 import java.awt.Frame;
+import java.awt.Window;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.WindowAdapter;
@@ -37,9 +38,14 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import javax.swing.ActionMap;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
@@ -47,10 +53,30 @@ import javax.swing.JMenuItem;
 import javax.swing.SwingUtilities;
 
 import org.janelia.saalfeldlab.control.mcu.MCUBDVControls;
+import org.janelia.saalfeldlab.control.mcu.MCURecorder;
+import org.janelia.saalfeldlab.control.mcu.MCURecording;
 import org.janelia.saalfeldlab.control.mcu.XTouchMiniMCUControlPanel;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5URI;
+import org.janelia.saalfeldlab.n5.bdv.labels.FragmentSegmentLoader;
+import org.janelia.saalfeldlab.n5.bdv.labels.LabelARGBConverter;
+import org.janelia.saalfeldlab.n5.bdv.labels.LabelHighlighter;
+import org.janelia.saalfeldlab.n5.bdv.labels.LabelMode;
+import org.janelia.saalfeldlab.n5.bdv.labels.LabelModeConverter;
+import org.janelia.saalfeldlab.n5.bdv.labels.MappedLabelSource;
+import org.janelia.saalfeldlab.n5.bdv.statistics.BlockLoadStatistics;
+import org.janelia.saalfeldlab.n5.bdv.statistics.InstrumentedLoaderCache;
+import org.janelia.saalfeldlab.n5.bdv.statistics.LimitedN5Reader;
+import org.janelia.saalfeldlab.n5.bdv.statistics.StatisticsOverlay;
+import org.janelia.saalfeldlab.n5.bdv.statistics.ViewerStatistics;
+import org.janelia.saalfeldlab.n5.bdv.tools.benchmark.SyntheticN5Reader;
 import org.janelia.saalfeldlab.n5.bdv.tools.boundingbox.BoxCrop;
+import org.janelia.saalfeldlab.n5.bdv.tools.boundingbox.CropCostEstimator;
+import org.janelia.saalfeldlab.n5.bdv.tools.contrast.AutoContrast;
+import org.janelia.saalfeldlab.n5.bdv.tools.export.BatchRoiExtractor;
+import org.janelia.saalfeldlab.n5.bdv.tools.export.MovieExporter;
+import org.janelia.saalfeldlab.n5.bdv.tools.render.AdaptiveInterpolation;
 import org.janelia.saalfeldlab.n5.ij.N5Importer.N5ViewerReaderFun;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 import org.janelia.saalfeldlab.n5.metadata.MetadataSource;
@@ -109,6 +135,7 @@ import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.Cursor;
 import net.imglib2.FinalRealInterval;
 import net.imglib2.Interval;
+import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.Volatile;
 import net.imglib2.algorithm.lazy.Lazy;
@@ -117,7 +144,9 @@ import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
 import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
 import net.imglib2.converter.Converter;
 import net.imglib2.converter.Converters;
+import net.imglib2.display.ColorConverter;
 import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
@@ -142,6 +171,20 @@ import net.imglib2.view.Views;
  */
 public class N5Viewer {
 
+	/**
+	 * Number of fetcher threads, the concurrent block reads per container
+	 * start at half the number of processors and adapt up to this limit.
+	 */
+	public static final int MAX_FETCHER_THREADS = 32;
+
+	/**
+	 * System property with the path of a file to which the MIDI controller
+	 * input is recorded when the viewer is closed.
+	 */
+	public static final String RECORD_MIDI_PROPERTY = "n5viewer.midi.record";
+
+	private static final String TOOLS_MENU = "Tools";
+
 	private int numTimepoints = 1;
 
 	private final SharedQueue sharedQueue;
@@ -158,6 +201,24 @@ public class N5Viewer {
 		return bdv.getSplitPanel();
 	}
 
+	/**
+	 * @return loading and rendering statistics of this viewer
+	 */
+	public ViewerStatistics getStatistics() {
+
+		return ViewerStatistics.of(sharedQueue);
+	}
+
+	/**
+	 * @param bdv
+	 *            a viewer created by N5Viewer
+	 * @return loading and rendering statistics of the viewer or null
+	 */
+	public static ViewerStatistics getStatistics(final BdvHandle bdv) {
+
+		return ViewerStatistics.of(bdv.getViewerPanel());
+	}
+
 	public N5Viewer(final Frame parent, final DataSelection selection) throws IOException {
 
 		this(parent, selection, true);
@@ -190,7 +251,7 @@ public class N5Viewer {
 
 		Prefs.showScaleBar(true);
 
-		this.sharedQueue = new SharedQueue(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+		this.sharedQueue = new ViewerStatistics(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), MAX_FETCHER_THREADS).getSharedQueue();
 		final List<N5Metadata> selected = new ArrayList<>();
 		for (final N5Metadata meta : dataSelection.metadata) {
 			if (meta instanceof N5ViewerMultichannelMetadata) {
@@ -206,7 +267,7 @@ public class N5Viewer {
 		}
 
 		final N5Reader n5 = dataSelection.n5;
-		this.bdv = show(n5, selected, wantFrame, parentFrame );
+		this.bdv = show(n5, selected, sharedQueue, wantFrame, parentFrame );
 	}
 
 	public <T extends NumericType<T> & NativeType<T>, V extends Volatile<T> & NumericType<V>, R extends N5Reader> void addData(
@@ -304,9 +365,75 @@ public class N5Viewer {
 
 	public static <T extends NumericType<T> & NativeType<T>> BdvHandle show(final String[] uris, final BdvOptions options, final boolean wantFrame, final Frame parentFrame) {
 
-		final SharedQueue sharedQueue = new SharedQueue(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+		final ViewerStatistics statistics = new ViewerStatistics(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), MAX_FETCHER_THREADS);
 		final List<ConverterSetup> converterSetups = new ArrayList<>();
 		final List<SourceAndConverter<T>> sourcesAndConverters = new ArrayList<>();
+		final int numTimepoints = buildN5Sources(uris, statistics.getSharedQueue(), converterSetups, sourcesAndConverters, options);
+
+		final BdvHandle bdv = show(sourcesAndConverters, numTimepoints, options, wantFrame, parentFrame);
+		attachStatistics(bdv, statistics);
+		return bdv;
+	}
+
+	/**
+	 * Parses the metadata of the given uris and builds sources for them
+	 * without showing a viewer.
+	 *
+	 * @param <T>
+	 *            the type
+	 * @param uris
+	 *            the uris of the datasets, or {@link SyntheticN5Reader}
+	 *            uris for generated data
+	 * @param sharedQueue
+	 *            the queue used to load blocks of volatile sources
+	 * @param converterSetups
+	 *            list to which converter setups are added
+	 * @param sourcesAndConverters
+	 *            list to which the sources are added
+	 * @param options
+	 *            bdv options
+	 * @return the number of timepoints
+	 */
+	public static <T extends NumericType<T> & NativeType<T>> int buildN5Sources(
+			final String[] uris,
+			final SharedQueue sharedQueue,
+			final List<ConverterSetup> converterSetups,
+			final List<SourceAndConverter<T>> sourcesAndConverters,
+			final BdvOptions options) {
+
+		return buildN5Sources(uris, UnaryOperator.identity(), sharedQueue, converterSetups, sourcesAndConverters, options);
+	}
+
+	/**
+	 * Parses the metadata of the given uris and builds sources for them
+	 * without showing a viewer. Blocks are loaded through a wrapper of the
+	 * reader that parsed the metadata, e.g. to instrument loading.
+	 *
+	 * @param <T>
+	 *            the type
+	 * @param uris
+	 *            the uris of the datasets, or {@link SyntheticN5Reader}
+	 *            uris for generated data
+	 * @param readerWrapper
+	 *            wraps the reader of each container for loading blocks
+	 * @param sharedQueue
+	 *            the queue used to load blocks of volatile sources
+	 * @param converterSetups
+	 *            list to which converter setups are added
+	 * @param sourcesAndConverters
+	 *            list to which the sources are added
+	 * @param options
+	 *            bdv options
+	 * @return the number of timepoints
+	 */
+	public static <T extends NumericType<T> & NativeType<T>> int buildN5Sources(
+			final String[] uris,
+			final UnaryOperator<N5Reader> readerWrapper,
+			final SharedQueue sharedQueue,
+			final List<ConverterSetup> converterSetups,
+			final List<SourceAndConverter<T>> sourcesAndConverters,
+			final BdvOptions options) {
+
 		int numTimepoints = 1;
 
 		// find unique containers in the uris and make a DataSelection for each
@@ -316,6 +443,15 @@ public class N5Viewer {
 		final N5ViewerReaderFun n5fun = new N5ViewerReaderFun();
 		for( final String uri : uris )
 		{
+			// generated test data, see SyntheticN5Reader
+			if (SyntheticN5Reader.isSyntheticUri(uri)) {
+				final N5Reader n5 = SyntheticN5Reader.open(uri);
+				n5Readers.put(uri, n5);
+				selectionsByContainer.put(n5, new ArrayList<>());
+				selectionsByContainer.get(n5).add(N5URI.normalizeGroupPath("/"));
+				continue;
+			}
+
 			N5URI n5uri;
 			try {
 				n5uri = new N5URI(uri);
@@ -354,22 +490,32 @@ public class N5Viewer {
 					.map(Optional::get)
 					.collect(Collectors.toList());
 
-			final DataSelection selection = new DataSelection(n5, metadataList );
+			final N5Reader loader = readerWrapper.apply(n5);
+			final DataSelection selection = new DataSelection(loader, metadataList );
 			try {
 				numTimepoints = Math.max(numTimepoints,
-						buildN5Sources(n5, selection, sharedQueue, converterSetups, sourcesAndConverters, options));
+						buildN5Sources(loader, selection, sharedQueue, converterSetups, sourcesAndConverters, options));
 			} catch (final IOException e) {
 				System.err.println("Could not load from: " + n5.getURI().toString());
 			}
 		}
 
-		return show(sourcesAndConverters, numTimepoints, options, wantFrame, parentFrame);
+		return numTimepoints;
 	}
 
 	public static <T extends NumericType<T> & NativeType<T>> BdvHandle show(N5Reader n5, List<N5Metadata> metadata, final boolean wantFrame, final Frame parentFrame) {
 
+		return show(n5, metadata, new ViewerStatistics(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), MAX_FETCHER_THREADS).getSharedQueue(), wantFrame, parentFrame);
+	}
+
+	private static <T extends NumericType<T> & NativeType<T>> BdvHandle show(
+			final N5Reader n5,
+			final List<N5Metadata> metadata,
+			final SharedQueue sharedQueue,
+			final boolean wantFrame,
+			final Frame parentFrame) {
+
 		final DataSelection selection = new DataSelection(n5, metadata);
-		final SharedQueue sharedQueue = new SharedQueue(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
 		final List<ConverterSetup> converterSetups = new ArrayList<>();
 		final List<SourceAndConverter<T>> sourcesAndConverters = new ArrayList<>();
 
@@ -389,7 +535,66 @@ public class N5Viewer {
 			return null;
 		}
 
-		return show(sourcesAndConverters, numTimepoints, options, wantFrame, parentFrame);
+		final BdvHandle bdv = show(sourcesAndConverters, numTimepoints, options, wantFrame, parentFrame);
+		final ViewerStatistics statistics = ViewerStatistics.of(sharedQueue);
+		if (statistics != null)
+			attachStatistics(bdv, statistics);
+
+		return bdv;
+	}
+
+	/**
+	 * Attach statistics to a viewer and register them with JMX until the
+	 * viewer window is closed.
+	 */
+	private static void attachStatistics(final BdvHandle bdv, final ViewerStatistics statistics) {
+
+		if (bdv == null || bdv.getViewerPanel() == null)
+			return;
+
+		statistics.attach(bdv.getViewerPanel());
+		statistics.register();
+
+		// cancel fetches for views that are gone before each frame
+		bdv.getCacheControls().addCacheControl(statistics.getSharedQueue());
+		final Window window = SwingUtilities.getWindowAncestor(bdv.getViewerPanel());
+		if (window != null)
+			window.addWindowListener(new WindowAdapter() {
+
+				@Override
+				public void windowClosing(final WindowEvent e) {
+
+					statistics.unregister();
+				}
+			});
+
+		if (bdv instanceof BdvHandleFrame) {
+			final StatisticsOverlay overlay = new StatisticsOverlay(bdv.getViewerPanel(), statistics);
+			final JCheckBoxMenuItem statisticsItem = new JCheckBoxMenuItem("Show loading statistics");
+			statisticsItem.addActionListener(e -> overlay.setVisible(statisticsItem.isSelected()));
+			toolsMenu(((BdvHandleFrame)bdv).getBigDataViewer().getViewerFrame().getJMenuBar()).add(statisticsItem);
+		}
+	}
+
+	/**
+	 * Returns the "Tools" menu of a viewer frame's menu bar, added if the menu
+	 * bar has none.
+	 *
+	 * @param menuBar
+	 *            the menu bar
+	 * @return the tools menu
+	 */
+	private static JMenu toolsMenu(final JMenuBar menuBar) {
+
+		for (int i = 0; i < menuBar.getMenuCount(); i++) {
+			final JMenu menu = menuBar.getMenu(i);
+			if (menu != null && TOOLS_MENU.equals(menu.getText()))
+				return menu;
+		}
+
+		final JMenu menu = new JMenu(TOOLS_MENU);
+		menuBar.add(menu);
+		return menu;
 	}
 
 	public static <T extends NumericType<T> & NativeType<T>> BdvHandle show(final List<SourceAndConverter<T>> sourcesAndConverters, final int numTimepoints,
@@ -451,17 +656,83 @@ public class N5Viewer {
 			final JMenuBar menuBar = viewerFrame.getJMenuBar();
 			final ActionMap actionMap = viewerFrame.getKeybindings().getConcatenatedActionMap();
 
-			final JMenu toolsMenu = menuBar.getMenu(2);
+			final JMenu toolsMenu = toolsMenu(menuBar);
 			final JMenuItem cropItem = new JMenuItem(actionMap.get("crop"));
 			cropItem.setText("Extract to ImageJ");
 			toolsMenu.add(cropItem);
 
+			final JMenuItem batchItem = new JMenuItem("Batch ROI extraction");
+			batchItem.addActionListener(e -> BatchRoiExtractor.run(bdv.getViewerPanel()));
+			toolsMenu.add(batchItem);
+
+			final JMenu movieMenu = new JMenu("Movie");
+			final JMenuItem addKeyframeItem = new JMenuItem("Add keyframe");
+			addKeyframeItem.addActionListener(e -> MovieExporter.addKeyframe(bdv.getViewerPanel()));
+			movieMenu.add(addKeyframeItem);
+			final JMenuItem clearKeyframesItem = new JMenuItem("Clear keyframes");
+			clearKeyframesItem.addActionListener(e -> MovieExporter.clearKeyframes(bdv.getViewerPanel()));
+			movieMenu.add(clearKeyframesItem);
+			final JMenuItem exportMovieItem = new JMenuItem("Export movie...");
+			exportMovieItem.addActionListener(e -> MovieExporter.run(bdv.getViewerPanel()));
+			movieMenu.add(exportMovieItem);
+			toolsMenu.add(movieMenu);
+
+			final AutoContrast autoContrast = new AutoContrast(bdv.getViewerPanel(), bdv.getConverterSetups());
+			autoContrast.start(Runtime.getRuntime().availableProcessors());
+			final JMenuItem autoContrastItem = new JMenuItem("Auto contrast");
+			autoContrastItem.addActionListener(e -> autoContrast.apply());
+			toolsMenu.add(autoContrastItem);
+			final JCheckBoxMenuItem autoUpdateContrastItem = new JCheckBoxMenuItem("Auto-update contrast");
+			autoUpdateContrastItem.addActionListener(e -> autoContrast.setAutoUpdate(autoUpdateContrastItem.isSelected()));
+			toolsMenu.add(autoUpdateContrastItem);
+
+			final JMenuItem labelModeItem = new JMenuItem("Toggle label colors");
+			labelModeItem.addActionListener(e -> LabelHighlighter.toggleLabelMode(bdv.getViewerPanel()));
+			toolsMenu.add(labelModeItem);
+			final JMenuItem highlightLabelsItem = new JMenuItem("Highlight labels...");
+			highlightLabelsItem.addActionListener(e -> LabelHighlighter.run(bdv.getViewerPanel()));
+			toolsMenu.add(highlightLabelsItem);
+			final JMenuItem fragmentSegmentItem = new JMenuItem("Fragment segment LUT...");
+			fragmentSegmentItem.addActionListener(e -> FragmentSegmentLoader.run(bdv.getViewerPanel()));
+			toolsMenu.add(fragmentSegmentItem);
+
+			final AdaptiveInterpolation adaptiveInterpolation = new AdaptiveInterpolation(bdv.getViewerPanel());
+			final JMenuItem adaptiveInterpolationItem = new JMenuItem("Adaptive interpolation...");
+			adaptiveInterpolationItem.addActionListener(e -> adaptiveInterpolation.run());
+			toolsMenu.add(adaptiveInterpolationItem);
+			final Actions adaptiveInterpolationActions = new Actions(
+					bdvFrame.getBigDataViewer().getKeymapManager().getForwardSelectedKeymap().getConfig(),
+					"bdv");
+			adaptiveInterpolationActions.install(viewerFrame.getKeybindings(), "adaptive interpolation");
+			adaptiveInterpolationActions.runnableAction(adaptiveInterpolation::toggle, "toggle adaptive interpolation", "ctrl I");
+
 			/* create XTouchMini midi controller */
 			try {
 				final XTouchMiniMCUControlPanel controlPanel = XTouchMiniMCUControlPanel.build();
 				new MCUBDVControls(
 						bdv.getBdvHandle().getViewerPanel(),
-						controlPanel);
+						controlPanel,
+						adaptiveInterpolation);
+
+				/* record the session for NavigationReplay */
+				final String recordPath = System.getProperty(RECORD_MIDI_PROPERTY);
+				final MCURecorder recorder = recordPath == null ? null : new MCURecorder() {
+
+					@Override
+					protected void started() {
+
+						final ViewerPanel panel = bdv.getViewerPanel();
+						final MCURecording recording = getRecording();
+						recording.setProperty(MCURecording.WIDTH_KEY, Integer.toString(panel.getDisplay().getWidth()));
+						recording.setProperty(MCURecording.HEIGHT_KEY, Integer.toString(panel.getDisplay().getHeight()));
+						recording.setProperty(
+								MCURecording.VIEWER_TRANSFORM_KEY,
+								Arrays.stream(panel.state().getViewerTransform().getRowPackedCopy())
+										.mapToObj(Double::toString)
+										.collect(Collectors.joining(",")));
+					}
+				};
+				controlPanel.setRecorder(recorder);
 
 				((JFrame)SwingUtilities.getWindowAncestor(bdv.getBdvHandle().getViewerPanel()))
 						.addWindowListener(new WindowAdapter() {
@@ -470,6 +741,13 @@ public class N5Viewer {
 							public void windowClosing(final WindowEvent e) {
 
 								controlPanel.close();
+								if (recorder != null) {
+									try {
+										recorder.getRecording().save(recordPath);
+									} catch (final IOException ex) {
+										ex.printStackTrace();
+									}
+								}
 							}
 
 						});
@@ -501,6 +779,8 @@ public class N5Viewer {
 			final BdvOptions options ) throws IOException {
 
 		final ArrayList<MetadataSource<?>> additionalSources = new ArrayList<>();
+		final ViewerStatistics statistics = ViewerStatistics.of(sharedQueue);
+		final N5Reader blockReader = statistics == null ? n5 : statistics.limitConcurrency(n5);
 
 		// is2D should be true at the end of this loop if all sources are 2D
 		boolean is2D = true;
@@ -574,11 +854,19 @@ public class N5Viewer {
 
 			@SuppressWarnings("rawtypes")
 			final RandomAccessibleInterval[] images = new RandomAccessibleInterval[datasetsToOpen.length];
+			final List<BlockLoadStatistics> levelStatistics = new ArrayList<>();
 			String unit = "pixel";
 			for (int s = 0; s < images.length; ++s) {
 
+				final BlockLoadStatistics blockLoads = statistics == null ? null : statistics.addBlockLoadStatistics(srcName, s, datasetsToOpen[s]);
+				if (blockLoads != null)
+					levelStatistics.add(blockLoads);
+
 				@SuppressWarnings("unchecked")
-				final RandomAccessibleInterval<T> img = (RandomAccessibleInterval<T>)loadImage(n5, datasetsToOpen[s]);
+				final RandomAccessibleInterval<T> img = (RandomAccessibleInterval<T>)loadImage(
+						blockReader,
+						datasetsToOpen[s],
+						blockLoads);
 
 				final RandomAccessibleInterval< ? > imagejImg;
 				if (metadata instanceof AxisMetadata)
@@ -661,6 +949,8 @@ public class N5Viewer {
 
 			for (final Pair<Source<T>, Source<V>> sourcePair : sourcePairs) {
 				addSourceToListsGenericType(sourcePair.getA(), sourcePair.getB(), i + 1, converterSetups, sourcesAndConverters);
+				if (statistics != null)
+					statistics.addSource(sourcesAndConverters.get(sourcesAndConverters.size() - 1).getSpimSource(), levelStatistics);
 			}
 		}
 
@@ -721,12 +1011,51 @@ public class N5Viewer {
 	protected static <T extends NumericType<T> & NativeType<T>> RandomAccessibleInterval<?> loadImage(
 			final N5Reader n5, final String dataset) {
 
-		final CachedCellImg<?, ?> img = N5Utils.openVolatile(n5, dataset);
+		return loadImage(n5, dataset, null);
+	}
+
+	/*
+	 * If statistics are given, the block cache counts hits, misses and load
+	 * times into them. Cells of blocks that a LimitedN5Reader knows to be
+	 * missing share one empty cell.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	protected static <T extends NumericType<T> & NativeType<T>> RandomAccessibleInterval<?> loadImage(
+			final N5Reader n5, final String dataset, final BlockLoadStatistics statistics) {
+
+		final CachedCellImg<?, ?> img;
+		if (statistics == null)
+			img = N5Utils.openVolatile(n5, dataset);
+		else {
+			final long t = System.nanoTime();
+			final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+			final CellGrid grid = new CellGrid(attributes.getDimensions(), attributes.getBlockSize());
+			final LongPredicate missing;
+			final LongSupplier missingVersion;
+			if (n5 instanceof LimitedN5Reader) {
+				missing = index -> ((LimitedN5Reader)n5).isMissing(dataset, index);
+				missingVersion = ((LimitedN5Reader)n5)::getMissingVersion;
+			} else {
+				missing = index -> false;
+				missingVersion = null;
+			}
+			img = N5Utils.open(
+					n5,
+					dataset,
+					(Consumer<IterableInterval<T>>)x -> {},
+					dataType -> new InstrumentedLoaderCache(statistics, DataTypes.bytesPerElement(dataType), grid, missing, missingVersion),
+					AccessFlags.setOf(AccessFlags.VOLATILE));
+			statistics.opened(System.nanoTime() - t);
+		}
+		CropCostEstimator.register(img, n5, dataset);
+
 		final Object t = Util.getTypeFromInterval(img);
 		if( t instanceof LabelMultisetType ) {
 
 			final CachedCellImg<LabelMultisetType, ?> lmsImg = (CachedCellImg<LabelMultisetType, ?>)img;
-			return convertLabelMultisetCache(lmsImg);
+			final CachedCellImg<UnsignedLongType, ?> labelImg = convertLabelMultisetCache(lmsImg);
+			CropCostEstimator.register(labelImg, n5, dataset);
+			return labelImg;
 
 			// TODO compare to the below
 //			return (CachedCellImg<T, ?>)convertLabelMultisetLazy(
@@ -756,7 +1085,7 @@ public class N5Viewer {
 				VolatileUnsignedLongType::new);
 	}
 
-	private static CachedCellImg<UnsignedLongType, ?> convertLabelMultisetLazy(final CachedCellImg<LabelMultisetType, ?> lmsImg) {
+	static CachedCellImg<UnsignedLongType, ?> convertLabelMultisetLazy(final CachedCellImg<LabelMultisetType, ?> lmsImg) {
 
 		// use Lazy.generate to convert and cache
 		final int[] cellDims = new int[lmsImg.numDimensions()];
@@ -773,7 +1102,7 @@ public class N5Viewer {
 				});
 	}
 
-	private static CachedCellImg<UnsignedLongType, ?> convertLabelMultisetCache(final CachedCellImg<LabelMultisetType, ?> lmsImg) {
+	static CachedCellImg<UnsignedLongType, ?> convertLabelMultisetCache(final CachedCellImg<LabelMultisetType, ?> lmsImg) {
 
 		final int[] cellDims = new int[lmsImg.numDimensions()];
 		lmsImg.getCellGrid().cellDimensions(cellDims);
@@ -875,10 +1204,11 @@ public class N5Viewer {
 			final RandomAccessibleIntervalMipmapSource4D<T> source = new RandomAccessibleIntervalMipmapSource4D<>(
 					channels, type, transforms, vd, srcName, true);
 
+			/* select mipmap levels by the screen footprint of each axis */
 			// TODO fix generics
 			final ValuePair<Source<T>, Source<V>> pair = new ValuePair(
-					source,
-					source.asVolatile(sharedQueue));
+					new FootprintMipmapSource<>(source),
+					new FootprintMipmapSource<>(source.asVolatile(sharedQueue)));
 			sourcePairs.add(pair);
 		}
 		return sourcePairs;
@@ -953,6 +1283,15 @@ public class N5Viewer {
 			},
 					"crop",
 					"SPACE");
+
+			viewerFrame.addWindowListener(new WindowAdapter() {
+
+				@Override
+				public void windowClosing(final WindowEvent e) {
+
+					cropController.dispose();
+				}
+			});
 		}
 
 	}
@@ -1039,23 +1378,53 @@ public class N5Viewer {
 	 *            list of {@link SourceAndConverter}s to which the source should
 	 *            be added.
 	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
 	private static <T extends NumericType<T>, V extends Volatile<T> & NumericType<V>> void addSourceToListsNumericType(
-			final Source<T> source,
-			final Source<V> volatileSource,
+			Source<T> source,
+			Source<V> volatileSource,
 			final int setupId,
 			final List<ConverterSetup> converterSetups,
 			final List<SourceAndConverter<T>> sources) {
 
+		/*
+		 * integer sources can be switched to labels, shared by both versions,
+		 * and then map fragments to segments
+		 */
+		final LabelMode labelMode;
+		if (LabelMode.supports(source.getType())) {
+			labelMode = new LabelMode();
+			final Pair<Source<T>, Source<V>> mapped = MappedLabelSource.wrap((Source)source, (Source)volatileSource, labelMode);
+			source = mapped.getA();
+			volatileSource = mapped.getB();
+		} else
+			labelMode = null;
+
 		final SourceAndConverter<V> vsoc = (volatileSource == null)
 				? null
-				: new SourceAndConverter<>(volatileSource, createConverterToARGB(volatileSource.getType()));
+				: new SourceAndConverter<>(volatileSource, createConverter(volatileSource.getType(), labelMode));
 		final SourceAndConverter<T> soc = new SourceAndConverter<>(
 				source,
-				createConverterToARGB(source.getType()),
+				createConverter(source.getType(), labelMode),
 				vsoc);
 		final SourceAndConverter<T> tsoc = wrapWithTransformedSource(soc);
 
 		converterSetups.add(BigDataViewer.createConverterSetup(tsoc, setupId));
 		sources.add(tsoc);
 	}
+
+	/*
+	 * Lookup table converters for unsigned 8 and 16 bit types, the
+	 * BigDataViewer converters otherwise. With a label mode, the converter
+	 * switches to label colors when it is enabled.
+	 */
+	private static <T extends NumericType<T>> Converter<T, ARGBType> createConverter(final T type, final LabelMode labelMode) {
+
+		final LutARGBConverter<T> lut = LutARGBConverter.create(type);
+		final Converter<T, ARGBType> intensities = lut == null ? createConverterToARGB(type) : lut;
+		final LabelARGBConverter<T> labels = labelMode == null ? null : LabelARGBConverter.create(type);
+		if (labels == null || !(intensities instanceof ColorConverter))
+			return intensities;
+
+		return new LabelModeConverter<>(intensities, labels, labelMode);
+	}
 }
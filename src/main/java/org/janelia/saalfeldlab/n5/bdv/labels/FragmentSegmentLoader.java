@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.labels;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+
+import bdv.viewer.AbstractViewerPanel;
+import bdv.viewer.SourceAndConverter;
+import ij.IJ;
+import ij.gui.GenericDialog;
+
+/**
+ * Loads a {@link FragmentSegmentLut} and applies it to the sources of a
+ * viewer that are shown as labels, see {@link MappedLabelSource}.
+ */
+public class FragmentSegmentLoader {
+
+	private static String lastContainer = "";
+	private static String lastDataset = "";
+	private static boolean lastAllSources = false;
+
+	/**
+	 * @param viewer
+	 *            the viewer
+	 * @param allSources
+	 *            whether to return the label modes of all sources shown as
+	 *            labels or only that of the current source
+	 * @return the label modes of the sources that are shown as labels
+	 */
+	public static List<LabelMode> labelModes(final AbstractViewerPanel viewer, final boolean allSources) {
+
+		final List<LabelMode> labelModes = new ArrayList<>();
+		final List<SourceAndConverter<?>> sources = allSources
+				? viewer.state().getSources()
+				: Collections.singletonList(viewer.state().getCurrentSource());
+		for (final SourceAndConverter<?> sac : sources) {
+			final LabelMode labelMode = sac == null ? null : LabelMode.of(sac);
+			if (labelMode != null && labelMode.isEnabled())
+				labelModes.add(labelMode);
+		}
+		return labelModes;
+	}
+
+	/**
+	 * Apply a lookup table to sources of a viewer that are shown as labels.
+	 *
+	 * @param viewer
+	 *            the viewer
+	 * @param lut
+	 *            the lookup table, null to show the fragments
+	 * @param allSources
+	 *            whether to apply it to all sources shown as labels or only
+	 *            to the current source
+	 */
+	public static void apply(final AbstractViewerPanel viewer, final FragmentSegmentLut lut, final boolean allSources) {
+
+		for (final LabelMode labelMode : labelModes(viewer, allSources))
+			labelMode.setLut(lut);
+		viewer.requestRepaint();
+	}
+
+	public static void run(final AbstractViewerPanel viewer) {
+
+		if (labelModes(viewer, true).isEmpty()) {
+			IJ.error("Fragment segment LUT", "No source is shown as labels, see Tools > Toggle label colors.");
+			return;
+		}
+
+		final GenericDialog gd = new GenericDialog("Fragment segment LUT");
+		gd.addStringField("Container", lastContainer, 40);
+		gd.addStringField("Dataset", lastDataset, 40);
+		gd.addCheckbox("All_label_sources", lastAllSources);
+		gd.addMessage("A 2xN or Nx2 dataset of fragments sorted by id and their segments.\nLeave the dataset empty to show the fragments.");
+		gd.showDialog();
+
+		if (gd.wasCanceled())
+			return;
+
+		lastContainer = gd.getNextString().trim();
+		lastDataset = gd.getNextString().trim();
+		lastAllSources = gd.getNextBoolean();
+
+		final boolean allSources = lastAllSources;
+		if (labelModes(viewer, allSources).isEmpty()) {
+			IJ.error("Fragment segment LUT", "The current source is not shown as labels.");
+			return;
+		}
+
+		if (lastDataset.isEmpty()) {
+			apply(viewer, null, allSources);
+			return;
+		}
+
+		final String container = lastContainer;
+		final String dataset = lastDataset;
+		new Thread(() -> {
+			IJ.showStatus("Loading fragment segment LUT " + dataset);
+			try (final N5Reader n5 = new N5Factory().openReader(container)) {
+				final FragmentSegmentLut lut = FragmentSegmentLut.load(n5, dataset);
+				apply(viewer, lut, allSources);
+				IJ.showStatus("Loaded " + lut.size() + " fragment segment pairs");
+			} catch (final Exception e) {
+				IJ.handleException(e);
+			}
+		}, "n5-fragment-segment-lut").start();
+	}
+}
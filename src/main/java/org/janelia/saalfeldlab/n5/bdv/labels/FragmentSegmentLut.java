@@ -0,0 +1,220 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.labels;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+
+/**
+ * Maps fragment ids to segment ids, e.g. supervoxels to the segments of an
+ * agglomeration. The pairs are held in chunks of primitive long arrays
+ * sorted by fragment and looked up by binary search, so that hundreds of
+ * millions of pairs fit. Every thread remembers its most recent lookups in
+ * a small direct mapped cache. Fragments without a pair map to themselves,
+ * fragment 0 is background and maps to 0.
+ */
+public class FragmentSegmentLut {
+
+	private static final int CHUNK_BITS = 24;
+
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/* lookups remembered per thread */
+	private static final int CACHE_SIZE = 1 << 12;
+
+	private final long[][] fragments;
+
+	private final long[][] segments;
+
+	private final long size;
+
+	/* fragment and segment of every cache entry, one after the other */
+	private final ThreadLocal<long[]> cache = ThreadLocal.withInitial(() -> new long[2 * CACHE_SIZE]);
+
+	/**
+	 * @param fragments
+	 *            the fragments, sorted as unsigned longs, in chunks of 2^24
+	 * @param segments
+	 *            the segments of the fragments, in the same chunks
+	 * @param size
+	 *            the number of pairs
+	 */
+	private FragmentSegmentLut(final long[][] fragments, final long[][] segments, final long size) {
+
+		this.fragments = fragments;
+		this.segments = segments;
+		this.size = size;
+	}
+
+	/**
+	 * @param fragments
+	 *            the fragments, sorted as unsigned longs
+	 * @param segments
+	 *            their segments
+	 * @return the lookup table
+	 * @throws IllegalArgumentException
+	 *             if the arrays differ in length or fragments are not sorted
+	 */
+	public static FragmentSegmentLut of(final long[] fragments, final long[] segments) {
+
+		if (fragments.length != segments.length)
+			throw new IllegalArgumentException("Fragments and segments differ in length");
+
+		final Builder builder = new Builder(fragments.length);
+		for (int i = 0; i < fragments.length; ++i)
+			builder.add(fragments[i], segments[i]);
+		return builder.build();
+	}
+
+	/**
+	 * Loads pairs from a dataset of 2&times;N or N&times;2 integers, the first
+	 * row or column the fragments sorted as unsigned longs, the second their
+	 * segments.
+	 *
+	 * @param n5
+	 *            the reader
+	 * @param dataset
+	 *            the dataset
+	 * @return the lookup table
+	 * @throws N5Exception
+	 *             if the dataset can not be read or has the wrong shape
+	 * @throws IllegalArgumentException
+	 *             if the fragments are not sorted
+	 */
+	public static <T extends IntegerType<T>> FragmentSegmentLut load(final N5Reader n5, final String dataset) {
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		if (attributes == null)
+			throw new N5Exception("No dataset " + dataset);
+
+		final long[] dimensions = attributes.getDimensions();
+		final int pairDimension;
+		if (dimensions.length == 2 && dimensions[0] == 2)
+			pairDimension = 0;
+		else if (dimensions.length == 2 && dimensions[1] == 2)
+			pairDimension = 1;
+		else
+			throw new N5Exception("Expected a 2xN or Nx2 dataset of fragment segment pairs: " + dataset);
+
+		final RandomAccessibleInterval<T> pairs = N5Utils.open(n5, dataset);
+		final Cursor<T> fragmentCursor = Views.flatIterable(Views.hyperSlice(pairs, pairDimension, 0)).cursor();
+		final Cursor<T> segmentCursor = Views.flatIterable(Views.hyperSlice(pairs, pairDimension, 1)).cursor();
+		final Builder builder = new Builder(dimensions[1 - pairDimension]);
+		while (fragmentCursor.hasNext())
+			builder.add(fragmentCursor.next().getIntegerLong(), segmentCursor.next().getIntegerLong());
+
+		return builder.build();
+	}
+
+	private static class Builder {
+
+		final long[][] fragments;
+
+		final long[][] segments;
+
+		long size = 0;
+
+		Builder(final long capacity) {
+
+			final int numChunks = (int)((capacity + CHUNK_SIZE - 1) >> CHUNK_BITS);
+			fragments = new long[numChunks][];
+			segments = new long[numChunks][];
+			for (int i = 0; i < numChunks; ++i) {
+				final int chunkSize = (int)Math.min(CHUNK_SIZE, capacity - ((long)i << CHUNK_BITS));
+				fragments[i] = new long[chunkSize];
+				segments[i] = new long[chunkSize];
+			}
+		}
+
+		void add(final long fragment, final long segment) {
+
+			if (size > 0 && Long.compareUnsigned(fragments[(int)((size - 1) >> CHUNK_BITS)][(int)((size - 1) & CHUNK_MASK)], fragment) >= 0)
+				throw new IllegalArgumentException("Fragments are not sorted or not unique at pair " + size);
+
+			fragments[(int)(size >> CHUNK_BITS)][(int)(size & CHUNK_MASK)] = fragment;
+			segments[(int)(size >> CHUNK_BITS)][(int)(size & CHUNK_MASK)] = segment;
+			++size;
+		}
+
+		FragmentSegmentLut build() {
+
+			return new FragmentSegmentLut(fragments, segments, size);
+		}
+	}
+
+	public long size() {
+
+		return size;
+	}
+
+	private long fragment(final long i) {
+
+		return fragments[(int)(i >> CHUNK_BITS)][(int)(i & CHUNK_MASK)];
+	}
+
+	/**
+	 * @param fragment
+	 *            a fragment
+	 * @return its segment
+	 */
+	public long map(final long fragment) {
+
+		if (fragment == 0)
+			return 0;
+
+		final long[] entries = cache.get();
+		final int slot = 2 * ((int)LongHashSet.mix(fragment) & (CACHE_SIZE - 1));
+		if (entries[slot] == fragment)
+			return entries[slot + 1];
+
+		final long segment = lookup(fragment);
+		entries[slot] = fragment;
+		entries[slot + 1] = segment;
+		return segment;
+	}
+
+	private long lookup(final long fragment) {
+
+		long low = 0;
+		long high = size - 1;
+		while (low <= high) {
+			final long mid = (low + high) >>> 1;
+			final int c = Long.compareUnsigned(fragment(mid), fragment);
+			if (c < 0)
+				low = mid + 1;
+			else if (c > 0)
+				high = mid - 1;
+			else
+				return segments[(int)(mid >> CHUNK_BITS)][(int)(mid & CHUNK_MASK)];
+		}
+		return fragment;
+	}
+}
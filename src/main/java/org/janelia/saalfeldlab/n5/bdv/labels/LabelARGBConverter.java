@@ -0,0 +1,243 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.labels;
+
+import java.awt.Color;
+
+import net.imglib2.Volatile;
+import net.imglib2.converter.Converter;
+import net.imglib2.display.ColorConverter;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.IntegerType;
+
+/**
+ * Colors labels by a hash of their id. Label 0 is background and stays
+ * black. Sources are converted by it only in {@link LabelMode}, see
+ * {@link LabelModeConverter}.
+ * <p>
+ * If labels are highlighted, all other labels are dimmed or hidden. The
+ * highlighted labels are held in a {@link LongHashSet} that is replaced, not
+ * modified, when they change, so that converting needs no locks and
+ * allocates nothing.
+ * <p>
+ * The converter is a {@link ColorConverter} only so that BigDataViewer
+ * creates a converter setup for it. The display range is ignored, the color
+ * is mixed into the seed of the hash so that the color dialog shuffles the
+ * label colors.
+ *
+ * @param <T>
+ *            the input type
+ */
+public abstract class LabelARGBConverter<T> implements ColorConverter, Converter<T, ARGBType> {
+
+	private static final int NUM_HUES = 1024;
+
+	/* fully saturated colors around the hue circle */
+	private static final int[] HUES = new int[NUM_HUES];
+	static {
+		for (int i = 0; i < NUM_HUES; ++i)
+			HUES[i] = Color.HSBtoRGB((float)i / NUM_HUES, 1.0f, 1.0f) | 0xff000000;
+	}
+
+	public static final double DEFAULT_DIM = 0.25;
+
+	private volatile long seed = 0;
+
+	private volatile LongHashSet highlighted = new LongHashSet();
+
+	/* 0..256, brightness of labels that are not highlighted */
+	private volatile int dim = (int)(DEFAULT_DIM * 256);
+
+	private volatile boolean hideOthers = false;
+
+	private final ARGBType color = new ARGBType(0xffffffff);
+
+	private double min = 0;
+
+	private double max = 1;
+
+	/**
+	 * @param type
+	 *            a type
+	 * @return a label converter for the type, or null if it is not a 32 or 64
+	 *         bit integer type
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static <T> LabelARGBConverter<T> create(final T type) {
+
+		if (!LabelMode.supports(type))
+			return null;
+		else if (type instanceof Volatile)
+			return (LabelARGBConverter<T>)new VolatileIntegerLabels();
+		else
+			return (LabelARGBConverter<T>)new IntegerLabels();
+	}
+
+	/**
+	 * @param label
+	 *            a label
+	 * @param seed
+	 *            the seed of the hash
+	 * @return the color of the label, black for 0
+	 */
+	public static int color(final long label, final long seed) {
+
+		if (label == 0)
+			return 0;
+
+		return HUES[(int)(LongHashSet.mix(label ^ seed) >>> 54)];
+	}
+
+	protected void convert(final long label, final ARGBType output) {
+
+		final int argb = color(label, seed);
+		final LongHashSet h = highlighted;
+		if (h.isEmpty() || h.contains(label))
+			output.set(argb);
+		else if (hideOthers)
+			output.set(0);
+		else {
+			final int d = dim;
+			output.set(ARGBType.rgba(
+					(ARGBType.red(argb) * d) >> 8,
+					(ARGBType.green(argb) * d) >> 8,
+					(ARGBType.blue(argb) * d) >> 8,
+					0xff));
+		}
+	}
+
+	/**
+	 * @param labels
+	 *            the labels to highlight, none to show all labels equally
+	 */
+	public void setHighlighted(final LongHashSet labels) {
+
+		highlighted = labels.copy();
+	}
+
+	public LongHashSet getHighlighted() {
+
+		return highlighted.copy();
+	}
+
+	/**
+	 * @param dim
+	 *            brightness of labels that are not highlighted, in [0, 1]
+	 */
+	public void setDim(final double dim) {
+
+		this.dim = (int)(Math.max(0, Math.min(1, dim)) * 256);
+	}
+
+	public double getDim() {
+
+		return dim / 256.0;
+	}
+
+	/**
+	 * @param hideOthers
+	 *            whether labels that are not highlighted are hidden instead
+	 *            of dimmed
+	 */
+	public void setHideOthers(final boolean hideOthers) {
+
+		this.hideOthers = hideOthers;
+	}
+
+	public boolean isHideOthers() {
+
+		return hideOthers;
+	}
+
+	public void setSeed(final long seed) {
+
+		this.seed = seed;
+	}
+
+	public long getSeed() {
+
+		return seed;
+	}
+
+	@Override
+	public ARGBType getColor() {
+
+		return color.copy();
+	}
+
+	@Override
+	public void setColor(final ARGBType c) {
+
+		if (c.get() != color.get())
+			seed = LongHashSet.mix(seed ^ c.get());
+
+		color.set(c);
+	}
+
+	@Override
+	public boolean supportsColor() {
+
+		return true;
+	}
+
+	@Override
+	public double getMin() {
+
+		return min;
+	}
+
+	@Override
+	public double getMax() {
+
+		return max;
+	}
+
+	@Override
+	public void setMin(final double min) {
+
+		this.min = min;
+	}
+
+	@Override
+	public void setMax(final double max) {
+
+		this.max = max;
+	}
+
+	public static class IntegerLabels<T extends IntegerType<T>> extends LabelARGBConverter<T> {
+
+		@Override
+		public void convert(final T input, final ARGBType output) {
+
+			convert(input.getIntegerLong(), output);
+		}
+	}
+
+	public static class VolatileIntegerLabels<T extends IntegerType<T>, V extends Volatile<T>> extends LabelARGBConverter<V> {
+
+		@Override
+		public void convert(final V input, final ARGBType output) {
+
+			convert(input.get().getIntegerLong(), output);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.labels;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import bdv.viewer.AbstractViewerPanel;
+import bdv.viewer.SourceAndConverter;
+import ij.IJ;
+import ij.gui.GenericDialog;
+
+/**
+ * Switches sources of a viewer between intensities and labels, and
+ * highlights sets of labels in all sources that can be shown as labels, see
+ * {@link LabelModeConverter}.
+ */
+public class LabelHighlighter {
+
+	private static String lastLabels = "";
+	private static double lastDim = LabelARGBConverter.DEFAULT_DIM;
+	private static boolean lastHideOthers = false;
+
+	/**
+	 * @param viewer
+	 *            the viewer
+	 * @return the label converters of all sources of the viewer that can be
+	 *         shown as labels
+	 */
+	public static List<LabelARGBConverter<?>> converters(final AbstractViewerPanel viewer) {
+
+		final List<LabelARGBConverter<?>> converters = new ArrayList<>();
+		for (final SourceAndConverter<?> sac : viewer.state().getSources()) {
+			if (sac.getConverter() instanceof LabelModeConverter)
+				converters.add(((LabelModeConverter<?>)sac.getConverter()).getLabelConverter());
+			if (sac.asVolatile() != null && sac.asVolatile().getConverter() instanceof LabelModeConverter)
+				converters.add(((LabelModeConverter<?>)sac.asVolatile().getConverter()).getLabelConverter());
+		}
+		return converters;
+	}
+
+	/**
+	 * Switches the current source of a viewer between intensities and
+	 * labels.
+	 *
+	 * @param viewer
+	 *            the viewer
+	 */
+	public static void toggleLabelMode(final AbstractViewerPanel viewer) {
+
+		final SourceAndConverter<?> current = viewer.state().getCurrentSource();
+		final LabelMode labelMode = current == null ? null : LabelMode.of(current);
+		if (labelMode == null) {
+			IJ.error("Toggle label colors", "Only sources of 32 or 64 bit integers can be shown as labels.");
+			return;
+		}
+		labelMode.setEnabled(!labelMode.isEnabled());
+		viewer.requestRepaint();
+	}
+
+	/**
+	 * Parses unsigned 64 bit labels separated by commas or whitespace.
+	 *
+	 * @param labels
+	 *            the string
+	 * @return the labels
+	 * @throws NumberFormatException
+	 *             if a label is not an unsigned 64 bit integer
+	 */
+	public static LongHashSet parseLabels(final String labels) {
+
+		final LongHashSet set = new LongHashSet();
+		for (final String label : labels.split("[,\\s]+")) {
+			if (!label.isEmpty())
+				set.add(Long.parseUnsignedLong(label));
+		}
+		return set;
+	}
+
+	/**
+	 * Highlight labels in all label sources of a viewer.
+	 *
+	 * @param viewer
+	 *            the viewer
+	 * @param labels
+	 *            the labels, none to show all labels equally
+	 * @param dim
+	 *            brightness of the other labels
+	 * @param hideOthers
+	 *            whether the other labels are hidden
+	 */
+	public static void highlight(
+			final AbstractViewerPanel viewer,
+			final LongHashSet labels,
+			final double dim,
+			final boolean hideOthers) {
+
+		for (final LabelARGBConverter<?> converter : converters(viewer)) {
+			converter.setHighlighted(labels);
+			converter.setDim(dim);
+			converter.setHideOthers(hideOthers);
+		}
+		viewer.requestRepaint();
+	}
+
+	public static void run(final AbstractViewerPanel viewer) {
+
+		if (converters(viewer).isEmpty()) {
+			IJ.error("Highlight labels", "There are no sources of 32 or 64 bit integers.");
+			return;
+		}
+
+		final GenericDialog gd = new GenericDialog("Highlight labels");
+		gd.addStringField("Labels", lastLabels, 40);
+		gd.addSlider("Dim_others", 0, 1, lastDim, 0.05);
+		gd.addCheckbox("Hide_others", lastHideOthers);
+		gd.addMessage("Leave the labels empty to show all labels.");
+		gd.showDialog();
+
+		if (gd.wasCanceled())
+			return;
+
+		final String labels = gd.getNextString();
+		lastDim = gd.getNextNumber();
+		lastHideOthers = gd.getNextBoolean();
+
+		final LongHashSet set;
+		try {
+			set = parseLabels(labels);
+		} catch (final NumberFormatException e) {
+			IJ.error("Highlight labels", "Labels must be unsigned 64 bit integers: " + labels);
+			return;
+		}
+		lastLabels = labels;
+		highlight(viewer, set, lastDim, lastHideOthers);
+	}
+}
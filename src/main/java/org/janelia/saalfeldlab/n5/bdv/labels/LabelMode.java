@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.labels;
+
+import bdv.viewer.SourceAndConverter;
+import net.imglib2.Volatile;
+import net.imglib2.type.numeric.IntegerType;
+
+/**
+ * Whether a source of 32 or 64 bit integers is shown as labels or as
+ * intensities, and the {@link FragmentSegmentLut} applied in label mode.
+ * Shared by the {@link LabelModeConverter}s and {@link MappedLabelSource}s of
+ * the source and its volatile version. Sources are shown as intensities until
+ * label mode is switched on.
+ */
+public class LabelMode {
+
+	private volatile boolean enabled = false;
+
+	private volatile FragmentSegmentLut lut = null;
+
+	public boolean isEnabled() {
+
+		return enabled;
+	}
+
+	public void setEnabled(final boolean enabled) {
+
+		this.enabled = enabled;
+	}
+
+	public FragmentSegmentLut getLut() {
+
+		return lut;
+	}
+
+	/**
+	 * @param lut
+	 *            the lookup table applied by {@link MappedLabelSource} in
+	 *            label mode, null to show the fragments
+	 */
+	public void setLut(final FragmentSegmentLut lut) {
+
+		this.lut = lut;
+	}
+
+	/**
+	 * @return whether fragments are mapped to segments, i.e. label mode is
+	 *         on and there is a lookup table
+	 */
+	public boolean isMapped() {
+
+		return enabled && lut != null;
+	}
+
+	public long map(final long fragment) {
+
+		final FragmentSegmentLut lut = this.lut;
+		return lut == null ? fragment : lut.map(fragment);
+	}
+
+	/**
+	 * @param type
+	 *            a type
+	 * @return whether sources of this type can be shown as labels, i.e.
+	 *         whether it is a 32 or 64 bit integer type or a volatile one
+	 */
+	public static boolean supports(final Object type) {
+
+		final Object value = type instanceof Volatile ? ((Volatile<?>)type).get() : type;
+		return value instanceof IntegerType && ((IntegerType<?>)value).getBitsPerPixel() >= 32;
+	}
+
+	/**
+	 * @param sac
+	 *            a source of a viewer
+	 * @return the label mode of the source or null if it can not be shown as
+	 *         labels
+	 */
+	public static LabelMode of(final SourceAndConverter<?> sac) {
+
+		return sac.getConverter() instanceof LabelModeConverter
+				? ((LabelModeConverter<?>)sac.getConverter()).getLabelMode()
+				: null;
+	}
+}
@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.labels;
+
+import net.imglib2.converter.Converter;
+import net.imglib2.display.ColorConverter;
+import net.imglib2.type.numeric.ARGBType;
+
+/**
+ * Converts integers either as intensities or as labels, depending on the
+ * {@link LabelMode} of the source. The display range always applies to the
+ * intensity converter, so it is kept while labels are shown. The color goes
+ * to the converter that is shown, i.e. it shuffles the label colors in label
+ * mode.
+ *
+ * @param <T>
+ *            the input type
+ */
+public class LabelModeConverter<T> implements ColorConverter, Converter<T, ARGBType> {
+
+	private final Converter<T, ARGBType> intensities;
+
+	private final ColorConverter intensityColors;
+
+	private final LabelARGBConverter<T> labels;
+
+	private final LabelMode labelMode;
+
+	/**
+	 * @param intensities
+	 *            the intensity converter, must be a {@link ColorConverter}
+	 * @param labels
+	 *            the label converter
+	 * @param labelMode
+	 *            the label mode of the source
+	 */
+	public LabelModeConverter(
+			final Converter<T, ARGBType> intensities,
+			final LabelARGBConverter<T> labels,
+			final LabelMode labelMode) {
+
+		this.intensities = intensities;
+		this.intensityColors = (ColorConverter)intensities;
+		this.labels = labels;
+		this.labelMode = labelMode;
+	}
+
+	public LabelMode getLabelMode() {
+
+		return labelMode;
+	}
+
+	public LabelARGBConverter<T> getLabelConverter() {
+
+		return labels;
+	}
+
+	@Override
+	public void convert(final T input, final ARGBType output) {
+
+		if (labelMode.isEnabled())
+			labels.convert(input, output);
+		else
+			intensities.convert(input, output);
+	}
+
+	@Override
+	public ARGBType getColor() {
+
+		return labelMode.isEnabled() ? labels.getColor() : intensityColors.getColor();
+	}
+
+	@Override
+	public void setColor(final ARGBType c) {
+
+		if (labelMode.isEnabled())
+			labels.setColor(c);
+		else
+			intensityColors.setColor(c);
+	}
+
+	@Override
+	public boolean supportsColor() {
+
+		return intensityColors.supportsColor();
+	}
+
+	@Override
+	public double getMin() {
+
+		return intensityColors.getMin();
+	}
+
+	@Override
+	public double getMax() {
+
+		return intensityColors.getMax();
+	}
+
+	@Override
+	public void setMin(final double min) {
+
+		intensityColors.setMin(min);
+	}
+
+	@Override
+	public void setMax(final double max) {
+
+		intensityColors.setMax(max);
+	}
+}
@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.labels;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs with open addressing and linear probing. Not
+ * thread safe.
+ */
+public class LongHashSet {
+
+	private static final long EMPTY = 0;
+
+	private static final double MAX_LOAD = 0.5;
+
+	/* EMPTY itself is stored out of the table */
+	private boolean containsEmpty = false;
+
+	private long[] keys;
+
+	private int mask;
+
+	private int size = 0;
+
+	public LongHashSet(final int expectedSize) {
+
+		allocate(Math.max(4, Integer.highestOneBit(Math.max(1, (int)(expectedSize / MAX_LOAD))) << 1));
+	}
+
+	public LongHashSet() {
+
+		this(8);
+	}
+
+	public static LongHashSet of(final long... values) {
+
+		final LongHashSet set = new LongHashSet(values.length);
+		for (final long value : values)
+			set.add(value);
+		return set;
+	}
+
+	private void allocate(final int capacity) {
+
+		keys = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * The finalizer of MurmurHash3, spreads all bits of a long.
+	 *
+	 * @param x
+	 *            the value
+	 * @return its hash
+	 */
+	public static long mix(long x) {
+
+		x ^= x >>> 33;
+		x *= 0xff51afd7ed558ccdL;
+		x ^= x >>> 33;
+		x *= 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+		return x;
+	}
+
+	private int slot(final long value) {
+
+		int i = (int)mix(value) & mask;
+		while (keys[i] != EMPTY && keys[i] != value)
+			i = (i + 1) & mask;
+
+		return i;
+	}
+
+	public boolean contains(final long value) {
+
+		if (value == EMPTY)
+			return containsEmpty;
+
+		return keys[slot(value)] == value;
+	}
+
+	/**
+	 * @return true if the value was not in the set
+	 */
+	public boolean add(final long value) {
+
+		if (value == EMPTY) {
+			final boolean added = !containsEmpty;
+			containsEmpty = true;
+			return added;
+		}
+
+		final int i = slot(value);
+		if (keys[i] == value)
+			return false;
+
+		keys[i] = value;
+		if (++size > keys.length * MAX_LOAD)
+			rehash(keys.length << 1);
+
+		return true;
+	}
+
+	/**
+	 * @return true if the value was in the set
+	 */
+	public boolean remove(final long value) {
+
+		if (value == EMPTY) {
+			final boolean removed = containsEmpty;
+			containsEmpty = false;
+			return removed;
+		}
+
+		int i = slot(value);
+		if (keys[i] != value)
+			return false;
+
+		keys[i] = EMPTY;
+		--size;
+
+		// move back entries of the probe sequence that follows
+		for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+			final int home = (int)mix(keys[j]) & mask;
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				keys[j] = EMPTY;
+				i = j;
+			}
+		}
+		return true;
+	}
+
+	private void rehash(final int capacity) {
+
+		final long[] old = keys;
+		allocate(capacity);
+		for (final long key : old)
+			if (key != EMPTY)
+				keys[slot(key)] = key;
+	}
+
+	public int size() {
+
+		return size + (containsEmpty ? 1 : 0);
+	}
+
+	public boolean isEmpty() {
+
+		return size() == 0;
+	}
+
+	public void clear() {
+
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		containsEmpty = false;
+	}
+
+	/**
+	 * @return the values in no particular order
+	 */
+	public long[] toArray() {
+
+		final long[] values = new long[size()];
+		int n = 0;
+		if (containsEmpty)
+			values[n++] = EMPTY;
+		for (final long key : keys)
+			if (key != EMPTY)
+				values[n++] = key;
+		return values;
+	}
+
+	public LongHashSet copy() {
+
+		final LongHashSet copy = new LongHashSet(0);
+		copy.keys = keys.clone();
+		copy.mask = mask;
+		copy.size = size;
+		copy.containsEmpty = containsEmpty;
+		return copy;
+	}
+}
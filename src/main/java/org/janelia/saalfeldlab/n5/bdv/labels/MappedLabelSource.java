@@ -0,0 +1,186 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.labels;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import bdv.viewer.render.DefaultMipmapOrdering;
+import bdv.viewer.render.MipmapOrdering;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.Volatile;
+import net.imglib2.converter.Converter;
+import net.imglib2.converter.Converters;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.Type;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+
+/**
+ * An integer source whose fragments are mapped to segments on the fly by the
+ * {@link FragmentSegmentLut} of its {@link LabelMode}, while it is shown as
+ * labels. The label volume stays as it is, the agglomeration can be replaced
+ * at any time and both rendering and export see the current one. Mapped
+ * values are written back into the type of the source, so the data type does
+ * not change.
+ * <p>
+ * In intensity mode, or without a lookup table, the wrapped source is
+ * returned as it is. In label mode, labels are interpolated by nearest
+ * neighbor. Mipmap levels are selected like those of the wrapped source.
+ *
+ * @param <T>
+ *            the type
+ */
+public class MappedLabelSource<T extends Type<T>> implements Source<T>, MipmapOrdering {
+
+	private final Source<T> source;
+
+	private final LabelMode labelMode;
+
+	private final Converter<T, T> converter;
+
+	private final MipmapOrdering mipmapOrdering;
+
+	protected MappedLabelSource(
+			final Source<T> source,
+			final LabelMode labelMode,
+			final Converter<T, T> converter) {
+
+		this.source = source;
+		this.labelMode = labelMode;
+		this.converter = converter;
+		mipmapOrdering = source instanceof MipmapOrdering ? (MipmapOrdering)source : new DefaultMipmapOrdering(source);
+	}
+
+	/**
+	 * Wraps an integer source and its volatile version so that both map
+	 * fragments by the lookup table of the same {@link LabelMode}.
+	 *
+	 * @param source
+	 *            the source
+	 * @param volatileSource
+	 *            its volatile version, may be null
+	 * @param labelMode
+	 *            the label mode of the source
+	 * @return the mapped source and its volatile version
+	 */
+	public static <T extends IntegerType<T>, V extends Volatile<T> & Type<V>> Pair<Source<T>, Source<V>> wrap(
+			final Source<T> source,
+			final Source<V> volatileSource,
+			final LabelMode labelMode) {
+
+		final Source<T> mapped = new MappedLabelSource<>(
+				source,
+				labelMode,
+				(a, b) -> b.setInteger(labelMode.map(a.getIntegerLong())));
+
+		final Source<V> volatileMapped = volatileSource == null ? null : new MappedLabelSource<>(
+				volatileSource,
+				labelMode,
+				(a, b) -> {
+					b.setValid(a.isValid());
+					if (a.isValid())
+						b.get().setInteger(labelMode.map(a.get().getIntegerLong()));
+				});
+
+		return new ValuePair<>(mapped, volatileMapped);
+	}
+
+	public LabelMode getLabelMode() {
+
+		return labelMode;
+	}
+
+	@Override
+	public MipmapHints getMipmapHints(
+			final AffineTransform3D screenTransform,
+			final int timepoint,
+			final int previousTimepoint) {
+
+		return mipmapOrdering.getMipmapHints(screenTransform, timepoint, previousTimepoint);
+	}
+
+	@Override
+	public boolean isPresent(final int t) {
+
+		return source.isPresent(t);
+	}
+
+	@Override
+	public RandomAccessibleInterval<T> getSource(final int t, final int level) {
+
+		final RandomAccessibleInterval<T> fragments = source.getSource(t, level);
+		return labelMode.isMapped()
+				? Converters.convert(fragments, converter, source.getType().createVariable())
+				: fragments;
+	}
+
+	@Override
+	public RealRandomAccessible<T> getInterpolatedSource(final int t, final int level, final Interpolation method) {
+
+		if (!labelMode.isEnabled())
+			return source.getInterpolatedSource(t, level, method);
+
+		final RealRandomAccessible<T> fragments = source.getInterpolatedSource(t, level, Interpolation.NEARESTNEIGHBOR);
+		return labelMode.isMapped()
+				? Converters.convert(fragments, converter, source.getType().createVariable())
+				: fragments;
+	}
+
+	@Override
+	public void getSourceTransform(final int t, final int level, final AffineTransform3D transform) {
+
+		source.getSourceTransform(t, level, transform);
+	}
+
+	@Override
+	public T getType() {
+
+		return source.getType();
+	}
+
+	@Override
+	public String getName() {
+
+		return source.getName();
+	}
+
+	@Override
+	public VoxelDimensions getVoxelDimensions() {
+
+		return source.getVoxelDimensions();
+	}
+
+	@Override
+	public int getNumMipmapLevels() {
+
+		return source.getNumMipmapLevels();
+	}
+
+	@Override
+	public boolean doBoundingBoxCulling() {
+
+		return source.doBoundingBoxCulling();
+	}
+}
@@ -0,0 +1,375 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent block reads from one container and adapts
+ * the limit to the observed latency and throughput.
+ * <p>
+ * Reads are measured in windows of at least {@value #MIN_WINDOW_MILLIS} ms
+ * and twice as many reads as the limit. After each window in which the
+ * limit was reached:
+ * <ul>
+ * <li>if the mean latency exceeded {@value #LATENCY_TOLERANCE} times the
+ * lowest latency seen, the storage is queueing requests and the limit is
+ * decreased multiplicatively,</li>
+ * <li>otherwise the limit moves by one in the direction that improved
+ * throughput by at least {@value #MIN_GAIN}, and down when it did not, so
+ * that it settles at the smallest limit that gets the full throughput.</li>
+ * </ul>
+ * A failed read also decreases the limit multiplicatively. High latency
+ * object stores grow the limit, local disks and HDF5 files shrink it.
+ * <p>
+ * Threads that serve several containers, like the fetchers of a shared
+ * queue, use {@link #tryAcquire(Runnable)} instead of {@link #acquire()}, so
+ * that a busy container does not hold them while reads of other containers
+ * wait behind it.
+ */
+public class AdaptiveConcurrencyLimiter implements AdaptiveConcurrencyLimiterMBean {
+
+	static final long MIN_WINDOW_MILLIS = 100;
+
+	private static final int MIN_WINDOW_READS = 8;
+
+	static final double LATENCY_TOLERANCE = 2.0;
+
+	static final double MIN_GAIN = 0.05;
+
+	private static final double DECREASE_FACTOR = 0.75;
+
+	/* lets the lowest latency follow slow changes of the storage */
+	private static final double MIN_LATENCY_DECAY = 1.01;
+
+	private final String container;
+
+	private final int maxLimit;
+
+	/* System.nanoTime unless tests simulate time */
+	private final LongSupplier nanoTime;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition available = lock.newCondition();
+
+	/* reads that did not get a permit, run again when permits are released */
+	private final ArrayDeque<Runnable> deferred = new ArrayDeque<>();
+
+	private int limit;
+
+	private int inFlight = 0;
+
+	/* +1 if the last step increased the limit, -1 if it decreased it */
+	private int direction = 1;
+
+	private long windowStartNanos;
+
+	private int windowReads = 0;
+
+	private long windowBytes = 0;
+
+	private long windowLatencyNanos = 0;
+
+	private boolean windowSaturated = false;
+
+	private double meanLatencyNanos = Double.NaN;
+
+	private double minLatencyNanos = Double.POSITIVE_INFINITY;
+
+	private double throughput = Double.NaN;
+
+	private long increases = 0;
+
+	private long decreases = 0;
+
+	/**
+	 * @param container
+	 *            name of the container, for JMX
+	 * @param initialLimit
+	 *            the initial number of concurrent reads
+	 * @param maxLimit
+	 *            the maximum number of concurrent reads, usually the number
+	 *            of fetcher threads
+	 */
+	public AdaptiveConcurrencyLimiter(final String container, final int initialLimit, final int maxLimit) {
+
+		this(container, initialLimit, maxLimit, System::nanoTime);
+	}
+
+	/**
+	 * @param container
+	 *            name of the container, for JMX
+	 * @param initialLimit
+	 *            the initial number of concurrent reads
+	 * @param maxLimit
+	 *            the maximum number of concurrent reads, usually the number
+	 *            of fetcher threads
+	 * @param nanoTime
+	 *            the clock that measurement windows are timed with
+	 */
+	public AdaptiveConcurrencyLimiter(final String container, final int initialLimit, final int maxLimit, final LongSupplier nanoTime) {
+
+		this.container = container;
+		this.maxLimit = Math.max(1, maxLimit);
+		this.limit = Math.max(1, Math.min(this.maxLimit, initialLimit));
+		this.nanoTime = nanoTime;
+		windowStartNanos = nanoTime.getAsLong();
+	}
+
+	/**
+	 * Waits until a read may start.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void acquire() throws InterruptedException {
+
+		lock.lock();
+		try {
+			while (inFlight >= limit)
+				available.await();
+
+			++inFlight;
+			if (inFlight >= limit)
+				windowSaturated = true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Starts a read if the limit allows it. Otherwise {@code retry} is run
+	 * once a permit was released, on the thread that released it. It should
+	 * only hand the read back to where it came from, e.g. a queue.
+	 *
+	 * @param retry
+	 *            runs when the read should try again
+	 * @return whether the read may start
+	 */
+	public boolean tryAcquire(final Runnable retry) {
+
+		lock.lock();
+		try {
+			if (inFlight >= limit) {
+				windowSaturated = true;
+				deferred.add(retry);
+				return false;
+			}
+			++inFlight;
+			if (inFlight >= limit)
+				windowSaturated = true;
+
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reports a finished read.
+	 *
+	 * @param latencyNanos
+	 *            time the read took
+	 * @param bytes
+	 *            decoded size of the block read
+	 * @param success
+	 *            false if the read failed
+	 */
+	public void release(final long latencyNanos, final long bytes, final boolean success) {
+
+		final List<Runnable> retries = new ArrayList<>();
+		lock.lock();
+		try {
+			--inFlight;
+			if (!success) {
+				decrease();
+				startWindow(nanoTime.getAsLong());
+			} else {
+				++windowReads;
+				windowBytes += bytes;
+				windowLatencyNanos += latencyNanos;
+
+				final long now = nanoTime.getAsLong();
+				if (windowReads >= Math.max(MIN_WINDOW_READS, 2 * limit) && now - windowStartNanos >= MIN_WINDOW_MILLIS * 1000000)
+					adapt(now);
+			}
+			available.signalAll();
+			for (int i = inFlight; i < limit && !deferred.isEmpty(); ++i)
+				retries.add(deferred.poll());
+		} finally {
+			lock.unlock();
+		}
+		retries.forEach(Runnable::run);
+	}
+
+	private void adapt(final long now) {
+
+		final double latency = (double)windowLatencyNanos / windowReads;
+		final double windowThroughput = windowBytes * 1e9 / (now - windowStartNanos);
+		minLatencyNanos = Math.min(minLatencyNanos * MIN_LATENCY_DECAY, latency);
+
+		if (windowSaturated) {
+			if (latency > LATENCY_TOLERANCE * minLatencyNanos)
+				decrease();
+			else if (Double.isNaN(throughput))
+				step(1);
+			else {
+				final boolean gained = windowThroughput > throughput * (1 + MIN_GAIN);
+				final boolean lost = windowThroughput < throughput * (1 - MIN_GAIN);
+				if (direction > 0)
+					step(gained ? 1 : -1);
+				else
+					step(lost ? 1 : -1);
+			}
+		}
+
+		meanLatencyNanos = latency;
+		throughput = windowThroughput;
+		startWindow(now);
+	}
+
+	private void step(final int delta) {
+
+		final int next = Math.max(1, Math.min(maxLimit, limit + delta));
+		if (next > limit)
+			++increases;
+		else if (next < limit)
+			++decreases;
+
+		direction = delta;
+		limit = next;
+	}
+
+	private void decrease() {
+
+		final int next = Math.max(1, (int)(limit * DECREASE_FACTOR));
+		if (next < limit)
+			++decreases;
+
+		direction = -1;
+		limit = next;
+	}
+
+	private void startWindow(final long now) {
+
+		windowStartNanos = now;
+		windowReads = 0;
+		windowBytes = 0;
+		windowLatencyNanos = 0;
+		windowSaturated = inFlight >= limit;
+	}
+
+	@Override
+	public String getContainer() {
+
+		return container;
+	}
+
+	@Override
+	public int getLimit() {
+
+		lock.lock();
+		try {
+			return limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getMaxLimit() {
+
+		return maxLimit;
+	}
+
+	@Override
+	public int getInFlight() {
+
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public double getMeanLatencyMillis() {
+
+		lock.lock();
+		try {
+			return meanLatencyNanos / 1e6;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public double getMinLatencyMillis() {
+
+		lock.lock();
+		try {
+			return Double.isInfinite(minLatencyNanos) ? Double.NaN : minLatencyNanos / 1e6;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public double getThroughputMBps() {
+
+		lock.lock();
+		try {
+			return throughput / 1e6;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getIncreases() {
+
+		lock.lock();
+		try {
+			return increases;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getDecreases() {
+
+		lock.lock();
+		try {
+			return decreases;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Block cache hits and misses, load times and loaded bytes of one scale level
+ * of one source. Resident bytes are the bytes of loaded cells that were not
+ * garbage collected yet.
+ */
+public class BlockLoadStatistics implements BlockLoadStatisticsMBean {
+
+	private final String sourceName;
+
+	private final int level;
+
+	private final String dataset;
+
+	private volatile long openNanos = 0;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder failures = new LongAdder();
+
+	private final LongAdder bytes = new LongAdder();
+
+	private final LongAdder emptyCells = new LongAdder();
+
+	private final LatencyHistogram loadTimes = new LatencyHistogram();
+
+	private final LongAdder residentBytes = new LongAdder();
+
+	private final Set<Resident> residents = ConcurrentHashMap.newKeySet();
+
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+	private static class Resident extends WeakReference<Object> {
+
+		private final long bytes;
+
+		Resident(final Object cell, final long bytes, final ReferenceQueue<Object> queue) {
+
+			super(cell, queue);
+			this.bytes = bytes;
+		}
+	}
+
+	public BlockLoadStatistics(final String sourceName, final int level, final String dataset) {
+
+		this.sourceName = sourceName;
+		this.level = level;
+		this.dataset = dataset;
+	}
+
+	/**
+	 * @param nanos
+	 *            the time it took to open the dataset
+	 */
+	public void opened(final long nanos) {
+
+		openNanos = nanos;
+	}
+
+	void hit() {
+
+		hits.increment();
+	}
+
+	void loaded(final long nanos, final long numBytes) {
+
+		misses.increment();
+		bytes.add(numBytes);
+		loadTimes.record(nanos);
+	}
+
+	/*
+	 * Count the bytes of a loaded cell as resident until it is garbage
+	 * collected.
+	 */
+	void resident(final Object cell, final long numBytes) {
+
+		expunge();
+		residents.add(new Resident(cell, numBytes, collected));
+		residentBytes.add(numBytes);
+	}
+
+	private void expunge() {
+
+		Reference<?> reference;
+		while ((reference = collected.poll()) != null)
+			if (residents.remove(reference))
+				residentBytes.add(-((Resident)reference).bytes);
+	}
+
+	void emptyCell() {
+
+		misses.increment();
+		emptyCells.increment();
+	}
+
+	void failed() {
+
+		misses.increment();
+		failures.increment();
+	}
+
+	public LatencyHistogram getLoadTimes() {
+
+		return loadTimes;
+	}
+
+	@Override
+	public String getSourceName() {
+
+		return sourceName;
+	}
+
+	@Override
+	public int getLevel() {
+
+		return level;
+	}
+
+	@Override
+	public String getDataset() {
+
+		return dataset;
+	}
+
+	@Override
+	public double getOpenMillis() {
+
+		return openNanos / 1e6;
+	}
+
+	@Override
+	public long getCacheHits() {
+
+		return hits.sum();
+	}
+
+	@Override
+	public long getCacheMisses() {
+
+		return misses.sum();
+	}
+
+	@Override
+	public double getHitRatio() {
+
+		final long h = hits.sum();
+		final long n = h + misses.sum();
+		return n == 0 ? 0 : (double)h / n;
+	}
+
+	@Override
+	public long getLoadFailures() {
+
+		return failures.sum();
+	}
+
+	@Override
+	public long getBytesLoaded() {
+
+		return bytes.sum();
+	}
+
+	@Override
+	public long getResidentBytes() {
+
+		expunge();
+		return residentBytes.sum();
+	}
+
+	@Override
+	public long getEmptyCells() {
+
+		return emptyCells.sum();
+	}
+
+	@Override
+	public double getMeanLoadMillis() {
+
+		return loadTimes.getMeanMillis();
+	}
+
+	@Override
+	public double getLoadMillis50() {
+
+		return loadTimes.getPercentileMillis(50);
+	}
+
+	@Override
+	public double getLoadMillis99() {
+
+		return loadTimes.getPercentileMillis(99);
+	}
+
+	@Override
+	public double getMaxLoadMillis() {
+
+		return loadTimes.getMaxMillis();
+	}
+
+	@Override
+	public void reset() {
+
+		hits.reset();
+		misses.reset();
+		failures.reset();
+		bytes.reset();
+		emptyCells.reset();
+		loadTimes.reset();
+	}
+}
@@ -0,0 +1,206 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of the stored, usually compressed, bytes of
+ * blocks with a byte budget. Sits below the decoded cell caches: when a
+ * cell was evicted and is loaded again, its bytes are decoded from here
+ * instead of being read from storage.
+ * <p>
+ * All viewers share one {@link #shared() cache}, so the memory it takes does
+ * not grow with the number of viewers opened.
+ */
+public class CompressedBlockCache implements CompressedBlockCacheMBean {
+
+	/* larger entries would evict too much of the cache */
+	private static final int MAX_ENTRY_FRACTION = 4;
+
+	/* fraction of the heap used for the shared cache */
+	private static final int SHARED_FRACTION = 10;
+
+	private static CompressedBlockCache shared;
+
+	private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long maxBytes;
+
+	private long bytes = 0;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	private long evictions = 0;
+
+	/**
+	 * @param maxBytes
+	 *            the byte budget
+	 */
+	public CompressedBlockCache(final long maxBytes) {
+
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the cache shared by all viewers, with a budget of a tenth of
+	 *         the maximum heap size
+	 */
+	public static synchronized CompressedBlockCache shared() {
+
+		if (shared == null)
+			shared = new CompressedBlockCache(Runtime.getRuntime().maxMemory() / SHARED_FRACTION);
+
+		return shared;
+	}
+
+	/**
+	 * @param container
+	 *            the container URI
+	 * @param path
+	 *            the path of the block in the container
+	 * @return the key of the block
+	 */
+	public static String key(final String container, final String path) {
+
+		return container + "|" + path;
+	}
+
+	/**
+	 * @param key
+	 *            the key
+	 * @return the bytes or null if they are not cached
+	 */
+	public synchronized byte[] get(final String key) {
+
+		final byte[] value = entries.get(key);
+		if (value == null)
+			++misses;
+		else
+			++hits;
+
+		return value;
+	}
+
+	public synchronized void put(final String key, final byte[] value) {
+
+		if (value.length > maxBytes / MAX_ENTRY_FRACTION)
+			return;
+
+		final byte[] previous = entries.put(key, value);
+		if (previous != null)
+			bytes -= previous.length;
+
+		bytes += value.length;
+		evict();
+	}
+
+	private void evict() {
+
+		final Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().getValue().length;
+			it.remove();
+			++evictions;
+		}
+	}
+
+	@Override
+	public synchronized long getMaxBytes() {
+
+		return maxBytes;
+	}
+
+	@Override
+	public synchronized void setMaxBytes(final long maxBytes) {
+
+		this.maxBytes = Math.max(0, maxBytes);
+		evict();
+	}
+
+	@Override
+	public synchronized long getBytes() {
+
+		return bytes;
+	}
+
+	@Override
+	public synchronized int getNumEntries() {
+
+		return entries.size();
+	}
+
+	@Override
+	public synchronized long getHits() {
+
+		return hits;
+	}
+
+	@Override
+	public synchronized long getMisses() {
+
+		return misses;
+	}
+
+	@Override
+	public synchronized long getEvictions() {
+
+		return evictions;
+	}
+
+	@Override
+	public synchronized void clear() {
+
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Remove the blocks of a container.
+	 *
+	 * @param container
+	 *            the container URI
+	 */
+	public synchronized void clear(final String container) {
+
+		final String prefix = key(container, "");
+		final Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<String, byte[]> entry = it.next();
+			if (entry.getKey().startsWith(prefix)) {
+				bytes -= entry.getValue().length;
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void reset() {
+
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+}
@@ -0,0 +1,44 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+/**
+ * JMX view of a {@link CompressedBlockCache}.
+ */
+public interface CompressedBlockCacheMBean {
+
+	long getMaxBytes();
+
+	void setMaxBytes(long maxBytes);
+
+	long getBytes();
+
+	int getNumEntries();
+
+	long getHits();
+
+	long getMisses();
+
+	long getEvictions();
+
+	void clear();
+}
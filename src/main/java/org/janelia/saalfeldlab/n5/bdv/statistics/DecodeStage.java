@@ -0,0 +1,173 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.saalfeldlab.n5.N5Exception;
+
+/**
+ * The CPU stage of the block loading pipeline: decompresses and decodes
+ * blocks whose bytes were read by the fetcher threads, on its own pool of
+ * threads. Blocks are handed over through a bounded queue, fetcher threads
+ * wait when it is full.
+ * <p>
+ * All viewers decode on one {@link #shared() shared} stage, so opening more
+ * viewers does not add decoder threads.
+ */
+public class DecodeStage {
+
+	private static final AtomicInteger nextThreadId = new AtomicInteger();
+
+	/* queued blocks per decoder thread */
+	private static final int QUEUE_PER_THREAD = 4;
+
+	private static DecodeStage shared;
+
+	private final ThreadPoolExecutor exec;
+
+	private final StageStatistics statistics;
+
+	/**
+	 * @param numThreads
+	 *            the number of decoder threads
+	 */
+	public DecodeStage(final int numThreads) {
+
+		final int n = Math.max(1, numThreads);
+		exec = new ThreadPoolExecutor(
+				n,
+				n,
+				10,
+				TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(QUEUE_PER_THREAD * n),
+				r -> {
+					final Thread thread = new Thread(r, "n5-viewer-decoder-" + nextThreadId.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				},
+				(r, executor) -> {
+					if (executor.isShutdown())
+						throw new RejectedExecutionException("Decoder is shut down");
+					try {
+						executor.getQueue().put(r);
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException(e);
+					}
+				});
+		exec.allowCoreThreadTimeOut(true);
+		statistics = new StageStatistics(exec::getMaximumPoolSize);
+	}
+
+	/**
+	 * @return the stage shared by all viewers, with one decoder thread per
+	 *         processor
+	 */
+	public static synchronized DecodeStage shared() {
+
+		if (shared == null)
+			shared = new DecodeStage(Runtime.getRuntime().availableProcessors());
+
+		return shared;
+	}
+
+	/**
+	 * Decodes on a decoder thread and waits for the result.
+	 *
+	 * @param decoder
+	 *            decodes a block
+	 * @return the block
+	 * @throws N5Exception
+	 *             if decoding failed or was interrupted
+	 */
+	public <T> T decode(final Callable<T> decoder) throws N5Exception {
+
+		final Future<T> future;
+		try {
+			future = exec.submit(() -> {
+				final long t = System.nanoTime();
+				try {
+					return decoder.call();
+				} finally {
+					statistics.record(System.nanoTime() - t);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			throw new N5Exception("Could not decode block", e);
+		}
+
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new N5Exception("Interrupted while decoding block", e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new N5Exception("Could not decode block", cause);
+		}
+	}
+
+	public StageStatistics getStatistics() {
+
+		return statistics;
+	}
+
+	public int getNumThreads() {
+
+		return exec.getMaximumPoolSize();
+	}
+
+	/**
+	 * @param numThreads
+	 *            the number of decoder threads, the queue keeps its size
+	 */
+	public synchronized void setNumThreads(final int numThreads) {
+
+		final int n = Math.max(1, numThreads);
+		if (n > exec.getMaximumPoolSize()) {
+			exec.setMaximumPoolSize(n);
+			exec.setCorePoolSize(n);
+		} else {
+			exec.setCorePoolSize(n);
+			exec.setMaximumPoolSize(n);
+		}
+	}
+
+	/**
+	 * @return the number of blocks waiting to be decoded
+	 */
+	public int getQueueLength() {
+
+		return exec.getQueue().size();
+	}
+}
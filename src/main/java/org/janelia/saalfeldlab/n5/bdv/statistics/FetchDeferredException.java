@@ -0,0 +1,53 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+/**
+ * Thrown by a {@link LimitedN5Reader} on a fetcher thread of an
+ * {@link InstrumentedSharedQueue} when its container has no permit left.
+ * The fetch is queued again when a permit is released, so this is not a
+ * failure. It has no stack trace.
+ */
+class FetchDeferredException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	FetchDeferredException(final String pathName) {
+
+		super("Deferred read from " + pathName, null, false, false);
+	}
+
+	/**
+	 * @param t
+	 *            an exception
+	 * @return whether the exception or one of its causes is a
+	 *         {@link FetchDeferredException}
+	 */
+	static boolean isDeferred(final Throwable t) {
+
+		for (Throwable cause = t; cause != null; cause = cause.getCause())
+			if (cause instanceof FetchDeferredException)
+				return true;
+
+		return false;
+	}
+}
@@ -0,0 +1,150 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.util.Arrays;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Frame times and time to valid frame of a viewer.
+ *
+ * BDV repaints a view until all visible blocks are valid, so the last repaint
+ * of a view is its first valid frame. A view counts once it has been held for
+ * the quiet period, shorter views are in-between frames of continuous
+ * navigation. A held view that is still being repainted when the viewer
+ * transform changes again is counted as abandoned.
+ */
+public class FrameStatistics {
+
+	public static final long DEFAULT_QUIET_MILLIS = 250;
+
+	/* longer gaps between frames are idle time, not frame time */
+	private static final long MAX_FRAME_NANOS = 1000000000L;
+
+	private final long quietNanos;
+
+	private final LatencyHistogram frameTimes = new LatencyHistogram();
+
+	private final LatencyHistogram timesToValid = new LatencyHistogram();
+
+	private long framesPainted = 0;
+
+	private long viewsAbandoned = 0;
+
+	private long lastFrameNanos = -1;
+
+	private long viewStartNanos = -1;
+
+	private long viewLastPaintNanos = -1;
+
+	private double[] viewTransform = null;
+
+	public FrameStatistics(final long quietMillis) {
+
+		quietNanos = quietMillis * 1000000;
+	}
+
+	public FrameStatistics() {
+
+		this(DEFAULT_QUIET_MILLIS);
+	}
+
+	/**
+	 * Call when the viewer transform changed.
+	 *
+	 * @param transform
+	 *            the new viewer transform
+	 */
+	public synchronized void transformChanged(final AffineTransform3D transform) {
+
+		final long now = System.nanoTime();
+		if (viewStartNanos >= 0 && now - viewStartNanos >= quietNanos) {
+			if (!finishView(now))
+				++viewsAbandoned;
+		}
+		viewStartNanos = now;
+		viewLastPaintNanos = -1;
+		viewTransform = transform.getRowPackedCopy();
+	}
+
+	/**
+	 * Call when a frame was painted.
+	 *
+	 * @param transform
+	 *            the viewer transform the frame was rendered with
+	 */
+	public synchronized void painted(final AffineTransform3D transform) {
+
+		final long now = System.nanoTime();
+		++framesPainted;
+		if (lastFrameNanos >= 0 && now - lastFrameNanos < MAX_FRAME_NANOS)
+			frameTimes.record(now - lastFrameNanos);
+
+		lastFrameNanos = now;
+		if (viewStartNanos >= 0 && Arrays.equals(viewTransform, transform.getRowPackedCopy()))
+			viewLastPaintNanos = now;
+	}
+
+	/**
+	 * Record the time to valid frame of the current view if it has not been
+	 * repainted for the quiet period.
+	 */
+	private boolean finishView(final long now) {
+
+		if (viewStartNanos < 0 || viewLastPaintNanos < 0 || now - viewLastPaintNanos < quietNanos)
+			return false;
+
+		timesToValid.record(viewLastPaintNanos - viewStartNanos);
+		viewStartNanos = -1;
+		return true;
+	}
+
+	public synchronized LatencyHistogram getFrameTimes() {
+
+		return frameTimes;
+	}
+
+	public synchronized LatencyHistogram getTimesToValidFrame() {
+
+		finishView(System.nanoTime());
+		return timesToValid;
+	}
+
+	public synchronized long getFramesPainted() {
+
+		return framesPainted;
+	}
+
+	public synchronized long getViewsAbandoned() {
+
+		return viewsAbandoned;
+	}
+
+	public synchronized void reset() {
+
+		frameTimes.reset();
+		timesToValid.reset();
+		framesPainted = 0;
+		viewsAbandoned = 0;
+	}
+}
@@ -0,0 +1,226 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.ref.SoftRefLoaderCache;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * A {@link SoftRefLoaderCache} that counts hits and misses and times the
+ * loads into a {@link BlockLoadStatistics}.
+ *
+ * If it knows which cells are missing from storage, all missing cells share
+ * the data of the first full sized missing cell that was loaded instead of
+ * each keeping their own. Missing cells are not counted as loaded bytes.
+ * The shared data must not be written to. When the blocks known to be
+ * missing are forgotten, e.g. because they expired, the cells that were
+ * served empty and are not known to be missing anymore are invalidated, so
+ * that they are loaded again. Volatile caches on top of this one drop
+ * their references to those cells when they are garbage collected.
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public class InstrumentedLoaderCache<K, V> extends SoftRefLoaderCache<K, V> {
+
+	private final BlockLoadStatistics statistics;
+
+	private final int bytesPerElement;
+
+	private final CellGrid grid;
+
+	private final LongPredicate missing;
+
+	private final LongSupplier missingVersion;
+
+	private volatile Object emptyData = null;
+
+	/* keys of cells that were served the shared data */
+	private final Set<K> emptyKeys = ConcurrentHashMap.newKeySet();
+
+	private volatile long version;
+
+	/**
+	 * @param statistics
+	 *            the statistics to count into
+	 * @param bytesPerElement
+	 *            bytes per element of loaded {@link Cell}s
+	 * @param grid
+	 *            the cell grid, keys are flat cell indices in it
+	 * @param missing
+	 *            tests whether the cell with a flat index is known to be
+	 *            missing from storage
+	 * @param missingVersion
+	 *            changes whenever cells known to be missing are forgotten,
+	 *            may be null
+	 */
+	public InstrumentedLoaderCache(
+			final BlockLoadStatistics statistics,
+			final int bytesPerElement,
+			final CellGrid grid,
+			final LongPredicate missing,
+			final LongSupplier missingVersion) {
+
+		this.statistics = statistics;
+		this.bytesPerElement = bytesPerElement;
+		this.grid = grid;
+		this.missing = missing;
+		this.missingVersion = missingVersion;
+		this.version = missingVersion == null ? 0 : missingVersion.getAsLong();
+	}
+
+	/**
+	 * @param statistics
+	 *            the statistics to count into
+	 * @param bytesPerElement
+	 *            bytes per element of loaded {@link Cell}s
+	 */
+	public InstrumentedLoaderCache(final BlockLoadStatistics statistics, final int bytesPerElement) {
+
+		this(statistics, bytesPerElement, null, null, null);
+	}
+
+	@Override
+	public V getIfPresent(final K key) {
+
+		invalidateFound();
+		final V value = super.getIfPresent(key);
+		if (value != null)
+			statistics.hit();
+
+		return value;
+	}
+
+	@Override
+	public V get(final K key, final CacheLoader<? super K, ? extends V> loader) throws ExecutionException {
+
+		invalidateFound();
+		final boolean[] loaded = new boolean[1];
+		final CacheLoader<K, V> timedLoader = k -> {
+			loaded[0] = true;
+			final V empty = sharedEmptyCell(k);
+			if (empty != null) {
+				emptyKeys.add(k);
+				statistics.emptyCell();
+				return empty;
+			}
+
+			final long t = System.nanoTime();
+			try {
+				final V value = loader.get(k);
+				if (isMissing(k)) {
+					// found missing just now, share the data from now on
+					keepEmptyData(value);
+					final V shared = sharedEmptyCell(k);
+					if (shared != null)
+						emptyKeys.add(k);
+
+					statistics.emptyCell();
+					return shared == null ? value : shared;
+				}
+				final long numBytes = numBytes(value);
+				statistics.loaded(System.nanoTime() - t, numBytes);
+				statistics.resident(value, numBytes);
+				return value;
+			} catch (final Exception e) {
+				if (!FetchDeferredException.isDeferred(e))
+					statistics.failed();
+
+				throw e;
+			}
+		};
+		final V value = super.get(key, timedLoader);
+		if (!loaded[0])
+			statistics.hit();
+
+		return value;
+	}
+
+	/*
+	 * Invalidate cells served empty whose blocks are not known to be missing
+	 * anymore, if missing blocks were forgotten since the last call.
+	 */
+	private void invalidateFound() {
+
+		if (missingVersion == null)
+			return;
+
+		final long v = missingVersion.getAsLong();
+		if (v == version)
+			return;
+
+		version = v;
+		for (final K key : emptyKeys) {
+			if (!isMissing(key)) {
+				emptyKeys.remove(key);
+				invalidate(key);
+			}
+		}
+	}
+
+	private boolean isMissing(final K key) {
+
+		return grid != null && key instanceof Long && missing.test((Long)key);
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private V sharedEmptyCell(final K key) {
+
+		final Object data = emptyData;
+		if (data == null || !isMissing(key))
+			return null;
+
+		final long[] min = new long[grid.numDimensions()];
+		final int[] dimensions = new int[grid.numDimensions()];
+		grid.getCellDimensions((Long)key, min, dimensions);
+		return (V)new Cell(dimensions, min, data);
+	}
+
+	private void keepEmptyData(final V value) {
+
+		if (emptyData != null || !(value instanceof Cell))
+			return;
+
+		final Cell<?> cell = (Cell<?>)value;
+		long fullSize = 1;
+		for (int d = 0; d < grid.numDimensions(); ++d)
+			fullSize *= grid.cellDimension(d);
+
+		if (cell.size() == fullSize)
+			emptyData = cell.getData();
+	}
+
+	private long numBytes(final V value) {
+
+		return value instanceof Cell ? ((Cell<?>)value).size() * bytesPerElement : 0;
+	}
+}
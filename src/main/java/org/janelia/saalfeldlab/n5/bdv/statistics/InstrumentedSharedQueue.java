@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import bdv.cache.CacheControl;
+import bdv.cache.SharedQueue;
+
+/**
+ * A {@link SharedQueue} that reports queue wait and fetch times of all
+ * fetches to a {@link ViewerStatistics}.
+ *
+ * As the {@link CacheControl} of a viewer, it also cancels stale fetches.
+ * Before each frame, queued fetches are moved behind those of the new frame,
+ * and the volatile caches queue the blocks that the new frame still needs
+ * again. A fetch that was not queued again within {@link #getMaxRequestAge()}
+ * frames is dropped before its I/O starts. Fetches the queue discards when
+ * its prefetch buffer is full are counted as cancelled as well.
+ * <p>
+ * Fetchers do not wait for the {@link AdaptiveConcurrencyLimiter} of a busy
+ * container. A fetch that gets no permit is put aside and queued again with
+ * its priority when a read of that container finishes, and the fetcher
+ * takes the next fetch, which may be for another container.
+ */
+public class InstrumentedSharedQueue extends SharedQueue implements CacheControl {
+
+	/**
+	 * Frames after which a fetch that was not requested again is cancelled.
+	 * Rendering of a frame may be interrupted before it touched all blocks, so
+	 * one frame of slack avoids cancelling blocks that are still visible.
+	 */
+	public static final int DEFAULT_MAX_REQUEST_AGE = 2;
+
+	private final ViewerStatistics statistics;
+
+	private volatile int maxRequestAge = DEFAULT_MAX_REQUEST_AGE;
+
+	/* queued fetches, to notice those the queue drops without running them */
+	private final Set<Reference<Request>> queued = ConcurrentHashMap.newKeySet();
+
+	private final ReferenceQueue<Request> dropped = new ReferenceQueue<>();
+
+	/* queues the fetch that runs on the current fetcher thread again */
+	private static final ThreadLocal<Runnable> retry = new ThreadLocal<>();
+
+	private class Request implements Callable<Object> {
+
+		private final Callable<?> element;
+
+		private final int priority;
+
+		private final long queuedNanos = System.nanoTime();
+
+		private final long frame = getCurrentFrame();
+
+		private final Reference<Request> reference = new WeakReference<>(this, dropped);
+
+		private boolean started = false;
+
+		Request(final Callable<?> element, final int priority) {
+
+			this.element = element;
+			this.priority = priority;
+			queued.add(reference);
+		}
+
+		@Override
+		public Object call() throws Exception {
+
+			queued.remove(reference);
+			final int maxAge = maxRequestAge;
+			if (maxAge >= 0 && getCurrentFrame() - frame > maxAge) {
+				statistics.fetchCancelled();
+				return null;
+			}
+
+			final long start = System.nanoTime();
+			if (!started) {
+				statistics.fetchStarted(start - queuedNanos);
+				started = true;
+			}
+			retry.set(this::requeue);
+			boolean deferred = false;
+			try {
+				return element.call();
+			} catch (final Exception e) {
+				if (!FetchDeferredException.isDeferred(e))
+					throw e;
+
+				deferred = true;
+				return null;
+			} finally {
+				retry.remove();
+				if (!deferred)
+					statistics.fetchDone(System.nanoTime() - start);
+			}
+		}
+
+		private void requeue() {
+
+			queued.add(reference);
+			InstrumentedSharedQueue.super.put(this, priority, false);
+		}
+	}
+
+	InstrumentedSharedQueue(final int numFetcherThreads, final ViewerStatistics statistics) {
+
+		super(numFetcherThreads);
+		this.statistics = statistics;
+	}
+
+	public ViewerStatistics getStatistics() {
+
+		return statistics;
+	}
+
+	/**
+	 * @return frames after which a fetch that was not requested again is
+	 *         cancelled, negative if fetches are never cancelled
+	 */
+	public int getMaxRequestAge() {
+
+		return maxRequestAge;
+	}
+
+	/**
+	 * @param maxRequestAge
+	 *            frames after which a fetch that was not requested again is
+	 *            cancelled, negative to never cancel fetches
+	 */
+	public void setMaxRequestAge(final int maxRequestAge) {
+
+		this.maxRequestAge = maxRequestAge;
+	}
+
+	private void countDropped() {
+
+		Reference<? extends Request> reference;
+		while ((reference = dropped.poll()) != null)
+			if (queued.remove(reference))
+				statistics.fetchCancelled();
+	}
+
+	@Override
+	public void put(final Callable<?> element, final int priority, final boolean enqueueToFront) {
+
+		countDropped();
+		statistics.fetchQueued();
+		super.put(new Request(element, priority), priority, enqueueToFront);
+	}
+
+	/**
+	 * @return what queues the fetch that runs on the current thread again,
+	 *         null if the current thread is not running a fetch of an
+	 *         {@link InstrumentedSharedQueue}
+	 */
+	static Runnable getRetry() {
+
+		return retry.get();
+	}
+
+	@Override
+	public void prepareNextFrame() {
+
+		if (maxRequestAge >= 0)
+			clearToPrefetch();
+
+		countDropped();
+	}
+}
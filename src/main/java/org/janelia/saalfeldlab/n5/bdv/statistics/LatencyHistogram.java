@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with exponentially growing buckets. Bucket 0
+ * counts durations below 1&mu;s, bucket i &gt; 0 those in [2<sup>i-1</sup>,
+ * 2<sup>i</sup>) &mu;s. Recording is lock free and cheap enough to be left
+ * on; percentiles are resolved to the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+
+	private static final int NUM_BUCKETS = 40;
+
+	private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sumNanos = new LongAdder();
+
+	private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+	public LatencyHistogram() {
+
+		for (int i = 0; i < NUM_BUCKETS; ++i)
+			buckets[i] = new LongAdder();
+	}
+
+	public void record(final long nanos) {
+
+		final long micros = Math.max(0, nanos) / 1000;
+		buckets[Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+		count.increment();
+		sumNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	public long getCount() {
+
+		return count.sum();
+	}
+
+	public double getMeanMillis() {
+
+		final long n = count.sum();
+		return n == 0 ? 0 : sumNanos.sum() / 1e6 / n;
+	}
+
+	public double getMaxMillis() {
+
+		return maxNanos.get() / 1e6;
+	}
+
+	/**
+	 * @param p
+	 *            the percentile in [0, 100]
+	 * @return the upper bound of the bucket containing the percentile in
+	 *         milliseconds, 0 if nothing was recorded
+	 */
+	public double getPercentileMillis(final double p) {
+
+		final long[] counts = getBucketCounts();
+		long n = 0;
+		for (final long c : counts)
+			n += c;
+
+		if (n == 0)
+			return 0;
+
+		final long rank = Math.max(1, (long)Math.ceil(p / 100.0 * n));
+		long cumulative = 0;
+		for (int i = 0; i < NUM_BUCKETS; ++i) {
+			cumulative += counts[i];
+			if (cumulative >= rank)
+				return Math.min((1L << i) / 1e3, getMaxMillis());
+		}
+		return getMaxMillis();
+	}
+
+	public long[] getBucketCounts() {
+
+		final long[] counts = new long[NUM_BUCKETS];
+		for (int i = 0; i < NUM_BUCKETS; ++i)
+			counts[i] = buckets[i].sum();
+
+		return counts;
+	}
+
+	public void reset() {
+
+		for (final LongAdder bucket : buckets)
+			bucket.reset();
+
+		count.reset();
+		sumNanos.reset();
+		maxNanos.reset();
+	}
+}
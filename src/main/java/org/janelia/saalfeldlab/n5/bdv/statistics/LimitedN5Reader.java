@@ -0,0 +1,355 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockReader;
+import org.janelia.saalfeldlab.n5.KeyValueAccess;
+import org.janelia.saalfeldlab.n5.LockedChannel;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5KeyValueReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5URI;
+import org.janelia.saalfeldlab.n5.bdv.DataTypes;
+
+/**
+ * Delegates to another {@link N5Reader} and passes block reads through an
+ * {@link AdaptiveConcurrencyLimiter}.
+ * <p>
+ * Block reads from N5 key value stores are split in two stages: the calling
+ * fetcher thread reads the stored bytes while holding a permit of the
+ * limiter, then a {@link DecodeStage} decompresses and decodes them. The
+ * stored bytes are kept in a {@link CompressedBlockCache}, so blocks whose
+ * decoded cells were evicted are decoded again without I/O. Blocks found
+ * missing are remembered in {@link MissingBlocks} and not requested again.
+ * The bytes and time of each read are reported to the
+ * {@link ViewerStatistics.ReadListener}s.
+ * <p>
+ * Only readers that are {@link N5KeyValueReader}s themselves are split, i.e.
+ * N5 containers on the file system or in cloud storage. Other formats, e.g.
+ * HDF5 and Zarr, synthetic data and readers that wrap other readers, such as
+ * the benchmark readers, read and decode in one step under the limiter and
+ * bypass the {@link CompressedBlockCache}.
+ */
+public class LimitedN5Reader implements N5Reader {
+
+	private final N5Reader n5;
+
+	private final AdaptiveConcurrencyLimiter limiter;
+
+	private final StageStatistics ioStatistics;
+
+	private final DecodeStage decodeStage;
+
+	private final CompressedBlockCache compressedCache;
+
+	private final MissingBlocks missingBlocks;
+
+	/**
+	 * @param n5
+	 *            the reader
+	 * @param limiter
+	 *            limits the concurrent reads
+	 * @param ioStatistics
+	 *            times the I/O stage, may be null
+	 * @param decodeStage
+	 *            decodes blocks of key value stores, if null they are decoded
+	 *            on the calling thread after the limiter was released
+	 * @param compressedCache
+	 *            caches the stored bytes of blocks of key value stores, may
+	 *            be null
+	 * @param missingBlocks
+	 *            remembers missing blocks, may be null
+	 */
+	public LimitedN5Reader(
+			final N5Reader n5,
+			final AdaptiveConcurrencyLimiter limiter,
+			final StageStatistics ioStatistics,
+			final DecodeStage decodeStage,
+			final CompressedBlockCache compressedCache,
+			final MissingBlocks missingBlocks) {
+
+		this.n5 = n5;
+		this.limiter = limiter;
+		this.ioStatistics = ioStatistics;
+		this.decodeStage = decodeStage;
+		this.compressedCache = compressedCache;
+		this.missingBlocks = missingBlocks;
+	}
+
+	public LimitedN5Reader(final N5Reader n5, final AdaptiveConcurrencyLimiter limiter) {
+
+		this(n5, limiter, null, null, null, null);
+	}
+
+	/**
+	 * @param pathName
+	 *            the dataset path
+	 * @param index
+	 *            the index of a block from {@link MissingBlocks#flatIndex}
+	 * @return whether the block is known to be missing
+	 */
+	public boolean isMissing(final String pathName, final long index) {
+
+		return missingBlocks != null && missingBlocks.isMissing(String.valueOf(getURI()), pathName, index);
+	}
+
+	/**
+	 * @return a number that changes whenever blocks known to be missing are
+	 *         forgotten, see {@link MissingBlocks#getVersion()}
+	 */
+	public long getMissingVersion() {
+
+		return missingBlocks == null ? 0 : missingBlocks.getVersion();
+	}
+
+	/**
+	 * @return the reader whose block reads are limited
+	 */
+	public N5Reader getReader() {
+
+		return n5;
+	}
+
+	public AdaptiveConcurrencyLimiter getLimiter() {
+
+		return limiter;
+	}
+
+	@Override
+	public DataBlock<?> readBlock(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		if (missingBlocks == null)
+			return read(pathName, datasetAttributes, gridPosition);
+
+		final String container = String.valueOf(getURI());
+		final long index = MissingBlocks.flatIndex(datasetAttributes, gridPosition);
+		if (missingBlocks.skip(container, pathName, index))
+			return null;
+
+		final DataBlock<?> block = read(pathName, datasetAttributes, gridPosition);
+		if (block == null)
+			missingBlocks.setMissing(container, pathName, index);
+
+		return block;
+	}
+
+	private DataBlock<?> read(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) {
+
+		if (!(n5 instanceof N5KeyValueReader))
+			return readAndDecode(pathName, datasetAttributes, gridPosition);
+
+		final N5KeyValueReader kvReader = (N5KeyValueReader)n5;
+		final String path = kvReader.absoluteDataBlockPath(N5URI.normalizeGroupPath(pathName), gridPosition);
+		final String key = CompressedBlockCache.key(String.valueOf(getURI()), path);
+		byte[] cached = compressedCache == null ? null : compressedCache.get(key);
+		if (cached == null) {
+			cached = read(kvReader.getKeyValueAccess(), path, pathName, gridPosition);
+			if (cached == null)
+				return null;
+
+			if (compressedCache != null)
+				compressedCache.put(key, cached);
+		}
+
+		final byte[] bytes = cached;
+
+		if (decodeStage == null)
+			return decode(bytes, datasetAttributes, gridPosition);
+		else
+			return decodeStage.decode(() -> decode(bytes, datasetAttributes, gridPosition));
+	}
+
+	/*
+	 * Fetcher threads of an InstrumentedSharedQueue do not wait for a permit,
+	 * their fetch is queued again instead.
+	 */
+	private void acquire(final String pathName) {
+
+		final Runnable retry = InstrumentedSharedQueue.getRetry();
+		if (retry != null) {
+			if (!limiter.tryAcquire(retry))
+				throw new FetchDeferredException(pathName);
+
+			return;
+		}
+
+		try {
+			limiter.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new N5Exception("Interrupted while waiting to read " + pathName, e);
+		}
+	}
+
+	private void release(final long nanos, final long bytes, final boolean success) {
+
+		limiter.release(nanos, bytes, success);
+		if (ioStatistics != null)
+			ioStatistics.record(nanos);
+		if (success)
+			ViewerStatistics.blockRead(String.valueOf(getURI()), bytes, nanos);
+	}
+
+	private DataBlock<?> readAndDecode(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) {
+
+		acquire(pathName);
+		final long start = System.nanoTime();
+		boolean success = false;
+		long bytes = 0;
+		try {
+			final DataBlock<?> block = n5.readBlock(pathName, datasetAttributes, gridPosition);
+			if (block != null)
+				bytes = (long)block.getNumElements() * DataTypes.bytesPerElement(datasetAttributes.getDataType());
+			success = true;
+			return block;
+		} finally {
+			release(System.nanoTime() - start, bytes, success);
+		}
+	}
+
+	/*
+	 * Reads the stored bytes of a block, null if the block does not exist.
+	 */
+	private byte[] read(
+			final KeyValueAccess kva,
+			final String path,
+			final String pathName,
+			final long[] gridPosition) {
+
+		acquire(pathName);
+		final long start = System.nanoTime();
+		boolean success = false;
+		long numBytes = 0;
+		try (final LockedChannel channel = kva.lockForReading(path);
+				final InputStream is = channel.newInputStream()) {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[64 * 1024];
+			for (int n = is.read(buffer); n >= 0; n = is.read(buffer))
+				bytes.write(buffer, 0, n);
+			numBytes = bytes.size();
+			success = true;
+			return bytes.toByteArray();
+		} catch (final N5Exception.N5NoSuchKeyException | NoSuchFileException e) {
+			success = true;
+			return null;
+		} catch (final IOException e) {
+			throw new N5Exception.N5IOException(
+					"Failed to read block " + Arrays.toString(gridPosition) + " from dataset " + pathName, e);
+		} finally {
+			release(System.nanoTime() - start, numBytes, success);
+		}
+	}
+
+	private static DataBlock<?> decode(
+			final byte[] bytes,
+			final DatasetAttributes datasetAttributes,
+			final long[] gridPosition) {
+
+		try {
+			return DefaultBlockReader.readBlock(new ByteArrayInputStream(bytes), datasetAttributes, gridPosition);
+		} catch (final IOException e) {
+			throw new N5Exception.N5IOException(
+					"Failed to decode block " + Arrays.toString(gridPosition), e);
+		}
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Class<T> clazz) throws N5Exception {
+
+		return n5.getAttribute(pathName, key, clazz);
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Type type) throws N5Exception {
+
+		return n5.getAttribute(pathName, key, type);
+	}
+
+	@Override
+	public DatasetAttributes getDatasetAttributes(final String pathName) throws N5Exception {
+
+		return n5.getDatasetAttributes(pathName);
+	}
+
+	@Override
+	public boolean exists(final String pathName) {
+
+		return n5.exists(pathName);
+	}
+
+	@Override
+	public boolean datasetExists(final String pathName) throws N5Exception {
+
+		return n5.datasetExists(pathName);
+	}
+
+	@Override
+	public String[] list(final String pathName) throws N5Exception {
+
+		return n5.list(pathName);
+	}
+
+	@Override
+	public Map<String, Class<?>> listAttributes(final String pathName) throws N5Exception {
+
+		return n5.listAttributes(pathName);
+	}
+
+	@Override
+	public String getGroupSeparator() {
+
+		return n5.getGroupSeparator();
+	}
+
+	@Override
+	public URI getURI() {
+
+		return n5.getURI();
+	}
+
+	@Override
+	public void close() {
+
+		n5.close();
+	}
+}
@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5URI;
+
+/**
+ * Negative cache of blocks known to be absent from storage, one bitmap per
+ * dataset (and thus scale level) with one bit per block.
+ * <p>
+ * Blocks may be written while they are viewed, so the bitmap of a dataset is
+ * forgotten once it is older than {@link #getMaxAgeMillis() the maximum age},
+ * and the blocks are requested again. {@link #getVersion()} changes whenever
+ * bitmaps are forgotten, so that caches can drop what they derived from them.
+ */
+public class MissingBlocks implements MissingBlocksMBean {
+
+	public static final long DEFAULT_MAX_AGE_MILLIS = 5 * 60 * 1000;
+
+	private final Map<String, Bitmap> datasets = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final AtomicLong version = new AtomicLong();
+
+	private volatile long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+
+	private static class Bitmap {
+
+		private final BitSet missing = new BitSet();
+
+		private final long created = System.currentTimeMillis();
+	}
+
+	private static String key(final String container, final String dataset) {
+
+		return container + "|" + N5URI.normalizeGroupPath(dataset);
+	}
+
+	/**
+	 * @param attributes
+	 *            the dataset attributes
+	 * @param gridPosition
+	 *            the position of a block in the block grid
+	 * @return the index of the block, x fastest, or -1 if the grid is too
+	 *         large for a bitmap
+	 */
+	public static long flatIndex(final DatasetAttributes attributes, final long[] gridPosition) {
+
+		final long[] dimensions = attributes.getDimensions();
+		final int[] blockSize = attributes.getBlockSize();
+		long index = 0;
+		long stride = 1;
+		for (int d = 0; d < gridPosition.length; ++d) {
+			index += gridPosition[d] * stride;
+			stride *= (dimensions[d] + blockSize[d] - 1) / blockSize[d];
+		}
+		return stride > Integer.MAX_VALUE ? -1 : index;
+	}
+
+	/**
+	 * @param container
+	 *            the container URI
+	 * @param dataset
+	 *            the dataset path
+	 * @param index
+	 *            the index of the block from {@link #flatIndex}
+	 * @return whether the block is known to be missing
+	 */
+	public boolean isMissing(final String container, final String dataset, final long index) {
+
+		if (index < 0)
+			return false;
+
+		final String key = key(container, dataset);
+		final Bitmap bitmap = datasets.get(key);
+		if (bitmap == null)
+			return false;
+
+		if (isExpired(bitmap)) {
+			if (datasets.remove(key, bitmap))
+				version.incrementAndGet();
+
+			return false;
+		}
+
+		synchronized (bitmap) {
+			return bitmap.missing.get((int)index);
+		}
+	}
+
+	private boolean isExpired(final Bitmap bitmap) {
+
+		final long maxAge = maxAgeMillis;
+		return maxAge > 0 && System.currentTimeMillis() - bitmap.created > maxAge;
+	}
+
+	/**
+	 * As {@link #isMissing}, and count a hit if it is.
+	 */
+	boolean skip(final String container, final String dataset, final long index) {
+
+		final boolean missing = isMissing(container, dataset, index);
+		if (missing)
+			hits.increment();
+
+		return missing;
+	}
+
+	public void setMissing(final String container, final String dataset, final long index) {
+
+		if (index < 0)
+			return;
+
+		final Bitmap bitmap = datasets.compute(
+				key(container, dataset),
+				(k, b) -> {
+					if (b != null && !isExpired(b))
+						return b;
+
+					if (b != null)
+						version.incrementAndGet();
+
+					return new Bitmap();
+				});
+		synchronized (bitmap) {
+			bitmap.missing.set((int)index);
+		}
+	}
+
+	/**
+	 * Forget the missing blocks of a container, e.g. after it was written.
+	 *
+	 * @param container
+	 *            the container URI
+	 */
+	public void clear(final String container) {
+
+		final String prefix = key(container, "");
+		if (datasets.keySet().removeIf(key -> key.startsWith(prefix)))
+			version.incrementAndGet();
+	}
+
+	/**
+	 * @return a number that changes whenever bitmaps of missing blocks are
+	 *         forgotten, because they expired or were cleared
+	 */
+	public long getVersion() {
+
+		return version.get();
+	}
+
+	@Override
+	public long getHits() {
+
+		return hits.sum();
+	}
+
+	@Override
+	public long getNumMissing() {
+
+		long n = 0;
+		for (final Bitmap bitmap : datasets.values()) {
+			synchronized (bitmap) {
+				n += bitmap.missing.cardinality();
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public long getMemoryBytes() {
+
+		long n = 0;
+		for (final Bitmap bitmap : datasets.values()) {
+			synchronized (bitmap) {
+				n += bitmap.missing.size() / 8;
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public int getNumDatasets() {
+
+		return datasets.size();
+	}
+
+	@Override
+	public long getMaxAgeMillis() {
+
+		return maxAgeMillis;
+	}
+
+	@Override
+	public void setMaxAgeMillis(final long maxAgeMillis) {
+
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	@Override
+	public void clear() {
+
+		datasets.clear();
+		version.incrementAndGet();
+	}
+
+	public void reset() {
+
+		hits.reset();
+	}
+}
@@ -0,0 +1,53 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+/**
+ * JMX view of {@link MissingBlocks}.
+ */
+public interface MissingBlocksMBean {
+
+	/**
+	 * @return the number of block reads skipped because the block is known to
+	 *         be missing
+	 */
+	long getHits();
+
+	long getNumMissing();
+
+	long getMemoryBytes();
+
+	int getNumDatasets();
+
+	/**
+	 * @return the time after which the missing blocks of a dataset are
+	 *         forgotten, never if not positive
+	 */
+	long getMaxAgeMillis();
+
+	void setMaxAgeMillis(long maxAgeMillis);
+
+	/**
+	 * Forget all missing blocks, e.g. after blocks were written.
+	 */
+	void clear();
+}
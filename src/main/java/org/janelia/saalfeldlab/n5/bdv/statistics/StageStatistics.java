@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Time spent in one stage of the block loading pipeline and its
+ * utilization, i.e. the fraction of the stage's capacity that was busy.
+ */
+public class StageStatistics {
+
+	/* utilization is averaged over intervals of at least this length */
+	private static final long INTERVAL_NANOS = 1000000000L;
+
+	private final IntSupplier capacity;
+
+	private final LongAdder busyNanos = new LongAdder();
+
+	private final LatencyHistogram times = new LatencyHistogram();
+
+	private long lastSampleNanos = System.nanoTime();
+
+	private long lastBusyNanos = 0;
+
+	private double utilization = 0;
+
+	/**
+	 * @param capacity
+	 *            the number of tasks the stage can work on at the same time
+	 */
+	public StageStatistics(final IntSupplier capacity) {
+
+		this.capacity = capacity;
+	}
+
+	public void record(final long nanos) {
+
+		busyNanos.add(nanos);
+		times.record(nanos);
+	}
+
+	public LatencyHistogram getTimes() {
+
+		return times;
+	}
+
+	public double getMeanMillis() {
+
+		return times.getMeanMillis();
+	}
+
+	/**
+	 * @return the fraction of the capacity that was busy during the last
+	 *         interval of at least a second
+	 */
+	public synchronized double getUtilization() {
+
+		final long now = System.nanoTime();
+		final long elapsed = now - lastSampleNanos;
+		if (elapsed >= INTERVAL_NANOS) {
+			final long busy = busyNanos.sum();
+			utilization = Math.min(1.0, (double)(busy - lastBusyNanos) / elapsed / Math.max(1, capacity.getAsInt()));
+			lastSampleNanos = now;
+			lastBusyNanos = busy;
+		}
+		return utilization;
+	}
+
+	public synchronized void reset() {
+
+		busyNanos.reset();
+		times.reset();
+		lastSampleNanos = System.nanoTime();
+		lastBusyNanos = 0;
+		utilization = 0;
+	}
+}
@@ -0,0 +1,313 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.swing.Timer;
+
+import org.janelia.saalfeldlab.n5.bdv.FootprintMipmapSource;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.OverlayRenderer;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.ViewerPanel;
+import bdv.viewer.ViewerState;
+import net.imglib2.Interval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.Volatile;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Overlay that shows live loading statistics of a viewer: the state of the
+ * fetch queue and, for each visible source, the scale level rendered and the
+ * level the renderer is loading, the bytes of loaded cells in memory, cache
+ * hit rate, throughput and mean block load time.
+ *
+ * The rendered level is the finest level from the target level on whose
+ * samples on a coarse grid over the screen are all loaded, which is the
+ * level the renderer shows for most of the screen.
+ *
+ * The status line tells whether the viewer is idle, loading, or stalled, i.e.
+ * fetches are pending but none completed recently.
+ */
+public class StatisticsOverlay implements OverlayRenderer {
+
+	private static final int REFRESH_MILLIS = 500;
+
+	private static final long STALLED_NANOS = 2000000000L;
+
+	private static final int SAMPLES_PER_AXIS = 16;
+
+	private final ViewerPanel viewerPanel;
+
+	private final ViewerStatistics statistics;
+
+	private final Timer timer;
+
+	private boolean visible = false;
+
+	/* throughput is measured over the refresh interval */
+	private final Map<Source<?>, long[]> lastBytes = new HashMap<>();
+
+	private final Map<Source<?>, Double> throughput = new HashMap<>();
+
+	private long lastCompleted = 0;
+
+	private long lastProgressNanos = System.nanoTime();
+
+	public StatisticsOverlay(final ViewerPanel viewerPanel, final ViewerStatistics statistics) {
+
+		this.viewerPanel = viewerPanel;
+		this.statistics = statistics;
+		timer = new Timer(REFRESH_MILLIS, e -> viewerPanel.getDisplay().repaint());
+	}
+
+	public boolean isVisible() {
+
+		return visible;
+	}
+
+	public void setVisible(final boolean visible) {
+
+		if (this.visible == visible)
+			return;
+
+		this.visible = visible;
+		if (visible) {
+			viewerPanel.getDisplay().overlays().add(this);
+			timer.start();
+		} else {
+			timer.stop();
+			viewerPanel.getDisplay().overlays().remove(this);
+		}
+		viewerPanel.getDisplay().repaint();
+	}
+
+	@Override
+	public void setCanvasSize(final int width, final int height) {}
+
+	@Override
+	public void drawOverlays(final Graphics g) {
+
+		final List<String> lines = new ArrayList<>();
+		final long now = System.nanoTime();
+
+		final long completed = statistics.getFetchesCompleted();
+		final long pending = statistics.getFetchesPending();
+		final long inFlight = statistics.getFetchesInFlight();
+		if (completed != lastCompleted || pending + inFlight == 0) {
+			lastCompleted = completed;
+			lastProgressNanos = now;
+		}
+		final String status;
+		if (pending + inFlight == 0)
+			status = "idle";
+		else if (now - lastProgressNanos > STALLED_NANOS)
+			status = "stalled";
+		else
+			status = "loading";
+
+		lines.add(String.format(Locale.ROOT, "%-8s queued %5d  in flight %3d  wait %7.1f ms  fetch %7.1f ms",
+				status,
+				pending,
+				inFlight,
+				statistics.getMeanQueueWaitMillis(),
+				statistics.getMeanFetchMillis()));
+		lines.add(String.format(Locale.ROOT, "%-8s completed %8d  cancelled %8d",
+				"",
+				completed,
+				statistics.getFetchesCancelled()));
+		lines.add(String.format(Locale.ROOT, "%-8s io %3.0f%% %7.1f ms  decode %3.0f%% %7.1f ms  queued %3d",
+				"",
+				100 * statistics.getIoUtilization(),
+				statistics.getMeanIoMillis(),
+				100 * statistics.getDecodeUtilization(),
+				statistics.getMeanDecodeMillis(),
+				statistics.getDecodeQueueLength()));
+		final CompressedBlockCache compressedCache = statistics.getCompressedCache();
+		final long compressedHits = compressedCache.getHits();
+		final long compressedMisses = compressedCache.getMisses();
+		lines.add(String.format(Locale.ROOT, "%-8s compressed %7.1f/%.0f MB  hits %5.0f%%  evicted %8d",
+				"",
+				compressedCache.getBytes() / 1e6,
+				compressedCache.getMaxBytes() / 1e6,
+				compressedHits + compressedMisses == 0 ? 0.0 : 100.0 * compressedHits / (compressedHits + compressedMisses),
+				compressedCache.getEvictions()));
+		for (final AdaptiveConcurrencyLimiter limiter : statistics.getConcurrencyLimiters())
+			lines.add(String.format(Locale.ROOT, "%-8s limit %3d/%-3d  latency %7.1f ms  %8.1f MB/s  %s",
+					"",
+					limiter.getLimit(),
+					limiter.getMaxLimit(),
+					limiter.getMeanLatencyMillis(),
+					limiter.getThroughputMBps(),
+					limiter.getContainer()));
+		lines.add(String.format(Locale.ROOT, "%-24s %7s %6s %10s %6s %8s %9s",
+				"source", "level", "target", "resident", "hits", "MB/s", "load ms"));
+
+		final ViewerState state = viewerPanel.state().snapshot();
+		final AffineTransform3D viewerTransform = state.getViewerTransform();
+		final int t = state.getCurrentTimepoint();
+		final int width = viewerPanel.getDisplay().getWidth();
+		final int height = viewerPanel.getDisplay().getHeight();
+		for (final SourceAndConverter<?> sac : state.getVisibleAndPresentSources()) {
+			final Source<?> source = sac.getSpimSource();
+			final List<BlockLoadStatistics> levels = statistics.getBlockLoadStatistics(source);
+			if (levels.isEmpty())
+				continue;
+
+			long bytes = 0, resident = 0, hits = 0, misses = 0;
+			double loadMillis = 0;
+			long loads = 0;
+			for (final BlockLoadStatistics level : levels) {
+				bytes += level.getBytesLoaded();
+				resident += level.getResidentBytes();
+				hits += level.getCacheHits();
+				misses += level.getCacheMisses();
+				final long n = level.getLoadTimes().getCount();
+				loadMillis += level.getMeanLoadMillis() * n;
+				loads += n;
+			}
+
+			final int bestLevel = FootprintMipmapSource.getBestMipMapLevel(viewerTransform, source, t);
+			final Source<?> rendered = sac.asVolatile() == null ? source : sac.asVolatile().getSpimSource();
+			final int renderedLevel = renderedLevel(rendered, viewerTransform, t, width, height, bestLevel);
+			lines.add(String.format(Locale.ROOT, "%-24.24s %3s/%-3d %6d %7.1f MB %5.0f%% %8.1f %9.1f",
+					source.getName(),
+					renderedLevel < 0 ? "-" : Integer.toString(renderedLevel),
+					source.getNumMipmapLevels(),
+					bestLevel,
+					resident / 1e6,
+					hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses),
+					throughput(source, bytes, now),
+					loads == 0 ? 0.0 : loadMillis / loads));
+		}
+
+		final Graphics2D g2 = (Graphics2D)g;
+		g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g2.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		final FontMetrics metrics = g2.getFontMetrics();
+		int width = 0;
+		for (final String line : lines)
+			width = Math.max(width, metrics.stringWidth(line));
+
+		final int lineHeight = metrics.getHeight();
+		g2.setColor(new Color(0, 0, 0, 160));
+		g2.fillRect(5, 5, width + 10, lines.size() * lineHeight + 10);
+		g2.setColor(Color.WHITE);
+		for (int i = 0; i < lines.size(); ++i)
+			g2.drawString(lines.get(i), 10, 10 + metrics.getAscent() + i * lineHeight);
+	}
+
+	/*
+	 * The finest level from the target level on whose samples on a grid over
+	 * the screen are all loaded, -1 if no level is loaded yet. Samples of
+	 * volatile sources touch the blocks the renderer requested anyway.
+	 */
+	private static int renderedLevel(
+			final Source<?> source,
+			final AffineTransform3D viewerTransform,
+			final int t,
+			final int width,
+			final int height,
+			final int bestLevel) {
+
+		for (int level = bestLevel; level < source.getNumMipmapLevels(); ++level)
+			if (isLoaded(source, viewerTransform, t, width, height, level))
+				return level;
+
+		return -1;
+	}
+
+	private static boolean isLoaded(
+			final Source<?> source,
+			final AffineTransform3D viewerTransform,
+			final int t,
+			final int width,
+			final int height,
+			final int level) {
+
+		final AffineTransform3D sourceToScreen = viewerTransform.copy();
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform(t, level, sourceTransform);
+		sourceToScreen.concatenate(sourceTransform);
+		final AffineTransform3D screenToSource = sourceToScreen.inverse();
+
+		final Interval interval = source.getSource(t, level);
+		final RealRandomAccess<?> access = source.getInterpolatedSource(t, level, Interpolation.NEARESTNEIGHBOR).realRandomAccess();
+		final double[] screen = new double[3];
+		final double[] position = new double[3];
+		for (int y = 0; y < SAMPLES_PER_AXIS; ++y) {
+			screen[1] = (y + 0.5) * height / SAMPLES_PER_AXIS;
+			for (int x = 0; x < SAMPLES_PER_AXIS; ++x) {
+				screen[0] = (x + 0.5) * width / SAMPLES_PER_AXIS;
+				screenToSource.apply(screen, position);
+				if (!contains(interval, position))
+					continue;
+
+				access.setPosition(position);
+				final Object value = access.get();
+				if (value instanceof Volatile && !((Volatile<?>)value).isValid())
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean contains(final Interval interval, final double[] position) {
+
+		for (int d = 0; d < Math.min(interval.numDimensions(), position.length); ++d) {
+			final long p = Math.round(position[d]);
+			if (p < interval.min(d) || p > interval.max(d))
+				return false;
+		}
+		return true;
+	}
+
+	private double throughput(final Source<?> source, final long bytes, final long now) {
+
+		final long[] last = lastBytes.get(source);
+		if (last == null) {
+			lastBytes.put(source, new long[]{now, bytes});
+			return 0;
+		}
+
+		final long elapsed = now - last[0];
+		if (elapsed >= REFRESH_MILLIS * 1000000L) {
+			throughput.put(source, (bytes - last[1]) / 1e6 / (elapsed / 1e9));
+			last[0] = now;
+			last[1] = bytes;
+		}
+		return throughput.getOrDefault(source, 0.0);
+	}
+}
@@ -0,0 +1,664 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.statistics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import bdv.cache.SharedQueue;
+import bdv.viewer.Source;
+import bdv.viewer.ViewerPanel;
+
+/**
+ * Loading and rendering statistics of one viewer: fetches through its
+ * {@link SharedQueue}, dataset opens and block cache hits and misses per
+ * source and scale level, frame times and time from viewer transform change
+ * to fully valid frame.
+ *
+ * Block reads of each container can be limited by an
+ * {@link AdaptiveConcurrencyLimiter} so that the number of concurrent reads
+ * follows the latency and throughput of the container, up to the number of
+ * fetcher threads. Blocks of N5 key value stores are then decoded by the
+ * {@link DecodeStage} shared by all viewers; the time spent and the
+ * utilization of both stages is tracked. Their stored bytes are kept in the
+ * {@link CompressedBlockCache} shared by all viewers. Missing blocks are
+ * remembered in {@link MissingBlocks}.
+ *
+ * The statistics are available through this class and as JMX MBeans under
+ * {@value #JMX_DOMAIN} once {@link #register()} was called.
+ */
+public class ViewerStatistics implements ViewerStatisticsMBean {
+
+	public static final String JMX_DOMAIN = "org.janelia.saalfeldlab.n5.bdv";
+
+	private static final AtomicInteger nextId = new AtomicInteger();
+
+	private static final Map<ViewerPanel, ViewerStatistics> viewers = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private static final List<ViewerStatistics> registeredViewers = new CopyOnWriteArrayList<>();
+
+	private static final List<ReadListener> readListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Notified of every successful block read of a {@link LimitedN5Reader},
+	 * e.g. to predict how long reading from a container takes.
+	 */
+	public interface ReadListener {
+
+		/**
+		 * @param container
+		 *            the container URI
+		 * @param numBytes
+		 *            the number of decoded bytes read
+		 * @param nanos
+		 *            the time it took
+		 */
+		void blockRead(String container, long numBytes, long nanos);
+	}
+
+	private final int id = nextId.getAndIncrement();
+
+	private final InstrumentedSharedQueue sharedQueue;
+
+	private final LongAdder fetchesQueued = new LongAdder();
+
+	private final LongAdder fetchesStarted = new LongAdder();
+
+	private final LongAdder fetchesCompleted = new LongAdder();
+
+	private final LongAdder fetchesCancelled = new LongAdder();
+
+	private final LatencyHistogram queueWaits = new LatencyHistogram();
+
+	private final LatencyHistogram fetchTimes = new LatencyHistogram();
+
+	private final List<BlockLoadStatistics> blockLoads = new CopyOnWriteArrayList<>();
+
+	/* the statistics of the scale levels of each source, by identity */
+	private final Map<Source<?>, List<BlockLoadStatistics>> sourceLevels = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private final Map<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+	private final int initialConcurrency;
+
+	private final int maxConcurrency;
+
+	private final StageStatistics ioStage = new StageStatistics(this::getTotalConcurrency);
+
+	private final DecodeStage decodeStage = DecodeStage.shared();
+
+	private final CompressedBlockCache compressedCache = CompressedBlockCache.shared();
+
+	private final MissingBlocks missingBlocks = new MissingBlocks();
+
+	private final FrameStatistics frames = new FrameStatistics();
+
+	private final List<ObjectName> registeredNames = new ArrayList<>();
+
+	private boolean registered = false;
+
+	/**
+	 * @param numFetcherThreads
+	 *            the number of fetcher threads of the shared queue
+	 */
+	public ViewerStatistics(final int numFetcherThreads) {
+
+		this(numFetcherThreads, numFetcherThreads);
+	}
+
+	/**
+	 * @param initialConcurrency
+	 *            the initial number of concurrent block reads per container
+	 * @param numFetcherThreads
+	 *            the number of fetcher threads of the shared queue and the
+	 *            maximum number of concurrent block reads per container
+	 */
+	public ViewerStatistics(final int initialConcurrency, final int numFetcherThreads) {
+
+		this.initialConcurrency = Math.max(1, Math.min(initialConcurrency, numFetcherThreads));
+		this.maxConcurrency = numFetcherThreads;
+		sharedQueue = new InstrumentedSharedQueue(numFetcherThreads, this);
+	}
+
+	/**
+	 * @return the queue to load blocks of volatile sources with, also the
+	 *         {@link bdv.cache.CacheControl} that cancels its stale fetches
+	 */
+	public InstrumentedSharedQueue getSharedQueue() {
+
+		return sharedQueue;
+	}
+
+	/**
+	 * @param sharedQueue
+	 *            a queue
+	 * @return the statistics of the queue or null if it is not instrumented
+	 */
+	public static ViewerStatistics of(final SharedQueue sharedQueue) {
+
+		return sharedQueue instanceof InstrumentedSharedQueue ? ((InstrumentedSharedQueue)sharedQueue).getStatistics() : null;
+	}
+
+	/**
+	 * @param viewerPanel
+	 *            a viewer panel
+	 * @return the statistics attached to the viewer or null
+	 */
+	public static ViewerStatistics of(final ViewerPanel viewerPanel) {
+
+		return viewers.get(viewerPanel);
+	}
+
+	/**
+	 * Listen to block reads of all viewers.
+	 *
+	 * @param listener
+	 *            the listener
+	 */
+	public static void addReadListener(final ReadListener listener) {
+
+		readListeners.add(listener);
+	}
+
+	public static void removeReadListener(final ReadListener listener) {
+
+		readListeners.remove(listener);
+	}
+
+	static void blockRead(final String container, final long numBytes, final long nanos) {
+
+		for (final ReadListener listener : readListeners)
+			listener.blockRead(container, numBytes, nanos);
+	}
+
+	/**
+	 * Listen to transform changes and painted frames of a viewer.
+	 *
+	 * @param viewerPanel
+	 *            the viewer
+	 */
+	public void attach(final ViewerPanel viewerPanel) {
+
+		viewerPanel.transformListeners().add(frames::transformChanged);
+		viewerPanel.renderTransformListeners().add(frames::painted);
+		viewers.put(viewerPanel, this);
+	}
+
+	/**
+	 * Add statistics for one scale level of a source.
+	 *
+	 * @param sourceName
+	 *            the source name
+	 * @param level
+	 *            the scale level
+	 * @param dataset
+	 *            the dataset path
+	 * @return the statistics
+	 */
+	public BlockLoadStatistics addBlockLoadStatistics(final String sourceName, final int level, final String dataset) {
+
+		final BlockLoadStatistics statistics = new BlockLoadStatistics(sourceName, level, dataset);
+		blockLoads.add(statistics);
+		synchronized (this) {
+			if (registered)
+				register(blockLoadName(statistics), statistics);
+		}
+		return statistics;
+	}
+
+	/**
+	 * Limit the concurrent block reads of a container. All readers with the
+	 * same URI share one {@link AdaptiveConcurrencyLimiter}.
+	 *
+	 * @param n5
+	 *            the reader
+	 * @return a reader whose block reads are limited
+	 */
+	public N5Reader limitConcurrency(final N5Reader n5) {
+
+		if (n5 instanceof LimitedN5Reader)
+			return n5;
+
+		final String container = String.valueOf(n5.getURI());
+		final AdaptiveConcurrencyLimiter limiter = limiters.computeIfAbsent(container, key -> {
+			final AdaptiveConcurrencyLimiter l = new AdaptiveConcurrencyLimiter(key, initialConcurrency, maxConcurrency);
+			synchronized (this) {
+				if (registered)
+					register(limiterName(l), l);
+			}
+			return l;
+		});
+		return new LimitedN5Reader(n5, limiter, ioStage, decodeStage, compressedCache, missingBlocks);
+	}
+
+	public List<AdaptiveConcurrencyLimiter> getConcurrencyLimiters() {
+
+		return new ArrayList<>(limiters.values());
+	}
+
+	/*
+	 * the number of block reads that may run at the same time
+	 */
+	private int getTotalConcurrency() {
+
+		return limiters.values().stream().mapToInt(AdaptiveConcurrencyLimiter::getLimit).sum();
+	}
+
+	public StageStatistics getIoStage() {
+
+		return ioStage;
+	}
+
+	public DecodeStage getDecodeStage() {
+
+		return decodeStage;
+	}
+
+	public CompressedBlockCache getCompressedCache() {
+
+		return compressedCache;
+	}
+
+	public MissingBlocks getMissingBlocks() {
+
+		return missingBlocks;
+	}
+
+	public List<BlockLoadStatistics> getBlockLoadStatistics() {
+
+		return Collections.unmodifiableList(blockLoads);
+	}
+
+	/**
+	 * Associate a source with the statistics of its scale levels. Channels
+	 * of one dataset are separate sources that share the statistics.
+	 *
+	 * @param source
+	 *            the source
+	 * @param levels
+	 *            the statistics of its scale levels
+	 */
+	public void addSource(final Source<?> source, final List<BlockLoadStatistics> levels) {
+
+		sourceLevels.put(source, Collections.unmodifiableList(new ArrayList<>(levels)));
+	}
+
+	/**
+	 * @param source
+	 *            a source
+	 * @return the statistics of the scale levels of the source, empty if it
+	 *         was not {@link #addSource added}
+	 */
+	public List<BlockLoadStatistics> getBlockLoadStatistics(final Source<?> source) {
+
+		return sourceLevels.getOrDefault(source, Collections.emptyList());
+	}
+
+	public FrameStatistics getFrameStatistics() {
+
+		return frames;
+	}
+
+	public LatencyHistogram getQueueWaits() {
+
+		return queueWaits;
+	}
+
+	public LatencyHistogram getFetchTimes() {
+
+		return fetchTimes;
+	}
+
+	void fetchQueued() {
+
+		fetchesQueued.increment();
+	}
+
+	void fetchStarted(final long queueWaitNanos) {
+
+		fetchesStarted.increment();
+		queueWaits.record(queueWaitNanos);
+	}
+
+	void fetchDone(final long fetchNanos) {
+
+		fetchesCompleted.increment();
+		fetchTimes.record(fetchNanos);
+	}
+
+	void fetchCancelled() {
+
+		fetchesCancelled.increment();
+	}
+
+	/**
+	 * Register this and all block load statistics with the platform MBean
+	 * server.
+	 */
+	public synchronized void register() {
+
+		if (registered)
+			return;
+
+		registered = true;
+		registeredViewers.add(this);
+		try {
+			register(new ObjectName(JMX_DOMAIN + ":type=ViewerStatistics,viewer=" + id), this);
+		} catch (final JMException e) {
+			e.printStackTrace();
+		}
+		for (final BlockLoadStatistics statistics : blockLoads)
+			register(blockLoadName(statistics), statistics);
+		for (final AdaptiveConcurrencyLimiter limiter : limiters.values())
+			register(limiterName(limiter), limiter);
+		try {
+			register(new ObjectName(JMX_DOMAIN + ":type=CompressedBlockCache,viewer=" + id), compressedCache);
+			register(new ObjectName(JMX_DOMAIN + ":type=MissingBlocks,viewer=" + id), missingBlocks);
+		} catch (final JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private ObjectName blockLoadName(final BlockLoadStatistics statistics) {
+
+		try {
+			return new ObjectName(
+					JMX_DOMAIN + ":type=BlockLoadStatistics,viewer=" + id +
+							",source=" + ObjectName.quote(String.valueOf(statistics.getSourceName())) +
+							",level=" + statistics.getLevel());
+		} catch (final JMException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private ObjectName limiterName(final AdaptiveConcurrencyLimiter limiter) {
+
+		try {
+			return new ObjectName(
+					JMX_DOMAIN + ":type=FetchConcurrency,viewer=" + id +
+							",container=" + ObjectName.quote(limiter.getContainer()));
+		} catch (final JMException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private void register(final ObjectName name, final Object mbean) {
+
+		if (name == null)
+			return;
+
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (!server.isRegistered(name)) {
+				server.registerMBean(mbean, name);
+				registeredNames.add(name);
+			}
+		} catch (final JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Remove all MBeans of this viewer from the platform MBean server, forget
+	 * its missing blocks and drop the cached blocks of containers that no
+	 * other registered viewer reads from.
+	 */
+	public synchronized void unregister() {
+
+		missingBlocks.clear();
+		registeredViewers.remove(this);
+		for (final String container : limiters.keySet())
+			if (registeredViewers.stream().noneMatch(v -> v.limiters.containsKey(container)))
+				compressedCache.clear(container);
+
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (final ObjectName name : registeredNames) {
+			try {
+				server.unregisterMBean(name);
+			} catch (final JMException e) {
+				e.printStackTrace();
+			}
+		}
+		registeredNames.clear();
+		registered = false;
+	}
+
+	@Override
+	public long getFetchesQueued() {
+
+		return fetchesQueued.sum();
+	}
+
+	@Override
+	public long getFetchesCompleted() {
+
+		return fetchesCompleted.sum();
+	}
+
+	@Override
+	public long getFetchesCancelled() {
+
+		return fetchesCancelled.sum();
+	}
+
+	@Override
+	public long getFetchesPending() {
+
+		return Math.max(0, fetchesQueued.sum() - fetchesStarted.sum() - fetchesCancelled.sum());
+	}
+
+	@Override
+	public long getFetchesInFlight() {
+
+		return Math.max(0, fetchesStarted.sum() - fetchesCompleted.sum());
+	}
+
+	@Override
+	public int getMaxRequestAge() {
+
+		return sharedQueue.getMaxRequestAge();
+	}
+
+	@Override
+	public void setMaxRequestAge(final int maxRequestAge) {
+
+		sharedQueue.setMaxRequestAge(maxRequestAge);
+	}
+
+	@Override
+	public double getMeanQueueWaitMillis() {
+
+		return queueWaits.getMeanMillis();
+	}
+
+	@Override
+	public double getQueueWaitMillis99() {
+
+		return queueWaits.getPercentileMillis(99);
+	}
+
+	@Override
+	public double getMeanFetchMillis() {
+
+		return fetchTimes.getMeanMillis();
+	}
+
+	@Override
+	public double getFetchMillis99() {
+
+		return fetchTimes.getPercentileMillis(99);
+	}
+
+	@Override
+	public double getMeanIoMillis() {
+
+		return ioStage.getMeanMillis();
+	}
+
+	@Override
+	public double getIoUtilization() {
+
+		return ioStage.getUtilization();
+	}
+
+	@Override
+	public double getMeanDecodeMillis() {
+
+		return decodeStage.getStatistics().getMeanMillis();
+	}
+
+	@Override
+	public double getDecodeUtilization() {
+
+		return decodeStage.getStatistics().getUtilization();
+	}
+
+	@Override
+	public int getDecodeQueueLength() {
+
+		return decodeStage.getQueueLength();
+	}
+
+	@Override
+	public int getDecodeThreads() {
+
+		return decodeStage.getNumThreads();
+	}
+
+	@Override
+	public void setDecodeThreads(final int numThreads) {
+
+		decodeStage.setNumThreads(numThreads);
+	}
+
+	@Override
+	public int getNumDatasetsOpened() {
+
+		return blockLoads.size();
+	}
+
+	@Override
+	public double getTotalOpenMillis() {
+
+		return blockLoads.stream().mapToDouble(BlockLoadStatistics::getOpenMillis).sum();
+	}
+
+	@Override
+	public long getCacheHits() {
+
+		return blockLoads.stream().mapToLong(BlockLoadStatistics::getCacheHits).sum();
+	}
+
+	@Override
+	public long getCacheMisses() {
+
+		return blockLoads.stream().mapToLong(BlockLoadStatistics::getCacheMisses).sum();
+	}
+
+	@Override
+	public long getBytesLoaded() {
+
+		return blockLoads.stream().mapToLong(BlockLoadStatistics::getBytesLoaded).sum();
+	}
+
+	@Override
+	public long getFramesPainted() {
+
+		return frames.getFramesPainted();
+	}
+
+	@Override
+	public double getMeanFrameMillis() {
+
+		return frames.getFrameTimes().getMeanMillis();
+	}
+
+	@Override
+	public double getFrameMillis99() {
+
+		return frames.getFrameTimes().getPercentileMillis(99);
+	}
+
+	@Override
+	public long getValidFrames() {
+
+		return frames.getTimesToValidFrame().getCount();
+	}
+
+	@Override
+	public long getViewsAbandoned() {
+
+		return frames.getViewsAbandoned();
+	}
+
+	@Override
+	public double getTimeToValidFrameMillis50() {
+
+		return frames.getTimesToValidFrame().getPercentileMillis(50);
+	}
+
+	@Override
+	public double getTimeToValidFrameMillis99() {
+
+		return frames.getTimesToValidFrame().getPercentileMillis(99);
+	}
+
+	@Override
+	public double getMaxTimeToValidFrameMillis() {
+
+		return frames.getTimesToValidFrame().getMaxMillis();
+	}
+
+	@Override
+	public void reset() {
+
+		fetchesQueued.reset();
+		fetchesStarted.reset();
+		fetchesCompleted.reset();
+		fetchesCancelled.reset();
+		queueWaits.reset();
+		fetchTimes.reset();
+		frames.reset();
+		ioStage.reset();
+		decodeStage.getStatistics().reset();
+		compressedCache.reset();
+		missingBlocks.reset();
+		for (final BlockLoadStatistics statistics : blockLoads)
+			statistics.reset();
+	}
+}
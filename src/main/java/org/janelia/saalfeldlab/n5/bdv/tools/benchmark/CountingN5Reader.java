@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.benchmark;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.bdv.DataTypes;
+
+/**
+ * Delegates to another {@link N5Reader} and counts the block requests, the
+ * blocks it reads and their decoded size.
+ */
+public class CountingN5Reader implements N5Reader {
+
+	private final N5Reader n5;
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong blocksRead = new AtomicLong();
+
+	private final AtomicLong bytesRead = new AtomicLong();
+
+	public CountingN5Reader(final N5Reader n5) {
+
+		this.n5 = n5;
+	}
+
+	/**
+	 * @return the number of block reads, including those of missing blocks
+	 */
+	public long getRequests() {
+
+		return requests.get();
+	}
+
+	public long getBlocksRead() {
+
+		return blocksRead.get();
+	}
+
+	/**
+	 * @return the decoded size of all blocks read
+	 */
+	public long getBytesRead() {
+
+		return bytesRead.get();
+	}
+
+	public void reset() {
+
+		requests.set(0);
+		blocksRead.set(0);
+		bytesRead.set(0);
+	}
+
+	@Override
+	public DataBlock<?> readBlock(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		requests.incrementAndGet();
+		final DataBlock<?> block = n5.readBlock(pathName, datasetAttributes, gridPosition);
+		if (block != null) {
+			blocksRead.incrementAndGet();
+			bytesRead.addAndGet((long)block.getNumElements() * DataTypes.bytesPerElement(datasetAttributes.getDataType()));
+		}
+		return block;
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Class<T> clazz) throws N5Exception {
+
+		return n5.getAttribute(pathName, key, clazz);
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Type type) throws N5Exception {
+
+		return n5.getAttribute(pathName, key, type);
+	}
+
+	@Override
+	public DatasetAttributes getDatasetAttributes(final String pathName) throws N5Exception {
+
+		return n5.getDatasetAttributes(pathName);
+	}
+
+	@Override
+	public boolean exists(final String pathName) {
+
+		return n5.exists(pathName);
+	}
+
+	@Override
+	public boolean datasetExists(final String pathName) throws N5Exception {
+
+		return n5.datasetExists(pathName);
+	}
+
+	@Override
+	public String[] list(final String pathName) throws N5Exception {
+
+		return n5.list(pathName);
+	}
+
+	@Override
+	public Map<String, Class<?>> listAttributes(final String pathName) throws N5Exception {
+
+		return n5.listAttributes(pathName);
+	}
+
+	@Override
+	public String getGroupSeparator() {
+
+		return n5.getGroupSeparator();
+	}
+
+	@Override
+	public URI getURI() {
+
+		return n5.getURI();
+	}
+
+	@Override
+	public void close() {
+
+		n5.close();
+	}
+}
@@ -0,0 +1,200 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.benchmark;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.bdv.DataTypes;
+
+/**
+ * Delegates to another {@link N5Reader} and makes block reads behave like
+ * remote storage:
+ * <ul>
+ * <li>every block read waits for a latency, uniformly distributed between
+ * half and one and a half times the mean,</li>
+ * <li>blocks are transferred one after the other over a link of limited
+ * bandwidth shared by all threads, using their decoded size,</li>
+ * <li>a fraction of block reads fails with an {@link N5Exception}.</li>
+ * </ul>
+ * Metadata access is passed through unchanged.
+ */
+public class LatencyN5Reader implements N5Reader {
+
+	private final N5Reader n5;
+
+	private final double latencyMillis;
+
+	private final double bytesPerSecond;
+
+	private final double failureRate;
+
+	/* time when the link is free for the next transfer */
+	private long linkFreeNanos = 0;
+
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * @param n5
+	 *            the reader
+	 * @param latencyMillis
+	 *            mean latency of a block read in milliseconds, 0 for none
+	 * @param bytesPerSecond
+	 *            bandwidth in bytes per second, 0 for unlimited
+	 * @param failureRate
+	 *            fraction of block reads that fail
+	 */
+	public LatencyN5Reader(
+			final N5Reader n5,
+			final double latencyMillis,
+			final double bytesPerSecond,
+			final double failureRate) {
+
+		this.n5 = n5;
+		this.latencyMillis = latencyMillis;
+		this.bytesPerSecond = bytesPerSecond;
+		this.failureRate = failureRate;
+	}
+
+	/**
+	 * @return the number of injected failures
+	 */
+	public long getFailures() {
+
+		return failures.get();
+	}
+
+	private static void sleepNanos(final long nanos) {
+
+		if (nanos <= 0)
+			return;
+
+		try {
+			Thread.sleep(nanos / 1000000, (int)(nanos % 1000000));
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reserves the link for a transfer.
+	 *
+	 * @return the time when the transfer is done
+	 */
+	private synchronized long transfer(final long bytes) {
+
+		final long start = Math.max(System.nanoTime(), linkFreeNanos);
+		linkFreeNanos = start + (long)(bytes * 1e9 / bytesPerSecond);
+		return linkFreeNanos;
+	}
+
+	@Override
+	public DataBlock<?> readBlock(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (latencyMillis > 0)
+			sleepNanos((long)(latencyMillis * (0.5 + random.nextDouble()) * 1e6));
+
+		if (failureRate > 0 && random.nextDouble() < failureRate) {
+			failures.incrementAndGet();
+			throw new N5Exception("Injected failure reading block " + Arrays.toString(gridPosition) + " of " + pathName);
+		}
+
+		final DataBlock<?> block = n5.readBlock(pathName, datasetAttributes, gridPosition);
+		if (block != null && bytesPerSecond > 0) {
+			final long bytes = (long)block.getNumElements() * DataTypes.bytesPerElement(datasetAttributes.getDataType());
+			sleepNanos(transfer(bytes) - System.nanoTime());
+		}
+		return block;
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Class<T> clazz) throws N5Exception {
+
+		return n5.getAttribute(pathName, key, clazz);
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Type type) throws N5Exception {
+
+		return n5.getAttribute(pathName, key, type);
+	}
+
+	@Override
+	public DatasetAttributes getDatasetAttributes(final String pathName) throws N5Exception {
+
+		return n5.getDatasetAttributes(pathName);
+	}
+
+	@Override
+	public boolean exists(final String pathName) {
+
+		return n5.exists(pathName);
+	}
+
+	@Override
+	public boolean datasetExists(final String pathName) throws N5Exception {
+
+		return n5.datasetExists(pathName);
+	}
+
+	@Override
+	public String[] list(final String pathName) throws N5Exception {
+
+		return n5.list(pathName);
+	}
+
+	@Override
+	public Map<String, Class<?>> listAttributes(final String pathName) throws N5Exception {
+
+		return n5.listAttributes(pathName);
+	}
+
+	@Override
+	public String getGroupSeparator() {
+
+		return n5.getGroupSeparator();
+	}
+
+	@Override
+	public URI getURI() {
+
+		return n5.getURI();
+	}
+
+	@Override
+	public void close() {
+
+		n5.close();
+	}
+}
@@ -0,0 +1,322 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.benchmark;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+
+import org.janelia.saalfeldlab.control.mcu.MCUBDVControls;
+import org.janelia.saalfeldlab.control.mcu.MCURecording;
+import org.janelia.saalfeldlab.control.mcu.MCUReplayer;
+import org.janelia.saalfeldlab.control.mcu.XTouchMiniMCUControlPanel;
+import org.janelia.saalfeldlab.n5.bdv.N5Viewer;
+import org.janelia.saalfeldlab.n5.bdv.statistics.InstrumentedSharedQueue;
+import org.janelia.saalfeldlab.n5.bdv.statistics.ViewerStatistics;
+import org.janelia.saalfeldlab.n5.bdv.tools.render.CameraPath;
+
+import bdv.tools.brightness.ConverterSetup;
+import bdv.util.BdvHandle;
+import bdv.util.BdvOptions;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.ViewerPanel;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Replays a recorded MIDI controller session (see
+ * {@link N5Viewer#RECORD_MIDI_PROPERTY}) into an {@link N5Viewer} without a
+ * device and reports
+ * <ul>
+ * <li>frame time percentiles, i.e. the intervals between painted frames,</li>
+ * <li>time to valid frame, i.e. for each view that was held for at least the
+ * quiet period, the time from the transform change to the last repaint of
+ * that view (BDV repaints until all visible blocks are valid),</li>
+ * <li>the number and decoded size of the blocks loaded.</li>
+ * </ul>
+ * Loading of the initial view is finished before the replay starts and is not
+ * counted. Each run opens the data in a new JVM so that caches are cold.
+ * Rendering needs a display.
+ */
+public class NavigationReplay {
+
+	private static final double EPSILON = 1e-9;
+
+	private final List<Long> paintTimes = new ArrayList<>();
+
+	private final List<double[]> paintTransforms = new ArrayList<>();
+
+	private final List<Long> changeTimes = new ArrayList<>();
+
+	private final List<double[]> changeTransforms = new ArrayList<>();
+
+	private boolean recording = false;
+
+	private volatile long lastPaintNanos = System.nanoTime();
+
+	private volatile long lastChangeNanos = System.nanoTime();
+
+	private synchronized void painted(final AffineTransform3D transform) {
+
+		lastPaintNanos = System.nanoTime();
+		if (recording) {
+			paintTimes.add(lastPaintNanos);
+			paintTransforms.add(transform.getRowPackedCopy());
+		}
+	}
+
+	private synchronized void changed(final AffineTransform3D transform) {
+
+		lastChangeNanos = System.nanoTime();
+		if (recording) {
+			changeTimes.add(lastChangeNanos);
+			changeTransforms.add(transform.getRowPackedCopy());
+		}
+	}
+
+	private synchronized void setRecording(final boolean recording) {
+
+		this.recording = recording;
+	}
+
+	/**
+	 * Wait until the view has not been repainted or changed for the quiet
+	 * period.
+	 */
+	private void waitQuiet(final long quietMillis, final long timeoutMillis) throws InterruptedException {
+
+		final long quietNanos = quietMillis * 1000000;
+		final long timeout = System.nanoTime() + timeoutMillis * 1000000;
+		while (System.nanoTime() < timeout) {
+			final long now = System.nanoTime();
+			if (now - lastPaintNanos >= quietNanos && now - lastChangeNanos >= quietNanos)
+				return;
+
+			Thread.sleep(10);
+		}
+		System.err.println("Rendering did not settle within " + timeoutMillis + " ms.");
+	}
+
+	private static boolean equal(final double[] a, final double[] b) {
+
+		for (int i = 0; i < a.length; ++i)
+			if (Math.abs(a[i] - b[i]) > EPSILON)
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * @return intervals between painted frames in milliseconds, sorted
+	 */
+	private synchronized double[] frameTimes() {
+
+		final double[] frameTimes = new double[Math.max(0, paintTimes.size() - 1)];
+		for (int i = 0; i < frameTimes.length; ++i)
+			frameTimes[i] = (paintTimes.get(i + 1) - paintTimes.get(i)) / 1e6;
+
+		Arrays.sort(frameTimes);
+		return frameTimes;
+	}
+
+	/**
+	 * @return times to valid frame in milliseconds, sorted
+	 */
+	private synchronized double[] timesToValidFrame(final long quietMillis, final long endNanos) {
+
+		final long quietNanos = quietMillis * 1000000;
+		final ArrayList<Double> times = new ArrayList<>();
+		int p = 0;
+		for (int i = 0; i < changeTimes.size(); ++i) {
+			final long start = changeTimes.get(i);
+			final long end = i + 1 < changeTimes.size() ? changeTimes.get(i + 1) : endNanos;
+			if (end - start < quietNanos)
+				continue;
+
+			long lastPaint = -1;
+			while (p < paintTimes.size() && paintTimes.get(p) < end) {
+				if (paintTimes.get(p) >= start && equal(paintTransforms.get(p), changeTransforms.get(i)))
+					lastPaint = paintTimes.get(p);
+
+				++p;
+			}
+			if (lastPaint >= 0)
+				times.add((lastPaint - start) / 1e6);
+		}
+		return times.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+	}
+
+	private static double percentile(final double[] sorted, final double p) {
+
+		if (sorted.length == 0)
+			return Double.NaN;
+
+		final int i = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+	}
+
+	public static void main(final String... args) throws Exception {
+
+		final Map<String, String> params = new HashMap<>();
+		params.put("speed", "1");
+		params.put("quiet", "250");
+		params.put("timeout", "60000");
+		params.put("fetchers", Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+		params.put("renderers", Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors())));
+		params.put("label", "");
+		for (int i = 0; i + 1 < args.length; i += 2)
+			params.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+
+		if (!params.containsKey("uri") || !params.containsKey("recording")) {
+			System.err.println("Usage: NavigationReplay --uri <container?dataset>[,<container?dataset>...] --recording <session.txt>");
+			System.err.println("    [--speed 1] [--quiet 250] [--timeout 60000] [--fetchers n] [--renderers n]");
+			System.err.println("    [--report <report.csv>] [--label name]");
+			System.exit(1);
+		}
+
+		final MCURecording session = MCURecording.load(params.get("recording"));
+		final long quietMillis = Long.parseLong(params.get("quiet"));
+		final long timeoutMillis = Long.parseLong(params.get("timeout"));
+
+		final BdvOptions options = BdvOptions.options()
+				.frameTitle("N5 Viewer replay")
+				.numRenderingThreads(Integer.parseInt(params.get("renderers")));
+		if (session.getProperty(MCURecording.WIDTH_KEY) != null && session.getProperty(MCURecording.HEIGHT_KEY) != null)
+			options.preferredSize(
+					Integer.parseInt(session.getProperty(MCURecording.WIDTH_KEY)),
+					Integer.parseInt(session.getProperty(MCURecording.HEIGHT_KEY)));
+
+		final List<CountingN5Reader> readers = new ArrayList<>();
+		final List<ConverterSetup> converterSetups = new ArrayList<>();
+		final List<SourceAndConverter> sources = new ArrayList<>();
+		final ViewerStatistics statistics = new ViewerStatistics(Integer.parseInt(params.get("fetchers")));
+		final InstrumentedSharedQueue sharedQueue = statistics.getSharedQueue();
+		final int numTimepoints = N5Viewer.buildN5Sources(
+				params.get("uri").split(","),
+				n5 -> {
+					final CountingN5Reader reader = new CountingN5Reader(n5);
+					readers.add(reader);
+					return reader;
+				},
+				sharedQueue,
+				converterSetups,
+				(List)sources,
+				options);
+
+		if (sources.isEmpty()) {
+			System.err.println("Could not open " + params.get("uri"));
+			System.exit(1);
+		}
+
+		final BdvHandle bdv = N5Viewer.show((List)sources, numTimepoints, options);
+		final ViewerPanel viewerPanel = bdv.getViewerPanel();
+
+		/* limit, instrument and cancel fetches like the viewer does */
+		statistics.attach(viewerPanel);
+		bdv.getCacheControls().addCacheControl(sharedQueue);
+
+		final NavigationReplay replay = new NavigationReplay();
+		viewerPanel.renderTransformListeners().add(replay::painted);
+		viewerPanel.transformListeners().add(replay::changed);
+
+		/* wait for the initial view and move to the recorded start */
+		while (!viewerPanel.isShowing())
+			Thread.sleep(10);
+
+		replay.waitQuiet(quietMillis, timeoutMillis);
+		if (session.getProperty(MCURecording.VIEWER_TRANSFORM_KEY) != null) {
+			final AffineTransform3D start = CameraPath.parseTransform(session.getProperty(MCURecording.VIEWER_TRANSFORM_KEY));
+			SwingUtilities.invokeAndWait(() -> viewerPanel.state().setViewerTransform(start));
+			replay.waitQuiet(quietMillis, timeoutMillis);
+		}
+		readers.forEach(CountingN5Reader::reset);
+
+		final XTouchMiniMCUControlPanel controlPanel = XTouchMiniMCUControlPanel.buildOffline();
+		new MCUBDVControls(viewerPanel, controlPanel);
+
+		replay.setRecording(true);
+		final long startNanos = System.nanoTime();
+		MCUReplayer.replay(session, controlPanel, Double.parseDouble(params.get("speed")));
+		replay.waitQuiet(quietMillis, timeoutMillis);
+		final long endNanos = System.nanoTime();
+		replay.setRecording(false);
+
+		final double[] frameTimes = replay.frameTimes();
+		final int numFrames = frameTimes.length == 0 ? 0 : frameTimes.length + 1;
+		final double[] timesToValid = replay.timesToValidFrame(quietMillis, endNanos);
+		final long blocks = readers.stream().mapToLong(CountingN5Reader::getBlocksRead).sum();
+		final long bytes = readers.stream().mapToLong(CountingN5Reader::getBytesRead).sum();
+
+		System.out.println(String.format(Locale.ROOT, "replay duration     : %.1f s", (endNanos - startNanos) / 1e9));
+		System.out.println(String.format(Locale.ROOT, "frames              : %d", numFrames));
+		System.out.println(String.format(Locale.ROOT, "frame time (ms)     : p50 %.1f  p90 %.1f  p99 %.1f  max %.1f",
+				percentile(frameTimes, 50), percentile(frameTimes, 90), percentile(frameTimes, 99), percentile(frameTimes, 100)));
+		System.out.println(String.format(Locale.ROOT, "time to valid (ms)  : p50 %.1f  p90 %.1f  max %.1f  (%d views)",
+				percentile(timesToValid, 50), percentile(timesToValid, 90), percentile(timesToValid, 100), timesToValid.length));
+		System.out.println(String.format(Locale.ROOT, "blocks loaded       : %d (%.1f MB decoded)", blocks, bytes / 1e6));
+
+		if (params.containsKey("report")) {
+			final Path report = Paths.get(params.get("report"));
+			final boolean header = !Files.exists(report);
+			try (final PrintWriter writer = new PrintWriter(Files.newBufferedWriter(
+					report,
+					StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND))) {
+				if (header)
+					writer.println("label,fetchers,renderers,frames,frame_p50_ms,frame_p90_ms,frame_p99_ms,frame_max_ms,views,valid_p50_ms,valid_p90_ms,valid_max_ms,blocks,bytes");
+
+				writer.println(String.format(Locale.ROOT, "%s,%s,%s,%d,%.2f,%.2f,%.2f,%.2f,%d,%.2f,%.2f,%.2f,%d,%d",
+						params.get("label"),
+						params.get("fetchers"),
+						params.get("renderers"),
+						numFrames,
+						percentile(frameTimes, 50),
+						percentile(frameTimes, 90),
+						percentile(frameTimes, 99),
+						percentile(frameTimes, 100),
+						timesToValid.length,
+						percentile(timesToValid, 50),
+						percentile(timesToValid, 90),
+						percentile(timesToValid, 100),
+						blocks,
+						bytes));
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		controlPanel.close();
+		System.exit(0);
+	}
+}
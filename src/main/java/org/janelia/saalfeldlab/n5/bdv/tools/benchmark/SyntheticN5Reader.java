@@ -0,0 +1,620 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.benchmark;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.bdv.DataTypes;
+import org.janelia.saalfeldlab.n5.bdv.tools.export.StreamingN5Exporter;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * An {@link N5Reader} that generates its blocks on the fly, for testing
+ * loading without real storage.
+ * <p>
+ * The container is an N5 Viewer multiscale group at its root with datasets
+ * s0, s1, ... each downsampled by 2 in all dimensions. For anisotropic
+ * resolutions, only the dimensions with the finest resolution are
+ * downsampled until the resolution is about isotropic. Blocks show a
+ * checkerboard of 32 pixel (at s0) cubes with some noise, so that scale
+ * levels look alike and missing or wrong blocks are visible. A fraction of
+ * blocks, given by the sparsity, does not exist. The data are the same for
+ * the same parameters and seed.
+ * <p>
+ * Blocks are returned decoded, the compression is only reported in the
+ * dataset attributes, e.g. for {@link WriteSyntheticContainer}. Wrap the
+ * reader in a {@link LatencyN5Reader} to simulate remote storage.
+ * <p>
+ * It can also be opened by uri, e.g. in {@code N5Viewer.buildN5Sources}:
+ *
+ * <pre>
+ * synthetic:dimensions=1024,1024,512&amp;blockSize=64&amp;dataType=uint16&amp;scales=4&amp;sparsity=0.1&amp;latency=50&amp;bandwidth=100
+ * synthetic:dimensions=4096,4096,256&amp;resolution=4,4,40&amp;scales=6
+ * </pre>
+ *
+ * where latency (ms), bandwidth (MB/s) and failures (rate) configure a
+ * {@link LatencyN5Reader}.
+ */
+public class SyntheticN5Reader implements N5Reader {
+
+	public static final String SCHEME = "synthetic";
+
+	private static final int CHECKER_SHIFT = 5;
+
+	private final long[] dimensions;
+
+	private final int[] blockSize;
+
+	private final double[] resolution;
+
+	/* downsampling factors of each level */
+	private final long[][] factors;
+
+	private final DataType dataType;
+
+	private final Compression compression;
+
+	private final int numScales;
+
+	private final double sparsity;
+
+	private final long seed;
+
+	private final Gson gson = new Gson();
+
+	private final Map<String, JsonObject> attributes = new LinkedHashMap<>();
+
+	private final DatasetAttributes[] datasetAttributes;
+
+	/**
+	 * @param dimensions
+	 *            dimensions of s0
+	 * @param blockSize
+	 *            block size of all scale levels
+	 * @param dataType
+	 *            the data type
+	 * @param compression
+	 *            the compression reported in the dataset attributes
+	 * @param numScales
+	 *            number of scale levels, levels smaller than a pixel are
+	 *            omitted
+	 * @param sparsity
+	 *            fraction of blocks that do not exist
+	 * @param seed
+	 *            seed for the noise and the missing blocks
+	 */
+	public SyntheticN5Reader(
+			final long[] dimensions,
+			final int[] blockSize,
+			final DataType dataType,
+			final Compression compression,
+			final int numScales,
+			final double sparsity,
+			final long seed) {
+
+		this(dimensions, blockSize, filled(dimensions.length, 1), dataType, compression, numScales, sparsity, seed);
+	}
+
+	/**
+	 * @param dimensions
+	 *            dimensions of s0
+	 * @param blockSize
+	 *            block size of all scale levels
+	 * @param resolution
+	 *            pixel resolution of s0
+	 * @param dataType
+	 *            the data type
+	 * @param compression
+	 *            the compression reported in the dataset attributes
+	 * @param numScales
+	 *            number of scale levels, levels smaller than a pixel are
+	 *            omitted
+	 * @param sparsity
+	 *            fraction of blocks that do not exist
+	 * @param seed
+	 *            seed for the noise and the missing blocks
+	 */
+	public SyntheticN5Reader(
+			final long[] dimensions,
+			final int[] blockSize,
+			final double[] resolution,
+			final DataType dataType,
+			final Compression compression,
+			final int numScales,
+			final double sparsity,
+			final long seed) {
+
+		this.dimensions = dimensions.clone();
+		this.blockSize = blockSize.clone();
+		this.resolution = resolution.clone();
+		this.dataType = dataType;
+		this.compression = compression;
+		this.sparsity = sparsity;
+		this.seed = seed;
+
+		// stop when all dimensions are down to one pixel
+		final long[][] levelFactors = new long[numScales][];
+		levelFactors[0] = new long[dimensions.length];
+		Arrays.fill(levelFactors[0], 1);
+		int n = 1;
+		while (n < numScales && !isLastLevel(dimensions, levelFactors[n - 1])) {
+			levelFactors[n] = downsample(resolution, levelFactors[n - 1]);
+			++n;
+		}
+		this.numScales = n;
+		factors = Arrays.copyOf(levelFactors, n);
+
+		datasetAttributes = new DatasetAttributes[this.numScales];
+		final JsonArray scales = new JsonArray();
+		for (int s = 0; s < this.numScales; ++s) {
+			final long[] levelDimensions = new long[dimensions.length];
+			final JsonArray levelFactorsJson = new JsonArray();
+			final JsonArray levelResolution = new JsonArray();
+			for (int d = 0; d < dimensions.length; ++d) {
+				final long factor = factors[s][d];
+				levelDimensions[d] = Math.max(1, (dimensions[d] + factor - 1) / factor);
+				levelFactorsJson.add(new JsonPrimitive(factor));
+				levelResolution.add(new JsonPrimitive(resolution[d] * factor));
+			}
+			datasetAttributes[s] = new DatasetAttributes(levelDimensions, blockSize, dataType, compression);
+			scales.add(levelFactorsJson);
+
+			final JsonObject pixelResolution = new JsonObject();
+			pixelResolution.addProperty("unit", "px");
+			pixelResolution.add("dimensions", levelResolution);
+
+			final JsonObject levelAttributes = new JsonObject();
+			levelAttributes.add(StreamingN5Exporter.DOWNSAMPLING_FACTORS_KEY, levelFactorsJson);
+			levelAttributes.add(StreamingN5Exporter.PIXEL_RESOLUTION_KEY, pixelResolution);
+			attributes.put(levelPath(s), levelAttributes);
+		}
+
+		final JsonObject rootAttributes = new JsonObject();
+		rootAttributes.add("scales", scales);
+		attributes.put("", rootAttributes);
+	}
+
+	private static double[] filled(final int n, final double value) {
+
+		final double[] values = new double[n];
+		Arrays.fill(values, value);
+		return values;
+	}
+
+	/**
+	 * @return whether downsampling all dimensions once more leaves at most one
+	 *         pixel
+	 */
+	private static boolean isLastLevel(final long[] dimensions, final long[] factors) {
+
+		for (int d = 0; d < dimensions.length; ++d)
+			if (dimensions[d] > 2 * factors[d])
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Doubles the factors of the dimensions whose resolution does not exceed
+	 * the coarsest by more than 1.5 after downsampling, or of all dimensions if
+	 * there are none.
+	 */
+	private static long[] downsample(final double[] resolution, final long[] factors) {
+
+		double max = 0;
+		for (int d = 0; d < factors.length; ++d)
+			max = Math.max(max, resolution[d] * factors[d]);
+
+		final long[] next = factors.clone();
+		boolean any = false;
+		for (int d = 0; d < factors.length; ++d) {
+			if (2 * resolution[d] * factors[d] <= 1.5 * max) {
+				next[d] *= 2;
+				any = true;
+			}
+		}
+		if (!any)
+			for (int d = 0; d < factors.length; ++d)
+				next[d] *= 2;
+
+		return next;
+	}
+
+	public int getNumScales() {
+
+		return numScales;
+	}
+
+	/**
+	 * @param level
+	 *            the scale level
+	 * @return the downsampling factors of the level
+	 */
+	public long[] getDownsamplingFactors(final int level) {
+
+		return factors[level].clone();
+	}
+
+	private static String levelPath(final int level) {
+
+		return "s" + level;
+	}
+
+	private static String normalize(final String pathName) {
+
+		return pathName.replaceAll("^/+|/+$", "");
+	}
+
+	private int level(final String pathName) {
+
+		final String path = normalize(pathName);
+		for (int s = 0; s < numScales; ++s)
+			if (path.equals(levelPath(s)))
+				return s;
+
+		return -1;
+	}
+
+	private static long mix(long z) {
+
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private long hash(final int level, final long[] position) {
+
+		long h = mix(seed + level);
+		for (final long p : position)
+			h = mix(h ^ p);
+
+		return h;
+	}
+
+	/**
+	 * @return whether the block exists
+	 */
+	public boolean blockExists(final int level, final long[] gridPosition) {
+
+		if (sparsity <= 0)
+			return true;
+
+		return (hash(level, gridPosition) >>> 11) * 0x1.0p-53 >= sparsity;
+	}
+
+	/**
+	 * Generates the values of a block as doubles in [0, 256).
+	 */
+	private double[] generate(final int level, final long[] min, final int[] size, final int numElements) {
+
+		final double[] values = new double[numElements];
+		final int nd = size.length;
+		final long[] position = min.clone();
+		for (int i = 0; i < numElements; ++i) {
+			long checker = 0;
+			for (int d = 0; d < nd; ++d)
+				checker += (position[d] * factors[level][d]) >> CHECKER_SHIFT;
+
+			values[i] = ((checker & 1) == 0 ? 64 : 160) + (hash(level, position) & 63);
+
+			for (int d = 0; d < nd; ++d) {
+				if (++position[d] < min[d] + size[d])
+					break;
+				position[d] = min[d];
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public DataBlock<?> readBlock(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		final int level = level(pathName);
+		if (level < 0)
+			throw new N5Exception("No dataset " + pathName);
+
+		if (!blockExists(level, gridPosition))
+			return null;
+
+		final long[] levelDimensions = this.datasetAttributes[level].getDimensions();
+		final int nd = levelDimensions.length;
+		final long[] min = new long[nd];
+		final int[] size = new int[nd];
+		int numElements = 1;
+		for (int d = 0; d < nd; ++d) {
+			min[d] = gridPosition[d] * blockSize[d];
+			size[d] = (int)Math.min(blockSize[d], levelDimensions[d] - min[d]);
+			if (size[d] <= 0)
+				throw new N5Exception("Block " + Arrays.toString(gridPosition) + " outside of " + pathName);
+			numElements *= size[d];
+		}
+
+		final double[] values = generate(level, min, size, numElements);
+		final DataBlock<?> block = dataType.createDataBlock(size, gridPosition.clone(), numElements);
+		final Object data = block.getData();
+		final double scale = scale(dataType);
+		if (data instanceof byte[]) {
+			final byte[] a = (byte[])data;
+			for (int i = 0; i < numElements; ++i)
+				a[i] = (byte)(values[i] * scale);
+		} else if (data instanceof short[]) {
+			final short[] a = (short[])data;
+			for (int i = 0; i < numElements; ++i)
+				a[i] = (short)(values[i] * scale);
+		} else if (data instanceof int[]) {
+			final int[] a = (int[])data;
+			// through long so that uint32 values above 2^31 wrap instead of saturating
+			for (int i = 0; i < numElements; ++i)
+				a[i] = (int)(long)(values[i] * scale);
+		} else if (data instanceof long[]) {
+			final long[] a = (long[])data;
+			for (int i = 0; i < numElements; ++i)
+				a[i] = (long)(values[i] * scale);
+		} else if (data instanceof float[]) {
+			final float[] a = (float[])data;
+			for (int i = 0; i < numElements; ++i)
+				a[i] = (float)(values[i] * scale);
+		} else if (data instanceof double[]) {
+			final double[] a = (double[])data;
+			for (int i = 0; i < numElements; ++i)
+				a[i] = values[i] * scale;
+		} else
+			throw new N5Exception("Unsupported data type " + dataType);
+
+		return block;
+	}
+
+	/**
+	 * Scales values in [0, 256) to the range of the data type, [0, 1) for
+	 * floating point types.
+	 */
+	private static double scale(final DataType dataType) {
+
+		switch (dataType) {
+		case FLOAT32:
+		case FLOAT64:
+			return 1.0 / 256;
+		case INT8:
+		case INT16:
+		case INT32:
+		case INT64:
+		case UINT64:
+			return Math.pow(2, 8 * (DataTypes.bytesPerElement(dataType) - 1) - 1);
+		default:
+			return Math.pow(2, 8 * (DataTypes.bytesPerElement(dataType) - 1));
+		}
+	}
+
+	private JsonElement getAttribute(final String pathName, final String key) {
+
+		final JsonObject root = attributes.get(normalize(pathName));
+		if (root == null)
+			return null;
+
+		JsonElement element = root;
+		for (final String k : normalize(key).split("/")) {
+			if (k.isEmpty())
+				continue;
+			if (!element.isJsonObject())
+				return null;
+			element = element.getAsJsonObject().get(k);
+			if (element == null)
+				return null;
+		}
+		return element;
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Class<T> clazz) throws N5Exception {
+
+		return getAttribute(pathName, key, (Type)clazz);
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Type type) throws N5Exception {
+
+		final JsonElement element = getAttribute(pathName, key);
+		try {
+			return element == null ? null : gson.fromJson(element, type);
+		} catch (final JsonSyntaxException | NumberFormatException | ClassCastException e) {
+			// like other readers, report attributes of another type as N5 exceptions
+			throw new N5Exception.N5ClassCastException(e);
+		}
+	}
+
+	@Override
+	public DatasetAttributes getDatasetAttributes(final String pathName) throws N5Exception {
+
+		final int level = level(pathName);
+		return level < 0 ? null : datasetAttributes[level];
+	}
+
+	@Override
+	public boolean exists(final String pathName) {
+
+		return attributes.containsKey(normalize(pathName));
+	}
+
+	@Override
+	public boolean datasetExists(final String pathName) throws N5Exception {
+
+		return level(pathName) >= 0;
+	}
+
+	@Override
+	public String[] list(final String pathName) throws N5Exception {
+
+		if (!normalize(pathName).isEmpty())
+			return new String[0];
+
+		final String[] children = new String[numScales];
+		for (int s = 0; s < numScales; ++s)
+			children[s] = levelPath(s);
+
+		return children;
+	}
+
+	@Override
+	public Map<String, Class<?>> listAttributes(final String pathName) throws N5Exception {
+
+		final Map<String, Class<?>> classes = new HashMap<>();
+		final JsonObject root = attributes.get(normalize(pathName));
+		if (root != null)
+			for (final Map.Entry<String, JsonElement> entry : root.entrySet())
+				classes.put(entry.getKey(), entry.getValue().isJsonArray() ? Object[].class : Object.class);
+
+		return classes;
+	}
+
+	@Override
+	public String getGroupSeparator() {
+
+		return "/";
+	}
+
+	@Override
+	public URI getURI() {
+
+		return URI.create(SCHEME + ":" + String.format(Locale.ROOT, "dimensions=%s&blockSize=%s&resolution=%s&dataType=%s&scales=%d&sparsity=%s&seed=%d",
+				join(dimensions),
+				join(Arrays.stream(blockSize).asLongStream().toArray()),
+				Arrays.stream(resolution).mapToObj(Double::toString).reduce((a, b) -> a + "," + b).orElse(""),
+				dataType,
+				numScales,
+				sparsity,
+				seed));
+	}
+
+	private static String join(final long[] values) {
+
+		return Arrays.stream(values).mapToObj(Long::toString).reduce((a, b) -> a + "," + b).orElse("");
+	}
+
+	@Override
+	public void close() {}
+
+	public static boolean isSyntheticUri(final String uri) {
+
+		return uri.startsWith(SCHEME + ":");
+	}
+
+	/**
+	 * Parses the parameters of a synthetic uri.
+	 *
+	 * @param uri
+	 *            the uri
+	 * @return the parameters
+	 */
+	public static Map<String, String> parameters(final String uri) {
+
+		final Map<String, String> params = new HashMap<>();
+		params.put("dimensions", "1024,1024,512");
+		params.put("blockSize", "64");
+		params.put("resolution", "1");
+		params.put("dataType", "uint16");
+		params.put("compression", StreamingN5Exporter.RAW);
+		params.put("scales", "5");
+		params.put("sparsity", "0");
+		params.put("seed", "0");
+
+		final String query = isSyntheticUri(uri) ? uri.substring(SCHEME.length() + 1) : uri;
+		for (final String param : query.split("&")) {
+			final int eq = param.indexOf('=');
+			if (eq > 0)
+				params.put(param.substring(0, eq).trim(), param.substring(eq + 1).trim());
+		}
+		return params;
+	}
+
+	/**
+	 * Creates a reader from parameters, see {@link #parameters(String)}.
+	 *
+	 * @param params
+	 *            the parameters
+	 * @return the reader
+	 */
+	public static SyntheticN5Reader create(final Map<String, String> params) {
+
+		final long[] dimensions = Arrays.stream(params.get("dimensions").split(","))
+				.map(String::trim)
+				.mapToLong(Long::parseLong)
+				.toArray();
+
+		final double[] resolution = Arrays.stream(params.get("resolution").split(","))
+				.map(String::trim)
+				.mapToDouble(Double::parseDouble)
+				.toArray();
+
+		return new SyntheticN5Reader(
+				dimensions,
+				StreamingN5Exporter.parseBlockSize(params.get("blockSize"), dimensions.length),
+				resolution.length == 1 ? filled(dimensions.length, resolution[0]) : resolution,
+				DataType.fromString(params.get("dataType").toLowerCase()),
+				StreamingN5Exporter.compression(params.get("compression")),
+				Integer.parseInt(params.get("scales")),
+				Double.parseDouble(params.get("sparsity")),
+				Long.parseLong(params.get("seed")));
+	}
+
+	/**
+	 * Opens a synthetic uri, wrapped in a {@link LatencyN5Reader} if latency,
+	 * bandwidth or failures are given.
+	 *
+	 * @param uri
+	 *            the uri
+	 * @return the reader
+	 */
+	public static N5Reader open(final String uri) {
+
+		final Map<String, String> params = parameters(uri);
+		final SyntheticN5Reader n5 = create(params);
+		if (!params.containsKey("latency") && !params.containsKey("bandwidth") && !params.containsKey("failures"))
+			return n5;
+
+		return new LatencyN5Reader(
+				n5,
+				Double.parseDouble(params.getOrDefault("latency", "0")),
+				Double.parseDouble(params.getOrDefault("bandwidth", "0")) * 1e6,
+				Double.parseDouble(params.getOrDefault("failures", "0")));
+	}
+}
@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.benchmark;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Writes the data of a {@link SyntheticN5Reader} into a container on disk.
+ * The storage format is chosen by the extension of the output path, e.g.
+ * {@code .n5}, {@code .zarr} or {@code .h5}, so that loading can be compared
+ * across formats with the same data.
+ *
+ * <pre>
+ * WriteSyntheticContainer --output synthetic.zarr \
+ *     [--dimensions 1024,1024,512] [--blockSize 64] [--dataType uint16] [--compression raw|gzip|lz4|zstd]
+ *     [--scales 5] [--sparsity 0] [--seed 0] [--threads n]
+ * </pre>
+ */
+public class WriteSyntheticContainer {
+
+	private static boolean isHdf5(final String path) {
+
+		final String lower = path.toLowerCase();
+		return lower.endsWith(".h5") || lower.endsWith(".hdf5") || lower.endsWith(".hdf");
+	}
+
+	private static void copyAttributes(final SyntheticN5Reader synthetic, final N5Writer n5, final String path) {
+
+		for (final String key : synthetic.listAttributes(path).keySet())
+			n5.setAttribute(path, key, synthetic.getAttribute(path, key, JsonElement.class));
+	}
+
+	/**
+	 * Writes all scale levels and their attributes.
+	 *
+	 * @param synthetic
+	 *            the synthetic container
+	 * @param n5
+	 *            the output container
+	 * @param numThreads
+	 *            number of blocks written in parallel
+	 * @return the number of blocks written
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for blocks to be written
+	 */
+	public static long write(
+			final SyntheticN5Reader synthetic,
+			final N5Writer n5,
+			final int numThreads) throws InterruptedException {
+
+		copyAttributes(synthetic, n5, "");
+
+		final AtomicLong numWritten = new AtomicLong();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		for (int s = 0; s < synthetic.getNumScales(); ++s) {
+			final String dataset = "s" + s;
+			final DatasetAttributes attributes = synthetic.getDatasetAttributes(dataset);
+			n5.createDataset(dataset, attributes);
+			copyAttributes(synthetic, n5, dataset);
+
+			final long[] dimensions = attributes.getDimensions();
+			final int[] blockSize = attributes.getBlockSize();
+			final int nd = dimensions.length;
+			final long[] gridSize = new long[nd];
+			long numBlocks = 1;
+			for (int d = 0; d < nd; ++d) {
+				gridSize[d] = (dimensions[d] + blockSize[d] - 1) / blockSize[d];
+				numBlocks *= gridSize[d];
+			}
+
+			final ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, numThreads));
+			try {
+				final long[] gridPosition = new long[nd];
+				for (long i = 0; i < numBlocks; ++i) {
+					final long[] position = gridPosition.clone();
+					exec.submit(() -> {
+						try {
+							if (failure.get() != null)
+								return;
+
+							final DataBlock<?> block = synthetic.readBlock(dataset, attributes, position);
+							if (block != null) {
+								n5.writeBlock(dataset, attributes, block);
+								numWritten.incrementAndGet();
+							}
+						} catch (final Throwable e) {
+							failure.compareAndSet(null, e);
+						}
+					});
+
+					for (int d = 0; d < nd; ++d) {
+						if (++gridPosition[d] < gridSize[d])
+							break;
+						gridPosition[d] = 0;
+					}
+				}
+			} finally {
+				exec.shutdown();
+				exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+
+			if (failure.get() != null)
+				throw new N5Exception("Failed to write " + dataset, failure.get());
+
+			System.out.println("wrote " + dataset + " " + attributes.getDataType() + " " + Arrays.toString(dimensions));
+		}
+		return numWritten.get();
+	}
+
+	public static void main(final String... args) throws InterruptedException {
+
+		final Map<String, String> params = SyntheticN5Reader.parameters("");
+		params.put("threads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+		for (int i = 0; i + 1 < args.length; i += 2)
+			params.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+
+		if (!params.containsKey("output")) {
+			System.err.println("Usage: WriteSyntheticContainer --output <container.n5|container.zarr|container.h5>");
+			System.err.println("    [--dimensions 1024,1024,512] [--blockSize 64] [--dataType uint16] [--compression raw|gzip|lz4|zstd]");
+			System.err.println("    [--scales 5] [--sparsity 0] [--seed 0] [--threads n]");
+			System.exit(1);
+		}
+
+		final String output = params.get("output");
+		final SyntheticN5Reader synthetic = SyntheticN5Reader.create(params);
+
+		// HDF5 files can not be written in parallel
+		final int numThreads = isHdf5(output) ? 1 : Integer.parseInt(params.get("threads"));
+		try (final N5Writer n5 = new N5Factory().openWriter(output)) {
+			final long numBlocks = write(synthetic, n5, numThreads);
+			System.out.println(numBlocks + " blocks written to " + output);
+		}
+		System.exit(0);
+	}
+}
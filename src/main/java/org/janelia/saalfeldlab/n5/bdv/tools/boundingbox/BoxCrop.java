@@ -21,9 +21,20 @@ import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
 
+import org.janelia.saalfeldlab.n5.Compression;
 import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.bdv.DataTypes;
+import org.janelia.saalfeldlab.n5.bdv.FootprintMipmapSource;
+import org.janelia.saalfeldlab.n5.bdv.tools.export.Resampler;
+import org.janelia.saalfeldlab.n5.bdv.tools.export.StreamingN5Exporter;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
 import org.scijava.ui.behaviour.BehaviourMap;
 import org.scijava.ui.behaviour.ClickBehaviour;
 import org.scijava.ui.behaviour.InputTriggerAdder;
@@ -36,14 +47,16 @@ import bdv.tools.boundingbox.BoxDisplayModePanel;
 import bdv.tools.boundingbox.BoxSelectionOptions;
 import bdv.tools.boundingbox.BoxSelectionOptions.TimepointSelection;
 import bdv.tools.boundingbox.TransformedRealBoxSelectionDialog;
-import bdv.util.MipmapTransforms;
 import bdv.viewer.AbstractViewerPanel;
 import bdv.viewer.ConverterSetups;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import bdv.viewer.ViewerStateChange;
 import bdv.viewer.ViewerStateChangeListener;
+import ij.IJ;
 import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.FinalInterval;
 import net.imglib2.FinalRealInterval;
 import net.imglib2.Interval;
@@ -52,7 +65,7 @@ import net.imglib2.RealInterval;
 import net.imglib2.RealPoint;
 import net.imglib2.Volatile;
 import net.imglib2.converter.Converter;
-import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.display.ColorConverter;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.iterator.IntervalIterator;
 import net.imglib2.realtransform.AffineTransform3D;
@@ -71,6 +84,9 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 	public static final String EXPORT_CURRENT = "Current";
 	public static final String EXPORT_VISIBLE = "Visible";
 
+	public static final String EXPORT_TARGET_IMAGEJ = "ImageJ";
+	public static final String EXPORT_TARGET_N5 = "N5 / Zarr";
+
 	private final AbstractViewerPanel viewer;
 	private final List<SourceAndConverter<?>> sources;
 	private int[] scales;
@@ -81,8 +97,16 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 	private JComboBox<Integer> scaleLevelDropdown;
 	private JComboBox<String> exportedSourcesDropddown;
 	private JCheckBox concatenateSourcesCheck;
+	private JComboBox<String> exportTargetDropdown;
+	private JSpinner firstTimepointSpinner;
+	private JSpinner lastTimepointSpinner;
+	private JCheckBox customResolutionCheck;
+	private JTextField resolutionField;
+	private JComboBox<String> interpolationDropdown;
 	private JLabel information;
 
+	private final CropCostEstimator costEstimator = new CropCostEstimator();
+
 	private SourceAndConverter<?> currSrc;
 	private int selectedLevel;
 	private RealInterval lastInterval;
@@ -94,6 +118,16 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 
 	private TimepointSelection timePointSelection = TimepointSelection.NONE;
 
+	// remember n5 export parameters
+	private String n5Container = System.getProperty("user.home") + "/crop.n5";
+	private String n5Dataset = "crop";
+	private String n5BlockSize = "64,64,64";
+	private String n5Compression = StreamingN5Exporter.GZIP;
+	private int n5Threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private int n5BlocksInFlight = 64;
+	private int n5DownsampledLevels = 0;
+	private int n5FramesInFlight = 2;
+
 	public BoxCrop(
 			final AbstractViewerPanel viewer,
 			final ConverterSetups converterSetups,
@@ -139,7 +173,11 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 
 		// add actions
 		super.buttons.onOk(() -> {
-			crop();
+			if (EXPORT_TARGET_N5.equals(exportTargetDropdown.getSelectedItem()))
+				exportN5();
+			else
+				crop();
+
 			viewer.state().changeListeners().remove(this);
 		});
 
@@ -148,6 +186,16 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 		});
 	}
 
+	/**
+	 * Also stops sampling blocks for the cost estimate.
+	 */
+	@Override
+	public void dispose() {
+
+		costEstimator.close();
+		super.dispose();
+	}
+
 	@Override
 	public void click(final int x, final int y) {
 
@@ -157,12 +205,13 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 		viewer.state().changeListeners().add(this);
 
 		updateScales();
+		updateTimepoints();
 
 		// reset scale levels
 		scales = null;
 
 		final Source<?> src = currSrc.getSpimSource();
-		final int estBestScale = MipmapTransforms.getBestMipMapLevel(viewer.state().getViewerTransform(), src, 0);
+		final int estBestScale = FootprintMipmapSource.getBestMipMapLevel(viewer.state().getViewerTransform(), src, 0);
 		final int bestScale = estBestScale <= src.getNumMipmapLevels() - 1 ? estBestScale
 				: src.getNumMipmapLevels() - 1;
 		scaleLevelDropdown.setSelectedIndex(bestScale);
@@ -340,6 +389,71 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 		});
 		content.add(concatenateSourcesCheck, gbc);
 
+		gbc.gridy++;
+		gbc.gridx = 0;
+		content.add(new JLabel("Export to"), gbc);
+
+		gbc.gridx = 1;
+		exportTargetDropdown = new JComboBox<>(new String[]{EXPORT_TARGET_IMAGEJ, EXPORT_TARGET_N5});
+		exportTargetDropdown.addActionListener(e -> {
+			if (currSrc != null)
+				updateInformation();
+		});
+		content.add(exportTargetDropdown, gbc);
+
+		gbc.gridy++;
+		gbc.gridx = 0;
+		content.add(new JLabel("Timepoints"), gbc);
+
+		gbc.gridx = 1;
+		final JPanel timepointsPanel = new JPanel();
+		timepointsPanel.setLayout(new BoxLayout(timepointsPanel, BoxLayout.LINE_AXIS));
+		firstTimepointSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 0, 1));
+		lastTimepointSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 0, 1));
+		firstTimepointSpinner.addChangeListener(e -> {
+			if (getFirstTimepoint() > getLastTimepoint())
+				lastTimepointSpinner.setValue(getFirstTimepoint());
+		});
+		lastTimepointSpinner.addChangeListener(e -> {
+			if (getLastTimepoint() < getFirstTimepoint())
+				firstTimepointSpinner.setValue(getLastTimepoint());
+		});
+		timepointsPanel.add(firstTimepointSpinner);
+		timepointsPanel.add(new JLabel(" to "));
+		timepointsPanel.add(lastTimepointSpinner);
+		content.add(timepointsPanel, gbc);
+
+		gbc.gridy++;
+		gbc.gridx = 0;
+		customResolutionCheck = new JCheckBox("Voxel size");
+		customResolutionCheck.setToolTipText("Resample to a custom voxel size instead of exporting a scale level");
+		content.add(customResolutionCheck, gbc);
+
+		gbc.gridx = 1;
+		final JPanel resolutionPanel = new JPanel();
+		resolutionPanel.setLayout(new BoxLayout(resolutionPanel, BoxLayout.LINE_AXIS));
+		resolutionField = new JTextField("1,1,1", 10);
+		resolutionField.setEnabled(false);
+		interpolationDropdown = new JComboBox<>(Resampler.INTERPOLATION_OPTIONS);
+		interpolationDropdown.setSelectedItem(Resampler.LINEAR);
+		interpolationDropdown.setEnabled(false);
+		resolutionPanel.add(resolutionField);
+		resolutionPanel.add(interpolationDropdown);
+		content.add(resolutionPanel, gbc);
+
+		customResolutionCheck.addActionListener(e -> {
+			final boolean custom = customResolutionCheck.isSelected();
+			resolutionField.setEnabled(custom);
+			interpolationDropdown.setEnabled(custom);
+			scaleLevelDropdown.setEnabled(!custom);
+			if (currSrc != null)
+				updateInformation();
+		});
+		resolutionField.addActionListener(e -> {
+			if (currSrc != null)
+				updateInformation();
+		});
+
 		gbc.gridx = 0;
 		gbc.gridy++;
 		final JLabel lblTitle = new JLabel("Selection:");
@@ -386,37 +500,147 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 		pack();
 	}
 
+	/**
+	 * Limit the timepoint range to the timepoints of the viewer and select
+	 * the current timepoint.
+	 */
+	public void updateTimepoints() {
+
+		final int numTimepoints = Math.max(1, viewer.state().getNumTimepoints());
+		final int current = Math.min(viewer.state().getCurrentTimepoint(), numTimepoints - 1);
+		firstTimepointSpinner.setModel(new SpinnerNumberModel(current, 0, numTimepoints - 1, 1));
+		lastTimepointSpinner.setModel(new SpinnerNumberModel(current, 0, numTimepoints - 1, 1));
+	}
+
+	/**
+	 * @return the custom voxel size, or null if scale levels are exported
+	 */
+	public double[] getCustomResolution() {
+
+		if (!customResolutionCheck.isSelected())
+			return null;
+
+		return Resampler.parseResolution(resolutionField.getText());
+	}
+
+	/*
+	 * Shows an error and returns false if a custom voxel size is selected
+	 * but can not be parsed.
+	 */
+	private boolean checkCustomResolution() {
+
+		if (customResolutionCheck.isSelected() && getCustomResolution() == null) {
+			IJ.error(
+					"Custom voxel size",
+					"Invalid voxel size \"" + resolutionField.getText() + "\".\n" +
+							"Enter one or three positive numbers, e.g. 4 or 4,4,8.");
+			return false;
+		}
+		return true;
+	}
+
+	public int getFirstTimepoint() {
+
+		return ((Number)firstTimepointSpinner.getValue()).intValue();
+	}
+
+	public int getLastTimepoint() {
+
+		return ((Number)lastTimepointSpinner.getValue()).intValue();
+	}
+
 	public <T extends NativeType<T>> void updateInformation() {
 
 		@SuppressWarnings("unchecked")
 		final Source<T> src = (Source<T>)currSrc.getSpimSource();
 		final T t = Util.getTypeFromInterval(src.getSource(0, 0));
 
+		final double[] resolution = getCustomResolution();
+		if (customResolutionCheck.isSelected() && resolution == null) {
+			information.setText("Invalid voxel size");
+			return;
+		}
+		if (resolution != null) {
+			// the output is resampled from the nearest finer level
+			final int level = Resampler.finerLevel(src, getFirstTimepoint(), resolution);
+			final long[] dims = Resampler.outputDimensions(model.getInterval(), resolution);
+			final String outputString = String
+					.format(
+							"Output %d x %d x %d (%s) from level %d",
+							dims[0],
+							dims[1],
+							dims[2],
+							humanReadableByteCountSI(estimateBytes(new FinalInterval(dims), t, level)),
+							level);
+			updateInformation(src, level, outputString);
+			return;
+		}
+
 		final Interval pixItvl = getPixelInterval(src, selectedLevel);
 		final long numBytes = estimateBytes(pixItvl, t, selectedLevel);
 		final String byteString = humanReadableByteCountSI(numBytes);
 
+		final String outputString;
 		if (pixItvl.numDimensions() == 2)
-			information
-					.setText(
-							String
-									.format(
-											"Output %d x %d (%s)",
-											pixItvl.dimension(0),
-											pixItvl.dimension(1),
-											byteString));
+			outputString = String
+					.format(
+							"Output %d x %d (%s)",
+							pixItvl.dimension(0),
+							pixItvl.dimension(1),
+							byteString);
 		else if (pixItvl.numDimensions() == 3)
-			information
-					.setText(
-							String
-									.format(
-											"Output %d x %d x %d (%s)",
-											pixItvl.dimension(0),
-											pixItvl.dimension(1),
-											pixItvl.dimension(2),
-											byteString));
+			outputString = String
+					.format(
+							"Output %d x %d x %d (%s)",
+							pixItvl.dimension(0),
+							pixItvl.dimension(1),
+							pixItvl.dimension(2),
+							byteString);
+		else
+			outputString = "";
+
+		updateInformation(src, selectedLevel, outputString);
+	}
+
+	/*
+	 * Show the output size and the estimated cost of reading the box from the
+	 * given level.
+	 */
+	private void updateInformation(final Source<?> src, final int level, final String outputString) {
 
+		information.setText(outputString);
 		repaint();
+
+		final Interval pixItvl = getPixelInterval(src, level);
+		final boolean toN5 = exportTargetDropdown != null && EXPORT_TARGET_N5.equals(exportTargetDropdown.getSelectedItem());
+		final int numThreads = toN5 ? n5Threads : 1;
+		costEstimator.estimate(src, level, pixItvl, numThreads, estimate -> {
+			if (estimate == null)
+				return;
+
+			final String costString = formatCost(estimate);
+			SwingUtilities.invokeLater(() -> {
+				information.setText("<html>" + outputString + "<br>" + costString + "</html>");
+				repaint();
+			});
+		});
+	}
+
+	private static String formatCost(final CropCostEstimator.Estimate estimate) {
+
+		final StringBuilder str = new StringBuilder();
+		str.append(estimate.numBlocks).append(estimate.numBlocks == 1 ? " block" : " blocks");
+		if (estimate.compressedBytes >= 0) {
+			str.append(", ~").append(humanReadableByteCountSI(estimate.compressedBytes));
+			str.append(estimate.compressedSizeKnown ? " stored" : " uncompressed");
+			str.append(" (").append(estimate.numSamples).append(" sampled)");
+		} else
+			str.append(", sampling...");
+
+		if (!Double.isNaN(estimate.seconds))
+			str.append(", ~").append(CropCostEstimator.formatSeconds(estimate.seconds));
+
+		return str.toString();
 	}
 
 	public BehaviourMap getBehaviourMap() {
@@ -579,29 +803,13 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 	@SuppressWarnings("unchecked")
 	public <T extends NumericType<T> & NativeType<T>> ImagePlus[] crop() {
 
+		if (!checkCustomResolution())
+			return new ImagePlus[0];
+
 		// remember this interval for next time
 		lastInterval = model.getInterval();
 
-		final String exportOption = (String)exportedSourcesDropddown.getSelectedItem();
-		final List<SourceAndConverter<?>> srcList = new ArrayList<>();
-		if (exportOption.equals(EXPORT_CURRENT))
-			srcList.add((SourceAndConverter<?>)currSrc);
-		else {
-			// make sure the current source is first in the list
-			srcList.add(currSrc);
-
-			final Set<SourceAndConverter<?>> visibleSources = viewer.state().getVisibleSources();
-			// add all other sources
-			// exclude the box display source which has a Void type
-			visibleSources.removeIf(x -> {
-				return x.getSpimSource().getType() == null;
-			});
-			visibleSources.forEach(x -> {
-				if (x != currSrc) // this check so that we don't double add the
-									// current source
-					srcList.add((SourceAndConverter<T>)x);
-			});
-		}
+		final List<SourceAndConverter<?>> srcList = getExportedSources();
 
 		// if exporting to a single stack, check that the types are all equal
 		boolean doStack = concatenateSourcesCheck.isSelected();
@@ -613,18 +821,35 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 			Arrays.fill(scales, selectedLevel);
 		}
 
+		final double[] resolution = getCustomResolution();
 		final List<RandomAccessibleInterval<T>> imgList = new ArrayList<>();
 		int i = 0;
-		final Interval[] intervals = new Interval[srcList.size()];
+		final double[][][] calibrations = new double[srcList.size()][][];
 		for (final SourceAndConverter<?> sac : srcList) {
 			final Source<T> src = (Source<T>)sac.getSpimSource();
-			final int level = scales[i];
-			final Interval pixItvl = getPixelInterval(src, level);
 
-			// save the interval for later
-			intervals[i] = pixItvl;
+			final List<RandomAccessibleInterval<T>> frames;
+			if (resolution != null) {
+				// resample in parallel into memory
+				final int level = Resampler.finerLevel(src, getFirstTimepoint(), resolution);
+				frames = new ArrayList<>();
+				try {
+					for (final RandomAccessibleInterval<T> frame : resampleFrames(src, level, resolution))
+						frames.add(Resampler.render(frame, Runtime.getRuntime().availableProcessors()));
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return new ImagePlus[0];
+				}
+				calibrations[i] = resampledCalibration(resolution);
+			} else {
+				final int level = scales[i];
+				final Interval pixItvl = getPixelInterval(src, level);
+				frames = cropFrames(src, pixItvl, level);
+				calibrations[i] = calibration(src, pixItvl, level);
+			}
 
-			imgList.add(cropSource(src, pixItvl, level));
+			// crops over time are stacked along the last dimension
+			imgList.add(frames.size() == 1 ? frames.get(0) : Views.stack(frames));
 			i++;
 		}
 
@@ -638,7 +863,7 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 			final RandomAccessibleInterval<T> imgP = Views.moveAxis(imgTmp, imgTmp.numDimensions() - 1, 2);
 			final ImagePlus imp = ImageJFunctions.wrap(imgP, "multichannel crop");
 			updateDisplayRange(imp, srcList.get(0));
-			updateResolutionOffset(imp, srcList.get(0).getSpimSource(), intervals[0], selectedLevel);
+			updateResolutionOffset(imp, calibrations[0]);
 			imp.show();
 			return new ImagePlus[]{imp};
 		} else {
@@ -649,12 +874,14 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 				final RandomAccessibleInterval<T> img;
 				if (imgTmp.numDimensions() == 3)
 					img = Views.moveAxis(Views.addDimension(imgTmp, 0, 0), 2, 3);
+				else if (imgTmp.numDimensions() == 4)
+					img = Views.moveAxis(Views.addDimension(imgTmp, 0, 0), 4, 2);
 				else
 					img = imgTmp;
 
 				final ImagePlus imp = ImageJFunctions.wrap(img, srcList.get(i).getSpimSource().getName() + "+_crop");
 				updateDisplayRange(imp, srcList.get(i));
-				updateResolutionOffset(imp, srcList.get(0).getSpimSource(), intervals[i], scales[i]);
+				updateResolutionOffset(imp, calibrations[i]);
 				results[i] = imp;
 				imp.show();
 			}
@@ -662,16 +889,259 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 		}
 	}
 
+	/**
+	 * Returns the sources selected for export, with the current source first.
+	 *
+	 * @return the list of sources
+	 */
+	protected List<SourceAndConverter<?>> getExportedSources() {
+
+		final String exportOption = (String)exportedSourcesDropddown.getSelectedItem();
+		final List<SourceAndConverter<?>> srcList = new ArrayList<>();
+		if (exportOption.equals(EXPORT_CURRENT))
+			srcList.add(currSrc);
+		else {
+			// make sure the current source is first in the list
+			srcList.add(currSrc);
+
+			final Set<SourceAndConverter<?>> visibleSources = viewer.state().getVisibleSources();
+			// add all other sources
+			// exclude the box display source which has a Void type
+			visibleSources.removeIf(x -> {
+				return x.getSpimSource().getType() == null;
+			});
+			visibleSources.forEach(x -> {
+				if (x != currSrc) // this check so that we don't double add the
+									// current source
+					srcList.add(x);
+			});
+		}
+		return srcList;
+	}
+
+	/**
+	 * Streams the selected interval of the exported sources into an N5, Zarr,
+	 * or HDF5 container block by block, so that crops larger than memory can
+	 * be exported. Export parameters are queried with a dialog, the export
+	 * itself runs in the background.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends NumericType<T> & NativeType<T>> void exportN5() {
+
+		if (!checkCustomResolution())
+			return;
+
+		// remember this interval for next time
+		lastInterval = model.getInterval();
+
+		final GenericDialog gd = new GenericDialog("Export to N5 / Zarr");
+		gd.addStringField("Container", n5Container, 40);
+		gd.addStringField("Dataset", n5Dataset, 20);
+		gd.addStringField("Block_size", n5BlockSize, 20);
+		gd.addChoice("Compression", StreamingN5Exporter.COMPRESSION_OPTIONS, n5Compression);
+		gd.addNumericField("Threads", n5Threads, 0);
+		gd.addNumericField("Max_blocks_in_memory", n5BlocksInFlight, 0);
+		gd.addNumericField("Downsampled_levels", n5DownsampledLevels, 0);
+		gd.addNumericField("Timepoints_in_parallel", n5FramesInFlight, 0);
+		gd.showDialog();
+
+		if (gd.wasCanceled())
+			return;
+
+		n5Container = gd.getNextString();
+		n5Dataset = gd.getNextString();
+		n5BlockSize = gd.getNextString();
+		n5Compression = gd.getNextChoice();
+		n5Threads = (int)gd.getNextNumber();
+		n5BlocksInFlight = (int)gd.getNextNumber();
+		n5DownsampledLevels = (int)gd.getNextNumber();
+		n5FramesInFlight = (int)gd.getNextNumber();
+
+		final List<SourceAndConverter<?>> srcList = getExportedSources();
+		if (n5DownsampledLevels > 0) {
+			for (final SourceAndConverter<?> sac : srcList) {
+				final Object type = sac.getSpimSource().getType();
+				if (!StreamingN5Exporter.canDownsample(type)) {
+					IJ.error(
+							"Export to N5 / Zarr",
+							"Can not write downsampled levels of " + sac.getSpimSource().getName() +
+									" (" + type.getClass().getSimpleName() + "), set them to 0.");
+					return;
+				}
+			}
+		}
+		final int[] levels = new int[srcList.size()];
+		Arrays.fill(levels, selectedLevel);
+		if (scales != null && scales.length == levels.length)
+			System.arraycopy(scales, 0, levels, 0, levels.length);
+
+		final String container = n5Container;
+		final String dataset = n5Dataset;
+		final String blockSize = n5BlockSize;
+		final Compression compression = StreamingN5Exporter.compression(n5Compression);
+		final int numThreads = n5Threads;
+		final int blocksInFlight = n5BlocksInFlight;
+		final int downsampledLevels = n5DownsampledLevels;
+		final int framesInFlight = n5FramesInFlight;
+		final boolean timeSeries = getLastTimepoint() > getFirstTimepoint();
+		final double[] resolution = getCustomResolution();
+
+		// build the (lazy) images here, the export reads them in the background
+		final List<List<RandomAccessibleInterval<T>>> framesList = new ArrayList<>();
+		final List<double[][]> calibrations = new ArrayList<>();
+		for (int i = 0; i < srcList.size(); i++) {
+			final Source<T> src = (Source<T>)srcList.get(i).getSpimSource();
+			if (resolution != null) {
+				// resampled lazily, blocks are computed in parallel while writing
+				final int level = Resampler.finerLevel(src, getFirstTimepoint(), resolution);
+				framesList.add(resampleFrames(src, level, resolution));
+				calibrations.add(resampledCalibration(resolution));
+			} else {
+				final Interval pixItvl = getPixelInterval(src, levels[i]);
+				framesList.add(cropFrames(src, pixItvl, levels[i]));
+				calibrations.add(calibration(src, pixItvl, levels[i]));
+			}
+		}
+
+		new Thread(() -> {
+			try (final N5Writer n5 = new N5Factory().openWriter(container)) {
+				for (int i = 0; i < srcList.size(); i++) {
+					final Source<T> src = (Source<T>)srcList.get(i).getSpimSource();
+					final List<RandomAccessibleInterval<T>> frames = framesList.get(i);
+					final double[][] calibration = calibrations.get(i);
+					final RandomAccessibleInterval<T> img = frames.get(0);
+					final String path = srcList.size() == 1 ? dataset : dataset + "/c" + i;
+
+					final StreamingN5Exporter exporter = new StreamingN5Exporter(
+							n5,
+							StreamingN5Exporter.parseBlockSize(blockSize, img.numDimensions()),
+							compression,
+							numThreads,
+							blocksInFlight,
+							downsampledLevels);
+					exporter.setProgressListener((done, total) -> IJ.showProgress(done.intValue(), total.intValue()));
+
+					IJ.log(String.format("Exporting %s to %s, dataset %s", src.getName(), container, path));
+					if (timeSeries)
+						exporter.exportTimeSeries(frames, path, calibration[0], calibration[1], unit(src), framesInFlight);
+					else
+						exporter.export(img, path, calibration[0], calibration[1], unit(src));
+				}
+				IJ.log("Export finished: " + container);
+			} catch (final Exception e) {
+				IJ.handleException(e);
+			} finally {
+				IJ.showProgress(1.0);
+			}
+		}, "n5-crop-export").start();
+	}
+
 	public <T extends NumericType<T> & NativeType<T>> RandomAccessibleInterval<T> cropSource(
 			final Source<T> src,
 			final Interval pixItvl,
 			final int level) {
 
-		final RandomAccessibleInterval<T> img = src.getSource(0, level);
+		return cropSource(src, pixItvl, level, 0);
+	}
+
+	public <T extends NumericType<T> & NativeType<T>> RandomAccessibleInterval<T> cropSource(
+			final Source<T> src,
+			final Interval pixItvl,
+			final int level,
+			final int timepoint) {
+
+		return crop(src, pixItvl, level, timepoint);
+	}
+
+	/**
+	 * Returns a view of a pixel interval of a source. Pixels outside of the
+	 * source are zero.
+	 *
+	 * @param <T>
+	 *            the type
+	 * @param src
+	 *            the source
+	 * @param pixItvl
+	 *            the interval in pixel coordinates of the scale level
+	 * @param level
+	 *            the scale level
+	 * @param timepoint
+	 *            the timepoint
+	 * @return the cropped view
+	 */
+	public static <T extends NumericType<T> & NativeType<T>> RandomAccessibleInterval<T> crop(
+			final Source<T> src,
+			final Interval pixItvl,
+			final int level,
+			final int timepoint) {
+
+		final RandomAccessibleInterval<T> img = src.getSource(timepoint, level);
 		final IntervalView<T> cropImg = Views.interval(Views.extendZero(img), pixItvl);
 		return cropImg;
 	}
 
+	/**
+	 * Resamples the box at the given voxel size from every timepoint of the
+	 * selected range.
+	 *
+	 * @param <T>
+	 *            the type
+	 * @param src
+	 *            the source
+	 * @param level
+	 *            the scale level to interpolate from
+	 * @param resolution
+	 *            the voxel size
+	 * @return one lazily resampled image per timepoint
+	 */
+	public <T extends NumericType<T> & NativeType<T>> List<RandomAccessibleInterval<T>> resampleFrames(
+			final Source<T> src,
+			final int level,
+			final double[] resolution) {
+
+		final RealInterval worldBox = model.getInterval();
+		final String interpolation = (String)interpolationDropdown.getSelectedItem();
+		final List<RandomAccessibleInterval<T>> frames = new ArrayList<>();
+		for (int t = getFirstTimepoint(); t <= getLastTimepoint(); t++)
+			frames.add(Resampler.resample(src, t, level, worldBox, resolution, interpolation));
+
+		return frames;
+	}
+
+	private double[][] resampledCalibration(final double[] resolution) {
+
+		final RealInterval worldBox = model.getInterval();
+		return new double[][]{
+				resolution.clone(),
+				new double[]{worldBox.realMin(0), worldBox.realMin(1), worldBox.realMin(2)}};
+	}
+
+	/**
+	 * Crops the given pixel interval from every timepoint of the selected
+	 * range.
+	 *
+	 * @param <T>
+	 *            the type
+	 * @param src
+	 *            the source
+	 * @param pixItvl
+	 *            the pixel interval
+	 * @param level
+	 *            the scale level
+	 * @return one crop per timepoint
+	 */
+	public <T extends NumericType<T> & NativeType<T>> List<RandomAccessibleInterval<T>> cropFrames(
+			final Source<T> src,
+			final Interval pixItvl,
+			final int level) {
+
+		final List<RandomAccessibleInterval<T>> frames = new ArrayList<>();
+		for (int t = getFirstTimepoint(); t <= getLastTimepoint(); t++)
+			frames.add(cropSource(src, pixItvl, level, t));
+
+		return frames;
+	}
+
 	/**
 	 * Modifies the display range of the ImagePlus using the provided
 	 * SourceAndConverter,
@@ -685,27 +1155,53 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 	private static void updateDisplayRange(final ImagePlus imp, final SourceAndConverter<?> sac) {
 
 		final Converter<?, ?> conv = sac.getConverter();
-		if (conv instanceof RealARGBColorConverter) {
-			@SuppressWarnings("rawtypes")
-			final RealARGBColorConverter rc = (RealARGBColorConverter)conv;
+		if (conv instanceof ColorConverter) {
+			final ColorConverter rc = (ColorConverter)conv;
 			imp.setDisplayRange(rc.getMin(), rc.getMax());
 		}
 	}
 
-	private static void updateResolutionOffset(final ImagePlus imp, final Source<?> src, final Interval itvl, final int level) {
+	private static void updateResolutionOffset(final ImagePlus imp, final double[][] calibration) {
+
+		imp.getCalibration().pixelWidth = calibration[0][0];
+		imp.getCalibration().pixelHeight = calibration[0][1];
+		imp.getCalibration().pixelDepth = calibration[0][2];
+
+		imp.getCalibration().xOrigin = calibration[1][0];
+		imp.getCalibration().yOrigin = calibration[1][1];
+		imp.getCalibration().zOrigin = calibration[1][2];
+	}
+
+	/**
+	 * Returns the pixel spacing and the physical position of the min corner of
+	 * the given pixel interval of a source at a scale level.
+	 *
+	 * @param src
+	 *            the source
+	 * @param itvl
+	 *            the pixel interval
+	 * @param level
+	 *            the scale level
+	 * @return an array containing the resolution and the offset
+	 */
+	public static double[][] calibration(final Source<?> src, final Interval itvl, final int level) {
 
 		final AffineTransform3D tmp = new AffineTransform3D();
 		src.getSourceTransform(0, level, tmp);
-		final double sx = tmp.get(0, 0);
-		final double sy = tmp.get(1, 1);
-		final double sz = tmp.get(2, 2);
-		imp.getCalibration().pixelWidth = sx;
-		imp.getCalibration().pixelHeight = sy;
-		imp.getCalibration().pixelDepth = sz;
 
-		imp.getCalibration().xOrigin = sx * itvl.min(0) + tmp.get(0, 3);
-		imp.getCalibration().yOrigin = sy * itvl.min(1) + tmp.get(1, 3);
-		imp.getCalibration().zOrigin = sz * itvl.min(2) + tmp.get(2, 3);
+		final double[] resolution = new double[3];
+		final double[] offset = new double[3];
+		for (int d = 0; d < 3; d++) {
+			resolution[d] = tmp.get(d, d);
+			offset[d] = resolution[d] * itvl.min(d) + tmp.get(d, 3);
+		}
+		return new double[][]{resolution, offset};
+	}
+
+	private static String unit(final Source<?> src) {
+
+		final VoxelDimensions vd = src.getVoxelDimensions();
+		return vd == null || vd.unit() == null ? "pixel" : vd.unit();
 	}
 
 	public static FinalRealInterval transformedBoundingBox(final RealTransform xfm, final RealInterval interval) {
@@ -778,19 +1274,7 @@ public class BoxCrop extends TransformedRealBoxSelectionDialog implements ClickB
 			g = t;
 
 		final DataType dataType = N5Utils.dataType(g);
-		final String typeString = dataType.toString();
-		final long N = Intervals.numElements(itvl);
-		long nBytes = -1;
-		if (typeString.endsWith("8"))
-			nBytes = N;
-		else if (typeString.endsWith("16"))
-			nBytes = N * 2;
-		else if (typeString.endsWith("32"))
-			nBytes = N * 4;
-		else if (typeString.endsWith("64"))
-			nBytes = N * 8;
-
-		return nBytes;
+		return Intervals.numElements(itvl) * DataTypes.bytesPerElement(dataType);
 	}
 
 	private static boolean affineAlmostEqual(final AffineTransform3D a, final AffineTransform3D b, final double relativeThreshold) {
@@ -0,0 +1,592 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.boundingbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GsonKeyValueN5Reader;
+import org.janelia.saalfeldlab.n5.KeyValueAccess;
+import org.janelia.saalfeldlab.n5.LockedChannel;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5URI;
+import org.janelia.saalfeldlab.n5.bdv.DataTypes;
+import org.janelia.saalfeldlab.n5.bdv.statistics.LimitedN5Reader;
+import org.janelia.saalfeldlab.n5.bdv.statistics.ViewerStatistics;
+
+import bdv.viewer.Source;
+import net.imglib2.Interval;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.transform.integer.MixedTransform;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.MixedTransformView;
+
+/**
+ * Estimates the cost of cropping an interval from a {@link Source}: the
+ * storage blocks that have to be fetched, their compressed size, and the time
+ * it will take to read them.
+ * <p>
+ * Images opened from an N5 container are {@link #register registered} with
+ * their container and dataset. The block footprint of a crop is found by
+ * walking the view chain of the cropped source down to the registered cell
+ * image. Compressed block sizes are sampled from the container in the
+ * background, and the predicted time is their size divided by the read
+ * throughput observed so far in this session for the same container. Block
+ * reads of the viewer are reported with {@link #recordRead}, which listens to
+ * the reads of all viewers' {@link LimitedN5Reader}s from the time the first
+ * image is registered.
+ */
+public class CropCostEstimator implements AutoCloseable {
+
+	private static final int SAMPLES_PER_UPDATE = 8;
+
+	private static final int MAX_SAMPLES_PER_DATASET = 64;
+
+	private static final Map<Object, BlockSource> registry = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private static final Map<String, Throughput> throughputs = new ConcurrentHashMap<>();
+
+	static {
+		ViewerStatistics.addReadListener(CropCostEstimator::recordRead);
+	}
+
+	private ExecutorService sampler;
+
+	private final AtomicLong generation = new AtomicLong();
+
+	private final Random random = new Random();
+
+	/**
+	 * Remember that the cell image {@code img} holds the blocks of
+	 * {@code dataset} in {@code n5}. Blocks are sampled from the reader below
+	 * a {@link LimitedN5Reader}, so that sampling neither waits for nor
+	 * disturbs the viewer's block reads.
+	 *
+	 * @param img
+	 *            the cell image
+	 * @param n5
+	 *            the reader
+	 * @param dataset
+	 *            the dataset
+	 */
+	public static void register(final AbstractCellImg<?, ?, ?, ?> img, final N5Reader n5, final String dataset) {
+
+		registry.put(img, new BlockSource(n5, dataset, img.getCellGrid()));
+	}
+
+	/**
+	 * Record that a block of {@code numBytes} bytes was read from
+	 * {@code container} in {@code nanos} nanoseconds. Used to predict the
+	 * time a crop from that container takes.
+	 *
+	 * @param container
+	 *            the container URI
+	 * @param numBytes
+	 *            the number of bytes read
+	 * @param nanos
+	 *            the time it took
+	 */
+	public static void recordRead(final String container, final long numBytes, final long nanos) {
+
+		if (numBytes <= 0 || nanos <= 0)
+			return;
+
+		final Throughput throughput = throughputs.computeIfAbsent(container, key -> new Throughput());
+		throughput.bytes.add(numBytes);
+		throughput.nanos.add(nanos);
+	}
+
+	/**
+	 * Returns the read throughput of a single reader observed for
+	 * {@code container} in bytes per second, or NaN if nothing was read from
+	 * it yet.
+	 *
+	 * @param container
+	 *            the container URI
+	 * @return the throughput
+	 */
+	public static double getThroughput(final String container) {
+
+		final Throughput throughput = throughputs.get(container);
+		if (throughput == null)
+			return Double.NaN;
+
+		final long nanos = throughput.nanos.sum();
+		return nanos == 0 ? Double.NaN : throughput.bytes.sum() * 1e9 / nanos;
+	}
+
+	/**
+	 * Returns the storage blocks of the registered cell image below
+	 * {@code img} that {@code itvl} touches, or null if {@code img} is not
+	 * backed by a registered cell image through a chain of integer views.
+	 *
+	 * @param img
+	 *            the image
+	 * @param itvl
+	 *            the interval in image coordinates
+	 * @return the footprint or null
+	 */
+	public static BlockFootprint footprint(final Object img, final Interval itvl) {
+
+		long[] min = itvl.minAsLongArray();
+		long[] max = itvl.maxAsLongArray();
+		Object view = img;
+		while (view != null) {
+			final BlockSource blockSource = registry.get(view);
+			if (blockSource != null)
+				return new BlockFootprint(blockSource, min, max);
+
+			if (view instanceof IntervalView)
+				view = ((IntervalView<?>)view).getSource();
+			else if (view instanceof MixedTransformView) {
+				final MixedTransformView<?> mixed = (MixedTransformView<?>)view;
+				final MixedTransform toSource = mixed.getTransformToSource();
+				final long[] sourceMin = new long[toSource.numTargetDimensions()];
+				final long[] sourceMax = new long[toSource.numTargetDimensions()];
+				toSource.apply(min, sourceMin);
+				toSource.apply(max, sourceMax);
+				for (int d = 0; d < sourceMin.length; d++) {
+					if (sourceMin[d] > sourceMax[d]) {
+						final long tmp = sourceMin[d];
+						sourceMin[d] = sourceMax[d];
+						sourceMax[d] = tmp;
+					}
+				}
+				min = sourceMin;
+				max = sourceMax;
+				view = mixed.getSource();
+			} else
+				view = null;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the storage block size of the registered cell image below
+	 * {@code img} along each dimension of {@code img}, or null if {@code img}
+	 * is not backed by a registered cell image through a chain of integer
+	 * views. Dimensions of {@code img} that do not map to a dimension of the
+	 * cell image have block size 1.
+	 *
+	 * @param img
+	 *            the image
+	 * @param numDimensions
+	 *            the number of dimensions of the image
+	 * @return the block size or null
+	 */
+	public static int[] cellDimensions(final Object img, final int numDimensions) {
+
+		// dimension of the current view that each dimension of img maps to
+		int[] mapping = new int[numDimensions];
+		for (int d = 0; d < numDimensions; d++)
+			mapping[d] = d;
+
+		Object view = img;
+		while (view != null) {
+			final BlockSource blockSource = registry.get(view);
+			if (blockSource != null) {
+				final int[] cellDimensions = new int[numDimensions];
+				for (int d = 0; d < numDimensions; d++)
+					cellDimensions[d] = mapping[d] < 0 ? 1 : blockSource.grid.cellDimension(mapping[d]);
+
+				return cellDimensions;
+			}
+
+			if (view instanceof IntervalView)
+				view = ((IntervalView<?>)view).getSource();
+			else if (view instanceof MixedTransformView) {
+				final MixedTransformView<?> mixed = (MixedTransformView<?>)view;
+				final MixedTransform toSource = mixed.getTransformToSource();
+				final int[] sourceMapping = new int[numDimensions];
+				Arrays.fill(sourceMapping, -1);
+				for (int d = 0; d < toSource.numTargetDimensions(); d++) {
+					if (toSource.getComponentZero(d))
+						continue;
+
+					final int component = toSource.getComponentMapping(d);
+					for (int i = 0; i < numDimensions; i++)
+						if (mapping[i] == component)
+							sourceMapping[i] = d;
+				}
+				mapping = sourceMapping;
+				view = mixed.getSource();
+			} else
+				view = null;
+		}
+		return null;
+	}
+
+	/**
+	 * Estimate the cost of cropping {@code pixItvl} from {@code src} at scale
+	 * {@code level}. The listener is called immediately with what is known
+	 * from the block footprint and previous samples, and again once more
+	 * blocks were sampled in the background. Results of estimates that were
+	 * superseded by a later call are dropped.
+	 *
+	 * @param src
+	 *            the source
+	 * @param level
+	 *            the scale level
+	 * @param pixItvl
+	 *            the crop interval in pixel coordinates of the level
+	 * @param numThreads
+	 *            number of threads that will read blocks
+	 * @param listener
+	 *            receives the estimates, possibly on a background thread
+	 */
+	public void estimate(
+			final Source<?> src,
+			final int level,
+			final Interval pixItvl,
+			final int numThreads,
+			final Consumer<Estimate> listener) {
+
+		final long gen = generation.incrementAndGet();
+		final BlockFootprint footprint = footprint(src.getSource(0, level), pixItvl);
+		if (footprint == null) {
+			listener.accept(null);
+			return;
+		}
+
+		listener.accept(footprint.estimate(numThreads));
+		if (!footprint.blockSource.needsSamples() || footprint.numBlocks() == 0)
+			return;
+
+		sampler().submit(() -> {
+			if (gen != generation.get())
+				return;
+
+			for (int i = 0; i < SAMPLES_PER_UPDATE && footprint.blockSource.needsSamples(); i++)
+				footprint.blockSource.sample(footprint.randomPosition(random));
+
+			if (gen == generation.get())
+				listener.accept(footprint.estimate(numThreads));
+		});
+	}
+
+	private synchronized ExecutorService sampler() {
+
+		if (sampler == null)
+			sampler = Executors.newSingleThreadExecutor(r -> {
+				final Thread thread = new Thread(r, "crop-cost-sampler");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+		return sampler;
+	}
+
+	/**
+	 * Stop sampling blocks. Pending estimates are dropped; later estimates
+	 * start a new sampler thread.
+	 */
+	@Override
+	public synchronized void close() {
+
+		generation.incrementAndGet();
+		if (sampler != null) {
+			sampler.shutdownNow();
+			sampler = null;
+		}
+	}
+
+	/**
+	 * Returns a human readable duration.
+	 *
+	 * @param seconds
+	 *            the duration in seconds
+	 * @return the formatted duration
+	 */
+	public static String formatSeconds(final double seconds) {
+
+		if (seconds < 1)
+			return "< 1 s";
+		else if (seconds < 120)
+			return String.format("%.0f s", seconds);
+		else if (seconds < 7200)
+			return String.format("%.0f min", seconds / 60);
+		else
+			return String.format("%.1f h", seconds / 3600);
+	}
+
+	/*
+	 * Bytes read from a container and the time it took.
+	 */
+	private static class Throughput {
+
+		private final LongAdder bytes = new LongAdder();
+
+		private final LongAdder nanos = new LongAdder();
+	}
+
+	/**
+	 * A dataset in a container together with its block grid and the sizes of
+	 * the blocks that were sampled so far.
+	 */
+	public static class BlockSource {
+
+		private final N5Reader n5;
+
+		private final String container;
+
+		private final String dataset;
+
+		private final CellGrid grid;
+
+		private final Map<String, Long> sampledBytes = new ConcurrentHashMap<>();
+
+		private boolean compressedSizeKnown = true;
+
+		public BlockSource(final N5Reader n5, final String dataset, final CellGrid grid) {
+
+			this.n5 = n5 instanceof LimitedN5Reader ? ((LimitedN5Reader)n5).getReader() : n5;
+			this.container = String.valueOf(n5.getURI());
+			this.dataset = dataset;
+			this.grid = grid;
+		}
+
+		public CellGrid getCellGrid() {
+
+			return grid;
+		}
+
+		public String getDataset() {
+
+			return dataset;
+		}
+
+		private boolean needsSamples() {
+
+			return sampledBytes.size() < MAX_SAMPLES_PER_DATASET;
+		}
+
+		private int numSamples() {
+
+			return sampledBytes.size();
+		}
+
+		private double meanCompressedBytes() {
+
+			return sampledBytes.values().stream().mapToLong(Long::longValue).average().orElse(Double.NaN);
+		}
+
+		private void sample(final long[] gridPosition) {
+
+			final String key = Arrays.toString(gridPosition);
+			if (sampledBytes.containsKey(key))
+				return;
+
+			try {
+				final long start = System.nanoTime();
+				final long numBytes = readCompressedSize(gridPosition);
+				recordRead(container, numBytes, System.nanoTime() - start);
+				sampledBytes.put(key, numBytes);
+			} catch (final Exception e) {
+				e.printStackTrace();
+				// do not retry a block that can not be read
+				sampledBytes.put(key, 0L);
+			}
+		}
+
+		/*
+		 * Reads the stored bytes of a block. Missing blocks have size zero. For
+		 * readers that do not expose their key value store (e.g. HDF5), the
+		 * block is decoded and its uncompressed size is returned.
+		 */
+		private long readCompressedSize(final long[] gridPosition) throws IOException {
+
+			if (n5 instanceof GsonKeyValueN5Reader) {
+				final GsonKeyValueN5Reader kvReader = (GsonKeyValueN5Reader)n5;
+				final KeyValueAccess kva = kvReader.getKeyValueAccess();
+				final String path = kvReader.absoluteDataBlockPath(N5URI.normalizeGroupPath(dataset), gridPosition);
+				if (!kva.isFile(path))
+					return 0;
+
+				long numBytes = 0;
+				final byte[] buffer = new byte[64 * 1024];
+				try (final LockedChannel channel = kva.lockForReading(path);
+						final InputStream is = channel.newInputStream()) {
+					for (int n = is.read(buffer); n >= 0; n = is.read(buffer))
+						numBytes += n;
+				}
+				return numBytes;
+			}
+
+			compressedSizeKnown = false;
+			final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+			final DataBlock<?> block = n5.readBlock(dataset, attributes, gridPosition);
+			if (block == null)
+				return 0;
+
+			return (long)block.getNumElements() * DataTypes.bytesPerElement(attributes.getDataType());
+		}
+	}
+
+	/**
+	 * The range of storage blocks of a {@link BlockSource} touched by an
+	 * interval.
+	 */
+	public static class BlockFootprint {
+
+		private final BlockSource blockSource;
+
+		private final long[] gridMin;
+
+		private final long[] gridMax;
+
+		private final long numElements;
+
+		public BlockFootprint(final BlockSource blockSource, final long[] min, final long[] max) {
+
+			this.blockSource = blockSource;
+
+			final CellGrid grid = blockSource.grid;
+			final int n = grid.numDimensions();
+			gridMin = new long[n];
+			gridMax = new long[n];
+			long size = 1;
+			for (int d = 0; d < n; d++) {
+				final int cellSize = grid.cellDimension(d);
+				final long lo = Math.max(0, min[d]);
+				final long hi = Math.min(grid.imgDimension(d) - 1, max[d]);
+				gridMin[d] = lo / cellSize;
+				gridMax[d] = Math.min(grid.getGridDimensions()[d] - 1, hi / cellSize);
+				size *= Math.max(0, hi - lo + 1);
+			}
+			numElements = size;
+		}
+
+		/**
+		 * @return grid position of the first touched block
+		 */
+		public long[] getGridMin() {
+
+			return gridMin.clone();
+		}
+
+		/**
+		 * @return grid position of the last touched block
+		 */
+		public long[] getGridMax() {
+
+			return gridMax.clone();
+		}
+
+		public long numBlocks() {
+
+			long n = 1;
+			for (int d = 0; d < gridMin.length; d++)
+				n *= Math.max(0, gridMax[d] - gridMin[d] + 1);
+
+			return n;
+		}
+
+		public long numElements() {
+
+			return numElements;
+		}
+
+		private long[] randomPosition(final Random random) {
+
+			final long[] position = new long[gridMin.length];
+			for (int d = 0; d < position.length; d++)
+				position[d] = gridMin[d] + (long)(random.nextDouble() * (gridMax[d] - gridMin[d] + 1));
+
+			return position;
+		}
+
+		private Estimate estimate(final int numThreads) {
+
+			final long numBlocks = numBlocks();
+			final int numSamples = blockSource.numSamples();
+			final long compressedBytes = numSamples == 0 ? -1 : (long)(numBlocks * blockSource.meanCompressedBytes());
+
+			final double throughput = getThroughput(blockSource.container);
+			final double seconds = compressedBytes < 0 || Double.isNaN(throughput) ? Double.NaN
+					: compressedBytes / throughput / Math.max(1, numThreads);
+
+			return new Estimate(numBlocks, compressedBytes, blockSource.compressedSizeKnown, numSamples, seconds);
+		}
+	}
+
+	/**
+	 * The estimated cost of a crop.
+	 */
+	public static class Estimate {
+
+		/**
+		 * Number of storage blocks that have to be read.
+		 */
+		public final long numBlocks;
+
+		/**
+		 * Estimated number of stored bytes that have to be read, or -1 if no
+		 * block was sampled yet.
+		 */
+		public final long compressedBytes;
+
+		/**
+		 * False if the container does not expose stored block sizes and
+		 * {@link #compressedBytes} is the uncompressed size.
+		 */
+		public final boolean compressedSizeKnown;
+
+		/**
+		 * Number of blocks of the dataset that were sampled.
+		 */
+		public final int numSamples;
+
+		/**
+		 * Predicted read time in seconds, or NaN if no block was sampled yet
+		 * or nothing was read from the container in this session.
+		 */
+		public final double seconds;
+
+		public Estimate(
+				final long numBlocks,
+				final long compressedBytes,
+				final boolean compressedSizeKnown,
+				final int numSamples,
+				final double seconds) {
+
+			this.numBlocks = numBlocks;
+			this.compressedBytes = compressedBytes;
+			this.compressedSizeKnown = compressedSizeKnown;
+			this.numSamples = numSamples;
+			this.seconds = seconds;
+		}
+	}
+}
@@ -0,0 +1,450 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.contrast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+import javax.swing.SwingUtilities;
+
+import org.janelia.saalfeldlab.n5.bdv.FootprintMipmapSource;
+
+import bdv.tools.brightness.ConverterSetup;
+import bdv.viewer.ConverterSetups;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.ViewerPanel;
+import bdv.viewer.ViewerState;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.Volatile;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Sets the display ranges of sources from histograms of their intensities.
+ * <p>
+ * {@link #start(int)} computes the histograms in parallel from the coarsest
+ * scale level of every source with a {@link RealType}, including those shown
+ * as labels, whose display range is kept for when they are shown as
+ * intensities again. Nothing else is read for them. Coarsest levels with more
+ * than {@link #MAX_COARSE_VOXELS} voxels, e.g. of single scale datasets, are
+ * not read at all. The histograms are then refined with samples of each
+ * rendered view; they adapt their range to the values seen, so views can
+ * widen the display range beyond that of the averaged coarse level. The
+ * samples come from the volatile sources at the level the renderer uses, so
+ * they only touch blocks that are loaded for rendering anyway, and samples of blocks that are not loaded yet are
+ * skipped. With auto update, the display ranges follow the visible
+ * intensities.
+ */
+public class AutoContrast {
+
+	/**
+	 * Fraction of saturated values, split between both ends, as in ImageJ's
+	 * auto contrast.
+	 */
+	public static final double DEFAULT_SATURATION = 0.0035;
+
+	/**
+	 * Coarsest levels with more voxels are not read to initialize the
+	 * histogram.
+	 */
+	public static final long MAX_COARSE_VOXELS = 1L << 24;
+
+	private static final int SAMPLES_PER_AXIS = 64;
+
+	/* views with fewer valid samples do not change display ranges */
+	private static final long MIN_VIEW_SAMPLES = 256;
+
+	private static class Histograms {
+
+		/* coarsest level and all previous views */
+		final IntensityHistogram histogram;
+
+		/* the current view */
+		IntensityHistogram view;
+
+		Histograms(final IntensityHistogram coarse) {
+
+			histogram = coarse;
+			view = coarse.emptyCopy();
+		}
+	}
+
+	private final ViewerPanel viewerPanel;
+
+	private final ConverterSetups converterSetups;
+
+	private final Map<SourceAndConverter<?>, Histograms> histograms = new ConcurrentHashMap<>();
+
+	private final ExecutorService sampler = Executors.newSingleThreadExecutor(r -> {
+		final Thread thread = new Thread(r, "auto-contrast-sampler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicBoolean samplePending = new AtomicBoolean();
+
+	/* the view of the current view histograms, only used by the sampler */
+	private double[] sampledTransform = null;
+
+	private int sampledTimepoint = -1;
+
+	private volatile boolean autoUpdate = false;
+
+	private volatile double saturation = DEFAULT_SATURATION;
+
+	public AutoContrast(final ViewerPanel viewerPanel, final ConverterSetups converterSetups) {
+
+		this.viewerPanel = viewerPanel;
+		this.converterSetups = converterSetups;
+	}
+
+	/**
+	 * Compute the histograms of all sources of the viewer from their
+	 * coarsest levels in the background, set the display ranges from them,
+	 * and refine them from then on as views are rendered.
+	 *
+	 * @param numThreads
+	 *            the number of threads
+	 */
+	public void start(final int numThreads) {
+
+		final List<SourceAndConverter<?>> sources = new ArrayList<>(viewerPanel.state().getSources());
+		final int t = viewerPanel.state().getCurrentTimepoint();
+		new Thread(() -> {
+			try {
+				computeFromCoarsestLevel(sources, t, numThreads)
+						.forEach((sac, histogram) -> histograms.put(sac, new Histograms(histogram)));
+				apply();
+				viewerPanel.renderTransformListeners().add(transform -> requestSample());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (final Exception e) {
+				e.printStackTrace();
+			}
+		}, "auto-contrast").start();
+	}
+
+	public boolean isAutoUpdate() {
+
+		return autoUpdate;
+	}
+
+	/**
+	 * @param autoUpdate
+	 *            whether display ranges follow the intensities of each view
+	 */
+	public void setAutoUpdate(final boolean autoUpdate) {
+
+		this.autoUpdate = autoUpdate;
+		if (autoUpdate)
+			requestSample();
+	}
+
+	public double getSaturation() {
+
+		return saturation;
+	}
+
+	public void setSaturation(final double saturation) {
+
+		this.saturation = Math.max(0, Math.min(1, saturation));
+	}
+
+	/**
+	 * @param sac
+	 *            a source
+	 * @return the histogram of the coarsest level and all views of the
+	 *         source, or null if there is none (yet)
+	 */
+	public IntensityHistogram getHistogram(final SourceAndConverter<?> sac) {
+
+		final Histograms h = histograms.get(sac);
+		if (h == null)
+			return null;
+
+		synchronized (h) {
+			final IntensityHistogram histogram = h.histogram.copy();
+			histogram.add(h.view);
+			return histogram;
+		}
+	}
+
+	/**
+	 * Set the display ranges of all sources with histograms, from the
+	 * current view if it has enough samples, otherwise from everything seen
+	 * so far.
+	 */
+	public void apply() {
+
+		for (final Map.Entry<SourceAndConverter<?>, Histograms> entry : histograms.entrySet()) {
+			final Histograms h = entry.getValue();
+			final IntensityHistogram histogram;
+			synchronized (h) {
+				histogram = h.view.getCount() >= MIN_VIEW_SAMPLES ? h.view.copy() : getHistogram(entry.getKey());
+			}
+			setDisplayRange(entry.getKey(), histogram);
+		}
+	}
+
+	private void setDisplayRange(final SourceAndConverter<?> sac, final IntensityHistogram histogram) {
+
+		final double min = histogram.quantile(saturation / 2);
+		final double max = histogram.quantile(1 - saturation / 2);
+		if (Double.isNaN(min) || !(max > min))
+			return;
+
+		final ConverterSetup setup = converterSetups.getConverterSetup(sac);
+		if (setup != null)
+			SwingUtilities.invokeLater(() -> setup.setDisplayRange(min, max));
+	}
+
+	private void requestSample() {
+
+		if (samplePending.compareAndSet(false, true))
+			sampler.submit(() -> {
+				samplePending.set(false);
+				try {
+					sampleView();
+				} catch (final Exception e) {
+					e.printStackTrace();
+				}
+			});
+	}
+
+	private void sampleView() {
+
+		final ViewerState state = viewerPanel.state().snapshot();
+		final AffineTransform3D viewerTransform = state.getViewerTransform();
+		final int t = state.getCurrentTimepoint();
+		final int width = viewerPanel.getDisplay().getWidth();
+		final int height = viewerPanel.getDisplay().getHeight();
+		if (width <= 0 || height <= 0)
+			return;
+
+		// the previous view is done, keep its samples
+		final double[] transform = viewerTransform.getRowPackedCopy();
+		if (!Arrays.equals(transform, sampledTransform) || t != sampledTimepoint) {
+			for (final Histograms h : histograms.values()) {
+				synchronized (h) {
+					h.histogram.add(h.view);
+					h.view.clear();
+				}
+			}
+			sampledTransform = transform;
+			sampledTimepoint = t;
+		}
+
+		for (final SourceAndConverter<?> sac : state.getVisibleAndPresentSources()) {
+			final Histograms h = histograms.get(sac);
+			if (h == null || sac.asVolatile() == null)
+				continue;
+
+			final IntensityHistogram view = sample(sac.asVolatile().getSpimSource(), viewerTransform, t, width, height, h.view.emptyCopy());
+			synchronized (h) {
+				h.view = view;
+			}
+			if (autoUpdate && view.getCount() >= MIN_VIEW_SAMPLES)
+				setDisplayRange(sac, view);
+		}
+	}
+
+	/*
+	 * Samples a grid over the screen at the level the renderer uses. Only
+	 * loaded, valid values are counted.
+	 */
+	private static IntensityHistogram sample(
+			final Source<?> source,
+			final AffineTransform3D viewerTransform,
+			final int t,
+			final int width,
+			final int height,
+			final IntensityHistogram histogram) {
+
+		final int level = FootprintMipmapSource.getBestMipMapLevel(viewerTransform, source, t);
+		final AffineTransform3D sourceToScreen = viewerTransform.copy();
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform(t, level, sourceTransform);
+		sourceToScreen.concatenate(sourceTransform);
+		final AffineTransform3D screenToSource = sourceToScreen.inverse();
+
+		final Interval interval = source.getSource(t, level);
+		final RealRandomAccess<?> access = source.getInterpolatedSource(t, level, Interpolation.NEARESTNEIGHBOR).realRandomAccess();
+		final double[] screen = new double[3];
+		final double[] position = new double[3];
+		for (int y = 0; y < SAMPLES_PER_AXIS; ++y) {
+			screen[1] = (y + 0.5) * height / SAMPLES_PER_AXIS;
+			for (int x = 0; x < SAMPLES_PER_AXIS; ++x) {
+				screen[0] = (x + 0.5) * width / SAMPLES_PER_AXIS;
+				screenToSource.apply(screen, position);
+				if (!contains(interval, position))
+					continue;
+
+				access.setPosition(position);
+				Object value = access.get();
+				if (value instanceof Volatile) {
+					final Volatile<?> v = (Volatile<?>)value;
+					if (!v.isValid())
+						continue;
+
+					value = v.get();
+				}
+				if (value instanceof RealType)
+					histogram.add(((RealType<?>)value).getRealDouble());
+			}
+		}
+		return histogram;
+	}
+
+	private static boolean contains(final Interval interval, final double[] position) {
+
+		for (int d = 0; d < Math.min(interval.numDimensions(), position.length); ++d) {
+			final long p = Math.round(position[d]);
+			if (p < interval.min(d) || p > interval.max(d))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compute histograms of the coarsest levels of sources. Each level is
+	 * split into slabs that are read once, in parallel. Sources that are not
+	 * {@link RealType} are skipped. Sources whose coarsest level has more
+	 * than {@link #MAX_COARSE_VOXELS} voxels get an empty histogram.
+	 *
+	 * @param sources
+	 *            the sources
+	 * @param timepoint
+	 *            the timepoint
+	 * @param numThreads
+	 *            the number of threads
+	 * @return the histograms by source
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<SourceAndConverter<?>, IntensityHistogram> computeFromCoarsestLevel(
+			final List<? extends SourceAndConverter<?>> sources,
+			final int timepoint,
+			final int numThreads) throws InterruptedException {
+
+		final List<SourceAndConverter<?>> realSources = new ArrayList<>();
+		final List<RandomAccessibleInterval<? extends RealType<?>>> slabs = new ArrayList<>();
+		final List<Integer> slabSources = new ArrayList<>();
+		final Map<SourceAndConverter<?>, IntensityHistogram> histograms = new HashMap<>();
+		for (final SourceAndConverter<?> sac : sources) {
+			final Source<?> source = sac.getSpimSource();
+			if (!(source.getType() instanceof RealType) || !source.isPresent(timepoint))
+				continue;
+
+			final RandomAccessibleInterval<? extends RealType<?>> img =
+					(RandomAccessibleInterval<? extends RealType<?>>)source.getSource(timepoint, source.getNumMipmapLevels() - 1);
+			if (Intervals.numElements(img) > MAX_COARSE_VOXELS) {
+				histograms.put(sac, IntensityHistogram.forType((RealType<?>)source.getType()));
+				continue;
+			}
+			for (final RandomAccessibleInterval<? extends RealType<?>> slab : split(img, numThreads)) {
+				slabs.add(slab);
+				slabSources.add(realSources.size());
+			}
+			realSources.add(sac);
+		}
+
+		final IntensityHistogram[] slabHistograms = new IntensityHistogram[slabs.size()];
+		parallel(slabs.size(), numThreads, i -> {
+			final RandomAccessibleInterval<? extends RealType<?>> slab = slabs.get(i);
+			final IntensityHistogram histogram = IntensityHistogram.forType(Util.getTypeFromInterval(slab));
+			for (final RealType<?> value : Views.flatIterable(slab))
+				histogram.add(value.getRealDouble());
+			slabHistograms[i] = histogram;
+		});
+
+		for (int i = 0; i < slabs.size(); ++i) {
+			final SourceAndConverter<?> sac = realSources.get(slabSources.get(i));
+			final IntensityHistogram histogram = histograms.get(sac);
+			if (histogram == null)
+				histograms.put(sac, slabHistograms[i]);
+			else
+				histogram.add(slabHistograms[i]);
+		}
+		return histograms;
+	}
+
+	/*
+	 * Splits an image into at most n slabs along its last dimension.
+	 */
+	private static <T> List<RandomAccessibleInterval<T>> split(final RandomAccessibleInterval<T> img, final int n) {
+
+		final int d = img.numDimensions() - 1;
+		final long size = img.dimension(d);
+		final int numSlabs = (int)Math.max(1, Math.min(n, size));
+		final List<RandomAccessibleInterval<T>> slabs = new ArrayList<>();
+		final long[] min = img.minAsLongArray();
+		final long[] max = img.maxAsLongArray();
+		for (int i = 0; i < numSlabs; ++i) {
+			min[d] = img.min(d) + size * i / numSlabs;
+			max[d] = img.min(d) + size * (i + 1) / numSlabs - 1;
+			slabs.add(Views.interval(img, min, max));
+		}
+		return slabs;
+	}
+
+	private static void parallel(final int n, final int numThreads, final IntConsumer task) throws InterruptedException {
+
+		final ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, numThreads));
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		try {
+			for (int i = 0; i < n; ++i) {
+				final int index = i;
+				exec.submit(() -> {
+					try {
+						task.accept(index);
+					} catch (final Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				});
+			}
+		} finally {
+			exec.shutdown();
+			exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+
+		if (failure.get() != null)
+			throw new RuntimeException("Failed to compute histograms", failure.get());
+	}
+}
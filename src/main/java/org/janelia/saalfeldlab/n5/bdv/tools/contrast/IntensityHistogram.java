@@ -0,0 +1,257 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.contrast;
+
+import java.util.Arrays;
+
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * A histogram of intensities with a fixed number of equally sized bins that
+ * adapts its range to the values added. Bins are aligned to multiples of the
+ * bin width. A value outside of the bins moves them, or doubles the bin width
+ * by merging pairs of bins until all values fit. Histograms whose bin widths
+ * differ by a power of two merge without loss.
+ * Not thread safe.
+ */
+public class IntensityHistogram {
+
+	public static final int DEFAULT_NUM_BINS = 1024;
+
+	/* initial bin width of histograms of non integer types */
+	private static final double REAL_BIN_WIDTH = 1e-3;
+
+	private static final double MAX_BIN = 1L << 52;
+
+	private double binWidth;
+
+	/* index of the first bin in the grid of all bins of the current width */
+	private long offset = 0;
+
+	private final long[] counts;
+
+	private long total = 0;
+
+	/**
+	 * @param binWidth
+	 *            the initial, and smallest, bin width
+	 * @param numBins
+	 *            the number of bins, rounded up to an even number
+	 */
+	public IntensityHistogram(final double binWidth, final int numBins) {
+
+		this.binWidth = binWidth > 0 ? binWidth : 1;
+		this.counts = new long[Math.max(2, numBins + (numBins & 1))];
+	}
+
+	public IntensityHistogram(final double binWidth) {
+
+		this(binWidth, DEFAULT_NUM_BINS);
+	}
+
+	/**
+	 * @param type
+	 *            a pixel type
+	 * @return an empty histogram with bins of width one for integer types
+	 */
+	public static IntensityHistogram forType(final RealType<?> type) {
+
+		return new IntensityHistogram(type instanceof IntegerType ? 1 : REAL_BIN_WIDTH);
+	}
+
+	public void add(final double value) {
+
+		if (!Double.isFinite(value))
+			return;
+
+		// keep bin indices exact
+		while (Math.abs(value / binWidth) > MAX_BIN)
+			grow();
+
+		add((long)Math.floor(value / binWidth), 1, value);
+	}
+
+	/*
+	 * Counts a bin of the current width. The value is only used to find the
+	 * bin again after the bin width changed.
+	 */
+	private void add(long bin, final long count, final double value) {
+
+		while (bin < offset || bin >= offset + counts.length) {
+			if (total == 0) {
+				offset = bin - counts.length / 2;
+				break;
+			}
+			final long lo = Math.min(offset, bin);
+			final long hi = Math.max(offset + counts.length - 1, bin);
+			if (hi - lo < counts.length) {
+				move(bin < offset ? lo : hi - counts.length + 1);
+				break;
+			}
+			grow();
+			bin = (long)Math.floor(value / binWidth);
+		}
+		counts[(int)(bin - offset)] += count;
+		total += count;
+	}
+
+	private void move(final long newOffset) {
+
+		final long[] moved = new long[counts.length];
+		for (int i = 0; i < counts.length; ++i)
+			if (counts[i] != 0)
+				moved[(int)(offset + i - newOffset)] = counts[i];
+
+		System.arraycopy(moved, 0, counts, 0, counts.length);
+		offset = newOffset;
+	}
+
+	/*
+	 * Doubles the bin width. Pairs of bins are merged into the middle of the
+	 * bins so that there is room on both sides.
+	 */
+	private void grow() {
+
+		final long[] merged = new long[counts.length];
+		final long newOffset = Math.floorDiv(offset, 2) - counts.length / 4;
+		for (int i = 0; i < counts.length; ++i)
+			if (counts[i] != 0)
+				merged[(int)(Math.floorDiv(offset + i, 2) - newOffset)] += counts[i];
+
+		System.arraycopy(merged, 0, counts, 0, counts.length);
+		offset = newOffset;
+		binWidth *= 2;
+	}
+
+	/**
+	 * Add the counts of another histogram.
+	 *
+	 * @param other
+	 *            the histogram
+	 */
+	public void add(final IntensityHistogram other) {
+
+		if (other.total == 0)
+			return;
+
+		while (binWidth < other.binWidth)
+			grow();
+
+		for (int i = 0; i < other.counts.length; ++i) {
+			if (other.counts[i] == 0)
+				continue;
+
+			// adding a bin may have widened the bins
+			final long ratio = Math.round(binWidth / other.binWidth);
+			final boolean aligned = Math.abs(ratio * other.binWidth - binWidth) <= 1e-9 * binWidth;
+			if (aligned)
+				add(Math.floorDiv(other.offset + i, ratio), other.counts[i], (other.offset + i + 0.5) * other.binWidth);
+			else {
+				final double center = (other.offset + i + 0.5) * other.binWidth;
+				add((long)Math.floor(center / binWidth), other.counts[i], center);
+			}
+		}
+	}
+
+	/**
+	 * @return an empty histogram with the same bins
+	 */
+	public IntensityHistogram emptyCopy() {
+
+		final IntensityHistogram copy = new IntensityHistogram(binWidth, counts.length);
+		copy.offset = offset;
+		return copy;
+	}
+
+	public IntensityHistogram copy() {
+
+		final IntensityHistogram copy = emptyCopy();
+		copy.add(this);
+		return copy;
+	}
+
+	public void clear() {
+
+		Arrays.fill(counts, 0);
+		total = 0;
+	}
+
+	/**
+	 * @return the lower bound of the first bin
+	 */
+	public double getMin() {
+
+		return offset * binWidth;
+	}
+
+	/**
+	 * @return the upper bound of the last bin
+	 */
+	public double getMax() {
+
+		return (offset + counts.length) * binWidth;
+	}
+
+	public double getBinWidth() {
+
+		return binWidth;
+	}
+
+	public int getNumBins() {
+
+		return counts.length;
+	}
+
+	public long getBinCount(final int bin) {
+
+		return counts[bin];
+	}
+
+	public long getCount() {
+
+		return total;
+	}
+
+	/**
+	 * @param q
+	 *            the quantile in [0, 1]
+	 * @return the value below which a fraction {@code q} of the counted values
+	 *         lies, interpolated linearly within its bin, NaN if the histogram
+	 *         is empty
+	 */
+	public double quantile(final double q) {
+
+		if (total == 0)
+			return Double.NaN;
+
+		final double target = Math.max(0, Math.min(1, q)) * total;
+		long cumulative = 0;
+		for (int i = 0; i < counts.length; ++i) {
+			if (counts[i] > 0 && cumulative + counts[i] >= target)
+				return (offset + i + (target - cumulative) / counts[i]) * binWidth;
+
+			cumulative += counts[i];
+		}
+		return getMax();
+	}
+}
@@ -0,0 +1,684 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.bdv.N5Viewer;
+import org.janelia.saalfeldlab.n5.bdv.tools.boundingbox.CropCostEstimator;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+
+import bdv.cache.SharedQueue;
+import bdv.tools.brightness.ConverterSetup;
+import bdv.util.BdvOptions;
+import bdv.viewer.AbstractViewerPanel;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealPoint;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Extracts many regions of interest from one scale level of a {@link Source}.
+ * <p>
+ * Regions are read from a CSV file with one region per line, either as a
+ * center {@code x,y,z} or as a box {@code minX,minY,minZ,maxX,maxY,maxZ}, in
+ * world coordinates. Regions given by their center have a fixed size in pixels
+ * of the scale level.
+ * <p>
+ * Regions are processed in parallel in spatial order. Every block of the
+ * source touched by any region is read exactly once: it is copied when the
+ * first region needs it, shared by all regions that overlap it, and released
+ * after the last of them is done. Results are written as TIFF files or as
+ * datasets in an N5 container.
+ * <p>
+ * Run headless with
+ *
+ * <pre>
+ * BatchRoiExtractor --uri container.n5?/dataset --csv rois.csv --output out/ \
+ *     [--level 0] [--size 64,64,64] [--format tiff|n5] [--timepoint 0] [--threads 8]
+ * </pre>
+ */
+public class BatchRoiExtractor<T extends NumericType<T> & NativeType<T>> {
+
+	public static final String FORMAT_TIFF = "tiff";
+	public static final String FORMAT_N5 = "n5";
+
+	public static final String[] FORMAT_OPTIONS = new String[]{FORMAT_TIFF, FORMAT_N5};
+
+	private static final int DEFAULT_BLOCK_SIZE = 64;
+
+	private final Source<T> source;
+
+	private final int level;
+
+	private final int timepoint;
+
+	private final int numThreads;
+
+	private final RandomAccessibleInterval<T> img;
+
+	private final AffineTransform3D transform = new AffineTransform3D();
+
+	private final int[] blockSize;
+
+	private final AtomicLong numBlocksRead = new AtomicLong();
+
+	private BiConsumer<Long, Long> progressListener;
+
+	// remember dialog parameters
+	private static String lastCsv = "";
+	private static String lastOutput = System.getProperty("user.home");
+	private static String lastFormat = FORMAT_TIFF;
+	private static String lastSize = "64,64,64";
+	private static int lastThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	/**
+	 * @param source
+	 *            the source
+	 * @param level
+	 *            the scale level to extract from
+	 * @param timepoint
+	 *            the timepoint to extract from
+	 * @param numThreads
+	 *            number of regions extracted in parallel
+	 */
+	public BatchRoiExtractor(
+			final Source<T> source,
+			final int level,
+			final int timepoint,
+			final int numThreads) {
+
+		this.source = source;
+		this.level = level;
+		this.timepoint = timepoint;
+		this.numThreads = Math.max(1, numThreads);
+
+		img = source.getSource(timepoint, level);
+		source.getSourceTransform(timepoint, level, transform);
+
+		// share blocks at the granularity of the storage if possible
+		final int[] cellDimensions = CropCostEstimator.cellDimensions(img, img.numDimensions());
+		if (cellDimensions == null) {
+			blockSize = new int[img.numDimensions()];
+			Arrays.fill(blockSize, DEFAULT_BLOCK_SIZE);
+		} else
+			blockSize = cellDimensions;
+	}
+
+	/**
+	 * Set a listener that is notified with the number of finished and total
+	 * regions.
+	 *
+	 * @param progressListener
+	 *            the listener
+	 */
+	public void setProgressListener(final BiConsumer<Long, Long> progressListener) {
+
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * @return the number of blocks read so far
+	 */
+	public long getNumBlocksRead() {
+
+		return numBlocksRead.get();
+	}
+
+	/**
+	 * Reads the rows of a CSV file with three (center) or six (box) numeric
+	 * columns. Empty lines, comments starting with #, and lines that do not
+	 * start with a number (headers) are skipped.
+	 *
+	 * @param csv
+	 *            the file
+	 * @return the rows
+	 * @throws IOException
+	 *             if the file can not be read
+	 */
+	public static List<double[]> readCsv(final String csv) throws IOException {
+
+		final List<double[]> rows = new ArrayList<>();
+		int lineNumber = 0;
+		for (final String line : Files.readAllLines(Paths.get(csv))) {
+			lineNumber++;
+			final String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#"))
+				continue;
+
+			final String[] tokens = trimmed.split("[,;\\s]+");
+			final double[] row;
+			try {
+				row = Arrays.stream(tokens).mapToDouble(Double::parseDouble).toArray();
+			} catch (final NumberFormatException e) {
+				if (rows.isEmpty())
+					continue; // header
+
+				throw new IOException("Could not parse line " + lineNumber + " of " + csv + ": " + line);
+			}
+
+			if (row.length != 3 && row.length != 6)
+				throw new IOException("Expected 3 or 6 columns at line " + lineNumber + " of " + csv + ": " + line);
+
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	/**
+	 * Converts CSV rows in world coordinates into pixel intervals of the scale
+	 * level.
+	 *
+	 * @param rows
+	 *            centers or boxes in world coordinates
+	 * @param size
+	 *            size in pixels of regions given by their center
+	 * @return the pixel intervals
+	 */
+	public List<Interval> toPixelIntervals(final List<double[]> rows, final long[] size) {
+
+		final int nd = img.numDimensions();
+		final List<Interval> rois = new ArrayList<>();
+		for (final double[] row : rows) {
+			final long[] min = new long[nd];
+			final long[] max = new long[nd];
+			if (row.length == 3) {
+				final RealPoint center = new RealPoint(3);
+				transform.applyInverse(center, RealPoint.wrap(row));
+				for (int d = 0; d < nd; d++) {
+					min[d] = Math.round(center.getDoublePosition(d) - 0.5 * size[d]);
+					max[d] = min[d] + size[d] - 1;
+				}
+			} else {
+				final RealPoint p = new RealPoint(3);
+				final RealPoint q = new RealPoint(3);
+				transform.applyInverse(p, RealPoint.wrap(Arrays.copyOfRange(row, 0, 3)));
+				transform.applyInverse(q, RealPoint.wrap(Arrays.copyOfRange(row, 3, 6)));
+				for (int d = 0; d < nd; d++) {
+					min[d] = (long)Math.floor(Math.min(p.getDoublePosition(d), q.getDoublePosition(d)));
+					max[d] = (long)Math.ceil(Math.max(p.getDoublePosition(d), q.getDoublePosition(d)));
+				}
+			}
+			rois.add(new FinalInterval(min, max));
+		}
+		return rois;
+	}
+
+	/**
+	 * Extracts all regions and passes each one to the writer together with its
+	 * index in {@code rois}. The writer is called from several threads. Pixels
+	 * outside of the source are zero.
+	 *
+	 * @param rois
+	 *            the regions in pixel coordinates of the scale level
+	 * @param writer
+	 *            consumes the region index and the extracted pixels
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the extraction to finish
+	 */
+	public void extract(
+			final List<Interval> rois,
+			final BiConsumer<Integer, RandomAccessibleInterval<T>> writer) throws InterruptedException {
+
+		// count how many regions need every block
+		final Map<BlockKey, PinnedBlock> pinned = new ConcurrentHashMap<>();
+		for (final Interval roi : rois)
+			for (final BlockKey key : blocks(roi))
+				pinned.computeIfAbsent(key, PinnedBlock::new).references.incrementAndGet();
+
+		// process regions in spatial order so that blocks are released soon
+		final Integer[] order = new Integer[rois.size()];
+		final long[] zOrder = new long[rois.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+			zOrder[i] = zOrder(rois.get(i));
+		}
+		Arrays.sort(order, Comparator.comparingLong(i -> zOrder[i]));
+
+		final ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final AtomicLong numDone = new AtomicLong();
+
+		try {
+			for (final int i : order) {
+				exec.submit(() -> {
+					try {
+						if (failure.get() == null)
+							writer.accept(i, extract(rois.get(i), pinned));
+					} catch (final Throwable e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						final long done = numDone.incrementAndGet();
+						if (progressListener != null)
+							progressListener.accept(done, (long)rois.size());
+					}
+				});
+			}
+		} finally {
+			exec.shutdown();
+			exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+
+		if (failure.get() != null)
+			throw new N5Exception("Failed to extract regions", failure.get());
+	}
+
+	private RandomAccessibleInterval<T> extract(final Interval roi, final Map<BlockKey, PinnedBlock> pinned) {
+
+		final T type = Util.getTypeFromInterval(img).createVariable();
+		final ArrayImg<T, ?> out = new ArrayImgFactory<>(type).create(roi);
+		final RandomAccessibleInterval<T> target = Views.translate(out, roi.minAsLongArray());
+
+		for (final BlockKey key : blocks(roi)) {
+			final PinnedBlock block = pinned.get(key);
+			final RandomAccessibleInterval<T> data = block.get();
+			final Interval overlap = Intervals.intersect(roi, data);
+			LoopBuilder.setImages(Views.interval(data, overlap), Views.interval(target, overlap))
+					.forEachPixel((i, o) -> o.set(i));
+
+			if (block.references.decrementAndGet() == 0)
+				pinned.remove(key);
+		}
+		return out;
+	}
+
+	/*
+	 * Keys of the blocks of img that roi touches.
+	 */
+	private List<BlockKey> blocks(final Interval roi) {
+
+		final Interval clipped = Intervals.intersect(roi, img);
+		final List<BlockKey> keys = new ArrayList<>();
+		if (Intervals.isEmpty(clipped))
+			return keys;
+
+		final int nd = img.numDimensions();
+		final long[] gridMin = new long[nd];
+		final long[] gridMax = new long[nd];
+		for (int d = 0; d < nd; d++) {
+			gridMin[d] = Math.floorDiv(clipped.min(d) - img.min(d), blockSize[d]);
+			gridMax[d] = Math.floorDiv(clipped.max(d) - img.min(d), blockSize[d]);
+		}
+
+		final long[] position = gridMin.clone();
+		while (true) {
+			keys.add(new BlockKey(position.clone()));
+
+			int d = 0;
+			for (; d < nd; d++) {
+				if (++position[d] <= gridMax[d])
+					break;
+				position[d] = gridMin[d];
+			}
+			if (d == nd)
+				return keys;
+		}
+	}
+
+	/*
+	 * Morton code of the block containing the min of roi.
+	 */
+	private long zOrder(final Interval roi) {
+
+		final int nd = img.numDimensions();
+		final int bits = 63 / nd;
+		final long[] position = new long[nd];
+		for (int d = 0; d < nd; d++)
+			position[d] = Math.max(0, Math.floorDiv(roi.min(d) - img.min(d), blockSize[d]));
+
+		long code = 0;
+		for (int b = 0; b < bits; b++)
+			for (int d = 0; d < nd; d++)
+				code |= ((position[d] >> b) & 1L) << (b * nd + d);
+
+		return code;
+	}
+
+	private static class BlockKey {
+
+		private final long[] position;
+
+		private final int hash;
+
+		private BlockKey(final long[] position) {
+
+			this.position = position;
+			hash = Arrays.hashCode(position);
+		}
+
+		@Override
+		public int hashCode() {
+
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+
+			return other instanceof BlockKey && Arrays.equals(position, ((BlockKey)other).position);
+		}
+	}
+
+	/*
+	 * A copy of one block of img that is shared by all regions overlapping it.
+	 */
+	private class PinnedBlock {
+
+		private final BlockKey key;
+
+		private final AtomicInteger references = new AtomicInteger();
+
+		private RandomAccessibleInterval<T> data;
+
+		private PinnedBlock(final BlockKey key) {
+
+			this.key = key;
+		}
+
+		private synchronized RandomAccessibleInterval<T> get() {
+
+			if (data == null) {
+				final int nd = img.numDimensions();
+				final long[] min = new long[nd];
+				final long[] max = new long[nd];
+				for (int d = 0; d < nd; d++) {
+					min[d] = Math.max(img.min(d), img.min(d) + key.position[d] * blockSize[d]);
+					max[d] = Math.min(img.max(d), min[d] + blockSize[d] - 1);
+				}
+				final FinalInterval interval = new FinalInterval(min, max);
+
+				final T type = Util.getTypeFromInterval(img).createVariable();
+				final ArrayImg<T, ?> copy = new ArrayImgFactory<>(type).create(interval);
+				final RandomAccessibleInterval<T> translated = Views.translate(copy, min);
+				LoopBuilder.setImages(Views.interval(img, interval), translated).forEachPixel((i, o) -> o.set(i));
+
+				data = translated;
+				numBlocksRead.incrementAndGet();
+			}
+			return data;
+		}
+	}
+
+	/**
+	 * Returns a writer that saves every region as a calibrated TIFF file
+	 * {@code roi_00000.tif} etc. in the given directory.
+	 *
+	 * @param directory
+	 *            the output directory
+	 * @param rois
+	 *            the regions
+	 * @return the writer
+	 */
+	public BiConsumer<Integer, RandomAccessibleInterval<T>> tiffWriter(final String directory, final List<Interval> rois) {
+
+		new File(directory).mkdirs();
+		return (i, roiImg) -> {
+			RandomAccessibleInterval<T> xycz = roiImg;
+			if (roiImg.numDimensions() == 3)
+				xycz = Views.moveAxis(Views.addDimension(roiImg, 0, 0), 2, 3);
+
+			final ImagePlus imp = ImageJFunctions.wrap(xycz, roiName(i)).duplicate();
+			imp.setTitle(roiName(i));
+
+			final double[][] calibration = calibration(rois.get(i));
+			imp.getCalibration().pixelWidth = calibration[0][0];
+			imp.getCalibration().pixelHeight = calibration[0][1];
+			imp.getCalibration().pixelDepth = calibration[0][2];
+			imp.getCalibration().xOrigin = calibration[1][0];
+			imp.getCalibration().yOrigin = calibration[1][1];
+			imp.getCalibration().zOrigin = calibration[1][2];
+			imp.getCalibration().setUnit(unit());
+
+			IJ.saveAsTiff(imp, new File(directory, roiName(i) + ".tif").getAbsolutePath());
+		};
+	}
+
+	/**
+	 * Returns a writer that saves every region as a dataset
+	 * {@code roi_00000} etc. in the given container.
+	 *
+	 * @param n5
+	 *            the writer
+	 * @param rois
+	 *            the regions
+	 * @return the writer
+	 */
+	public BiConsumer<Integer, RandomAccessibleInterval<T>> n5Writer(final N5Writer n5, final List<Interval> rois) {
+
+		return (i, roiImg) -> {
+			final String dataset = roiName(i);
+			final int[] roiBlockSize = new int[roiImg.numDimensions()];
+			for (int d = 0; d < roiBlockSize.length; d++)
+				roiBlockSize[d] = (int)Math.min(roiImg.dimension(d), DEFAULT_BLOCK_SIZE);
+
+			N5Utils.save(roiImg, n5, dataset, roiBlockSize, StreamingN5Exporter.compression(StreamingN5Exporter.GZIP));
+
+			final double[][] calibration = calibration(rois.get(i));
+			final Map<String, Object> pixelResolution = new HashMap<>();
+			pixelResolution.put("unit", unit());
+			pixelResolution.put("dimensions", calibration[0]);
+			n5.setAttribute(dataset, StreamingN5Exporter.PIXEL_RESOLUTION_KEY, pixelResolution);
+			n5.setAttribute(dataset, StreamingN5Exporter.OFFSET_KEY, calibration[1]);
+		};
+	}
+
+	private double[][] calibration(final Interval roi) {
+
+		final double[] resolution = new double[3];
+		final double[] offset = new double[3];
+		for (int d = 0; d < 3; d++) {
+			resolution[d] = transform.get(d, d);
+			offset[d] = resolution[d] * roi.min(d) + transform.get(d, 3);
+		}
+		return new double[][]{resolution, offset};
+	}
+
+	private String unit() {
+
+		final VoxelDimensions vd = source.getVoxelDimensions();
+		return vd == null || vd.unit() == null ? "pixel" : vd.unit();
+	}
+
+	private static String roiName(final int i) {
+
+		return String.format("roi_%05d", i);
+	}
+
+	/**
+	 * Extracts all regions listed in {@code csv} and writes them.
+	 *
+	 * @param csv
+	 *            the CSV file
+	 * @param size
+	 *            size in pixels of regions given by their center
+	 * @param format
+	 *            {@link #FORMAT_TIFF} or {@link #FORMAT_N5}
+	 * @param output
+	 *            output directory or container
+	 * @throws IOException
+	 *             if the CSV file can not be read
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the extraction to finish
+	 */
+	public void run(
+			final String csv,
+			final long[] size,
+			final String format,
+			final String output) throws IOException, InterruptedException {
+
+		final List<Interval> rois = toPixelIntervals(readCsv(csv), size);
+		final long start = System.currentTimeMillis();
+		if (FORMAT_N5.equals(format)) {
+			try (final N5Writer n5 = new N5Factory().openWriter(output)) {
+				extract(rois, n5Writer(n5, rois));
+			}
+		} else
+			extract(rois, tiffWriter(output, rois));
+
+		IJ.log(String.format(
+				"Extracted %d regions from %s level %d reading %d blocks in %d ms",
+				rois.size(),
+				source.getName(),
+				level,
+				numBlocksRead.get(),
+				System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Ask for parameters and extract regions from the current source and
+	 * timepoint of the viewer in the background.
+	 *
+	 * @param viewer
+	 *            the viewer
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static void run(final AbstractViewerPanel viewer) {
+
+		final SourceAndConverter<?> current = viewer.state().getCurrentSource();
+		if (current == null)
+			return;
+
+		final Source<?> src = current.getSpimSource();
+
+		final GenericDialog gd = new GenericDialog("Batch ROI extraction");
+		gd.addFileField("ROI_csv", lastCsv, 40);
+		gd.addNumericField("Scale_level", 0, 0);
+		gd.addStringField("ROI_size (pixels)", lastSize, 20);
+		gd.addChoice("Format", FORMAT_OPTIONS, lastFormat);
+		gd.addDirectoryField("Output", lastOutput, 40);
+		gd.addNumericField("Threads", lastThreads, 0);
+		gd.addMessage("Source: " + src.getName() + ", timepoint " + viewer.state().getCurrentTimepoint());
+		gd.showDialog();
+
+		if (gd.wasCanceled())
+			return;
+
+		lastCsv = gd.getNextString();
+		final int level = Math.max(0, Math.min(src.getNumMipmapLevels() - 1, (int)gd.getNextNumber()));
+		lastSize = gd.getNextString();
+		lastFormat = gd.getNextChoice();
+		lastOutput = gd.getNextString();
+		lastThreads = (int)gd.getNextNumber();
+
+		final long[] size = Arrays.stream(StreamingN5Exporter.parseBlockSize(lastSize, 3)).asLongStream().toArray();
+		final BatchRoiExtractor extractor = new BatchRoiExtractor(
+				src,
+				level,
+				viewer.state().getCurrentTimepoint(),
+				lastThreads);
+		extractor.setProgressListener((BiConsumer<Long, Long>)(done, total) -> IJ.showProgress(done.intValue(), total.intValue()));
+
+		final String csv = lastCsv;
+		final String format = lastFormat;
+		final String output = lastOutput;
+		new Thread(() -> {
+			try {
+				extractor.run(csv, size, format, output);
+			} catch (final Exception e) {
+				IJ.handleException(e);
+			} finally {
+				IJ.showProgress(1.0);
+			}
+		}, "n5-batch-roi-extraction").start();
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static void main(final String... args) throws IOException, InterruptedException {
+
+		final Map<String, String> params = new HashMap<>();
+		params.put("level", "0");
+		params.put("timepoint", "0");
+		params.put("size", "64,64,64");
+		params.put("format", FORMAT_TIFF);
+		params.put("threads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+		for (int i = 0; i + 1 < args.length; i += 2)
+			params.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+
+		if (!params.containsKey("uri") || !params.containsKey("csv") || !params.containsKey("output")) {
+			System.err.println("Usage: BatchRoiExtractor --uri <container?dataset> --csv <rois.csv> --output <directory or container>");
+			System.err.println("    [--level 0] [--size 64,64,64] [--format tiff|n5] [--timepoint 0] [--threads n]");
+			System.exit(1);
+		}
+
+		final List<ConverterSetup> converterSetups = new ArrayList<>();
+		final List<SourceAndConverter> sources = new ArrayList<>();
+		N5Viewer.buildN5Sources(
+				new String[]{params.get("uri")},
+				new SharedQueue(1),
+				converterSetups,
+				(List)sources,
+				BdvOptions.options());
+
+		if (sources.isEmpty()) {
+			System.err.println("Could not open " + params.get("uri"));
+			System.exit(1);
+		}
+
+		final Source src = sources.get(0).getSpimSource();
+		final int level = Math.min(src.getNumMipmapLevels() - 1, Integer.parseInt(params.get("level")));
+		final long[] size = Arrays.stream(StreamingN5Exporter.parseBlockSize(params.get("size"), 3)).asLongStream().toArray();
+
+		final BatchRoiExtractor extractor = new BatchRoiExtractor(
+				src,
+				level,
+				Integer.parseInt(params.get("timepoint")),
+				Integer.parseInt(params.get("threads")));
+		extractor.run(params.get("csv"), size, params.get("format"), params.get("output"));
+		System.exit(0);
+	}
+}
@@ -0,0 +1,549 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import javax.imageio.ImageIO;
+
+import org.janelia.saalfeldlab.n5.bdv.N5Viewer;
+import org.janelia.saalfeldlab.n5.bdv.statistics.InstrumentedSharedQueue;
+import org.janelia.saalfeldlab.n5.bdv.statistics.ViewerStatistics;
+import org.janelia.saalfeldlab.n5.bdv.tools.render.MovieKeyframes;
+import org.janelia.saalfeldlab.n5.bdv.tools.render.MovieKeyframes.Keyframe;
+import org.janelia.saalfeldlab.n5.bdv.tools.render.OffscreenRenderer;
+
+import bdv.cache.CacheControl;
+import bdv.tools.brightness.ConverterSetup;
+import bdv.util.BdvOptions;
+import bdv.viewer.Interpolation;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.ViewerPanel;
+import bdv.viewer.ViewerState;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.VirtualStack;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.AVI_Writer;
+
+/**
+ * Renders a movie along {@link MovieKeyframes} and writes it as a PNG image
+ * sequence or as an AVI file.
+ * <p>
+ * Frames are rendered in parallel by several {@link OffscreenRenderer}s that
+ * share the sources and therefore their block caches. A prefetcher renders
+ * one pass of upcoming frames ahead of the workers so that their blocks are
+ * already queued for loading. Every frame is repainted until all its blocks
+ * at the scale level the viewer would show are loaded, so that no frame is
+ * rendered from lower resolution data.
+ * <p>
+ * Run headless with
+ *
+ * <pre>
+ * MovieExporter --uri container.n5?/dataset --keyframes keyframes.txt --output out/ \
+ *     [--width 1280] [--height 720] [--format png|avi] [--fps 25] [--threads 8] [--lookahead 16]
+ * </pre>
+ */
+public class MovieExporter {
+
+	public static final String FORMAT_PNG = "png";
+	public static final String FORMAT_AVI = "avi";
+
+	public static final String[] FORMAT_OPTIONS = new String[]{FORMAT_PNG, FORMAT_AVI};
+
+	private static final String FRAME_FORMAT = "frame-%05d.png";
+
+	private static final int JPEG_QUALITY = 90;
+
+	/**
+	 * Default time to wait for the blocks of a frame, so that blocks that
+	 * keep failing to load fail the export instead of stalling it.
+	 */
+	public static final long DEFAULT_DEADLINE_MILLIS = 60000;
+
+	private final List<? extends SourceAndConverter<?>> sources;
+
+	private final int numTimepoints;
+
+	private final int width;
+
+	private final int height;
+
+	private final int numThreads;
+
+	private int lookahead = 16;
+
+	private long deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+
+	private Interpolation interpolation = Interpolation.NEARESTNEIGHBOR;
+
+	private CacheControl cacheControl = new CacheControl.Dummy();
+
+	private BiConsumer<Long, Long> progressListener;
+
+	// keyframes added in each viewer
+	private static final Map<ViewerPanel, MovieKeyframes> viewerKeyframes = new WeakHashMap<>();
+
+	// remember dialog parameters
+	private static String lastOutput = System.getProperty("user.home");
+	private static String lastFormat = FORMAT_PNG;
+	private static int lastFramesBetween = 50;
+	private static int lastWidth = 1280;
+	private static int lastHeight = 720;
+	private static double lastFps = 25;
+	private static int lastThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	/**
+	 * @param sources
+	 *            the sources, all of them are visible
+	 * @param numTimepoints
+	 *            the number of timepoints
+	 * @param width
+	 *            width of the frames
+	 * @param height
+	 *            height of the frames
+	 * @param numThreads
+	 *            number of frames rendered in parallel
+	 */
+	public MovieExporter(
+			final List<? extends SourceAndConverter<?>> sources,
+			final int numTimepoints,
+			final int width,
+			final int height,
+			final int numThreads) {
+
+		this.sources = sources;
+		this.numTimepoints = numTimepoints;
+		this.width = width;
+		this.height = height;
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * @param lookahead
+	 *            how many frames ahead of the finished frames are prefetched
+	 */
+	public void setLookahead(final int lookahead) {
+
+		this.lookahead = Math.max(1, lookahead);
+	}
+
+	/**
+	 * @param deadlineMillis
+	 *            the maximum time to wait for the blocks of a frame, in
+	 *            milliseconds, or {@link OffscreenRenderer#NO_DEADLINE}. A
+	 *            frame that is not complete by then fails the export. The
+	 *            default is {@link #DEFAULT_DEADLINE_MILLIS}.
+	 */
+	public void setDeadline(final long deadlineMillis) {
+
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	public void setInterpolation(final Interpolation interpolation) {
+
+		this.interpolation = interpolation;
+	}
+
+	/**
+	 * @param cacheControl
+	 *            prepared before each rendered frame, usually the shared queue
+	 *            of the sources, so that fetches for finished frames can be
+	 *            cancelled
+	 */
+	public void setCacheControl(final CacheControl cacheControl) {
+
+		this.cacheControl = cacheControl;
+	}
+
+	/**
+	 * Set a listener that is notified with the number of finished and total
+	 * frames.
+	 *
+	 * @param progressListener
+	 *            the listener
+	 */
+	public void setProgressListener(final BiConsumer<Long, Long> progressListener) {
+
+		this.progressListener = progressListener;
+	}
+
+	private OffscreenRenderer createRenderer() {
+
+		final OffscreenRenderer renderer = new OffscreenRenderer(sources, numTimepoints, width, height, 1, cacheControl);
+		renderer.state().setInterpolation(interpolation);
+		return renderer;
+	}
+
+	/**
+	 * Renders all frames and passes each one to the writer together with its
+	 * index in {@code frames}. The writer is called from several threads.
+	 *
+	 * @param frames
+	 *            viewer transforms and timepoints of the frames
+	 * @param writer
+	 *            consumes the frame index and the rendered frame
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the rendering to finish
+	 */
+	public void render(
+			final List<Keyframe> frames,
+			final BiConsumer<Integer, OffscreenRenderer.Frame> writer) throws InterruptedException {
+
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final AtomicLong numDone = new AtomicLong();
+
+		// every rendered and prefetched frame is a new frame of the queue, keep
+		// the fetches of the frames that are prefetched ahead
+		final InstrumentedSharedQueue queue = cacheControl instanceof InstrumentedSharedQueue ? (InstrumentedSharedQueue)cacheControl : null;
+		final int maxRequestAge = queue == null ? -1 : queue.getMaxRequestAge();
+		if (maxRequestAge >= 0)
+			queue.setMaxRequestAge(Math.max(maxRequestAge, 2 * (lookahead + numThreads)));
+
+		final BlockingQueue<OffscreenRenderer> renderers = new ArrayBlockingQueue<>(numThreads);
+		for (int i = 0; i < numThreads; ++i)
+			renderers.add(createRenderer());
+
+		// queue the blocks of upcoming frames, at most lookahead frames ahead
+		final Semaphore ahead = new Semaphore(lookahead);
+		final Thread prefetcher = new Thread(() -> {
+			try (final OffscreenRenderer renderer = createRenderer()) {
+				for (final Keyframe frame : frames) {
+					ahead.acquire();
+					if (failure.get() != null)
+						return;
+
+					renderer.prefetch(frame.transform, frame.timepoint);
+				}
+			} catch (final InterruptedException e) {}
+		}, "movie-prefetch");
+		prefetcher.start();
+
+		final ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+		try {
+			for (int i = 0; i < frames.size(); ++i) {
+				final int index = i;
+				final Keyframe keyframe = frames.get(i);
+				exec.submit(() -> {
+					try {
+						if (failure.get() == null) {
+							final OffscreenRenderer renderer = renderers.take();
+							try {
+								final OffscreenRenderer.Frame frame = renderer.render(keyframe.transform, keyframe.timepoint, deadlineMillis);
+								if (!frame.isValid())
+									throw new IllegalStateException("Frame " + index + " was not loaded within " + deadlineMillis + " ms");
+
+								writer.accept(index, frame);
+							} finally {
+								renderers.put(renderer);
+							}
+						}
+					} catch (final Throwable e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						ahead.release();
+						final long done = numDone.incrementAndGet();
+						if (progressListener != null)
+							progressListener.accept(done, (long)frames.size());
+					}
+				});
+			}
+		} finally {
+			exec.shutdown();
+			exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			prefetcher.interrupt();
+			prefetcher.join();
+			renderers.forEach(OffscreenRenderer::close);
+			if (maxRequestAge >= 0)
+				queue.setMaxRequestAge(maxRequestAge);
+		}
+
+		if (failure.get() != null)
+			throw new IllegalStateException("Failed to render movie", failure.get());
+	}
+
+	/**
+	 * Renders all frames and writes them into a directory.
+	 *
+	 * @param frames
+	 *            viewer transforms and timepoints of the frames
+	 * @param format
+	 *            {@link #FORMAT_PNG} for an image sequence or
+	 *            {@link #FORMAT_AVI} for a JPEG compressed movie.avi
+	 * @param directory
+	 *            the output directory
+	 * @param fps
+	 *            frames per second of the movie
+	 * @return the time to a valid frame of each frame in milliseconds
+	 * @throws IOException
+	 *             if the movie can not be written
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the rendering to finish
+	 */
+	public double[] export(
+			final List<Keyframe> frames,
+			final String format,
+			final File directory,
+			final double fps) throws IOException, InterruptedException {
+
+		directory.mkdirs();
+		final double[] frameMillis = new double[frames.size()];
+		render(frames, (i, frame) -> {
+			frameMillis[i] = frame.getTotalNanos() / 1e6;
+			try {
+				ImageIO.write(frame.getImage(), "png", new File(directory, String.format(FRAME_FORMAT, i)));
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+
+		if (format.equals(FORMAT_AVI)) {
+			writeAvi(directory, frames.size(), fps, new File(directory, "movie.avi"));
+			for (int i = 0; i < frames.size(); ++i)
+				new File(directory, String.format(FRAME_FORMAT, i)).delete();
+		}
+
+		return frameMillis;
+	}
+
+	/**
+	 * Encodes the PNG frames in a directory as a JPEG compressed AVI. Frames
+	 * are read one at a time.
+	 */
+	private void writeAvi(final File directory, final int numFrames, final double fps, final File avi) throws IOException {
+
+		final VirtualStack stack = new VirtualStack(width, height, null, directory.getAbsolutePath());
+		for (int i = 0; i < numFrames; ++i)
+			stack.addSlice(String.format(FRAME_FORMAT, i));
+
+		final ImagePlus imp = new ImagePlus("movie", stack);
+		imp.getCalibration().fps = fps;
+		new AVI_Writer().writeImage(imp, avi.getAbsolutePath(), AVI_Writer.JPEG_COMPRESSION, JPEG_QUALITY);
+	}
+
+	private static double percentile(final double[] values, final double p) {
+
+		if (values.length == 0)
+			return Double.NaN;
+
+		final double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		final int i = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+	}
+
+	private static String summary(final double[] frameMillis) {
+
+		return String.format(Locale.ROOT, "%d frames, time to valid frame p50 %.1f ms, p90 %.1f ms, max %.1f ms",
+				frameMillis.length,
+				percentile(frameMillis, 50),
+				percentile(frameMillis, 90),
+				percentile(frameMillis, 100));
+	}
+
+	/**
+	 * Adds the current view of a viewer as the next movie keyframe.
+	 *
+	 * @param viewer
+	 *            the viewer
+	 */
+	public static void addKeyframe(final ViewerPanel viewer) {
+
+		final MovieKeyframes keyframes;
+		synchronized (viewerKeyframes) {
+			keyframes = viewerKeyframes.computeIfAbsent(viewer, v -> new MovieKeyframes(
+					v.getDisplay().getWidth(),
+					v.getDisplay().getHeight()));
+		}
+		final ViewerState state = viewer.state();
+		keyframes.append(state.getViewerTransform(), state.getCurrentTimepoint(), lastFramesBetween);
+		viewer.showMessage("movie keyframe " + keyframes.getKeyframes().size());
+	}
+
+	/**
+	 * Removes all movie keyframes of a viewer.
+	 *
+	 * @param viewer
+	 *            the viewer
+	 */
+	public static void clearKeyframes(final ViewerPanel viewer) {
+
+		synchronized (viewerKeyframes) {
+			viewerKeyframes.remove(viewer);
+		}
+		viewer.showMessage("movie keyframes cleared");
+	}
+
+	public static void run(final ViewerPanel viewer) {
+
+		final MovieKeyframes added;
+		synchronized (viewerKeyframes) {
+			added = viewerKeyframes.get(viewer);
+		}
+		if (added == null || added.getKeyframes().size() < 2) {
+			IJ.error("Export movie", "Add at least two keyframes with Tools > Movie > Add keyframe.");
+			return;
+		}
+
+		final GenericDialog gd = new GenericDialog("Export movie");
+		gd.addNumericField("Frames_between_keyframes", lastFramesBetween, 0);
+		gd.addNumericField("Width", lastWidth, 0);
+		gd.addNumericField("Height", lastHeight, 0);
+		gd.addNumericField("Frames_per_second", lastFps, 1);
+		gd.addChoice("Format", FORMAT_OPTIONS, lastFormat);
+		gd.addDirectoryField("Output", lastOutput, 40);
+		gd.addNumericField("Threads", lastThreads, 0);
+		gd.addMessage(added.getKeyframes().size() + " keyframes");
+		gd.showDialog();
+
+		if (gd.wasCanceled())
+			return;
+
+		lastFramesBetween = Math.max(1, (int)gd.getNextNumber());
+		lastWidth = Math.max(1, (int)gd.getNextNumber());
+		lastHeight = Math.max(1, (int)gd.getNextNumber());
+		lastFps = gd.getNextNumber();
+		lastFormat = gd.getNextChoice();
+		lastOutput = gd.getNextString();
+		lastThreads = (int)gd.getNextNumber();
+
+		// space the keyframes evenly
+		final MovieKeyframes keyframes = new MovieKeyframes(added.getWidth(), added.getHeight());
+		for (final Keyframe keyframe : added.getKeyframes())
+			keyframes.append(keyframe.transform, keyframe.timepoint, lastFramesBetween);
+
+		final ViewerState state = viewer.state().snapshot();
+		final MovieExporter exporter = new MovieExporter(
+				new ArrayList<>(state.getVisibleAndPresentSources()),
+				state.getNumTimepoints(),
+				lastWidth,
+				lastHeight,
+				lastThreads);
+		exporter.setInterpolation(state.getInterpolation());
+		final ViewerStatistics statistics = ViewerStatistics.of(viewer);
+		if (statistics != null)
+			exporter.setCacheControl(statistics.getSharedQueue());
+		exporter.setProgressListener((BiConsumer<Long, Long>)(done, total) -> IJ.showProgress(done.intValue(), total.intValue()));
+
+		final File output = new File(lastOutput);
+		final String format = lastFormat;
+		final double fps = lastFps;
+		final int width = lastWidth;
+		final int height = lastHeight;
+		new Thread(() -> {
+			try {
+				output.mkdirs();
+				keyframes.save(new File(output, "keyframes.txt").getAbsolutePath());
+				final double[] frameMillis = exporter.export(keyframes.interpolate(width, height), format, output, fps);
+				IJ.log("Exported movie to " + output + ": " + summary(frameMillis));
+			} catch (final Exception e) {
+				IJ.handleException(e);
+			} finally {
+				IJ.showProgress(1.0);
+			}
+		}, "n5-movie-export").start();
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static void main(final String... args) throws IOException, InterruptedException {
+
+		if (System.getProperty("java.awt.headless") == null)
+			System.setProperty("java.awt.headless", "true");
+
+		final Map<String, String> params = new HashMap<>();
+		params.put("format", FORMAT_PNG);
+		params.put("fps", "25");
+		params.put("lookahead", "16");
+		params.put("deadline", Long.toString(DEFAULT_DEADLINE_MILLIS));
+		params.put("interpolation", "nearest");
+		params.put("fetchers", Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+		params.put("threads", Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+		for (int i = 0; i + 1 < args.length; i += 2)
+			params.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+
+		if (!params.containsKey("uri") || !params.containsKey("keyframes") || !params.containsKey("output")) {
+			System.err.println("Usage: MovieExporter --uri <container?dataset>[,<container?dataset>...] --keyframes <keyframes.txt> --output <directory>");
+			System.err.println("    [--width w] [--height h] [--format png|avi] [--fps 25] [--interpolation nearest|linear]");
+			System.err.println("    [--threads n] [--fetchers n] [--lookahead 16] [--deadline 60000]");
+			System.exit(1);
+		}
+
+		final MovieKeyframes keyframes = MovieKeyframes.load(params.get("keyframes"));
+		final int width = params.containsKey("width") ? Integer.parseInt(params.get("width")) : keyframes.getWidth();
+		final int height = params.containsKey("height") ? Integer.parseInt(params.get("height")) : keyframes.getHeight();
+
+		final List<ConverterSetup> converterSetups = new ArrayList<>();
+		final List<SourceAndConverter> sources = new ArrayList<>();
+		final InstrumentedSharedQueue sharedQueue = new ViewerStatistics(Integer.parseInt(params.get("fetchers"))).getSharedQueue();
+		final int numTimepoints = N5Viewer.buildN5Sources(
+				params.get("uri").split(","),
+				sharedQueue,
+				converterSetups,
+				(List)sources,
+				BdvOptions.options());
+
+		if (sources.isEmpty()) {
+			System.err.println("Could not open " + params.get("uri"));
+			System.exit(1);
+		}
+
+		final MovieExporter exporter = new MovieExporter(
+				(List)sources,
+				numTimepoints,
+				width,
+				height,
+				Integer.parseInt(params.get("threads")));
+		exporter.setLookahead(Integer.parseInt(params.get("lookahead")));
+		exporter.setCacheControl(sharedQueue);
+		exporter.setDeadline(Long.parseLong(params.get("deadline")));
+		exporter.setInterpolation(params.get("interpolation").equals("linear") ? Interpolation.NLINEAR : Interpolation.NEARESTNEIGHBOR);
+		exporter.setProgressListener((done, total) -> {
+			if (done % 10 == 0 || done.equals(total))
+				System.out.println(done + " / " + total + " frames");
+		});
+
+		final double[] frameMillis = exporter.export(
+				keyframes.interpolate(width, height),
+				params.get("format"),
+				new File(params.get("output")),
+				Double.parseDouble(params.get("fps")));
+		System.out.println(summary(frameMillis));
+		System.exit(0);
+	}
+}
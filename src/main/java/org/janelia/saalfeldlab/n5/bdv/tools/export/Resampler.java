@@ -0,0 +1,307 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.export;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bdv.viewer.Source;
+import ij.IJ;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.interpolation.InterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.LanczosInterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Resamples a {@link Source} to an arbitrary voxel size.
+ * <p>
+ * Pixels are interpolated from the coarsest scale level that is at least as
+ * fine as the requested voxel size, so that no more data than necessary is
+ * fetched. The resampled image is a lazy view; its blocks are computed when
+ * they are written, e.g. in parallel by {@link StreamingN5Exporter} or
+ * {@link #render}. No smoothing is applied before interpolation.
+ */
+public class Resampler {
+
+	public static final String NEAREST = "Nearest neighbor";
+	public static final String LINEAR = "Linear";
+	public static final String LANCZOS = "Lanczos";
+
+	public static final String[] INTERPOLATION_OPTIONS = new String[]{NEAREST, LINEAR, LANCZOS};
+
+	private static final double TOLERANCE = 1e-6;
+
+	private static final int BLOCK_SIZE = 64;
+
+	/**
+	 * Returns the coarsest scale level of the source whose voxel size is not
+	 * larger than the requested one in any dimension, or zero if no level is
+	 * fine enough.
+	 *
+	 * @param src
+	 *            the source
+	 * @param timepoint
+	 *            the timepoint
+	 * @param resolution
+	 *            the requested voxel size in world units
+	 * @return the scale level
+	 */
+	public static int finerLevel(final Source<?> src, final int timepoint, final double[] resolution) {
+
+		for (int level = src.getNumMipmapLevels() - 1; level > 0; level--) {
+			final double[] spacing = spacing(src, timepoint, level);
+			boolean fineEnough = true;
+			for (int d = 0; d < 3; d++)
+				fineEnough &= spacing[d] <= resolution[d] * (1 + TOLERANCE);
+
+			if (fineEnough)
+				return level;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the voxel size of a scale level in world units, i.e. the length
+	 * of the world space vectors of the pixel axes.
+	 *
+	 * @param src
+	 *            the source
+	 * @param timepoint
+	 *            the timepoint
+	 * @param level
+	 *            the scale level
+	 * @return the voxel size
+	 */
+	public static double[] spacing(final Source<?> src, final int timepoint, final int level) {
+
+		final AffineTransform3D transform = new AffineTransform3D();
+		src.getSourceTransform(timepoint, level, transform);
+
+		final double[] spacing = new double[3];
+		for (int d = 0; d < 3; d++) {
+			double sum = 0;
+			for (int r = 0; r < 3; r++)
+				sum += transform.get(r, d) * transform.get(r, d);
+
+			spacing[d] = Math.sqrt(sum);
+		}
+		return spacing;
+	}
+
+	/**
+	 * Returns the dimensions of a box in world coordinates sampled at the
+	 * given voxel size.
+	 *
+	 * @param worldBox
+	 *            the box
+	 * @param resolution
+	 *            the voxel size
+	 * @return the dimensions
+	 */
+	public static long[] outputDimensions(final RealInterval worldBox, final double[] resolution) {
+
+		final long[] dims = new long[3];
+		for (int d = 0; d < 3; d++)
+			dims[d] = Math.max(1, (long)Math.ceil((worldBox.realMax(d) - worldBox.realMin(d)) / resolution[d] - TOLERANCE));
+
+		return dims;
+	}
+
+	/**
+	 * Returns a lazy view of the source in the world box sampled at the given
+	 * voxel size. Pixel (0,0,0) of the view is at the min corner of the box.
+	 *
+	 * @param <T>
+	 *            the type
+	 * @param src
+	 *            the source
+	 * @param timepoint
+	 *            the timepoint
+	 * @param level
+	 *            the scale level to interpolate from
+	 * @param worldBox
+	 *            the box in world coordinates
+	 * @param resolution
+	 *            the voxel size
+	 * @param interpolation
+	 *            one of {@link #INTERPOLATION_OPTIONS}
+	 * @return the resampled image
+	 */
+	public static <T extends NumericType<T>> RandomAccessibleInterval<T> resample(
+			final Source<T> src,
+			final int timepoint,
+			final int level,
+			final RealInterval worldBox,
+			final double[] resolution,
+			final String interpolation) {
+
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		src.getSourceTransform(timepoint, level, sourceTransform);
+
+		final AffineTransform3D outputTransform = new AffineTransform3D();
+		outputTransform.set(
+				resolution[0], 0, 0, worldBox.realMin(0),
+				0, resolution[1], 0, worldBox.realMin(1),
+				0, 0, resolution[2], worldBox.realMin(2));
+
+		// output pixel to source pixel
+		final AffineTransform3D outputToSource = sourceTransform.inverse().concatenate(outputTransform);
+
+		final RealRandomAccessible<T> interpolated = Views.interpolate(
+				Views.extendZero(src.getSource(timepoint, level)),
+				interpolatorFactory(src.getType(), interpolation));
+
+		return Views.interval(
+				Views.raster(RealViews.affine(interpolated, outputToSource.inverse())),
+				new FinalInterval(outputDimensions(worldBox, resolution)));
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <T extends NumericType<T>> InterpolatorFactory<T, RandomAccessible<T>> interpolatorFactory(
+			final T type,
+			final String interpolation) {
+
+		if (LANCZOS.equals(interpolation)) {
+			if (type instanceof RealType)
+				return (InterpolatorFactory)new LanczosInterpolatorFactory();
+
+			IJ.log("Lanczos interpolation needs a real type, using linear interpolation.");
+			return new NLinearInterpolatorFactory<>();
+		} else if (LINEAR.equals(interpolation))
+			return new NLinearInterpolatorFactory<>();
+		else
+			return new NearestNeighborInterpolatorFactory<>();
+	}
+
+	/**
+	 * Copies an image into memory, computing blocks in parallel.
+	 *
+	 * @param <T>
+	 *            the type
+	 * @param img
+	 *            the (lazy) image
+	 * @param numThreads
+	 *            the number of threads
+	 * @return the copy
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for blocks
+	 */
+	public static <T extends NativeType<T>> ArrayImg<T, ?> render(
+			final RandomAccessibleInterval<T> img,
+			final int numThreads) throws InterruptedException {
+
+		final RandomAccessibleInterval<T> zeroMin = Views.zeroMin(img);
+		final T type = Util.getTypeFromInterval(zeroMin).createVariable();
+		final ArrayImg<T, ?> out = new ArrayImgFactory<>(type).create(zeroMin);
+
+		final long[] dims = zeroMin.dimensionsAsLongArray();
+		final int[] blockSize = new int[dims.length];
+		Arrays.fill(blockSize, BLOCK_SIZE);
+		final CellGrid grid = new CellGrid(dims, blockSize);
+		final long numBlocks = Intervals.numElements(grid.getGridDimensions());
+
+		final ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, numThreads));
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		try {
+			for (long i = 0; i < numBlocks; i++) {
+				final long[] gridPosition = new long[dims.length];
+				grid.getCellGridPositionFlat(i, gridPosition);
+				exec.submit(() -> {
+					try {
+						final long[] min = new long[dims.length];
+						final int[] size = new int[dims.length];
+						grid.getCellDimensions(gridPosition, min, size);
+						final long[] max = new long[dims.length];
+						for (int d = 0; d < dims.length; d++)
+							max[d] = min[d] + size[d] - 1;
+
+						final FinalInterval block = new FinalInterval(min, max);
+						LoopBuilder.setImages(Views.interval(zeroMin, block), Views.interval(out, block))
+								.forEachPixel((a, b) -> b.set(a));
+					} catch (final Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				});
+			}
+		} finally {
+			exec.shutdown();
+			exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+
+		if (failure.get() != null)
+			throw new RuntimeException("Failed to resample", failure.get());
+
+		return out;
+	}
+
+	/**
+	 * Parses a voxel size "x,y,z". A single value gives an isotropic voxel
+	 * size.
+	 *
+	 * @param resolutionString
+	 *            the string
+	 * @return the voxel size, or null if it is not one or three positive
+	 *         numbers
+	 */
+	public static double[] parseResolution(final String resolutionString) {
+
+		try {
+			final double[] parsed = Arrays.stream(resolutionString.split(",", -1))
+					.map(String::trim)
+					.mapToDouble(Double::parseDouble)
+					.toArray();
+
+			if (parsed.length != 1 && parsed.length != 3)
+				return null;
+
+			final double[] resolution = new double[3];
+			for (int d = 0; d < 3; d++) {
+				resolution[d] = parsed[Math.min(d, parsed.length - 1)];
+				if (!(resolution[d] > 0))
+					return null;
+			}
+			return resolution;
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,564 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.export;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.Lz4Compression;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.bdv.DataTypes;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.scicomp.n5.zstandard.ZstandardCompression;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Writes an image into an N5 container (N5, Zarr, or HDF5 depending on the
+ * {@link N5Writer}) one block at a time, so that crops that do not fit into
+ * memory can be exported.
+ * <p>
+ * Blocks are read from the source and written in parallel by a fixed number of
+ * threads. At most {@code maxBlocksInFlight} blocks are materialized at any
+ * time. Optionally, a pyramid of 2x mean-downsampled levels of a real type
+ * is written after the full resolution level. Levels are then stored as {@code s0, s1, ...}
+ * below the requested group using the "N5 Viewer" metadata dialect.
+ */
+public class StreamingN5Exporter {
+
+	public static final String RAW = "raw";
+	public static final String GZIP = "gzip";
+	public static final String LZ4 = "lz4";
+	public static final String ZSTD = "zstd";
+
+	public static final String[] COMPRESSION_OPTIONS = new String[]{RAW, GZIP, LZ4, ZSTD};
+
+	public static final String DOWNSAMPLING_FACTORS_KEY = "downsamplingFactors";
+	public static final String PIXEL_RESOLUTION_KEY = "pixelResolution";
+	public static final String OFFSET_KEY = "offset";
+
+	private final N5Writer n5;
+
+	private final int[] blockSize;
+
+	private final Compression compression;
+
+	private final int numThreads;
+
+	private final int maxBlocksInFlight;
+
+	private final int numDownsampledLevels;
+
+	private final AtomicLong bytesWritten = new AtomicLong();
+
+	private BiConsumer<Long, Long> progressListener;
+
+	/**
+	 * @param n5
+	 *            the writer
+	 * @param blockSize
+	 *            block size of the written datasets
+	 * @param compression
+	 *            compression of the written datasets
+	 * @param numThreads
+	 *            number of threads reading and writing blocks
+	 * @param maxBlocksInFlight
+	 *            maximum number of blocks held in memory at once
+	 * @param numDownsampledLevels
+	 *            number of 2x downsampled levels to write, zero for none
+	 */
+	public StreamingN5Exporter(
+			final N5Writer n5,
+			final int[] blockSize,
+			final Compression compression,
+			final int numThreads,
+			final int maxBlocksInFlight,
+			final int numDownsampledLevels) {
+
+		this.n5 = n5;
+		this.blockSize = blockSize;
+		this.compression = compression;
+		this.numThreads = Math.max(1, numThreads);
+		this.maxBlocksInFlight = Math.max(this.numThreads, maxBlocksInFlight);
+		this.numDownsampledLevels = Math.max(0, numDownsampledLevels);
+	}
+
+	/**
+	 * Set a listener that is notified with the number of finished and total
+	 * blocks of the level currently written.
+	 *
+	 * @param progressListener
+	 *            the listener
+	 */
+	public void setProgressListener(final BiConsumer<Long, Long> progressListener) {
+
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * @return the number of uncompressed bytes written so far
+	 */
+	public long getBytesWritten() {
+
+		return bytesWritten.get();
+	}
+
+	public static Compression compression(final String name) {
+
+		switch (name.toLowerCase()) {
+		case RAW:
+			return new RawCompression();
+		case LZ4:
+			return new Lz4Compression();
+		case ZSTD:
+			return new ZstandardCompression();
+		case GZIP:
+		default:
+			return new GzipCompression();
+		}
+	}
+
+	public static int[] parseBlockSize(final String blockSizeString, final int nd) {
+
+		final int[] parsed = Arrays.stream(blockSizeString.split(","))
+				.map(String::trim)
+				.filter(x -> !x.isEmpty())
+				.mapToInt(Integer::parseInt)
+				.toArray();
+
+		final int[] blockSize = new int[nd];
+		for (int d = 0; d < nd; d++)
+			blockSize[d] = parsed.length == 0 ? 64 : parsed[Math.min(d, parsed.length - 1)];
+
+		return blockSize;
+	}
+
+	/**
+	 * @param type
+	 *            a pixel type
+	 * @return whether downsampled levels can be written for images of the
+	 *         type
+	 */
+	public static boolean canDownsample(final Object type) {
+
+		return type instanceof RealType;
+	}
+
+	private void checkDownsample(final Object type) {
+
+		if (numDownsampledLevels > 0 && !canDownsample(type))
+			throw new IllegalArgumentException(
+					"Can not downsample type " + type.getClass().getSimpleName() + ", export without downsampled levels.");
+	}
+
+	/**
+	 * Exports the image and its calibration.
+	 *
+	 * @param <T>
+	 *            the image type
+	 * @param img
+	 *            the image, usually a lazy crop of a source
+	 * @param path
+	 *            the output dataset, or the output group if downsampled levels
+	 *            are written
+	 * @param resolution
+	 *            physical size of a pixel
+	 * @param offset
+	 *            physical position of the image's min pixel
+	 * @param unit
+	 *            the physical unit
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for blocks to be written
+	 * @throws IllegalArgumentException
+	 *             if downsampled levels are requested for a type that can not
+	 *             be downsampled
+	 */
+	public <T extends NativeType<T>> void export(
+			final RandomAccessibleInterval<T> img,
+			final String path,
+			final double[] resolution,
+			final double[] offset,
+			final String unit) throws InterruptedException {
+
+		final RandomAccessibleInterval<T> zeroMin = Views.zeroMin(img);
+		checkDownsample(Util.getTypeFromInterval(zeroMin));
+		final String s0 = numDownsampledLevels > 0 ? levelPath(path, 0) : path;
+
+		writeLevel(zeroMin, s0, (src, block) -> {
+			LoopBuilder.setImages(Views.interval(src, block), block).forEachPixel((i, o) -> o.set(i));
+		});
+		writeCalibration(s0, resolution, offset, unit, 1);
+
+		if (numDownsampledLevels == 0)
+			return;
+
+		writePyramid(path, resolution, offset, unit);
+	}
+
+	/**
+	 * Exports a series of equally sized frames into one dataset with time as
+	 * the last dimension. Frames are streamed block by block, up to
+	 * {@code maxFramesInFlight} frames are processed in parallel. Downsampled
+	 * levels, if requested, are downsampled in space only.
+	 *
+	 * @param <T>
+	 *            the image type
+	 * @param frames
+	 *            the frames, usually lazy crops of a source at consecutive
+	 *            timepoints
+	 * @param path
+	 *            the output dataset, or the output group if downsampled levels
+	 *            are written
+	 * @param resolution
+	 *            physical size of a pixel
+	 * @param offset
+	 *            physical position of the min pixel
+	 * @param unit
+	 *            the physical unit
+	 * @param maxFramesInFlight
+	 *            maximum number of frames processed at once
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for blocks to be written
+	 * @throws IllegalArgumentException
+	 *             if downsampled levels are requested for a type that can not
+	 *             be downsampled
+	 */
+	public <T extends NativeType<T>> void exportTimeSeries(
+			final List<RandomAccessibleInterval<T>> frames,
+			final String path,
+			final double[] resolution,
+			final double[] offset,
+			final String unit,
+			final int maxFramesInFlight) throws InterruptedException {
+
+		final RandomAccessibleInterval<T> first = frames.get(0);
+		final T type = Util.getTypeFromInterval(first).createVariable();
+		checkDownsample(type);
+
+		final String s0 = numDownsampledLevels > 0 ? levelPath(path, 0) : path;
+		final int nd = first.numDimensions();
+		final long[] frameDims = first.dimensionsAsLongArray();
+		final int[] frameBlockSize = Arrays.copyOf(blockSize, nd);
+
+		final long[] dims = Arrays.copyOf(frameDims, nd + 1);
+		dims[nd] = frames.size();
+		final int[] datasetBlockSize = Arrays.copyOf(frameBlockSize, nd + 1);
+		datasetBlockSize[nd] = 1;
+
+		n5.createDataset(s0, dims, datasetBlockSize, N5Utils.dataType(type), compression);
+		final DatasetAttributes attributes = n5.getDatasetAttributes(s0);
+
+		final CellGrid frameGrid = new CellGrid(frameDims, frameBlockSize);
+		final long numBlocks = Intervals.numElements(frameGrid.getGridDimensions()) * frames.size();
+
+		final ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+		final ExecutorService frameExec = Executors.newFixedThreadPool(Math.max(1, maxFramesInFlight));
+		final Semaphore inFlight = new Semaphore(maxBlocksInFlight);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final AtomicLong numDone = new AtomicLong();
+		final Runnable onBlockDone = progress(numDone, numBlocks);
+
+		try {
+			for (int t = 0; t < frames.size(); t++) {
+				final RandomAccessibleInterval<T> frame = Views.zeroMin(frames.get(t));
+				final long[] timeGridPosition = new long[]{t};
+				frameExec.submit(() -> {
+					try {
+						writeBlocks(frame, frameGrid, s0, attributes, timeGridPosition, (src, block) -> {
+							LoopBuilder.setImages(Views.interval(src, block), block).forEachPixel((i, o) -> o.set(i));
+						}, exec, inFlight, failure, onBlockDone);
+					} catch (final Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				});
+			}
+		} finally {
+			frameExec.shutdown();
+			frameExec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			exec.shutdown();
+			exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+
+		if (failure.get() != null)
+			throw new N5Exception("Failed to write " + s0, failure.get());
+
+		writeCalibration(s0, resolution, offset, unit, 1);
+
+		if (numDownsampledLevels == 0)
+			return;
+
+		writePyramid(path, resolution, offset, unit);
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private void writePyramid(
+			final String path,
+			final double[] resolution,
+			final double[] offset,
+			final String unit) throws InterruptedException {
+
+		long factor = 1;
+		for (int level = 1; level <= numDownsampledLevels; level++) {
+
+			final RandomAccessibleInterval previous = N5Utils.open(n5, levelPath(path, level - 1));
+			final long[] dims = previous.dimensionsAsLongArray();
+			final int numSpatialDimensions = resolution == null ? dims.length : resolution.length;
+			if (Arrays.stream(dims).limit(numSpatialDimensions).allMatch(x -> x <= 1))
+				break;
+
+			// only downsample spatial dimensions
+			final int[] steps = new int[dims.length];
+			final long[] downsampledDims = new long[dims.length];
+			for (int d = 0; d < dims.length; d++) {
+				steps[d] = d < numSpatialDimensions && dims[d] > 1 ? 2 : 1;
+				downsampledDims[d] = (dims[d] + steps[d] - 1) / steps[d];
+			}
+
+			final RandomAccessible extended = Views.extendBorder(previous);
+			final RandomAccessibleInterval downsampledExtent = Views.interval(extended, new FinalInterval(downsampledDims));
+
+			writeLevel(downsampledExtent, levelPath(path, level), (src, block) -> {
+				downsample((RandomAccessible)extended, (RandomAccessibleInterval)block, steps);
+			});
+
+			factor *= 2;
+			writeCalibration(levelPath(path, level), resolution, offset, unit, factor);
+		}
+	}
+
+	/**
+	 * Writes one level block by block. The extent of the level is given by
+	 * {@code extent}, the content of every block is computed by the
+	 * {@code filler} from the source.
+	 */
+	private <T extends NativeType<T>> void writeLevel(
+			final RandomAccessibleInterval<T> extent,
+			final String dataset,
+			final BiConsumer<RandomAccessible<T>, RandomAccessibleInterval<T>> filler) throws InterruptedException {
+
+		final T type = Util.getTypeFromInterval(extent).createVariable();
+		final long[] dims = extent.dimensionsAsLongArray();
+		final int[] levelBlockSize = Arrays.copyOf(blockSize, dims.length);
+		for (int d = blockSize.length; d < dims.length; d++)
+			levelBlockSize[d] = 1;
+
+		n5.createDataset(dataset, dims, levelBlockSize, N5Utils.dataType(type), compression);
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+
+		final CellGrid grid = new CellGrid(dims, levelBlockSize);
+		final long numBlocks = Intervals.numElements(grid.getGridDimensions());
+
+		final ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+		final Semaphore inFlight = new Semaphore(maxBlocksInFlight);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		try {
+			writeBlocks(extent, grid, dataset, attributes, new long[0], filler, exec, inFlight, failure,
+					progress(new AtomicLong(), numBlocks));
+		} finally {
+			exec.shutdown();
+			exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+
+		if (failure.get() != null)
+			throw new N5Exception("Failed to write " + dataset, failure.get());
+	}
+
+	/**
+	 * Submits all blocks of {@code grid} to {@code exec} and waits until they
+	 * are written. Blocks are stored at their grid position followed by
+	 * {@code gridSuffix}, so that a frame can be written into a dataset with
+	 * additional dimensions.
+	 */
+	private <T extends NativeType<T>> void writeBlocks(
+			final RandomAccessibleInterval<T> extent,
+			final CellGrid grid,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final long[] gridSuffix,
+			final BiConsumer<RandomAccessible<T>, RandomAccessibleInterval<T>> filler,
+			final ExecutorService exec,
+			final Semaphore inFlight,
+			final AtomicReference<Throwable> failure,
+			final Runnable onBlockDone) throws InterruptedException {
+
+		final T type = Util.getTypeFromInterval(extent).createVariable();
+		final int nd = grid.numDimensions();
+		final int bytesPerElement = DataTypes.bytesPerElement(N5Utils.dataType(type));
+		final long numBlocks = Intervals.numElements(grid.getGridDimensions());
+		final CountDownLatch done = new CountDownLatch(Math.toIntExact(numBlocks));
+
+		long numSubmitted = 0;
+		for (; numSubmitted < numBlocks && failure.get() == null; numSubmitted++) {
+
+			final long[] gridPosition = new long[nd + gridSuffix.length];
+			grid.getCellGridPositionFlat(numSubmitted, gridPosition);
+			System.arraycopy(gridSuffix, 0, gridPosition, nd, gridSuffix.length);
+
+			inFlight.acquire();
+			exec.submit(() -> {
+				try {
+					final long[] min = new long[nd];
+					final int[] size = new int[nd];
+					grid.getCellDimensions(Arrays.copyOf(gridPosition, nd), min, size);
+
+					// singleton dimensions for the suffix
+					final int[] blockDims = Arrays.copyOf(size, nd + gridSuffix.length);
+					Arrays.fill(blockDims, nd, blockDims.length, 1);
+					final ArrayImg<T, ?> block = new ArrayImgFactory<>(type).create(blockDims);
+
+					RandomAccessibleInterval<T> target = block;
+					while (target.numDimensions() > nd)
+						target = Views.hyperSlice(target, target.numDimensions() - 1, 0);
+
+					filler.accept(extent, Views.translate(target, min));
+					N5Utils.saveBlock(block, n5, dataset, attributes, gridPosition);
+
+					bytesWritten.addAndGet(Intervals.numElements(size) * bytesPerElement);
+				} catch (final Throwable e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					inFlight.release();
+					done.countDown();
+					onBlockDone.run();
+				}
+			});
+		}
+
+		// account for blocks skipped after a failure
+		for (long i = numSubmitted; i < numBlocks; i++)
+			done.countDown();
+
+		done.await();
+	}
+
+	private Runnable progress(final AtomicLong numDone, final long numBlocks) {
+
+		return () -> {
+			final long n = numDone.incrementAndGet();
+			if (progressListener != null)
+				progressListener.accept(n, numBlocks);
+		};
+	}
+
+	private void writeCalibration(
+			final String dataset,
+			final double[] resolution,
+			final double[] offset,
+			final String unit,
+			final long factor) {
+
+		if (resolution == null)
+			return;
+
+		// non-spatial dimensions, e.g. time, are never downsampled
+		final int nd = n5.getDatasetAttributes(dataset).getNumDimensions();
+		final long[] factors = new long[nd];
+		final double[] levelResolution = new double[resolution.length];
+		for (int d = 0; d < nd; d++)
+			factors[d] = d < resolution.length ? factor : 1;
+
+		for (int d = 0; d < resolution.length; d++)
+			levelResolution[d] = resolution[d] * factor;
+
+		final Map<String, Object> pixelResolution = new HashMap<>();
+		pixelResolution.put("unit", unit);
+		pixelResolution.put("dimensions", levelResolution);
+
+		n5.setAttribute(dataset, PIXEL_RESOLUTION_KEY, pixelResolution);
+		n5.setAttribute(dataset, DOWNSAMPLING_FACTORS_KEY, factors);
+		if (offset != null)
+			n5.setAttribute(dataset, OFFSET_KEY, offset);
+	}
+
+	/**
+	 * Averages blocks of {@code steps} pixels of the source into every pixel of
+	 * the target.
+	 */
+	private static <T extends RealType<T>> void downsample(
+			final RandomAccessible<T> source,
+			final RandomAccessibleInterval<T> target,
+			final int[] steps) {
+
+		final int nd = target.numDimensions();
+		final int numNeighbors = Arrays.stream(steps).reduce(1, (a, b) -> a * b);
+		final long[] position = new long[nd];
+		final int[] offset = new int[nd];
+
+		final RandomAccess<T> ra = source.randomAccess();
+		final Cursor<T> c = Views.flatIterable(target).localizingCursor();
+		while (c.hasNext()) {
+			final T t = c.next();
+			c.localize(position);
+
+			double sum = 0;
+			Arrays.fill(offset, 0);
+			for (int k = 0; k < numNeighbors; k++) {
+				for (int d = 0; d < nd; d++)
+					ra.setPosition(steps[d] * position[d] + offset[d], d);
+
+				sum += ra.get().getRealDouble();
+
+				// next neighbor
+				for (int d = 0; d < nd; d++) {
+					if (++offset[d] < steps[d])
+						break;
+					offset[d] = 0;
+				}
+			}
+			t.setReal(sum / numNeighbors);
+		}
+	}
+
+	public static String levelPath(final String group, final int level) {
+
+		return (group.endsWith("/") ? group : group + "/") + "s" + level;
+	}
+}
@@ -0,0 +1,220 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.render;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import javax.swing.Timer;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.ViewerPanel;
+import bdv.viewer.ViewerStateChange;
+import ij.gui.GenericDialog;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Renders with nearest neighbor interpolation while the viewer transform
+ * changes, and with the interpolation chosen in the viewer once the view has
+ * not changed for the idle time. Linear interpolation costs about twice as
+ * much per pixel, which matters most during navigation.
+ * <p>
+ * The chosen interpolation is whatever the viewer was set to when the
+ * navigation started, so toggling interpolation by key or MCU button still
+ * works while the adaptive mode is on. Changing the interpolation while the
+ * viewer is moving makes the new one the chosen interpolation, which is
+ * kept when the view settles.
+ */
+public class AdaptiveInterpolation {
+
+	/**
+	 * System property for the idle time in milliseconds.
+	 */
+	public static final String IDLE_MILLIS_PROPERTY = "n5-viewer.adaptive-interpolation.idle";
+
+	public static final int DEFAULT_IDLE_MILLIS = 300;
+
+	private final ViewerPanel viewerPanel;
+
+	private final Timer idleTimer;
+
+	private final List<Consumer<Boolean>> listeners = new CopyOnWriteArrayList<>();
+
+	private boolean enabled = false;
+
+	/* the viewer is rendering nearest neighbor until it is idle */
+	private volatile boolean moving = false;
+
+	/* the interpolation to restore when the viewer is idle */
+	private volatile Interpolation interpolation;
+
+	/* the interpolation is being changed by this, not by the user */
+	private volatile boolean switching = false;
+
+	public AdaptiveInterpolation(final ViewerPanel viewerPanel) {
+
+		this.viewerPanel = viewerPanel;
+		idleTimer = new Timer(Integer.getInteger(IDLE_MILLIS_PROPERTY, DEFAULT_IDLE_MILLIS), e -> settle());
+		idleTimer.setRepeats(false);
+		viewerPanel.transformListeners().add(this::transformChanged);
+		viewerPanel.state().changeListeners().add(change -> {
+			if (change == ViewerStateChange.INTERPOLATION_CHANGED)
+				interpolationChanged();
+		});
+	}
+
+	public synchronized boolean isEnabled() {
+
+		return enabled;
+	}
+
+	/**
+	 * Switch the adaptive mode on or off. Switching it off while the viewer
+	 * is moving restores the chosen interpolation immediately.
+	 *
+	 * @param enabled
+	 *            whether the adaptive mode is on
+	 */
+	public void setEnabled(final boolean enabled) {
+
+		synchronized (this) {
+			if (this.enabled == enabled)
+				return;
+			this.enabled = enabled;
+		}
+		if (!enabled)
+			settle();
+
+		for (final Consumer<Boolean> listener : listeners)
+			listener.accept(enabled);
+	}
+
+	public void toggle() {
+
+		setEnabled(!isEnabled());
+	}
+
+	/**
+	 * @param listener
+	 *            called with the new state when the adaptive mode is switched
+	 *            on or off
+	 */
+	public void addListener(final Consumer<Boolean> listener) {
+
+		listeners.add(listener);
+	}
+
+	public int getIdleMillis() {
+
+		return idleTimer.getInitialDelay();
+	}
+
+	/**
+	 * @param idleMillis
+	 *            how long the view must not change before it is rendered with
+	 *            the chosen interpolation
+	 */
+	public void setIdleMillis(final int idleMillis) {
+
+		idleTimer.setInitialDelay(Math.max(0, idleMillis));
+	}
+
+	/**
+	 * Shows a dialog to switch the adaptive mode and set the idle time.
+	 */
+	public void run() {
+
+		final GenericDialog gd = new GenericDialog("Adaptive interpolation");
+		gd.addCheckbox("Nearest_neighbor_while_moving", isEnabled());
+		gd.addNumericField("Idle_time", getIdleMillis(), 0, 6, "ms");
+		gd.showDialog();
+
+		if (gd.wasCanceled())
+			return;
+
+		final boolean enabled = gd.getNextBoolean();
+		setIdleMillis((int)gd.getNextNumber());
+		setEnabled(enabled);
+	}
+
+	/**
+	 * Switches to nearest neighbor interpolation when the viewer starts
+	 * moving and restarts the idle time.
+	 *
+	 * @param transform
+	 *            the new viewer transform
+	 */
+	public void transformChanged(final AffineTransform3D transform) {
+
+		synchronized (this) {
+			if (!enabled)
+				return;
+
+			if (!moving) {
+				moving = true;
+				interpolation = viewerPanel.state().getInterpolation();
+				if (interpolation != Interpolation.NEARESTNEIGHBOR)
+					setInterpolation(Interpolation.NEARESTNEIGHBOR);
+			}
+		}
+		idleTimer.restart();
+	}
+
+	/*
+	 * Keeps an interpolation the user chose while the viewer is moving, so
+	 * that settling does not undo it. Not synchronized on this because the
+	 * viewer state notifies while holding its own lock.
+	 */
+	private void interpolationChanged() {
+
+		if (moving && !switching)
+			interpolation = viewerPanel.state().getInterpolation();
+	}
+
+	private void setInterpolation(final Interpolation interpolation) {
+
+		switching = true;
+		try {
+			viewerPanel.state().setInterpolation(interpolation);
+		} finally {
+			switching = false;
+		}
+	}
+
+	/**
+	 * Restores the chosen interpolation, which renders the settled view
+	 * again.
+	 */
+	private void settle() {
+
+		idleTimer.stop();
+		synchronized (this) {
+			if (!moving)
+				return;
+
+			moving = false;
+			if (interpolation != viewerPanel.state().getInterpolation())
+				setInterpolation(interpolation);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.render;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * A scripted camera path, i.e. a sequence of viewer transforms.
+ *
+ * The text format has one row packed viewer transform per line
+ * <pre>
+ * m00,m01,m02,m03,m10,m11,m12,m13,m20,m21,m22,m23
+ * </pre>
+ * Lines starting with # are comments. The transforms map global coordinates
+ * to screen coordinates of a display of the size the path was made for.
+ */
+public class CameraPath {
+
+	private CameraPath() {}
+
+	public static AffineTransform3D parseTransform(final String transformString) {
+
+		final double[] values = Arrays.stream(transformString.split(","))
+				.map(String::trim)
+				.mapToDouble(Double::parseDouble)
+				.toArray();
+
+		if (values.length != 12)
+			throw new IllegalArgumentException("Expected 12 values, found " + values.length + ": " + transformString);
+
+		final AffineTransform3D transform = new AffineTransform3D();
+		transform.set(values);
+		return transform;
+	}
+
+	public static String formatTransform(final AffineTransform3D transform) {
+
+		return Arrays.stream(transform.getRowPackedCopy())
+				.mapToObj(Double::toString)
+				.collect(Collectors.joining(","));
+	}
+
+	public static List<AffineTransform3D> load(final String path) throws IOException {
+
+		final List<AffineTransform3D> transforms = new ArrayList<>();
+		try (final BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				++lineNumber;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+
+				try {
+					transforms.add(parseTransform(line));
+				} catch (final IllegalArgumentException e) {
+					throw new IOException("Invalid transform in line " + lineNumber + ": " + line, e);
+				}
+			}
+		}
+		return transforms;
+	}
+
+	public static void save(final List<AffineTransform3D> transforms, final String path) throws IOException {
+
+		try (final BufferedWriter writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+			for (final AffineTransform3D transform : transforms) {
+				writer.write(formatTransform(transform));
+				writer.newLine();
+			}
+		}
+	}
+}
@@ -0,0 +1,275 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.render;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import bdv.viewer.animate.SimilarityTransformAnimator;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Keyframes of a movie: viewer transforms and timepoints at given frames,
+ * for a display of a given size. The frames in between are interpolated
+ * like the viewer animates between bookmarks.
+ *
+ * The text format has the display size as properties and one keyframe per
+ * line
+ * <pre>
+ * # width=800
+ * # height=600
+ * frame timepoint m00,m01,m02,m03,m10,m11,m12,m13,m20,m21,m22,m23
+ * </pre>
+ */
+public class MovieKeyframes {
+
+	public static final String WIDTH_KEY = "width";
+	public static final String HEIGHT_KEY = "height";
+
+	/**
+	 * The viewer transform and timepoint of a frame.
+	 */
+	public static class Keyframe {
+
+		public final int frame;
+		public final int timepoint;
+		public final AffineTransform3D transform;
+
+		public Keyframe(final int frame, final int timepoint, final AffineTransform3D transform) {
+
+			this.frame = frame;
+			this.timepoint = timepoint;
+			this.transform = transform.copy();
+		}
+	}
+
+	private final int width;
+
+	private final int height;
+
+	private final List<Keyframe> keyframes = new ArrayList<>();
+
+	/**
+	 * @param width
+	 *            width of the display the viewer transforms are for
+	 * @param height
+	 *            height of the display the viewer transforms are for
+	 */
+	public MovieKeyframes(final int width, final int height) {
+
+		this.width = width;
+		this.height = height;
+	}
+
+	public int getWidth() {
+
+		return width;
+	}
+
+	public int getHeight() {
+
+		return height;
+	}
+
+	/**
+	 * Adds a keyframe, replacing an existing keyframe at the same frame.
+	 *
+	 * @param keyframe
+	 *            the keyframe
+	 */
+	public synchronized void add(final Keyframe keyframe) {
+
+		keyframes.removeIf(k -> k.frame == keyframe.frame);
+		keyframes.add(keyframe);
+		keyframes.sort(Comparator.comparingInt(k -> k.frame));
+	}
+
+	/**
+	 * Adds a keyframe the given number of frames after the last one, or at
+	 * frame 0 if this is the first.
+	 *
+	 * @param transform
+	 *            the viewer transform
+	 * @param timepoint
+	 *            the timepoint
+	 * @param numFrames
+	 *            frames from the last keyframe
+	 */
+	public synchronized void append(final AffineTransform3D transform, final int timepoint, final int numFrames) {
+
+		final int frame = keyframes.isEmpty() ? 0 : keyframes.get(keyframes.size() - 1).frame + numFrames;
+		add(new Keyframe(frame, timepoint, transform));
+	}
+
+	public synchronized void clear() {
+
+		keyframes.clear();
+	}
+
+	public synchronized List<Keyframe> getKeyframes() {
+
+		return Collections.unmodifiableList(new ArrayList<>(keyframes));
+	}
+
+	/**
+	 * @return the number of frames up to and including the last keyframe
+	 */
+	public synchronized int getNumFrames() {
+
+		return keyframes.isEmpty() ? 0 : keyframes.get(keyframes.size() - 1).frame + 1;
+	}
+
+	/**
+	 * Interpolates all frames from the first to the last keyframe. Viewer
+	 * transforms are interpolated as similarity transforms around the center
+	 * of the display and then scaled to the output size, timepoints are
+	 * interpolated linearly.
+	 *
+	 * @param outputWidth
+	 *            width of the rendered frames
+	 * @param outputHeight
+	 *            height of the rendered frames
+	 * @return one keyframe for each frame
+	 */
+	public synchronized List<Keyframe> interpolate(final int outputWidth, final int outputHeight) {
+
+		final List<Keyframe> frames = new ArrayList<>();
+		if (keyframes.isEmpty())
+			return frames;
+
+		final double scale = (double)outputWidth / width;
+		for (int i = 0; i + 1 < keyframes.size(); ++i) {
+			final Keyframe start = keyframes.get(i);
+			final Keyframe end = keyframes.get(i + 1);
+			final long duration = end.frame - start.frame;
+			final SimilarityTransformAnimator animator = new SimilarityTransformAnimator(
+					start.transform,
+					end.transform,
+					0.5 * width,
+					0.5 * height,
+					duration);
+
+			animator.getCurrent(0);
+			for (int f = 0; f < duration; ++f) {
+				final int timepoint = (int)Math.round(start.timepoint + (double)f / duration * (end.timepoint - start.timepoint));
+				frames.add(new Keyframe(
+						start.frame + f,
+						timepoint,
+						scale(animator.getCurrent(f), scale, outputWidth, outputHeight)));
+			}
+		}
+		final Keyframe last = keyframes.get(keyframes.size() - 1);
+		frames.add(new Keyframe(last.frame, last.timepoint, scale(last.transform, scale, outputWidth, outputHeight)));
+
+		return frames;
+	}
+
+	/**
+	 * Scales a viewer transform for the display around its center to an
+	 * output of another size.
+	 */
+	private AffineTransform3D scale(
+			final AffineTransform3D transform,
+			final double scale,
+			final int outputWidth,
+			final int outputHeight) {
+
+		final AffineTransform3D scaled = transform.copy();
+		scaled.set(scaled.get(0, 3) - 0.5 * width, 0, 3);
+		scaled.set(scaled.get(1, 3) - 0.5 * height, 1, 3);
+		scaled.scale(scale);
+		scaled.set(scaled.get(0, 3) + 0.5 * outputWidth, 0, 3);
+		scaled.set(scaled.get(1, 3) + 0.5 * outputHeight, 1, 3);
+		return scaled;
+	}
+
+	public synchronized void save(final String path) throws IOException {
+
+		try (final BufferedWriter writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+			writer.write("# " + WIDTH_KEY + "=" + width);
+			writer.newLine();
+			writer.write("# " + HEIGHT_KEY + "=" + height);
+			writer.newLine();
+			for (final Keyframe keyframe : keyframes) {
+				writer.write(keyframe.frame + " " + keyframe.timepoint + " " + CameraPath.formatTransform(keyframe.transform));
+				writer.newLine();
+			}
+		}
+	}
+
+	public static MovieKeyframes load(final String path) throws IOException {
+
+		int width = -1;
+		int height = -1;
+		final List<Keyframe> keyframes = new ArrayList<>();
+		try (final BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				++lineNumber;
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+
+				try {
+					if (line.startsWith("#")) {
+						final int eq = line.indexOf('=');
+						if (eq > 0) {
+							final String key = line.substring(1, eq).trim();
+							if (key.equals(WIDTH_KEY))
+								width = Integer.parseInt(line.substring(eq + 1).trim());
+							else if (key.equals(HEIGHT_KEY))
+								height = Integer.parseInt(line.substring(eq + 1).trim());
+						}
+						continue;
+					}
+
+					final String[] fields = line.split("\\s+", 3);
+					if (fields.length != 3)
+						throw new IOException("Invalid keyframe in line " + lineNumber + ": " + line);
+
+					keyframes.add(new Keyframe(
+							Integer.parseInt(fields[0]),
+							Integer.parseInt(fields[1]),
+							CameraPath.parseTransform(fields[2])));
+				} catch (final IllegalArgumentException e) {
+					throw new IOException("Invalid keyframe in line " + lineNumber + ": " + line, e);
+				}
+			}
+		}
+
+		if (width <= 0 || height <= 0)
+			throw new IOException("Missing display size in " + path);
+
+		final MovieKeyframes movieKeyframes = new MovieKeyframes(width, height);
+		keyframes.forEach(movieKeyframes::add);
+		return movieKeyframes;
+	}
+}
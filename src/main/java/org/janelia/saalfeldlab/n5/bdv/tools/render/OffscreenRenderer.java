@@ -0,0 +1,371 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.render;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.util.ArrayList;
+import java.util.List;
+
+import bdv.cache.CacheControl;
+import bdv.viewer.BasicViewerState;
+import bdv.viewer.DisplayMode;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.ViewerState;
+import bdv.viewer.render.AccumulateProjectorARGB;
+import bdv.viewer.render.MultiResolutionRenderer;
+import bdv.viewer.render.RenderTarget;
+import bdv.viewer.render.awt.BufferedImageRenderResult;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Renders sources, e.g. those built by
+ * {@link org.janelia.saalfeldlab.n5.bdv.N5Viewer#buildN5Sources}, into an
+ * image without a viewer window, so that it works on headless machines.
+ *
+ * Like the viewer, frames are rendered from volatile sources and repainted
+ * until all visible blocks are loaded, or until a deadline has passed.
+ * Blocks are loaded by the fetcher threads of the sources' shared queue.
+ * Given the queue as {@link CacheControl}, e.g. an
+ * {@link org.janelia.saalfeldlab.n5.bdv.statistics.InstrumentedSharedQueue},
+ * each new frame prepares the queue like a new frame of the viewer, so that
+ * fetches for frames that are done can be cancelled.
+ */
+public class OffscreenRenderer implements AutoCloseable {
+
+	/**
+	 * Interval between passes while blocks are loading.
+	 */
+	private static final long POLL_MILLIS = 2;
+
+	/**
+	 * Deadline to wait until all visible blocks are loaded, however long it
+	 * takes.
+	 */
+	public static final long NO_DEADLINE = -1;
+
+	/**
+	 * A rendered frame and how long it took.
+	 */
+	public static class Frame {
+
+		private final BufferedImage image;
+
+		private final boolean valid;
+
+		private final int passes;
+
+		private final long firstPassNanos;
+
+		private final long totalNanos;
+
+		Frame(final BufferedImage image, final boolean valid, final int passes, final long firstPassNanos, final long totalNanos) {
+
+			this.image = image;
+			this.valid = valid;
+			this.passes = passes;
+			this.firstPassNanos = firstPassNanos;
+			this.totalNanos = totalNanos;
+		}
+
+		/**
+		 * @return a copy of the last rendered image
+		 */
+		public BufferedImage getImage() {
+
+			return image;
+		}
+
+		/**
+		 * @return whether all visible blocks were loaded before the deadline
+		 */
+		public boolean isValid() {
+
+			return valid;
+		}
+
+		/**
+		 * @return the number of render passes
+		 */
+		public int getPasses() {
+
+			return passes;
+		}
+
+		/**
+		 * @return the time of the first render pass in nanoseconds
+		 */
+		public long getFirstPassNanos() {
+
+			return firstPassNanos;
+		}
+
+		/**
+		 * @return the time until the frame was valid, or until the deadline,
+		 *         in nanoseconds
+		 */
+		public long getTotalNanos() {
+
+			return totalNanos;
+		}
+	}
+
+	private class Target implements RenderTarget<BufferedImageRenderResult> {
+
+		private final BufferedImageRenderResult renderResult = new BufferedImageRenderResult();
+
+		@Override
+		public BufferedImageRenderResult getReusableRenderResult() {
+
+			return renderResult;
+		}
+
+		@Override
+		public BufferedImageRenderResult createRenderResult() {
+
+			return new BufferedImageRenderResult();
+		}
+
+		@Override
+		public void setRenderResult(final BufferedImageRenderResult renderResult) {}
+
+		@Override
+		public int getWidth() {
+
+			return width;
+		}
+
+		@Override
+		public int getHeight() {
+
+			return height;
+		}
+	}
+
+	private final int width;
+
+	private final int height;
+
+	private final BasicViewerState state = new BasicViewerState();
+
+	private final Target target = new Target();
+
+	private final MultiResolutionRenderer renderer;
+
+	private volatile boolean repaintRequested = false;
+
+	/**
+	 * A renderer that never cancels fetches.
+	 *
+	 * @param sources
+	 *            the sources, all of them are visible
+	 * @param numTimepoints
+	 *            the number of timepoints
+	 * @param width
+	 *            width of the rendered images
+	 * @param height
+	 *            height of the rendered images
+	 * @param numRenderingThreads
+	 *            the number of rendering threads
+	 */
+	public OffscreenRenderer(
+			final List<? extends SourceAndConverter<?>> sources,
+			final int numTimepoints,
+			final int width,
+			final int height,
+			final int numRenderingThreads) {
+
+		this(sources, numTimepoints, width, height, numRenderingThreads, new CacheControl.Dummy());
+	}
+
+	/**
+	 * @param sources
+	 *            the sources, all of them are visible
+	 * @param numTimepoints
+	 *            the number of timepoints
+	 * @param width
+	 *            width of the rendered images
+	 * @param height
+	 *            height of the rendered images
+	 * @param numRenderingThreads
+	 *            the number of rendering threads
+	 * @param cacheControl
+	 *            prepared before each new frame, usually the shared queue of
+	 *            the sources
+	 */
+	public OffscreenRenderer(
+			final List<? extends SourceAndConverter<?>> sources,
+			final int numTimepoints,
+			final int width,
+			final int height,
+			final int numRenderingThreads,
+			final CacheControl cacheControl) {
+
+		this.width = width;
+		this.height = height;
+
+		state.addSources(sources);
+		state.setSourcesActive(sources, true);
+		state.setDisplayMode(DisplayMode.FUSED);
+		state.setNumTimepoints(numTimepoints);
+
+		renderer = new MultiResolutionRenderer(
+				target,
+				() -> repaintRequested = true,
+				new double[]{1},
+				0,
+				numRenderingThreads,
+				null,
+				true,
+				AccumulateProjectorARGB.factory,
+				cacheControl);
+	}
+
+	/**
+	 * The state that is rendered, e.g. to change the interpolation or the
+	 * visible sources.
+	 *
+	 * @return the state
+	 */
+	public ViewerState state() {
+
+		return state;
+	}
+
+	public int getWidth() {
+
+		return width;
+	}
+
+	public int getHeight() {
+
+		return height;
+	}
+
+	/**
+	 * Renders one frame and repaints it until all visible blocks are loaded
+	 * or the deadline has passed.
+	 *
+	 * @param viewerTransform
+	 *            the viewer transform
+	 * @param timepoint
+	 *            the timepoint
+	 * @param deadlineMillis
+	 *            the maximum time to wait for blocks, in milliseconds, or
+	 *            {@link #NO_DEADLINE}
+	 * @return the frame
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for blocks
+	 */
+	public synchronized Frame render(
+			final AffineTransform3D viewerTransform,
+			final int timepoint,
+			final long deadlineMillis) throws InterruptedException {
+
+		state.setViewerTransform(viewerTransform);
+		state.setCurrentTimepoint(timepoint);
+
+		final long start = System.nanoTime();
+		final long deadline = deadlineMillis == NO_DEADLINE ? Long.MAX_VALUE : start + deadlineMillis * 1000000;
+		long firstPass = -1;
+		int passes = 0;
+		boolean valid = false;
+
+		repaintRequested = false;
+		renderer.requestRepaint();
+		while (true) {
+			repaintRequested = false;
+			final boolean success = renderer.paint(state);
+			++passes;
+			if (firstPass < 0)
+				firstPass = System.nanoTime() - start;
+
+			/* the renderer requests a repaint as long as blocks are missing */
+			if (!repaintRequested) {
+				valid = success;
+				break;
+			}
+			if (deadline != Long.MAX_VALUE && System.nanoTime() >= deadline)
+				break;
+
+			Thread.sleep(POLL_MILLIS);
+		}
+		final long total = System.nanoTime() - start;
+
+		return new Frame(copy(target.renderResult.getBufferedImage()), valid, passes, firstPass, total);
+	}
+
+	/**
+	 * Renders one pass of a frame without waiting, so that the blocks it
+	 * needs are queued for loading.
+	 *
+	 * @param viewerTransform
+	 *            the viewer transform
+	 * @param timepoint
+	 *            the timepoint
+	 */
+	public synchronized void prefetch(final AffineTransform3D viewerTransform, final int timepoint) {
+
+		state.setViewerTransform(viewerTransform);
+		state.setCurrentTimepoint(timepoint);
+		renderer.requestRepaint();
+		renderer.paint(state);
+	}
+
+	/**
+	 * Renders a frame for each viewer transform of a camera path.
+	 *
+	 * @param path
+	 *            the viewer transforms
+	 * @param timepoint
+	 *            the timepoint
+	 * @param deadlineMillis
+	 *            the maximum time to wait for blocks of each frame, in
+	 *            milliseconds, or {@link #NO_DEADLINE}
+	 * @return the frames
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for blocks
+	 */
+	public List<Frame> render(
+			final List<AffineTransform3D> path,
+			final int timepoint,
+			final long deadlineMillis) throws InterruptedException {
+
+		final List<Frame> frames = new ArrayList<>();
+		for (final AffineTransform3D viewerTransform : path)
+			frames.add(render(viewerTransform, timepoint, deadlineMillis));
+
+		return frames;
+	}
+
+	private static BufferedImage copy(final BufferedImage image) {
+
+		final ColorModel cm = image.getColorModel();
+		return new BufferedImage(cm, image.copyData(null), cm.isAlphaPremultiplied(), null);
+	}
+
+	@Override
+	public void close() {
+
+		renderer.kill();
+	}
+}
@@ -0,0 +1,172 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv.tools.render;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.janelia.saalfeldlab.n5.bdv.N5Viewer;
+import org.janelia.saalfeldlab.n5.bdv.statistics.InstrumentedSharedQueue;
+import org.janelia.saalfeldlab.n5.bdv.statistics.ViewerStatistics;
+import org.janelia.saalfeldlab.n5.bdv.tools.benchmark.CountingN5Reader;
+
+import bdv.tools.brightness.ConverterSetup;
+import bdv.util.BdvOptions;
+import bdv.viewer.Interpolation;
+import bdv.viewer.SourceAndConverter;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Renders a {@link CameraPath} through N5 datasets with an
+ * {@link OffscreenRenderer}, without a display. Reports the time of the
+ * first render pass and the time to a valid frame for each frame, and
+ * optionally writes the frames as PNG images.
+ */
+public class RenderCameraPath {
+
+	public static void main(final String... args) throws Exception {
+
+		if (System.getProperty("java.awt.headless") == null)
+			System.setProperty("java.awt.headless", "true");
+
+		final Map<String, String> params = new HashMap<>();
+		params.put("width", "800");
+		params.put("height", "600");
+		params.put("timepoint", "0");
+		params.put("deadline", "10000");
+		params.put("interpolation", "nearest");
+		params.put("fetchers", Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+		params.put("renderers", Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors())));
+		for (int i = 0; i + 1 < args.length; i += 2)
+			params.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+
+		if (!params.containsKey("uri") || !params.containsKey("path")) {
+			System.err.println("Usage: RenderCameraPath --uri <container?dataset>[,<container?dataset>...] --path <path.txt>");
+			System.err.println("    [--width 800] [--height 600] [--timepoint 0] [--deadline 10000] [--interpolation nearest|linear]");
+			System.err.println("    [--fetchers n] [--renderers n] [--output <directory>] [--report <report.csv>]");
+			System.exit(1);
+		}
+
+		final List<AffineTransform3D> path = CameraPath.load(params.get("path"));
+		final long deadlineMillis = Long.parseLong(params.get("deadline"));
+		final int timepoint = Integer.parseInt(params.get("timepoint"));
+
+		final List<CountingN5Reader> readers = new ArrayList<>();
+		final List<ConverterSetup> converterSetups = new ArrayList<>();
+		final List<SourceAndConverter> sources = new ArrayList<>();
+		final InstrumentedSharedQueue sharedQueue = new ViewerStatistics(Integer.parseInt(params.get("fetchers"))).getSharedQueue();
+		final int numTimepoints = N5Viewer.buildN5Sources(
+				params.get("uri").split(","),
+				n5 -> {
+					final CountingN5Reader reader = new CountingN5Reader(n5);
+					readers.add(reader);
+					return reader;
+				},
+				sharedQueue,
+				converterSetups,
+				(List)sources,
+				BdvOptions.options());
+
+		if (sources.isEmpty()) {
+			System.err.println("Could not open " + params.get("uri"));
+			System.exit(1);
+		}
+
+		final File output = params.containsKey("output") ? new File(params.get("output")) : null;
+		if (output != null)
+			output.mkdirs();
+
+		final PrintWriter report = params.containsKey("report")
+				? new PrintWriter(Files.newBufferedWriter(Paths.get(params.get("report")), StandardCharsets.UTF_8))
+				: null;
+		if (report != null)
+			report.println("frame,valid,passes,first_pass_ms,total_ms,blocks,bytes");
+
+		int numValid = 0;
+		double totalMillis = 0;
+		try (final OffscreenRenderer renderer = new OffscreenRenderer(
+				(List)sources,
+				numTimepoints,
+				Integer.parseInt(params.get("width")),
+				Integer.parseInt(params.get("height")),
+				Integer.parseInt(params.get("renderers")),
+				sharedQueue)) {
+
+			renderer.state().setInterpolation(
+					params.get("interpolation").equals("linear") ? Interpolation.NLINEAR : Interpolation.NEARESTNEIGHBOR);
+
+			for (int i = 0; i < path.size(); ++i) {
+				readers.forEach(CountingN5Reader::reset);
+				final OffscreenRenderer.Frame frame = renderer.render(path.get(i), timepoint, deadlineMillis);
+				final long blocks = readers.stream().mapToLong(CountingN5Reader::getBlocksRead).sum();
+				final long bytes = readers.stream().mapToLong(CountingN5Reader::getBytesRead).sum();
+
+				if (frame.isValid())
+					++numValid;
+				totalMillis += frame.getTotalNanos() / 1e6;
+
+				System.out.println(String.format(Locale.ROOT, "frame %5d : %s  passes %3d  first pass %8.1f ms  total %8.1f ms  blocks %6d",
+						i,
+						frame.isValid() ? "valid  " : "timeout",
+						frame.getPasses(),
+						frame.getFirstPassNanos() / 1e6,
+						frame.getTotalNanos() / 1e6,
+						blocks));
+
+				if (report != null)
+					report.println(String.format(Locale.ROOT, "%d,%b,%d,%.2f,%.2f,%d,%d",
+							i,
+							frame.isValid(),
+							frame.getPasses(),
+							frame.getFirstPassNanos() / 1e6,
+							frame.getTotalNanos() / 1e6,
+							blocks,
+							bytes));
+
+				if (output != null) {
+					try {
+						ImageIO.write(frame.getImage(), "png", new File(output, String.format("frame-%05d.png", i)));
+					} catch (final IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		} finally {
+			if (report != null)
+				report.close();
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%d of %d frames valid, %.1f s total", numValid, path.size(), totalMillis / 1e3));
+		System.exit(0);
+	}
+}
@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToLongFunction;
+
+import org.janelia.saalfeldlab.n5.bdv.statistics.AdaptiveConcurrencyLimiter;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+	private static final int MAX_LIMIT = 32;
+
+	private static final long DURATION_NANOS = 3000000000L;
+
+	/* one 32^3 uint16 block */
+	private static final long BLOCK_BYTES = 32 * 32 * 32 * 2;
+
+	/**
+	 * Simulates reads for a while: as many reads as the limiter allows start
+	 * together, take {@code latency} of their number and finish together.
+	 * Time is only advanced by the simulation.
+	 */
+	private static void simulate(final AdaptiveConcurrencyLimiter limiter, final long[] clock, final IntToLongFunction latency) {
+
+		final long end = clock[0] + DURATION_NANOS;
+		while (clock[0] < end) {
+			final int numReads = limiter.getLimit();
+			for (int i = 0; i < numReads; ++i)
+				assertTrue(limiter.tryAcquire(() -> {}));
+
+			final long nanos = latency.applyAsLong(numReads);
+			clock[0] += nanos;
+			for (int i = 0; i < numReads; ++i)
+				limiter.release(nanos, BLOCK_BYTES, true);
+		}
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void testHighLatencyIncreasesLimit() {
+
+		final long[] clock = {0};
+		final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("latency", 2, MAX_LIMIT, () -> clock[0]);
+
+		/* 20 ms per read, independent of the number of concurrent reads */
+		simulate(limiter, clock, numReads -> 20000000L);
+
+		assertTrue("limit " + limiter.getLimit(), limiter.getLimit() > 4);
+		assertTrue(limiter.getIncreases() > 0);
+	}
+
+	@Test
+	public void testLimitedBandwidthDecreasesLimit() {
+
+		final long[] clock = {0};
+		final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("bandwidth", 8, MAX_LIMIT, () -> clock[0]);
+
+		/* 1 ms per read plus concurrent reads sharing 20 MB/s */
+		simulate(limiter, clock, numReads -> 1000000L + (long)(numReads * BLOCK_BYTES / 20e6 * 1e9));
+
+		assertTrue("limit " + limiter.getLimit(), limiter.getLimit() <= 4);
+		assertTrue(limiter.getDecreases() > 0);
+	}
+
+	@Test
+	public void testFailedReadDecreasesLimit() {
+
+		final long[] clock = {0};
+		final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("failure", 8, MAX_LIMIT, () -> clock[0]);
+		assertTrue(limiter.tryAcquire(() -> {}));
+		limiter.release(1000, 0, false);
+
+		assertEquals(6, limiter.getLimit());
+		assertEquals(1, limiter.getDecreases());
+	}
+
+	@Test
+	public void testTryAcquireDefers() {
+
+		final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("defer", 1, 1);
+		final AtomicInteger retries = new AtomicInteger();
+		assertTrue(limiter.tryAcquire(retries::incrementAndGet));
+		assertFalse(limiter.tryAcquire(retries::incrementAndGet));
+		assertEquals(0, retries.get());
+
+		limiter.release(1000, 1, true);
+		assertEquals(1, retries.get());
+		assertEquals(0, limiter.getInFlight());
+	}
+}
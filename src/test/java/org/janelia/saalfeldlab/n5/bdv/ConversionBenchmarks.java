@@ -0,0 +1,279 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.bdv.tools.boundingbox.BoxCrop;
+import org.janelia.saalfeldlab.n5.imglib2.N5LabelMultisets;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+import org.janelia.saalfeldlab.n5.universe.metadata.axes.AxisUtils;
+import org.janelia.saalfeldlab.n5.universe.metadata.axes.DefaultAxisMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.viewer.Source;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.converter.Converter;
+import net.imglib2.converter.Converters;
+import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.label.FromIntegerTypeConverter;
+import net.imglib2.type.label.LabelMultisetType;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+/**
+ * Benchmarks of the conversions and views the viewer puts between stored
+ * data and rendering or export: LabelMultiset to label conversion, access
+ * through the ImageJ axis permutation, copying box crops, and conversion to
+ * ARGB for display.
+ *
+ * Run with {@code mvn -Pbenchmark test}, results are written to
+ * {@code target/jmh-<version>.json}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmarks {
+
+	@State(Scope.Benchmark)
+	public static class LabelMultisetState {
+
+		File container;
+
+		N5Writer n5;
+
+		CachedCellImg<LabelMultisetType, ?> labels;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+
+			container = new File(N5ViewerBenchmarks.tempDirectory("n5-viewer-benchmark-"), "labels.n5");
+			n5 = new N5Factory().openWriter(container.getAbsolutePath());
+
+			/* blobs of 8^3 voxels with random ids */
+			final Random random = new Random(0);
+			final ArrayImg<UnsignedLongType, LongArray> ids = ArrayImgs.unsignedLongs(128, 128, 128);
+			final long[] blobIds = random.longs(16 * 16 * 16, 1, 1000).toArray();
+			final long[] position = new long[3];
+			final Cursor<UnsignedLongType> c = ids.localizingCursor();
+			while (c.hasNext()) {
+				c.fwd();
+				c.localize(position);
+				c.get().set(blobIds[(int)((position[2] / 8 * 16 + position[1] / 8) * 16 + position[0] / 8)]);
+			}
+
+			final RandomAccessibleInterval<LabelMultisetType> multisets = Converters.convert(
+					(RandomAccessibleInterval<UnsignedLongType>)ids,
+					new FromIntegerTypeConverter<>(),
+					FromIntegerTypeConverter.getAppropriateType());
+			N5LabelMultisets.saveLabelMultiset(multisets, n5, "labels", new int[]{32, 32, 32}, new GzipCompression());
+			labels = N5LabelMultisets.openLabelMultiset(n5, "labels");
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+
+			n5.remove();
+			n5.close();
+		}
+	}
+
+	private static long sum(final RandomAccessibleInterval<UnsignedLongType> img) {
+
+		long sum = 0;
+		for (final UnsignedLongType t : Views.flatIterable(img))
+			sum += t.get();
+
+		return sum;
+	}
+
+	@Benchmark
+	public long labelMultisetCache(final LabelMultisetState state) {
+
+		return sum(N5Viewer.convertLabelMultisetCache(state.labels));
+	}
+
+	@Benchmark
+	public long labelMultisetLazy(final LabelMultisetState state) {
+
+		return sum(N5Viewer.convertLabelMultisetLazy(state.labels));
+	}
+
+	@State(Scope.Benchmark)
+	public static class PermutationState {
+
+		/* axis order of the stored data, ImageJ order is xyczt */
+		@Param({"xyczt", "tzcyx", "ctzxy"})
+		public String axes;
+
+		RandomAccessibleInterval<UnsignedShortType> permuted;
+
+		@Setup(Level.Trial)
+		public void setup() {
+
+			final String imageJOrder = "xyczt";
+			final int[] p = new int[5];
+			for (int i = 0; i < 5; ++i)
+				p[i] = imageJOrder.indexOf(axes.charAt(i));
+
+			final long[] dims = new long[5];
+			final long[] imageJDims = {256, 256, 2, 32, 2};
+			for (int i = 0; i < 5; ++i)
+				dims[i] = imageJDims[p[i]];
+
+			final ArrayImg<UnsignedShortType, ShortArray> img = ArrayImgs.unsignedShorts(dims);
+			final Random random = new Random(0);
+			for (final UnsignedShortType t : img)
+				t.set(random.nextInt(65536));
+
+			final String[] labels = axes.split("");
+			final DefaultAxisMetadata meta = new DefaultAxisMetadata(
+					"benchmark",
+					labels,
+					AxisUtils.getDefaultTypes(labels),
+					Stream.generate(() -> "pixel").limit(5).toArray(String[]::new));
+			permuted = N5Viewer.permuteForImagePlus(img, new AffineTransform3D(), meta);
+		}
+	}
+
+	@Benchmark
+	public long permutedAccess(final PermutationState state) {
+
+		long sum = 0;
+		for (final UnsignedShortType t : Views.flatIterable(state.permuted))
+			sum += t.get();
+
+		return sum;
+	}
+
+	@State(Scope.Benchmark)
+	public static class CropState {
+
+		/* the crop is inside the source, or half of it is outside */
+		@Param({"inside", "border"})
+		public String position;
+
+		Source<UnsignedShortType> source;
+
+		Interval interval;
+
+		ArrayImg<UnsignedShortType, ShortArray> target;
+
+		@Setup(Level.Trial)
+		public void setup() {
+
+			final ArrayImg<UnsignedShortType, ShortArray> img = ArrayImgs.unsignedShorts(512, 512, 128);
+			final Random random = new Random(0);
+			for (final UnsignedShortType t : img)
+				t.set(random.nextInt(65536));
+
+			source = new RandomAccessibleIntervalSource<>(img, new UnsignedShortType(), "benchmark");
+			final long offset = "inside".equals(position) ? 128 : 384;
+			interval = FinalInterval.createMinSize(offset, offset, 32, 256, 256, 64);
+			target = ArrayImgs.unsignedShorts(256, 256, 64);
+		}
+	}
+
+	@Benchmark
+	public ArrayImg<UnsignedShortType, ShortArray> cropCopy(final CropState state) {
+
+		final RandomAccessibleInterval<UnsignedShortType> crop = Views.zeroMin(BoxCrop.crop(state.source, state.interval, 0, 0));
+		LoopBuilder.setImages(crop, state.target).forEachPixel((a, b) -> b.set(a));
+		return state.target;
+	}
+
+	@State(Scope.Benchmark)
+	public static class ConverterState {
+
+		/* BigDataViewer's converter or the lookup table */
+		@Param({"real", "lut"})
+		public String converter;
+
+		ArrayImg<UnsignedShortType, ShortArray> img;
+
+		Converter<UnsignedShortType, ARGBType> argb;
+
+		@Setup(Level.Trial)
+		public void setup() {
+
+			img = ArrayImgs.unsignedShorts(512, 512, 16);
+			final Random random = new Random(0);
+			for (final UnsignedShortType t : img)
+				t.set(random.nextInt(4096));
+
+			if ("lut".equals(converter)) {
+				final LutARGBConverter<UnsignedShortType> lut = new LutARGBConverter.UnsignedShort(100, 3000);
+				lut.setColor(new ARGBType(0xff00ff80));
+				argb = lut;
+			} else {
+				final RealARGBColorConverter<UnsignedShortType> real = RealARGBColorConverter.create(new UnsignedShortType(), 100, 3000);
+				real.setColor(new ARGBType(0xff00ff80));
+				argb = real;
+			}
+		}
+	}
+
+	@Benchmark
+	public long convertToARGB(final ConverterState state) {
+
+		final ARGBType argb = new ARGBType();
+		long sum = 0;
+		for (final UnsignedShortType t : state.img) {
+			state.argb.convert(t, argb);
+			sum += argb.get();
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.bdv.statistics.BlockLoadStatistics;
+import org.janelia.saalfeldlab.n5.bdv.statistics.ViewerStatistics;
+import org.janelia.saalfeldlab.n5.bdv.tools.boundingbox.CropCostEstimator;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.Test;
+
+import bdv.util.RandomAccessibleIntervalSource;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+public class CropCostEstimatorTest {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testEstimateThroughViewerReader() throws IOException, InterruptedException {
+
+		final ArrayImg<UnsignedShortType, ShortArray> img = ArrayImgs.unsignedShorts(64, 64, 64);
+		int i = 0;
+		for (final UnsignedShortType t : img)
+			t.set(i++ % 100);
+
+		final String path = Files.createTempDirectory("crop-cost-estimator").toString();
+		try (final N5FSWriter writer = new N5FSWriter(path)) {
+			N5Utils.save(img, writer, "s0", new int[]{32, 32, 32}, new GzipCompression());
+
+			// the viewer reads through a limited reader
+			final ViewerStatistics statistics = new ViewerStatistics(1);
+			final N5Reader n5 = statistics.limitConcurrency(writer);
+			final BlockLoadStatistics blockLoads = statistics.addBlockLoadStatistics("test", 0, "s0");
+			final RandomAccessibleInterval<UnsignedShortType> loaded =
+					(RandomAccessibleInterval<UnsignedShortType>)N5Viewer.loadImage(n5, "s0", blockLoads);
+			final RandomAccessibleIntervalSource<UnsignedShortType> source =
+					new RandomAccessibleIntervalSource<>(loaded, new UnsignedShortType(), "test");
+
+			final AtomicReference<CropCostEstimator.Estimate> sampled = new AtomicReference<>();
+			final CountDownLatch done = new CountDownLatch(1);
+			try (final CropCostEstimator estimator = new CropCostEstimator()) {
+				estimator.estimate(source, 0, new FinalInterval(new long[]{0, 0, 0}, new long[]{63, 63, 63}), 1, estimate -> {
+					if (estimate != null && estimate.numSamples > 0) {
+						sampled.set(estimate);
+						done.countDown();
+					}
+				});
+				assertTrue(done.await(10, TimeUnit.SECONDS));
+			}
+
+			final CropCostEstimator.Estimate estimate = sampled.get();
+			assertEquals(8, estimate.numBlocks);
+			assertTrue(estimate.compressedSizeKnown);
+			assertTrue(estimate.compressedBytes > 0);
+			assertTrue(estimate.compressedBytes < 64 * 64 * 64 * 2);
+			assertTrue(estimate.seconds >= 0);
+
+			// sampling does not go through the viewer's limiter
+			assertEquals(0, statistics.getIoStage().getTimes().getCount());
+			assertEquals(0, blockLoads.getCacheMisses());
+			writer.remove();
+		}
+	}
+}
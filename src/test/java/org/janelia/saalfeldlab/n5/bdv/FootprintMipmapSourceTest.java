@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.janelia.saalfeldlab.n5.bdv.tools.benchmark.SyntheticN5Reader;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bdv.cache.SharedQueue;
+import bdv.tools.brightness.ConverterSetup;
+import bdv.util.BdvOptions;
+import bdv.util.MipmapTransforms;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import net.imglib2.realtransform.AffineTransform3D;
+
+public class FootprintMipmapSourceTest {
+
+	/* 4x4x40 nm, downsampled in x and y only for the first levels */
+	private static final String URI = "synthetic:dimensions=4096,4096,256&blockSize=64&resolution=4,4,40&dataType=uint8&scales=6";
+
+	private static final int SCREEN_SIZE = 512;
+
+	private static final int BLOCK_BYTES = 64 * 64 * 64;
+
+	private static Source<?> source;
+
+	@BeforeClass
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static void setup() {
+
+		final List<ConverterSetup> converterSetups = new ArrayList<>();
+		final List<SourceAndConverter> sources = new ArrayList<>();
+		N5Viewer.buildN5Sources(
+				new String[]{URI},
+				new SharedQueue(1),
+				converterSetups,
+				(List)sources,
+				BdvOptions.options());
+
+		source = sources.get(0).getSpimSource();
+	}
+
+	/**
+	 * @param pixelSize
+	 *            screen pixel size in nm
+	 * @param xz
+	 *            whether to slice through xz instead of xy
+	 * @return the viewer transform
+	 */
+	private static AffineTransform3D viewerTransform(final double pixelSize, final boolean xz) {
+
+		final double s = 1.0 / pixelSize;
+		final AffineTransform3D transform = new AffineTransform3D();
+		if (xz)
+			transform.set(
+					s, 0, 0, 0,
+					0, 0, s, 0,
+					0, -s, 0, 2048 * 4 * s);
+		else
+			transform.set(
+					s, 0, 0, 0,
+					0, s, 0, 0,
+					0, 0, s, -128 * 40 * s);
+		return transform;
+	}
+
+	/**
+	 * Counts the blocks of a mipmap level that a frame touches.
+	 *
+	 * @return bytes loaded for the frame
+	 */
+	private static long bytesPerFrame(final AffineTransform3D viewerTransform, final int level) {
+
+		final AffineTransform3D sourceToScreen = new AffineTransform3D();
+		source.getSourceTransform(0, level, sourceToScreen);
+		sourceToScreen.preConcatenate(viewerTransform);
+
+		final long[] dimensions = source.getSource(0, level).dimensionsAsLongArray();
+		final double[] screen = new double[3];
+		final double[] voxel = new double[3];
+		final Set<List<Long>> blocks = new HashSet<>();
+		for (int y = 0; y < SCREEN_SIZE; ++y) {
+			for (int x = 0; x < SCREEN_SIZE; ++x) {
+				screen[0] = x;
+				screen[1] = y;
+				sourceToScreen.applyInverse(voxel, screen);
+				final List<Long> block = new ArrayList<>();
+				for (int d = 0; d < 3; ++d) {
+					final long p = Math.round(voxel[d]);
+					if (p < 0 || p >= dimensions[d])
+						break;
+					block.add(p / 64);
+				}
+				if (block.size() == 3)
+					blocks.add(block);
+			}
+		}
+		return (long)blocks.size() * BLOCK_BYTES;
+	}
+
+	private static int assertLevel(final double pixelSize, final boolean xz, final int expected) {
+
+		final AffineTransform3D viewerTransform = viewerTransform(pixelSize, xz);
+		final int footprintLevel = FootprintMipmapSource.getBestMipMapLevel(viewerTransform, source, 0);
+		assertEquals(expected, footprintLevel);
+
+		/* the depth axis does not make xy views load finer levels */
+		if (!xz) {
+			final int defaultLevel = MipmapTransforms.getBestMipMapLevel(viewerTransform, source, 0);
+			assertTrue(bytesPerFrame(viewerTransform, footprintLevel) <= bytesPerFrame(viewerTransform, defaultLevel));
+		}
+
+		/* no axis is undersampled */
+		final double[] finest = FootprintMipmapSource.getVoxelScreenFootprint(viewerTransform, source, 0, 0);
+		final double[] footprint = FootprintMipmapSource.getVoxelScreenFootprint(viewerTransform, source, 0, footprintLevel);
+		for (int d = 0; d < 3; ++d)
+			assertTrue(footprint[d] <= Math.max(1, finest[d]) * 1.01);
+
+		return footprintLevel;
+	}
+
+	@Test
+	public void testPyramid() {
+
+		final SyntheticN5Reader n5 = (SyntheticN5Reader)SyntheticN5Reader.open(URI);
+		assertEquals(6, n5.getNumScales());
+		assertArrayEquals(new long[]{8, 8, 1}, n5.getDownsamplingFactors(3));
+		assertArrayEquals(new long[]{16, 16, 2}, n5.getDownsamplingFactors(4));
+		assertEquals(6, source.getNumMipmapLevels());
+	}
+
+	@Test
+	public void testXY() {
+
+		assertLevel(4, false, 0);
+		assertLevel(16, false, 2);
+		assertLevel(64, false, 4);
+	}
+
+	@Test
+	public void testXZ() {
+
+		assertLevel(4, true, 0);
+		assertLevel(16, true, 2);
+		assertLevel(32, true, 3);
+		assertLevel(80, true, 4);
+	}
+}
@@ -0,0 +1,57 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import static org.junit.Assert.assertEquals;
+
+import org.janelia.saalfeldlab.n5.bdv.labels.FragmentSegmentLut;
+import org.junit.Test;
+
+public class FragmentSegmentLutTest {
+
+	@Test
+	public void testMap() {
+
+		final FragmentSegmentLut lut = FragmentSegmentLut.of(
+				new long[]{1, 2, 5, 7, -1},
+				new long[]{10, 10, 20, 20, 30});
+
+		assertEquals(5, lut.size());
+		assertEquals(0, lut.map(0));
+		assertEquals(10, lut.map(1));
+		assertEquals(10, lut.map(2));
+		assertEquals(3, lut.map(3));
+		assertEquals(20, lut.map(5));
+		assertEquals(20, lut.map(7));
+		assertEquals(30, lut.map(-1));
+
+		/* cached lookups */
+		for (long i = 0; i < 10000; ++i)
+			assertEquals(i == 1 || i == 2 ? 10 : i == 5 || i == 7 ? 20 : i, lut.map(i));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsorted() {
+
+		FragmentSegmentLut.of(new long[]{2, 1}, new long[]{1, 1});
+	}
+}
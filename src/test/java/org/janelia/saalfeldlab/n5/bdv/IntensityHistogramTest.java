@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.janelia.saalfeldlab.n5.bdv.tools.contrast.IntensityHistogram;
+import org.junit.Test;
+
+public class IntensityHistogramTest {
+
+	@Test
+	public void testQuantiles() {
+
+		final IntensityHistogram histogram = new IntensityHistogram(1, 1024);
+		for (int i = 0; i < 1000; ++i)
+			histogram.add(i);
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1, histogram.getBinWidth(), 0);
+		assertEquals(0, histogram.quantile(0), 1);
+		assertEquals(500, histogram.quantile(0.5), 1);
+		assertEquals(990, histogram.quantile(0.99), 1);
+		assertEquals(1000, histogram.quantile(1), 1);
+	}
+
+	@Test
+	public void testAdaptiveRange() {
+
+		final IntensityHistogram histogram = new IntensityHistogram(1, 10);
+		histogram.add(5);
+		histogram.add(Double.NaN);
+		assertEquals(1, histogram.getCount());
+
+		// values outside move the bins
+		histogram.add(0);
+		histogram.add(9);
+		assertEquals(1, histogram.getBinWidth(), 0);
+		assertEquals(0, histogram.quantile(0), 1e-9);
+
+		// and widen them if they do not fit
+		histogram.add(-100);
+		histogram.add(1000);
+		assertEquals(5, histogram.getCount());
+		assertTrue(histogram.getMin() <= -100);
+		assertTrue(histogram.getMax() > 1000);
+		assertEquals(-100, histogram.quantile(0), histogram.getBinWidth());
+		assertEquals(1000, histogram.quantile(1), histogram.getBinWidth());
+	}
+
+	@Test
+	public void testMerge() {
+
+		final IntensityHistogram coarse = new IntensityHistogram(1, 16);
+		for (int i = 0; i < 10; ++i)
+			coarse.add(i);
+
+		// a view with brighter values than the coarse level
+		final IntensityHistogram view = coarse.emptyCopy();
+		for (int i = 0; i < 10; ++i)
+			view.add(10000 + i);
+
+		final IntensityHistogram merged = coarse.copy();
+		merged.add(view);
+		assertEquals(20, merged.getCount());
+		assertEquals(0, merged.quantile(0), merged.getBinWidth());
+		assertEquals(10009, merged.quantile(1), merged.getBinWidth());
+		assertEquals(5, merged.quantile(0.25), merged.getBinWidth());
+
+		// merging into a histogram with narrower bins is lossless
+		final IntensityHistogram narrow = new IntensityHistogram(1, 16);
+		narrow.add(view);
+		narrow.add(coarse);
+		assertEquals(merged.quantile(0.75), narrow.quantile(0.75), 0);
+
+		assertTrue(Double.isNaN(merged.emptyCopy().quantile(0.5)));
+	}
+}
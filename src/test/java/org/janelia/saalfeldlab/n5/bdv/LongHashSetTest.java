@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.janelia.saalfeldlab.n5.bdv.labels.LabelARGBConverter;
+import org.janelia.saalfeldlab.n5.bdv.labels.LabelHighlighter;
+import org.janelia.saalfeldlab.n5.bdv.labels.LabelMode;
+import org.janelia.saalfeldlab.n5.bdv.labels.LabelModeConverter;
+import org.janelia.saalfeldlab.n5.bdv.labels.LongHashSet;
+import org.junit.Test;
+
+import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedLongType;
+
+public class LongHashSetTest {
+
+	@Test
+	public void testSameAsHashSet() {
+
+		final Random random = new Random(1);
+		final LongHashSet set = new LongHashSet();
+		final Set<Long> expected = new HashSet<>();
+		for (int i = 0; i < 100000; ++i) {
+			// few distinct values so that removes hit
+			final long value = random.nextInt(2000) - 10;
+			if (random.nextBoolean())
+				assertEquals(expected.add(value), set.add(value));
+			else
+				assertEquals(expected.remove(value), set.remove(value));
+		}
+
+		assertEquals(expected.size(), set.size());
+		for (long value = -10; value < 1990; ++value)
+			assertEquals(expected.contains(value), set.contains(value));
+
+		final long[] values = set.toArray();
+		Arrays.sort(values);
+		assertArrayEquals(expected.stream().mapToLong(Long::longValue).sorted().toArray(), values);
+	}
+
+	@Test
+	public void testParseLabels() {
+
+		final LongHashSet set = LabelHighlighter.parseLabels("1, 2 18446744073709551615,,0");
+		assertEquals(4, set.size());
+		assertTrue(set.contains(0));
+		assertTrue(set.contains(-1));
+		assertFalse(set.contains(3));
+	}
+
+	@Test
+	public void testHighlight() {
+
+		final LabelARGBConverter<UnsignedLongType> converter = LabelARGBConverter.create(new UnsignedLongType());
+		final ARGBType argb = new ARGBType();
+
+		converter.convert(new UnsignedLongType(0), argb);
+		assertEquals(0, argb.get());
+
+		converter.convert(new UnsignedLongType(42), argb);
+		final int color = argb.get();
+		assertEquals(LabelARGBConverter.color(42, converter.getSeed()), color);
+
+		converter.setHighlighted(LongHashSet.of(7));
+		converter.convert(new UnsignedLongType(7), argb);
+		assertEquals(LabelARGBConverter.color(7, converter.getSeed()), argb.get());
+		converter.convert(new UnsignedLongType(42), argb);
+		assertTrue(ARGBType.red(argb.get()) <= ARGBType.red(color) / 2);
+
+		converter.setHideOthers(true);
+		converter.convert(new UnsignedLongType(42), argb);
+		assertEquals(0, argb.get());
+	}
+
+	@Test
+	public void testLabelMode() {
+
+		assertTrue(LabelMode.supports(new UnsignedIntType()));
+		assertTrue(LabelMode.supports(new VolatileUnsignedLongType()));
+		assertFalse(LabelMode.supports(new UnsignedShortType()));
+
+		final LabelMode labelMode = new LabelMode();
+		final LabelModeConverter<UnsignedIntType> converter = new LabelModeConverter<>(
+				new RealARGBColorConverter.Imp0<>(0, 100),
+				LabelARGBConverter.create(new UnsignedIntType()),
+				labelMode);
+		final ARGBType argb = new ARGBType();
+
+		/* intensities until label mode is switched on */
+		converter.convert(new UnsignedIntType(100), argb);
+		assertEquals(0xffffffff, argb.get());
+
+		labelMode.setEnabled(true);
+		converter.convert(new UnsignedIntType(100), argb);
+		assertEquals(LabelARGBConverter.color(100, converter.getLabelConverter().getSeed()), argb.get());
+		assertEquals(100, converter.getMax(), 0);
+	}
+}
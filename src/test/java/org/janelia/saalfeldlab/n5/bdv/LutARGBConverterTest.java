@@ -0,0 +1,101 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+
+public class LutARGBConverterTest {
+
+	private static void assertSameARGB(final int expected, final int actual) {
+
+		assertEquals(ARGBType.alpha(expected), ARGBType.alpha(actual));
+		assertEquals(ARGBType.red(expected), ARGBType.red(actual));
+		assertEquals(ARGBType.green(expected), ARGBType.green(actual));
+		assertEquals(ARGBType.blue(expected), ARGBType.blue(actual));
+	}
+
+	@Test
+	public void testSameColorsAsRealConverter() {
+
+		final LutARGBConverter<UnsignedShortType> lut = new LutARGBConverter.UnsignedShort(0, 65535);
+		final RealARGBColorConverter<UnsignedShortType> real = RealARGBColorConverter.create(new UnsignedShortType(), 0, 65535);
+		final double[][] ranges = {{0, 65535}, {100, 3000}, {2000, 2001}, {-50, 70000}};
+		final int[] colors = {0xffffffff, 0xff00ff80, 0xff123456};
+
+		final UnsignedShortType value = new UnsignedShortType();
+		final ARGBType expected = new ARGBType();
+		final ARGBType actual = new ARGBType();
+		for (final double[] range : ranges) {
+			for (final int color : colors) {
+				lut.setMin(range[0]);
+				lut.setMax(range[1]);
+				lut.setColor(new ARGBType(color));
+				real.setMin(range[0]);
+				real.setMax(range[1]);
+				real.setColor(new ARGBType(color));
+				for (int i = 0; i < 65536; i += 7) {
+					value.set(i);
+					lut.convert(value, actual);
+					real.convert(value, expected);
+					assertSameARGB(expected.get(), actual.get());
+				}
+			}
+		}
+		// values below the range are opaque black
+		lut.setMin(1000);
+		lut.setColor(new ARGBType(0xff00ff80));
+		value.set(10);
+		lut.convert(value, actual);
+		assertEquals(0xff000000, actual.get());
+
+		lut.setMin(-50);
+		assertEquals(-50, lut.getMin(), 0);
+		assertEquals(70000, lut.getMax(), 0);
+	}
+
+	@Test
+	public void testCreate() {
+
+		assertTrue(LutARGBConverter.create(new UnsignedByteType()) instanceof LutARGBConverter.UnsignedByte);
+		assertTrue(LutARGBConverter.create(new VolatileUnsignedShortType()) instanceof LutARGBConverter.VolatileUnsignedShort);
+		assertNull(LutARGBConverter.create(new FloatType()));
+
+		final LutARGBConverter<VolatileUnsignedShortType> lut = LutARGBConverter.create(new VolatileUnsignedShortType());
+		assertEquals(0, lut.getMin(), 0);
+		assertEquals(65535, lut.getMax(), 0);
+
+		final ARGBType argb = new ARGBType();
+		lut.convert(new VolatileUnsignedShortType(65535), argb);
+		assertSameARGB(0xffffffff, argb.get());
+	}
+}
@@ -48,4 +48,16 @@ public class MultiscaleSortTest {
 		assertArrayEquals("check order", datasets.getPaths(), new String[]{"a", "b", "c", "d"});
 	}
 
+	@Test
+	public void testAnisotropicScaleSorting() {
+
+		final AffineTransform3D a = new AffineTransform3D();
+		a.set(4, 0, 0, 0, 0, 4, 0, 0, 0, 0, 160, 0);
+		final AffineTransform3D b = new AffineTransform3D();
+		b.set(16, 0, 0, 0, 0, 16, 0, 0, 0, 0, 40, 0);
+
+		final MultiscaleDatasets datasets = MultiscaleDatasets.sort(new String[]{"b", "a"}, new AffineTransform3D[]{b, a});
+		assertArrayEquals("fewer voxels are coarser", new String[]{"a", "b"}, datasets.getPaths());
+	}
+
 }
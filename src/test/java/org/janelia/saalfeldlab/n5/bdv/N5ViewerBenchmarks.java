@@ -0,0 +1,272 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.ij.N5Importer;
+import org.janelia.saalfeldlab.n5.ij.N5ScalePyramidExporter;
+import org.janelia.saalfeldlab.n5.ui.DataSelection;
+import org.janelia.saalfeldlab.n5.universe.N5DatasetDiscoverer;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+import org.janelia.saalfeldlab.n5.universe.N5TreeNode;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5DatasetMetadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5Metadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.NgffTests;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import bdv.cache.SharedQueue;
+import bdv.tools.brightness.ConverterSetup;
+import bdv.util.BdvOptions;
+import bdv.viewer.SourceAndConverter;
+import ij.ImagePlus;
+import ij.gui.NewImage;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Benchmarks of opening data: metadata parsing and source building for each
+ * metadata dialect, loading C- and F-order arrays, and sorting scale levels.
+ *
+ * Run with {@code mvn -Pbenchmark test}, results are written to
+ * {@code target/jmh-<version>.json}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class N5ViewerBenchmarks {
+
+	static File tempDirectory(final String prefix) throws IOException {
+
+		final File dir = Files.createTempDirectory(prefix).toFile();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	static void remove(final File container) {
+
+		final N5Writer n5 = new N5Factory().openWriter(container.getAbsolutePath());
+		n5.remove();
+		n5.close();
+	}
+
+	@State(Scope.Benchmark)
+	public static class DialectState {
+
+		@Param({
+				N5Importer.MetadataN5ViewerKey,
+				N5Importer.MetadataN5CosemKey,
+				N5Importer.MetadataOmeZarrKey,
+				N5Importer.MetadataImageJKey})
+		public String dialect;
+
+		File container;
+
+		N5Reader n5;
+
+		N5Metadata metadata;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+
+			final String suffix = N5Importer.MetadataOmeZarrKey.equals(dialect) ? ".zarr" : ".n5";
+			container = new File(tempDirectory("n5-viewer-benchmark-"), "image" + suffix);
+
+			final ImagePlus imp = NewImage.createImage("benchmark", 256, 256, 64, 16, NewImage.FILL_NOISE);
+			imp.getCalibration().pixelWidth = 0.5;
+			imp.getCalibration().pixelHeight = 0.5;
+			imp.getCalibration().pixelDepth = 1.0;
+			imp.getCalibration().setUnit("um");
+
+			final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+			writer.setOptions(imp, container.getAbsolutePath(), "/image", N5ScalePyramidExporter.AUTO_FORMAT, "64", true,
+					N5ScalePyramidExporter.DOWN_SAMPLE, dialect, "raw");
+			writer.setOverwrite(true);
+			writer.run();
+
+			n5 = new N5Factory().openReader(container.getAbsolutePath());
+			metadata = discover(n5).getDescendant("/image").map(N5TreeNode::getMetadata).get();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+
+			n5.close();
+			remove(container);
+		}
+	}
+
+	static N5TreeNode discover(final N5Reader n5) throws IOException {
+
+		final ExecutorService exec = Executors.newSingleThreadExecutor();
+		try {
+			final N5DatasetDiscoverer discoverer = new N5DatasetDiscoverer(
+					n5,
+					exec,
+					x -> true,
+					Arrays.asList(N5ViewerCreator.n5vParsers),
+					Arrays.asList(N5ViewerCreator.n5vGroupParsers));
+			return discoverer.discoverAndParseRecursive("");
+		} finally {
+			exec.shutdown();
+		}
+	}
+
+	@Benchmark
+	public void parseMetadata(final DialectState state, final Blackhole blackhole) throws IOException {
+
+		blackhole.consume(discover(state.n5));
+	}
+
+	@Benchmark
+	public void buildN5Sources(final DialectState state, final Blackhole blackhole) throws IOException {
+
+		final List<ConverterSetup> converterSetups = new ArrayList<>();
+		final List<SourceAndConverter<?>> sources = new ArrayList<>();
+		blackhole.consume(N5Viewer.buildN5Sources(
+				state.n5,
+				new DataSelection(state.n5, Collections.singletonList(state.metadata)),
+				new SharedQueue(1),
+				converterSetups,
+				(List)sources,
+				BdvOptions.options()));
+		blackhole.consume(sources);
+	}
+
+	@State(Scope.Benchmark)
+	public static class ArrayOrderState {
+
+		@Param({"c", "f"})
+		public String order;
+
+		File container;
+
+		N5Writer zarr;
+
+		String dataset;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+
+			container = new File(tempDirectory("n5-viewer-benchmark-"), "order.zarr");
+			zarr = new N5Factory().openWriter(container.getAbsolutePath());
+
+			final String name = "xyz_" + order;
+			NgffTests.writePermutedAxes(zarr, name, NgffTests.isCOrderFromName(name), NgffTests.permutationFromName(name));
+
+			final Optional<N5TreeNode> node = N5TreeNode.flattenN5Tree(discover(zarr))
+					.filter(x -> x.getMetadata() instanceof N5DatasetMetadata && x.getPath().contains(name))
+					.findFirst();
+			dataset = node.get().getPath();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+
+			zarr.remove();
+			zarr.close();
+		}
+	}
+
+	/**
+	 * Open a dataset and read all of it, F-order data is reversed on
+	 * access.
+	 */
+	@Benchmark
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public double loadImage(final ArrayOrderState state) {
+
+		final RandomAccessibleInterval<? extends RealType<?>> img = (RandomAccessibleInterval)N5Viewer.loadImage(state.zarr, state.dataset);
+		double sum = 0;
+		for (final RealType<?> t : Views.flatIterable(img))
+			sum += t.getRealDouble();
+
+		return sum;
+	}
+
+	@State(Scope.Benchmark)
+	public static class ScaleLevelState {
+
+		@Param({"8", "64"})
+		public int numLevels;
+
+		String[] paths;
+
+		AffineTransform3D[] transforms;
+
+		@Setup(Level.Trial)
+		public void setup() {
+
+			final Random random = new Random(0);
+			final List<Integer> order = new ArrayList<>();
+			for (int i = 0; i < numLevels; ++i)
+				order.add(i);
+
+			Collections.shuffle(order, random);
+
+			paths = new String[numLevels];
+			transforms = new AffineTransform3D[numLevels];
+			for (int i = 0; i < numLevels; ++i) {
+				final int s = order.get(i);
+				paths[i] = "s" + s;
+				transforms[i] = new AffineTransform3D();
+				transforms[i].scale(1 << Math.min(s, 20));
+			}
+		}
+	}
+
+	@Benchmark
+	public MultiscaleDatasets sortScaleLevels(final ScaleLevelState state) {
+
+		return MultiscaleDatasets.sort(state.paths.clone(), state.transforms.clone());
+	}
+}
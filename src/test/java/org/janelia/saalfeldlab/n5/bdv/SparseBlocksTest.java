@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.bdv.statistics.BlockLoadStatistics;
+import org.janelia.saalfeldlab.n5.bdv.statistics.MissingBlocks;
+import org.janelia.saalfeldlab.n5.bdv.statistics.ViewerStatistics;
+import org.janelia.saalfeldlab.n5.bdv.tools.benchmark.CountingN5Reader;
+import org.janelia.saalfeldlab.n5.bdv.tools.benchmark.SyntheticN5Reader;
+import org.junit.Test;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+public class SparseBlocksTest {
+
+	private static final int NUM_BLOCKS = 4 * 4 * 4;
+
+	private static CountingN5Reader sparse() {
+
+		return new CountingN5Reader(new SyntheticN5Reader(
+				new long[]{128, 128, 128},
+				new int[]{32, 32, 32},
+				DataType.UINT16,
+				new RawCompression(),
+				1,
+				0.9,
+				3));
+	}
+
+	private static int readAll(final N5Reader n5) {
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes("s0");
+		int numMissing = 0;
+		for (int z = 0; z < 4; ++z)
+			for (int y = 0; y < 4; ++y)
+				for (int x = 0; x < 4; ++x)
+					if (n5.readBlock("s0", attributes, x, y, z) == null)
+						++numMissing;
+		return numMissing;
+	}
+
+	@Test
+	public void testMissingBlocksAreNotRequestedAgain() {
+
+		final CountingN5Reader counting = sparse();
+		final ViewerStatistics statistics = new ViewerStatistics(1);
+		final N5Reader n5 = statistics.limitConcurrency(counting);
+
+		final int numMissing = readAll(n5);
+		assertTrue(numMissing > NUM_BLOCKS / 2);
+		assertEquals(NUM_BLOCKS, counting.getRequests());
+		assertEquals(numMissing, statistics.getMissingBlocks().getNumMissing());
+
+		// only existing blocks are requested again
+		assertEquals(numMissing, readAll(n5));
+		assertEquals(2 * NUM_BLOCKS - numMissing, counting.getRequests());
+		assertEquals(numMissing, statistics.getMissingBlocks().getHits());
+	}
+
+	@Test
+	public void testMissingBlocksExpire() throws InterruptedException {
+
+		final MissingBlocks missingBlocks = new MissingBlocks();
+		missingBlocks.setMissing("a", "s0", 1);
+		missingBlocks.setMissing("b", "s0", 1);
+		missingBlocks.clear("a");
+		assertFalse(missingBlocks.isMissing("a", "s0", 1));
+		assertTrue(missingBlocks.isMissing("b", "s0", 1));
+
+		missingBlocks.setMaxAgeMillis(1);
+		Thread.sleep(10);
+		assertFalse(missingBlocks.isMissing("b", "s0", 1));
+		assertEquals(0, missingBlocks.getNumDatasets());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testMissingCellsShareData() {
+
+		final ViewerStatistics statistics = new ViewerStatistics(1);
+		final N5Reader n5 = statistics.limitConcurrency(sparse());
+		final BlockLoadStatistics blockLoads = statistics.addBlockLoadStatistics("sparse", 0, "s0");
+		final RandomAccessibleInterval<? extends RealType<?>> img =
+				(RandomAccessibleInterval<? extends RealType<?>>)N5Viewer.loadImage(n5, "s0", blockLoads);
+
+		double sum = 0;
+		for (final RealType<?> t : Views.flatIterable(img))
+			sum += t.getRealDouble();
+
+		final long numMissing = statistics.getMissingBlocks().getNumMissing();
+		assertTrue(sum > 0);
+		assertEquals(NUM_BLOCKS, blockLoads.getCacheMisses());
+		assertEquals(numMissing, blockLoads.getEmptyCells());
+		assertEquals((NUM_BLOCKS - numMissing) * 32 * 32 * 32 * 2, blockLoads.getBytesLoaded());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testEmptyCellsAreLoadedAgainAfterClear() {
+
+		final CountingN5Reader counting = sparse();
+		final ViewerStatistics statistics = new ViewerStatistics(1);
+		final N5Reader n5 = statistics.limitConcurrency(counting);
+		final BlockLoadStatistics blockLoads = statistics.addBlockLoadStatistics("sparse", 0, "s0");
+		final RandomAccessibleInterval<? extends RealType<?>> img =
+				(RandomAccessibleInterval<? extends RealType<?>>)N5Viewer.loadImage(n5, "s0", blockLoads);
+
+		for (final RealType<?> t : Views.flatIterable(img))
+			t.getRealDouble();
+
+		final long numMissing = statistics.getMissingBlocks().getNumMissing();
+		assertEquals(NUM_BLOCKS, counting.getRequests());
+
+		// only the cells that were served empty are requested again
+		statistics.getMissingBlocks().clear();
+		for (final RealType<?> t : Views.flatIterable(img))
+			t.getRealDouble();
+
+		assertEquals(NUM_BLOCKS + numMissing, counting.getRequests());
+		assertEquals(numMissing, statistics.getMissingBlocks().getNumMissing());
+	}
+}
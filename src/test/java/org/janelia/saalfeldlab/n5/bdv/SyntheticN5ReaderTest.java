@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * N5 Viewer
+ * %%
+ * Copyright (C) 2017 - 2022 Igor Pisarev, Stephan Saalfeld
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package org.janelia.saalfeldlab.n5.bdv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.bdv.tools.benchmark.SyntheticN5Reader;
+import org.junit.Test;
+
+import bdv.cache.SharedQueue;
+import bdv.tools.brightness.ConverterSetup;
+import bdv.util.BdvOptions;
+import bdv.viewer.SourceAndConverter;
+
+public class SyntheticN5ReaderTest {
+
+	private static SyntheticN5Reader synthetic(final double sparsity) {
+
+		return synthetic(DataType.UINT16, sparsity);
+	}
+
+	private static SyntheticN5Reader synthetic(final DataType dataType, final double sparsity) {
+
+		return new SyntheticN5Reader(
+				new long[]{100, 80, 40},
+				new int[]{32, 32, 32},
+				dataType,
+				new RawCompression(),
+				5,
+				sparsity,
+				7);
+	}
+
+	@Test
+	public void testScaleLevels() {
+
+		final SyntheticN5Reader n5 = synthetic(0);
+		assertEquals(5, n5.getNumScales());
+		assertArrayEquals(new String[]{"s0", "s1", "s2", "s3", "s4"}, n5.list("/"));
+		assertTrue(n5.datasetExists("s4"));
+		assertFalse(n5.datasetExists("s5"));
+		assertArrayEquals(new long[]{7, 5, 3}, n5.getDatasetAttributes("/s4").getDimensions());
+		assertArrayEquals(new long[]{16, 16, 16}, n5.getAttribute("s4", "downsamplingFactors", long[].class));
+	}
+
+	@Test
+	public void testBlocks() {
+
+		final SyntheticN5Reader n5 = synthetic(0);
+		final DatasetAttributes attributes = n5.getDatasetAttributes("s0");
+
+		// border blocks are truncated
+		final DataBlock<?> block = n5.readBlock("s0", attributes, 3, 2, 1);
+		assertArrayEquals(new int[]{4, 16, 8}, block.getSize());
+
+		// the same parameters generate the same data
+		final DataBlock<?> again = synthetic(0).readBlock("s0", attributes, 3, 2, 1);
+		assertArrayEquals((short[])block.getData(), (short[])again.getData());
+	}
+
+	@Test
+	public void testUint32() {
+
+		final SyntheticN5Reader n5 = synthetic(DataType.UINT32, 0);
+		final SyntheticN5Reader reference = synthetic(0);
+
+		// a block in the bright squares of the checkerboard
+		final int[] uint32 = (int[])n5.readBlock("s0", n5.getDatasetAttributes("s0"), 1, 0, 0).getData();
+		final short[] uint16 = (short[])reference.readBlock("s0", reference.getDatasetAttributes("s0"), 1, 0, 0).getData();
+
+		// the same values in the upper bits, values of 2^31 and above do not saturate
+		boolean large = false;
+		for (int i = 0; i < uint32.length; ++i) {
+			assertEquals((uint16[i] & 0xffffL) << 16, uint32[i] & 0xffffffffL);
+			large |= (uint32[i] & 0xffffffffL) > Integer.MAX_VALUE;
+		}
+		assertTrue(large);
+	}
+
+	@Test
+	public void testSparsity() {
+
+		final SyntheticN5Reader n5 = synthetic(0.5);
+		final DatasetAttributes attributes = n5.getDatasetAttributes("s0");
+		int numMissing = 0;
+		for (int z = 0; z < 2; ++z)
+			for (int y = 0; y < 3; ++y)
+				for (int x = 0; x < 4; ++x)
+					if (n5.readBlock("s0", attributes, x, y, z) == null)
+						++numMissing;
+
+		assertTrue(numMissing > 0);
+		assertTrue(numMissing < 24);
+	}
+
+	@Test
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public void testBuildSources() {
+
+		final List<ConverterSetup> converterSetups = new ArrayList<>();
+		final List<SourceAndConverter> sources = new ArrayList<>();
+		N5Viewer.buildN5Sources(
+				new String[]{"synthetic:dimensions=100,80,40&blockSize=32&dataType=uint8&scales=3"},
+				new SharedQueue(1),
+				converterSetups,
+				(List)sources,
+				BdvOptions.options());
+
+		assertEquals(1, sources.size());
+		assertEquals(3, sources.get(0).getSpimSource().getNumMipmapLevels());
+		assertNotNull(sources.get(0).getSpimSource().getSource(0, 2));
+	}
+}